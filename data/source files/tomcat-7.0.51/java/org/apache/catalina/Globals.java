@@ -256,6 +256,19 @@ public final class Globals {
             org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR;
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass to the
+     * connector a read-only copy of the content of the file that is to be
+     * served by sendfile, typically a memory mapped buffer. The value should be
+     * a {@code java.nio.ByteBuffer} with position zero that contains the whole
+     * file.
+     *
+     * Duplicated here for neater code in the catalina packages.
+     */
+    public static final String SENDFILE_FILE_BUFFER_ATTR =
+            org.apache.coyote.Constants.SENDFILE_FILE_BUFFER_ATTR;
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
@@ -173,6 +173,12 @@ public class Connector extends LifecycleMBeanBase  {
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Should request parameters be indexed when they are parsed and only
+     * decoded when they are requested? <code>false</code> by default.
+     */
+    protected boolean lazyParameterParsing = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -448,6 +454,27 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * Return <code>true</code> if request parameters are only decoded when
+     * they are requested.
+     */
+    public boolean getLazyParameterParsing() {
+        return lazyParameterParsing;
+    }
+
+
+    /**
+     * Set if request parameters are only decoded when they are requested.
+     * Form bodies that do not fit in the cached POST buffer are then parsed
+     * as they are read instead of being buffered whole.
+     *
+     * @param lazyParameterParsing The new setting
+     */
+    public void setLazyParameterParsing(boolean lazyParameterParsing) {
+        this.lazyParameterParsing = lazyParameterParsing;
+    }
+
+
     /**
      * Return the maximum size of a POST which will be automatically
      * parsed by the container.
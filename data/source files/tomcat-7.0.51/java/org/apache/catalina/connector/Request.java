@@ -21,6 +21,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
@@ -85,6 +86,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.Cookies;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MultipartParser;
 import org.apache.tomcat.util.http.Parameters;
 import org.apache.tomcat.util.http.ServerCookie;
 import org.apache.tomcat.util.http.fileupload.FileItem;
@@ -95,6 +97,8 @@ import org.apache.tomcat.util.http.fileupload.disk.DiskFileItemFactory;
 import org.apache.tomcat.util.http.fileupload.servlet.ServletFileUpload;
 import org.apache.tomcat.util.http.fileupload.servlet.ServletRequestContext;
 import org.apache.tomcat.util.http.mapper.MappingData;
+import org.apache.tomcat.util.http.parser.HttpParser;
+import org.apache.tomcat.util.http.parser.MediaType;
 import org.apache.tomcat.util.res.StringManager;
 import org.ietf.jgss.GSSCredential;
 import org.ietf.jgss.GSSException;
@@ -2824,6 +2828,83 @@ public class Request
     }
 
 
+    // ------------------------------ Tomcat proprietary multipart read methods
+
+    /**
+     * Reads the parts of a <code>multipart/form-data</code> request while the
+     * body is received and passes them to the given handler, rather than
+     * storing all of them before {@link #getParts()} returns. The size limits
+     * of the multipart configuration of the servlet apply. Since the body can
+     * only be read once, {@link #getParts()} and the parameters from the parts
+     * are not available afterwards.
+     *
+     * @param handler Receives the parts
+     * @throws IOException If the body is not a valid multipart body, if it
+     *         can not be read or if the handler fails
+     * @throws IllegalStateException If the body has already been read, if the
+     *         request is not a multipart request or if a size limit is
+     *         exceeded
+     */
+    public void readParts(MultipartParser.Handler handler) throws IOException {
+
+        if (usingInputStream || usingReader || parts != null ||
+                partsParseException != null) {
+            throw new IllegalStateException(
+                    sm.getString("coyoteRequest.readParts.ise"));
+        }
+
+        String boundary = null;
+        String contentType = getContentType();
+        if (contentType != null) {
+            MediaType mediaType =
+                HttpParser.parseMediaType(new StringReader(contentType));
+            if (mediaType != null &&
+                    "multipart".equalsIgnoreCase(mediaType.getType()) &&
+                    "form-data".equalsIgnoreCase(mediaType.getSubtype())) {
+                boundary = mediaType.getParameterValue("boundary");
+            }
+        }
+        if (boundary != null && boundary.length() > 1 &&
+                boundary.charAt(0) == '"' &&
+                boundary.charAt(boundary.length() - 1) == '"') {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        if (boundary == null || boundary.length() == 0) {
+            throw new IllegalStateException(
+                    sm.getString("coyoteRequest.readParts.notMultipart"));
+        }
+
+        long maxPartSize = -1;
+        long maxSize = -1;
+        MultipartConfigElement mce = getWrapper().getMultipartConfigElement();
+        if (mce != null) {
+            maxPartSize = mce.getMaxFileSize();
+            maxSize = mce.getMaxRequestSize();
+        } else if (connector.getMaxPostSize() > 0) {
+            maxSize = connector.getMaxPostSize();
+        }
+
+        MultipartParser parser =
+            new MultipartParser(boundary, handler, maxPartSize, maxSize);
+        partsParseException = new IllegalStateException(
+                sm.getString("coyoteRequest.readParts.partsRead"));
+        coyoteRequest.getParameters().setParseFailed(true);
+
+        InputStream is = getInputStream();
+        byte[] buf = new byte[CACHED_POST_LEN];
+        try {
+            int n;
+            while (!parser.isComplete() && (n = is.read(buf)) >= 0) {
+                parser.parse(buf, 0, n);
+            }
+            parser.finish();
+        } catch (IllegalStateException e) {
+            checkSwallowInput();
+            throw e;
+        }
+    }
+
+
     // --------------------------------- Tomcat proprietary HTTP upgrade methods
 
     /**
@@ -3039,6 +3120,7 @@ public class Request
         try {
             // Set this every time in case limit has been changed via JMX
             parameters.setLimit(getConnector().getMaxParameterCount());
+            parameters.setLazy(getConnector().getLazyParameterParsing());
 
             // getCharacterEncoding() may have been overridden to search for
             // hidden form field containing request encoding
@@ -3111,10 +3193,17 @@ public class Request
                         postData = new byte[CACHED_POST_LEN];
                     }
                     formData = postData;
-                } else {
+                } else if (!parameters.isLazy()) {
                     formData = new byte[len];
                 }
                 try {
+                    if (formData == null) {
+                        if (!parsePostBody(parameters, len)) {
+                            return;
+                        }
+                        success = true;
+                        return;
+                    }
                     if (readPostBody(formData, len) != len) {
                         return;
                     }
@@ -3173,6 +3262,68 @@ public class Request
     }
 
 
+    /**
+     * Parse a post body of the given length as it is read, only buffering
+     * the parameters that have not been completely read yet.
+     *
+     * @return <code>false</code> if the body ended before the given length
+     */
+    protected boolean parsePostBody(Parameters parameters, int len)
+        throws IOException {
+
+        // The buffer is reused as the body is read, so decode the parameters
+        // straight away
+        parameters.setLazy(false);
+
+        if (postData == null) {
+            postData = new byte[CACHED_POST_LEN];
+        }
+        byte[] buffer = postData;
+        int pending = 0;
+        int remaining = len;
+        while (remaining > 0) {
+            if (pending == buffer.length) {
+                // A single parameter that does not fit in the buffer
+                byte[] tmp = new byte[Math.min(buffer.length * 2,
+                        pending + remaining)];
+                System.arraycopy(buffer, 0, tmp, 0, pending);
+                buffer = tmp;
+            }
+            int inputLen = getStream().read(buffer, pending,
+                    Math.min(buffer.length - pending, remaining));
+            if (inputLen <= 0) {
+                return false;
+            }
+            remaining -= inputLen;
+            int end = pending + inputLen;
+            int boundary = end;
+            if (remaining > 0) {
+                // Only parse up to the last complete parameter
+                boundary = -1;
+                for (int i = end - 1; i >= pending; i--) {
+                    if (buffer[i] == '&') {
+                        boundary = i;
+                        break;
+                    }
+                }
+                if (boundary < 0) {
+                    pending = end;
+                    continue;
+                }
+            }
+            parameters.processParameters(buffer, 0, boundary);
+            if (boundary < end) {
+                pending = end - boundary - 1;
+                System.arraycopy(buffer, boundary + 1, buffer, 0, pending);
+            } else {
+                pending = 0;
+            }
+        }
+        return true;
+
+    }
+
+
     /**
      * Read chunked post body.
      */
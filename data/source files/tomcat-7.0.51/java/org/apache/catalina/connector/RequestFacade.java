@@ -43,6 +43,7 @@ import org.apache.catalina.Globals;
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.coyote.http11.upgrade.UpgradeInbound;
 import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.tomcat.util.http.MultipartParser;
 import org.apache.tomcat.util.res.StringManager;
 
 /**
@@ -1085,6 +1086,15 @@ public class RequestFacade implements HttpServletRequest {
         return request.getConnector().getAllowTrace();
     }
 
+    /**
+     * Reads the parts of a multipart request as the body is received.
+     *
+     * @see Request#readParts(MultipartParser.Handler)
+     */
+    public void readParts(MultipartParser.Handler handler) throws IOException {
+        request.readParts(handler);
+    }
+
     /**
      * Sets the response status to {@link
      * HttpServletResponse#SC_SWITCHING_PROTOCOLS} and flushes the response.
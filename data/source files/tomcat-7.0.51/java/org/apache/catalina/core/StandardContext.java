@@ -709,6 +709,12 @@ public class StandardContext extends ContainerBase
     protected int cacheObjectMaxSize = 512; // 512K
 
 
+    /**
+     * Class name of the static resource cache implementation.
+     */
+    private String cacheClassName = null;
+
+
     /**
      * Cache TTL in ms.
      */
@@ -859,6 +865,17 @@ public class StandardContext extends ContainerBase
      */
     private boolean logEffectiveWebXml = false;
 
+    /**
+     * The number of threads used to scan the JARs of the web application for
+     * annotations.
+     */
+    private int annotationScanThreads = 1;
+
+    /**
+     * The directory holding the cached results of JAR scans, if any.
+     */
+    private String scanCacheDirectory = null;
+
     private int effectiveMajorVersion = 3;
     
     private int effectiveMinorVersion = 0;
@@ -1042,6 +1059,32 @@ public class StandardContext extends ContainerBase
         return logEffectiveWebXml;
     }
 
+    public int getAnnotationScanThreads() {
+        return annotationScanThreads;
+    }
+
+    /**
+     * Set the number of threads used to scan the JARs of the web application
+     * for annotations. The special value of 0 means
+     * <code>Runtime.getRuntime().availableProcessors()</code> and negative
+     * values are added to it.
+     */
+    public void setAnnotationScanThreads(int annotationScanThreads) {
+        this.annotationScanThreads = annotationScanThreads;
+    }
+
+    public String getScanCacheDirectory() {
+        return scanCacheDirectory;
+    }
+
+    /**
+     * Set the directory holding the cached results of JAR scans. Relative
+     * paths are resolved against <code>catalina.base</code>.
+     */
+    public void setScanCacheDirectory(String scanCacheDirectory) {
+        this.scanCacheDirectory = scanCacheDirectory;
+    }
+
     @Override
     public Authenticator getAuthenticator() {
         if (this instanceof Authenticator)
@@ -1225,6 +1268,22 @@ public class StandardContext extends ContainerBase
     }
 
 
+    /**
+     * Return the class name of the static resource cache implementation.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the static resource cache implementation.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     /**
      * Return the list of resource aliases. 
      */
@@ -2561,6 +2620,8 @@ public class StandardContext extends ContainerBase
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
             ((BaseDirContext) resources).setCacheObjectMaxSize(
                     getCacheObjectMaxSize());
+            ((BaseDirContext) resources).setCacheClassName(
+                    getCacheClassName());
             // Alias support
             ((BaseDirContext) resources).setAliases(getAliases());
         }
@@ -5092,6 +5153,8 @@ public class StandardContext extends ContainerBase
                 ((BaseDirContext) webappResources).setCacheTTL(getCacheTTL());
                 ((BaseDirContext) webappResources).setCacheMaxSize
                     (getCacheMaxSize());
+                ((BaseDirContext) webappResources).setCacheClassName
+                    (getCacheClassName());
                 ((BaseDirContext) webappResources).allocate();
                 // Alias support
                 ((BaseDirContext) webappResources).setAliases(getAliases());
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Executor that runs each task in a new virtual thread. Virtual threads are
+ * only available on recent JVMs, so they are created through reflection and
+ * the executor fails to start on a JVM that does not support them.
+ * <p>
+ * There is no pool: the <code>maxThreads</code>, <code>minSpareThreads</code>,
+ * <code>maxIdleTime</code>, <code>maxQueueSize</code>, <code>daemon</code> and
+ * <code>threadPriority</code> attributes are ignored. The statistics have the
+ * same names as those of the {@link StandardThreadExecutor}, the pool size
+ * being the number of running threads.
+ */
+public class VirtualThreadExecutor extends StandardThreadExecutor {
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private volatile ThreadFactory threadFactory = null;
+
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicInteger largestPoolSize = new AtomicInteger(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+
+
+    public VirtualThreadExecutor() {
+        namePrefix = "tomcat-virt-";
+    }
+
+
+    /**
+     * @return <code>true</code> if the JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+
+    // ---------------------------------------------- Public Methods
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class,
+                    long.class);
+            builder = name.invoke(builder, namePrefix, Long.valueOf(1));
+            threadFactory = (ThreadFactory)
+                    builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            throw new LifecycleException(sm.getString(
+                    "virtualThreadExecutor.notSupported", getName()), e);
+        }
+
+        setState(LifecycleState.STARTING);
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+
+        setState(LifecycleState.STOPPING);
+        // Running threads complete their task
+        threadFactory = null;
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        execute(command);
+    }
+
+
+    @Override
+    public void execute(final Runnable command) {
+        ThreadFactory factory = threadFactory;
+        if (factory == null) {
+            throw new IllegalStateException(
+                    "VirtualThreadExecutor not started.");
+        }
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        factory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                int active = activeCount.incrementAndGet();
+                int largest;
+                while ((largest = largestPoolSize.get()) < active &&
+                        !largestPoolSize.compareAndSet(largest, active)) {
+                    // NOOP
+                }
+                try {
+                    command.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                    completedTaskCount.incrementAndGet();
+                }
+            }
+        }).start();
+    }
+
+
+    @Override
+    public void contextStopping() {
+        // NOOP: threads are never reused
+    }
+
+
+    // Statistics
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return 0;
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        return largestPoolSize.get();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return activeCount.get();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (threadFactory != null) ? 0 : -1;
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        return false;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+import org.apache.tomcat.util.threads.WorkStealingExecutor;
+
+/**
+ * Executor backed by a {@link WorkStealingExecutor}: the tasks submitted by
+ * each poller of a connector go to a queue of their own and idle threads
+ * steal from the other queues, instead of all the pollers and threads sharing
+ * a single blocking queue. It has the same attributes as the
+ * {@link StandardThreadExecutor}.
+ */
+public class WorkStealingThreadExecutor extends StandardThreadExecutor {
+
+    // ---------------------------------------------- Properties
+
+    /**
+     * The number of task queues, the number of available processors if zero
+     */
+    protected int queueCount = 0;
+
+    /**
+     * The executor we use for this component
+     */
+    protected WorkStealingExecutor workStealingExecutor = null;
+
+
+    // ---------------------------------------------- Public Methods
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+
+        TaskThreadFactory tf = new TaskThreadFactory(namePrefix, daemon,
+                getThreadPriority());
+        workStealingExecutor = new WorkStealingExecutor(getMinSpareThreads(),
+                getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,
+                queueCount, maxQueueSize, tf);
+        workStealingExecutor.setThreadRenewalDelay(threadRenewalDelay);
+        if (prestartminSpareThreads) {
+            workStealingExecutor.prestartAllCoreThreads();
+        }
+
+        setState(LifecycleState.STARTING);
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+
+        setState(LifecycleState.STOPPING);
+        if (workStealingExecutor != null) {
+            workStealingExecutor.shutdownNow();
+        }
+        workStealingExecutor = null;
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        if (workStealingExecutor != null) {
+            workStealingExecutor.execute(command, timeout, unit);
+        } else {
+            throw new IllegalStateException(
+                    "WorkStealingThreadExecutor not started.");
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (workStealingExecutor != null) {
+            workStealingExecutor.execute(command);
+        } else {
+            throw new IllegalStateException(
+                    "WorkStealingThreadExecutor not started.");
+        }
+    }
+
+
+    @Override
+    public void contextStopping() {
+        if (workStealingExecutor != null) {
+            workStealingExecutor.contextStopping();
+        }
+    }
+
+
+    public int getQueueCount() {
+        return queueCount;
+    }
+
+
+    public void setQueueCount(int queueCount) {
+        this.queueCount = queueCount;
+    }
+
+
+    @Override
+    public void setMaxIdleTime(int maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        if (workStealingExecutor != null) {
+            workStealingExecutor.setKeepAliveTime(maxIdleTime,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    @Override
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        if (workStealingExecutor != null) {
+            workStealingExecutor.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+
+    @Override
+    public void setMinSpareThreads(int minSpareThreads) {
+        this.minSpareThreads = minSpareThreads;
+        if (workStealingExecutor != null) {
+            workStealingExecutor.setCorePoolSize(minSpareThreads);
+        }
+    }
+
+
+    @Override
+    public void setThreadRenewalDelay(long threadRenewalDelay) {
+        this.threadRenewalDelay = threadRenewalDelay;
+        if (workStealingExecutor != null) {
+            workStealingExecutor.setThreadRenewalDelay(threadRenewalDelay);
+        }
+    }
+
+
+    // Statistics from the thread pool
+    @Override
+    public int getActiveCount() {
+        return (workStealingExecutor != null) ?
+                workStealingExecutor.getActiveCount() : 0;
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return (workStealingExecutor != null) ?
+                workStealingExecutor.getCompletedTaskCount() : 0;
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return (workStealingExecutor != null) ?
+                workStealingExecutor.getCorePoolSize() : 0;
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        return (workStealingExecutor != null) ?
+                workStealingExecutor.getLargestPoolSize() : 0;
+    }
+
+    @Override
+    public int getPoolSize() {
+        return (workStealingExecutor != null) ?
+                workStealingExecutor.getPoolSize() : 0;
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (workStealingExecutor != null) ?
+                workStealingExecutor.getQueueSize() : -1;
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (workStealingExecutor == null)
+            return false;
+
+        workStealingExecutor.setCorePoolSize(corePoolSize);
+        workStealingExecutor.setMaximumPoolSize(maximumPoolSize);
+        return true;
+    }
+}
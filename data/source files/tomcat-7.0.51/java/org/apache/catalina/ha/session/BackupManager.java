@@ -18,6 +18,7 @@ package org.apache.catalina.ha.session;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.catalina.Cluster;
@@ -29,7 +30,9 @@ import org.apache.catalina.ha.CatalinaCluster;
 import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapOwner;
+import org.apache.catalina.tribes.tipis.ConsistentHashRing;
 import org.apache.catalina.tribes.tipis.LazyReplicatedMap;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -78,6 +81,18 @@ public class BackupManager extends ClusterManagerBase
      */
     private boolean terminateOnStartFailure = false;
 
+    /**
+     * The number of points of each member on the ring used to pick the
+     * backup node of the sessions.
+     */
+    private int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+
+    /**
+     * The maximum number of sessions moved to a new backup node per
+     * heartbeat once a member has joined.
+     */
+    private int rebalanceRate = LazyReplicatedMap.DEFAULT_REBALANCE_RATE;
+
     /**
      * Constructor, just calls super()
      *
@@ -185,6 +200,8 @@ public class BackupManager extends ClusterManagerBase
                                                           getClassLoaders(),
                                                           terminateOnStartFailure);
             map.setChannelSendOptions(mapSendOptions);
+            map.setVirtualNodes(virtualNodes);
+            map.setRebalanceRate(rebalanceRate);
             this.sessions = map;
         }  catch ( Exception x ) {
             log.error(sm.getString("backupManager.startUnable", getName()),x);
@@ -261,6 +278,61 @@ public class BackupManager extends ClusterManagerBase
         return terminateOnStartFailure;
     }
 
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public int getRebalanceRate() {
+        return rebalanceRate;
+    }
+
+    public void setRebalanceRate(int rebalanceRate) {
+        this.rebalanceRate = rebalanceRate;
+        if (sessions instanceof LazyReplicatedMap) {
+            ((LazyReplicatedMap)sessions).setRebalanceRate(rebalanceRate);
+        }
+    }
+
+    /**
+     * @return the number of sessions moved to a new backup node since the
+     *         manager has started
+     */
+    public long getRebalancedSessions() {
+        if (sessions instanceof LazyReplicatedMap) {
+            return ((LazyReplicatedMap)sessions).getRebalancedEntries();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of primary and backup sessions of each member, as
+     *         known by this node
+     */
+    public String[] getMapOwnership() {
+        if (!(sessions instanceof LazyReplicatedMap)) {
+            return new String[0];
+        }
+        LazyReplicatedMap map = (LazyReplicatedMap)sessions;
+        Map<Member,Integer> primary = map.getPrimaryCounts();
+        Map<Member,Integer> backup = map.getBackupCounts();
+        Set<Member> members = new HashSet<Member>(primary.keySet());
+        members.addAll(backup.keySet());
+        String[] result = new String[members.size()];
+        int i = 0;
+        for (Member member : members) {
+            Integer p = primary.get(member);
+            Integer b = backup.get(member);
+            result[i++] = sm.getString("backupManager.ownership", member.getName(),
+                    p == null ? Integer.valueOf(0) : p,
+                    b == null ? Integer.valueOf(0) : b);
+        }
+        return result;
+    }
+
     @Override
     public String[] getInvalidatedSessions() {
         return new String[0];
@@ -274,6 +346,8 @@ public class BackupManager extends ClusterManagerBase
         result.mapSendOptions = mapSendOptions;
         result.rpcTimeout = rpcTimeout;
         result.terminateOnStartFailure = terminateOnStartFailure;
+        result.virtualNodes = virtualNodes;
+        result.rebalanceRate = rebalanceRate;
         return result;
     }
 
@@ -18,13 +18,27 @@
 package org.apache.catalina.ha.session;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.catalina.Cluster;
 import org.apache.catalina.Container;
@@ -43,6 +57,7 @@ import org.apache.catalina.ha.tcp.ReplicationValve;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.io.ReplicationStream;
+import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -109,6 +124,87 @@ public class DeltaManager extends ClusterManagerBase{
     private boolean receiverQueue = false ;
     private boolean stateTimestampDrop = true ;
     private long stateTransferCreateSendTime; 
+
+    /**
+     * Time in ms the deltas of a session are held back so that the deltas of
+     * the following requests are merged into them and so that the deltas of
+     * several sessions are sent in one message. 0 sends the delta of each
+     * request at the end of the request.
+     */
+    private int deltaBatchWindow = 0;
+
+    /**
+     * Maximum number of session deltas sent in one message. Reaching it
+     * sends the pending deltas before the end of the batch window.
+     */
+    private int deltaBatchSize = 100;
+
+    /**
+     * Minimum size in bytes of the deltas of a message before they are
+     * compressed, -1 to never compress.
+     */
+    private int deltaCompressionThreshold = -1;
+
+    /**
+     * The sessions with a delta held back, by session id.
+     */
+    private final Map<String,DeltaSession> pendingDeltas =
+        new LinkedHashMap<String,DeltaSession>();
+    private final Object deltaBatchLock = new Object();
+    private volatile Thread deltaBatchThread = null;
+    private volatile boolean deltaBatchRunning = false;
+
+    /**
+     * Number of members asked in parallel for a slice of the sessions when
+     * the manager starts.
+     */
+    private int stateTransferPeers = 1;
+
+    /**
+     * Complete the session state transfer in the background instead of
+     * delaying the start of the manager. A session requested before it has
+     * been received is fetched from the member serving its slice.
+     */
+    private boolean stateTransferAsync = false;
+
+    /**
+     * Time in ms a request waits for a session fetched during an asynchronous
+     * state transfer.
+     */
+    private int stateTransferFetchTimeout = 2000;
+
+    /**
+     * The members serving each slice of the sessions while a state transfer
+     * is in progress, <code>null</code> otherwise. The array is replaced, not
+     * modified, when a slice is reassigned.
+     */
+    private volatile Member[] stateTransferMembers = null;
+    /**
+     * The slices of the sessions that have been completely received during
+     * the state transfer. The array is replaced, not modified, when a slice
+     * is complete.
+     */
+    private volatile boolean[] stateTransferReceived = null;
+    private final Set<Member> stateTransferFailed = new HashSet<Member>();
+    private final Object stateTransferLock = new Object();
+    private int stateTransferRequested = 0;
+    private int stateTransferCompleted = 0;
+    private volatile boolean stateTransferCancelled = false;
+    private volatile Thread stateTransferThread = null;
+
+    /**
+     * The ids of the sessions fetched during the state transfer for which an
+     * answer has been received.
+     */
+    private final Set<String> fetchedSessions = new HashSet<String>();
+    /**
+     * The time until which the answer for each session asked for during the
+     * state transfer is waited for. A session asked for again is not
+     * requested another time, and once the time has passed, it is considered
+     * unknown until the end of the state transfer.
+     */
+    private final Map<String,Long> fetchDeadlines = new HashMap<String,Long>();
+    private final Object fetchLock = new Object();
     
     // ------------------------------------------------------------------ stats attributes
     
@@ -131,6 +227,14 @@ public class DeltaManager extends ClusterManagerBase{
     private int counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0 ;
     private long counterSend_EVT_CHANGE_SESSION_ID = 0;
     private int counterNoStateTransfered = 0 ;
+    private long counterReceive_EVT_SESSION_DELTA_BATCH = 0;
+    private long counterSend_EVT_SESSION_DELTA_BATCH = 0;
+    private long counterCoalescedDeltas = 0;
+    private long counterBatchedDeltas = 0;
+    private long deltaBytesSent = 0;
+    private long deltaBytesUncompressed = 0;
+    private long counterSend_EVT_GET_SESSION = 0;
+    private long counterReceive_EVT_GET_SESSION = 0;
     
 
     // ------------------------------------------------------------- Constructor
@@ -308,6 +412,130 @@ public class DeltaManager extends ClusterManagerBase{
     public int getReceivedQueueSize() {
         return receivedMessageQueue.size() ;
     }
+
+    /**
+     * @return Returns the counterSend_EVT_SESSION_DELTA_BATCH.
+     */
+    public long getCounterSend_EVT_SESSION_DELTA_BATCH() {
+        return counterSend_EVT_SESSION_DELTA_BATCH;
+    }
+
+    /**
+     * @return Returns the counterReceive_EVT_SESSION_DELTA_BATCH.
+     */
+    public long getCounterReceive_EVT_SESSION_DELTA_BATCH() {
+        return counterReceive_EVT_SESSION_DELTA_BATCH;
+    }
+
+    /**
+     * @return the number of request deltas merged into the pending delta of
+     *         the same session
+     */
+    public long getCounterCoalescedDeltas() {
+        return counterCoalescedDeltas;
+    }
+
+    /**
+     * @return the number of delta messages that have not been sent because
+     *         the deltas were merged or sent together with other deltas
+     */
+    public long getDeltaMessagesSaved() {
+        return counterCoalescedDeltas + counterBatchedDeltas -
+            counterSend_EVT_SESSION_DELTA_BATCH;
+    }
+
+    /**
+     * @return the number of bytes of delta data sent, after compression
+     */
+    public long getDeltaBytesSent() {
+        return deltaBytesSent;
+    }
+
+    /**
+     * @return the number of bytes of delta data sent, before compression
+     */
+    public long getDeltaBytesUncompressed() {
+        return deltaBytesUncompressed;
+    }
+
+    /**
+     * @return the number of sessions with a delta held back
+     */
+    public int getPendingDeltas() {
+        synchronized (deltaBatchLock) {
+            return pendingDeltas.size();
+        }
+    }
+
+    public int getDeltaBatchWindow() {
+        return deltaBatchWindow;
+    }
+
+    public void setDeltaBatchWindow(int deltaBatchWindow) {
+        this.deltaBatchWindow = deltaBatchWindow;
+    }
+
+    public int getDeltaBatchSize() {
+        return deltaBatchSize;
+    }
+
+    public void setDeltaBatchSize(int deltaBatchSize) {
+        this.deltaBatchSize = deltaBatchSize;
+    }
+
+    public int getDeltaCompressionThreshold() {
+        return deltaCompressionThreshold;
+    }
+
+    public void setDeltaCompressionThreshold(int deltaCompressionThreshold) {
+        this.deltaCompressionThreshold = deltaCompressionThreshold;
+    }
+
+    /**
+     * @return Returns the counterSend_EVT_GET_SESSION.
+     */
+    public long getCounterSend_EVT_GET_SESSION() {
+        return counterSend_EVT_GET_SESSION;
+    }
+
+    /**
+     * @return Returns the counterReceive_EVT_GET_SESSION.
+     */
+    public long getCounterReceive_EVT_GET_SESSION() {
+        return counterReceive_EVT_GET_SESSION;
+    }
+
+    /**
+     * @return <code>true</code> while the session state transfer is in
+     *         progress
+     */
+    public boolean isStateTransferInProgress() {
+        return stateTransferMembers != null;
+    }
+
+    public int getStateTransferPeers() {
+        return stateTransferPeers;
+    }
+
+    public void setStateTransferPeers(int stateTransferPeers) {
+        this.stateTransferPeers = stateTransferPeers;
+    }
+
+    public boolean isStateTransferAsync() {
+        return stateTransferAsync;
+    }
+
+    public void setStateTransferAsync(boolean stateTransferAsync) {
+        this.stateTransferAsync = stateTransferAsync;
+    }
+
+    public int getStateTransferFetchTimeout() {
+        return stateTransferFetchTimeout;
+    }
+
+    public void setStateTransferFetchTimeout(int stateTransferFetchTimeout) {
+        this.stateTransferFetchTimeout = stateTransferFetchTimeout;
+    }
     
     /**
      * @return Returns the stateTransferTimeout.
@@ -437,6 +665,130 @@ public class DeltaManager extends ClusterManagerBase{
     
     // --------------------------------------------------------- Public Methods
 
+    /**
+     * Return the active session with the given id. During an asynchronous
+     * state transfer, a session that has not been received yet is fetched
+     * from the member serving its slice.
+     */
+    @Override
+    public Session findSession(String id) throws IOException {
+        Session session = super.findSession(id);
+        if (session == null && id != null && stateTransferAsync &&
+                stateTransferMembers != null) {
+            session = fetchSession(id);
+        }
+        return session;
+    }
+
+    /**
+     * Find a session without fetching it from the other members during an
+     * asynchronous state transfer.
+     */
+    protected DeltaSession findLocalSession(String id) {
+        if (id == null) {
+            return null;
+        }
+        return (DeltaSession) sessions.get(id);
+    }
+
+    /**
+     * Ask the member serving the slice of a session for the session and wait
+     * for the answer. Nothing is asked if the slice of the session has
+     * already been received, or if the session has already been asked for.
+     * @param id the session id
+     * @return the session, or <code>null</code> if the member does not know
+     *         the session or if it has not answered in time
+     */
+    protected Session fetchSession(String id) {
+        Member[] members = stateTransferMembers;
+        boolean[] received = stateTransferReceived;
+        if (members == null || received == null ||
+                received.length != members.length) {
+            return findLocalSession(id);
+        }
+        int slice = getSlice(id, members.length);
+        if (received[slice]) {
+            return findLocalSession(id);
+        }
+        long end;
+        boolean send = false;
+        synchronized (fetchLock) {
+            if (fetchedSessions.contains(id)) {
+                return findLocalSession(id);
+            }
+            Long deadline = fetchDeadlines.get(id);
+            if (deadline == null) {
+                end = System.currentTimeMillis() + stateTransferFetchTimeout;
+                fetchDeadlines.put(id, Long.valueOf(end));
+                send = true;
+            } else {
+                end = deadline.longValue();
+            }
+        }
+        if (send) {
+            // The slice may have been reassigned meanwhile
+            members = stateTransferMembers;
+            if (members != null && slice < members.length) {
+                sendGetSession(id, members[slice]);
+            }
+        }
+        synchronized (fetchLock) {
+            Session session = findLocalSession(id);
+            while (session == null && !fetchedSessions.contains(id) &&
+                    !isSliceReceived(slice)) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                try {
+                    fetchLock.wait(wait);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                session = findLocalSession(id);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Ask a member for a session
+     * @param id the session id
+     * @param mbr the member serving the slice of the session
+     */
+    protected void sendGetSession(String id, Member mbr) {
+        SessionMessage msg = new SessionMessageImpl(getName(),
+                SessionMessage.EVT_GET_SESSION, null, id,
+                id + "-GET-" + System.currentTimeMillis());
+        msg.setTimestamp(System.currentTimeMillis());
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("deltaManager.createMessage.getSession",
+                    getName(), id, mbr));
+        }
+        counterSend_EVT_GET_SESSION++;
+        cluster.send(msg, mbr);
+    }
+
+    /**
+     * @param slice the slice
+     * @return <code>true</code> if the slice of the sessions has been
+     *         completely received, or if no state transfer is in progress
+     */
+    private boolean isSliceReceived(int slice) {
+        boolean[] received = stateTransferReceived;
+        return received == null || stateTransferMembers == null ||
+                slice >= received.length || received[slice];
+    }
+
+    /**
+     * @param sessionId the session id
+     * @param slices the number of slices
+     * @return the slice of the sessions the session belongs to
+     */
+    protected static int getSlice(String sessionId, int slices) {
+        return (sessionId.hashCode() & 0x7fffffff) % slices;
+    }
+
     /**
      * Construct and return a new session object, based on the default settings
      * specified by this Manager's properties. The session id will be assigned
@@ -628,6 +980,9 @@ public class DeltaManager extends ClusterManagerBase{
      * Load sessions from other cluster node.
      * FIXME replace currently sessions with same id without notification.
      * FIXME SSO handling is not really correct with the session replacement!
+     * During an asynchronous state transfer, the sessions already present are
+     * kept: they have been fetched on demand or created since the transfer
+     * started, so they are more recent than the copies of the slices.
      * @exception ClassNotFoundException
      *                if a serialized class cannot be found during the reload
      * @exception IOException
@@ -645,9 +1000,14 @@ public class DeltaManager extends ClusterManagerBase{
             ois = getReplicationStream(data);
             Integer count = (Integer) ois.readObject();
             int n = count.intValue();
+            boolean keepExisting = stateTransferAsync && isStateTransferInProgress();
             for (int i = 0; i < n; i++) {
                 DeltaSession session = (DeltaSession) createEmptySession();
                 session.readObjectData(ois);
+                if (keepExisting && findLocalSession(session.getIdInternal()) != null) {
+                    if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.loading.keepSession", getName(), session.getIdInternal()));
+                    continue;
+                }
                 session.setManager(this);
                 session.setValid(true);
                 session.setPrimarySession(false);
@@ -662,7 +1022,7 @@ public class DeltaManager extends ClusterManagerBase{
                 session.resetDeltaRequest();
                 // FIXME How inform other session id cache like SingleSignOn
                 // increment sessionCounter to correct stats report
-                if (findSession(session.getIdInternal()) == null ) {
+                if (findLocalSession(session.getIdInternal()) == null ) {
                     sessionCounter++;
                 } else {
                     sessionReplaceCounter++;
@@ -783,6 +1143,14 @@ public class DeltaManager extends ClusterManagerBase{
 
             getAllClusterSessions();
 
+            if (deltaBatchWindow > 0) {
+                deltaBatchRunning = true;
+                deltaBatchThread = new Thread(new DeltaBatchTask(),
+                        "DeltaManager-DeltaBatch[" + getName() + "]");
+                deltaBatchThread.setDaemon(true);
+                deltaBatchThread.start();
+            }
+
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             log.error(sm.getString("deltaManager.managerLoad"), t);
@@ -792,52 +1160,55 @@ public class DeltaManager extends ClusterManagerBase{
     }
 
     /**
-     * get from first session master the backup from all clustered sessions
+     * get from first session master the backup from all clustered sessions.
+     * With <code>stateTransferPeers</code> greater than one, each of the first
+     * members sends its slice of the sessions.
      * @see #findSessionMasterMember()
      */
     public synchronized void getAllClusterSessions() {
         if (cluster != null && cluster.getMembers().length > 0) {
             long beforeSendTime = System.currentTimeMillis();
-            Member mbr = findSessionMasterMember();
-            if(mbr == null) { // No domain member found
+            Member[] mbrs = findStateTransferMembers();
+            if(mbrs == null) { // No domain member found
                  return;
             }
-            SessionMessage msg = new SessionMessageImpl(this.getName(),SessionMessage.EVT_GET_ALL_SESSIONS, null, "GET-ALL","GET-ALL-" + getName());
-            msg.setTimestamp(beforeSendTime);
             // set reference time
             stateTransferCreateSendTime = beforeSendTime ;
-            // request session state
-            counterSend_EVT_GET_ALL_SESSIONS++;
             stateTransfered = false ;
+            stateTransferCancelled = false;
+            synchronized (stateTransferLock) {
+                stateTransferRequested = mbrs.length;
+                stateTransferCompleted = 0;
+                stateTransferFailed.clear();
+            }
+            boolean async = false;
             // FIXME This send call block the deploy thread, when sender waitForAck is enabled
             try {
                 synchronized(receivedMessageQueue) {
                      receiverQueue = true ;
                 }
-                cluster.send(msg, mbr);
+                beginStateTransfer(mbrs);
+                for (int i = 0; i < mbrs.length; i++) {
+                    sendGetAllSessions(mbrs[i], i, mbrs.length, beforeSendTime);
+                }
                 if (log.isInfoEnabled())
-                    log.info(sm.getString("deltaManager.waitForSessionState",getName(), mbr, Integer.valueOf(getStateTransferTimeout())));
-                // FIXME At sender ack mode this method check only the state transfer and resend is a problem!
-                waitForSendAllSessions(beforeSendTime);
+                    log.info(sm.getString("deltaManager.waitForSessionState",getName(),
+                            mbrs.length == 1 ? (Object) mbrs[0] : Arrays.asList(mbrs),
+                            Integer.valueOf(getStateTransferTimeout())));
+                if (stateTransferAsync) {
+                    Thread thread = new Thread(new StateTransferTask(beforeSendTime),
+                            "DeltaManager-StateTransfer[" + getName() + "]");
+                    thread.setDaemon(true);
+                    stateTransferThread = thread;
+                    thread.start();
+                    async = true;
+                } else {
+                    // FIXME At sender ack mode this method check only the state transfer and resend is a problem!
+                    waitForSendAllSessions(beforeSendTime);
+                }
             } finally {
-                synchronized(receivedMessageQueue) {
-                    for (Iterator<SessionMessage> iter = receivedMessageQueue.iterator(); iter.hasNext();) {
-                        SessionMessage smsg = iter.next();
-                        if (!stateTimestampDrop) {
-                            messageReceived(smsg, smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
-                        } else {
-                            if (smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS && smsg.getTimestamp() >= stateTransferCreateSendTime) {
-                                // FIXME handle EVT_GET_ALL_SESSIONS later
-                                messageReceived(smsg,smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
-                            } else {
-                                if (log.isWarnEnabled()) {
-                                    log.warn(sm.getString("deltaManager.dropMessage",getName(), smsg.getEventTypeString(),new Date(stateTransferCreateSendTime), new Date(smsg.getTimestamp())));
-                                }
-                            }
-                        }
-                    }        
-                    receivedMessageQueue.clear();
-                    receiverQueue = false ;
+                if (!async) {
+                    endStateTransfer();
                 }
            }
         } else {
@@ -845,6 +1216,86 @@ public class DeltaManager extends ClusterManagerBase{
         }
     }
 
+    /**
+     * Ask a member for its sessions
+     * @param mbr the member
+     * @param slice the slice of the sessions the member sends
+     * @param slices the number of slices, one to ask for all the sessions
+     * @param beforeSendTime the time the state transfer has started
+     */
+    protected void sendGetAllSessions(Member mbr, int slice, int slices,
+            long beforeSendTime) {
+        byte[] data = null;
+        if (slices > 1) {
+            data = new byte[8];
+            XByteBuffer.toBytes(slice, data, 0);
+            XByteBuffer.toBytes(slices, data, 4);
+        }
+        SessionMessage msg = new SessionMessageImpl(this.getName(),SessionMessage.EVT_GET_ALL_SESSIONS, data, "GET-ALL","GET-ALL-" + getName());
+        msg.setTimestamp(beforeSendTime);
+        // request session state
+        counterSend_EVT_GET_ALL_SESSIONS++;
+        cluster.send(msg, mbr);
+    }
+
+    /**
+     * Start serving the sessions from the given members.
+     * @param mbrs the members serving each slice of the sessions
+     */
+    protected void beginStateTransfer(Member[] mbrs) {
+        stateTransferReceived = new boolean[mbrs.length];
+        stateTransferMembers = mbrs.clone();
+    }
+
+    /**
+     * Handle the messages received during the state transfer and end it.
+     */
+    protected void endStateTransfer() {
+        stateTransferMembers = null;
+        stateTransferReceived = null;
+        synchronized (fetchLock) {
+            fetchedSessions.clear();
+            fetchDeadlines.clear();
+            fetchLock.notifyAll();
+        }
+        synchronized(receivedMessageQueue) {
+            for (Iterator<SessionMessage> iter = receivedMessageQueue.iterator(); iter.hasNext();) {
+                SessionMessage smsg = iter.next();
+                if (!stateTimestampDrop) {
+                    messageReceived(smsg, smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
+                } else {
+                    if (smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS && smsg.getTimestamp() >= stateTransferCreateSendTime) {
+                        // FIXME handle EVT_GET_ALL_SESSIONS later
+                        messageReceived(smsg,smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
+                    } else {
+                        if (log.isWarnEnabled()) {
+                            log.warn(sm.getString("deltaManager.dropMessage",getName(), smsg.getEventTypeString(),new Date(stateTransferCreateSendTime), new Date(smsg.getTimestamp())));
+                        }
+                    }
+                }
+            }        
+            receivedMessageQueue.clear();
+            receiverQueue = false ;
+        }
+    }
+
+    /**
+     * Stop waiting for an asynchronous state transfer.
+     */
+    protected void stopStateTransfer() {
+        Thread thread = stateTransferThread;
+        if (thread == null) {
+            return;
+        }
+        stateTransferCancelled = true;
+        try {
+            thread.join(10000L);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+        stateTransferThread = null;
+    }
+
     /**
      * Register cross context session at replication valve thread local
      * @param session cross context session
@@ -885,6 +1336,25 @@ public class DeltaManager extends ClusterManagerBase{
         return mbr;
     }
 
+    /**
+     * Find the members asked for the session state, the session master first
+     * @return the members, or <code>null</code> if there is no session master
+     */
+    protected Member[] findStateTransferMembers() {
+        Member mbr = findSessionMasterMember();
+        if (mbr == null) {
+            return null;
+        }
+        Member[] mbrs = cluster.getMembers();
+        int count = Math.min(stateTransferPeers, mbrs.length);
+        if (count <= 1 || mbrs[0] != mbr) {
+            return new Member[] {mbr};
+        }
+        Member[] result = new Member[count];
+        System.arraycopy(mbrs, 0, result, 0, count);
+        return result;
+    }
+
     /**
      * Wait that cluster session state is transfer or timeout after 60 Sec
      * With stateTransferTimeout == -1 wait that backup is transfered (forever mode)
@@ -903,7 +1373,7 @@ public class DeltaManager extends ClusterManagerBase{
                 }
                 reqNow = System.currentTimeMillis();
                 isTimeout = ((reqNow - reqStart) > (1000 * getStateTransferTimeout()));
-            } while ((!getStateTransfered()) && (!isTimeout) && (!isNoContextManagerReceived()));
+            } while ((!getStateTransfered()) && (!isTimeout) && (!isNoContextManagerReceived()) && (!stateTransferCancelled));
         } else {
             if(getStateTransferTimeout() == -1) {
                 // wait that state is transfered
@@ -912,7 +1382,7 @@ public class DeltaManager extends ClusterManagerBase{
                         Thread.sleep(100);
                     } catch (Exception sleep) {
                     }
-                } while ((!getStateTransfered())&& (!isNoContextManagerReceived()));
+                } while ((!getStateTransfered())&& (!isNoContextManagerReceived()) && (!stateTransferCancelled));
                 reqNow = System.currentTimeMillis();
             }
         }
@@ -942,6 +1412,11 @@ public class DeltaManager extends ClusterManagerBase{
             log.debug(sm.getString("deltaManager.stopped", getName()));
 
         setState(LifecycleState.STOPPING);
+
+        stopStateTransfer();
+
+        // Send the deltas held back before the sessions are expired
+        stopDeltaBatch();
         
         // Expire all active sessions
         if (log.isInfoEnabled()) log.info(sm.getString("deltaManager.expireSessions", getName()));
@@ -983,6 +1458,7 @@ public class DeltaManager extends ClusterManagerBase{
                 case SessionMessage.EVT_SESSION_EXPIRED: 
                 case SessionMessage.EVT_SESSION_ACCESSED:
                 case SessionMessage.EVT_SESSION_DELTA:
+                case SessionMessage.EVT_SESSION_DELTA_BATCH:
                 case SessionMessage.EVT_CHANGE_SESSION_ID: {
                     synchronized(receivedMessageQueue) {
                         if(receiverQueue) {
@@ -1046,9 +1522,17 @@ public class DeltaManager extends ClusterManagerBase{
             session.lock();
             SessionMessage msg = null;
             boolean isDeltaRequest = false ;
+            boolean batch = deltaBatchRunning && !expires;
+            if (expires) {
+                removePendingDelta(session);
+            }
             synchronized(deltaRequest) {
                 isDeltaRequest = deltaRequest.getSize() > 0 ;
-                if (isDeltaRequest) {    
+                if (isDeltaRequest && batch) {
+                    // Keep the actions in the delta request of the session,
+                    // the deltas of the next requests are merged into it
+                    addPendingDelta(session);
+                } else if (isDeltaRequest) {
                     counterSend_EVT_SESSION_DELTA++;
                     byte[] data = serializeDeltaRequest(session,deltaRequest);
                     msg = new SessionMessageImpl(getName(),
@@ -1056,6 +1540,8 @@ public class DeltaManager extends ClusterManagerBase{
                                                  data, 
                                                  sessionId,
                                                  sessionId + "-" + System.currentTimeMillis());
+                    deltaBytesSent += data.length;
+                    deltaBytesUncompressed += data.length;
                     session.resetDeltaRequest();
                 }  
             }
@@ -1071,7 +1557,7 @@ public class DeltaManager extends ClusterManagerBase{
                         log.debug(sm.getString("deltaManager.createMessage.accessChangePrimary",getName(), sessionId));
                     }
                 }    
-            } else { // log only outside synch block!
+            } else if (msg != null) { // log only outside synch block!
                 if (log.isDebugEnabled()) {
                     log.debug(sm.getString("deltaManager.createMessage.delta",getName(), sessionId));
                 }
@@ -1079,7 +1565,7 @@ public class DeltaManager extends ClusterManagerBase{
             if (!expires)
                 session.setPrimarySession(true);
             //check to see if we need to send out an access message
-            if (!expires && (msg == null)) {
+            if (!expires && !isDeltaRequest && (msg == null)) {
                 long replDelta = System.currentTimeMillis() - session.getLastTimeReplicated();
                 if (session.getMaxInactiveInterval() >=0 && 
                         replDelta > (session.getMaxInactiveInterval() * 1000)) {
@@ -1110,6 +1596,205 @@ public class DeltaManager extends ClusterManagerBase{
         }
 
     }
+
+    /**
+     * Hold back the delta of a session until the end of the batch window.
+     * @param session the session, its delta request holds the delta
+     */
+    protected void addPendingDelta(DeltaSession session) {
+        synchronized (deltaBatchLock) {
+            if (pendingDeltas.put(session.getIdInternal(), session) != null) {
+                counterCoalescedDeltas++;
+            } else if (pendingDeltas.size() >= deltaBatchSize) {
+                deltaBatchLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forget the delta held back for a session, it is sent by the caller.
+     * @param session the session
+     */
+    protected void removePendingDelta(DeltaSession session) {
+        synchronized (deltaBatchLock) {
+            pendingDeltas.remove(session.getIdInternal());
+        }
+    }
+
+    /**
+     * Send the deltas held back, several sessions per message.
+     */
+    public void flushDeltas() {
+        List<DeltaSession> sessions;
+        synchronized (deltaBatchLock) {
+            if (pendingDeltas.isEmpty()) {
+                return;
+            }
+            sessions = new ArrayList<DeltaSession>(pendingDeltas.values());
+            pendingDeltas.clear();
+        }
+        List<String> ids = new ArrayList<String>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        for (DeltaSession session : sessions) {
+            String sessionId = session.getIdInternal();
+            byte[] data = null;
+            try {
+                session.lock();
+                DeltaRequest deltaRequest = session.getDeltaRequest();
+                synchronized (deltaRequest) {
+                    if (session.isValid() && deltaRequest.getSize() > 0) {
+                        data = serializeDeltaRequest(session, deltaRequest);
+                        session.resetDeltaRequest();
+                        session.setLastTimeReplicated(System.currentTimeMillis());
+                    }
+                }
+            } catch (IOException x) {
+                log.error(sm.getString("deltaManager.createMessage.unableCreateDeltaRequest",sessionId), x);
+            } finally {
+                session.unlock();
+            }
+            if (data == null) {
+                continue;
+            }
+            counterSend_EVT_SESSION_DELTA++;
+            ids.add(sessionId);
+            deltas.add(data);
+            if (ids.size() >= deltaBatchSize) {
+                sendDeltas(ids, deltas);
+                ids.clear();
+                deltas.clear();
+            }
+        }
+        if (ids.size() > 0) {
+            sendDeltas(ids, deltas);
+        }
+    }
+
+    /**
+     * Send the given deltas in one message, or as a plain delta message if
+     * there is only one small delta.
+     */
+    protected void sendDeltas(List<String> ids, List<byte[]> deltas) {
+        long timestamp = System.currentTimeMillis();
+        SessionMessage msg;
+        try {
+            if (ids.size() == 1 && (deltaCompressionThreshold < 0 ||
+                    deltas.get(0).length < deltaCompressionThreshold)) {
+                byte[] data = deltas.get(0);
+                msg = new SessionMessageImpl(getName(),
+                        SessionMessage.EVT_SESSION_DELTA, data, ids.get(0),
+                        ids.get(0) + "-" + timestamp);
+                deltaBytesSent += data.length;
+                deltaBytesUncompressed += data.length;
+            } else {
+                msg = new SessionMessageImpl(getName(),
+                        SessionMessage.EVT_SESSION_DELTA_BATCH,
+                        serializeDeltas(ids, deltas), null,
+                        getName() + "-BATCH-" + timestamp);
+                counterSend_EVT_SESSION_DELTA_BATCH++;
+                counterBatchedDeltas += ids.size();
+            }
+        } catch (IOException x) {
+            log.error(sm.getString("deltaManager.createMessage.unableCreateDeltaBatch",
+                    getName()), x);
+            return;
+        }
+        msg.setTimestamp(timestamp);
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("deltaManager.createMessage.deltaBatch",
+                    getName(), Integer.valueOf(ids.size())));
+        }
+        send(msg);
+    }
+
+    /**
+     * Write the deltas of a batch message. The deltas are deflated if they
+     * hold at least <code>deltaCompressionThreshold</code> bytes and if
+     * deflating them makes them smaller.
+     */
+    protected byte[] serializeDeltas(List<String> ids, List<byte[]> deltas)
+            throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(0);
+        DataOutputStream out = new DataOutputStream(bout);
+        out.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] delta = deltas.get(i);
+            out.writeUTF(ids.get(i));
+            out.writeInt(delta.length);
+            out.write(delta);
+        }
+        out.flush();
+        byte[] data = bout.toByteArray();
+        deltaBytesUncompressed += data.length;
+        if (deltaCompressionThreshold >= 0 &&
+                data.length - 1 >= deltaCompressionThreshold) {
+            ByteArrayOutputStream cout = new ByteArrayOutputStream(data.length / 2);
+            cout.write(1);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream dout = new DeflaterOutputStream(cout, deflater);
+                dout.write(data, 1, data.length - 1);
+                dout.finish();
+            } finally {
+                deflater.end();
+            }
+            if (cout.size() < data.length) {
+                data = cout.toByteArray();
+            }
+        }
+        deltaBytesSent += data.length;
+        return data;
+    }
+
+    /**
+     * Read the deltas of a batch message.
+     * @param data the session data of the message
+     * @param ids receives the session ids
+     * @param deltas receives the serialized delta requests
+     */
+    protected void deserializeDeltas(byte[] data, List<String> ids,
+            List<byte[]> deltas) throws IOException {
+        InputStream in = new ByteArrayInputStream(data, 1, data.length - 1);
+        if (data[0] == 1) {
+            in = new InflaterInputStream(in);
+        }
+        DataInputStream din = new DataInputStream(in);
+        try {
+            int count = din.readInt();
+            for (int i = 0; i < count; i++) {
+                ids.add(din.readUTF());
+                byte[] delta = new byte[din.readInt()];
+                din.readFully(delta);
+                deltas.add(delta);
+            }
+        } finally {
+            din.close();
+        }
+    }
+
+    /**
+     * Stop the delta batch thread, if any, and send the deltas it has not sent
+     * yet.
+     */
+    protected void stopDeltaBatch() {
+        Thread thread = deltaBatchThread;
+        if (thread == null) {
+            return;
+        }
+        deltaBatchRunning = false;
+        synchronized (deltaBatchLock) {
+            deltaBatchLock.notifyAll();
+        }
+        try {
+            thread.join(deltaBatchWindow + 10000L);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+        deltaBatchThread = null;
+        flushDeltas();
+    }
+
     /**
      * Reset manager statistics
      */
@@ -1151,6 +1836,14 @@ public class DeltaManager extends ClusterManagerBase{
         counterSend_EVT_SESSION_EXPIRED = 0 ;
         counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0;
         counterSend_EVT_CHANGE_SESSION_ID = 0;
+        counterReceive_EVT_SESSION_DELTA_BATCH = 0;
+        counterSend_EVT_SESSION_DELTA_BATCH = 0;
+        counterCoalescedDeltas = 0;
+        counterBatchedDeltas = 0;
+        deltaBytesSent = 0;
+        deltaBytesUncompressed = 0;
+        counterSend_EVT_GET_SESSION = 0;
+        counterReceive_EVT_GET_SESSION = 0;
         
     }
    
@@ -1283,6 +1976,10 @@ public class DeltaManager extends ClusterManagerBase{
                    handleSESSION_DELTA(msg,sender);
                    break;
                 }
+                case SessionMessage.EVT_SESSION_DELTA_BATCH: {
+                   handleSESSION_DELTA_BATCH(msg,sender);
+                   break;
+                }
                 case SessionMessage.EVT_CHANGE_SESSION_ID: {
                     handleCHANGE_SESSION_ID(msg,sender);
                     break;
@@ -1291,6 +1988,10 @@ public class DeltaManager extends ClusterManagerBase{
                     handleALL_SESSION_NOCONTEXTMANAGER(msg,sender);
                     break;
                  }
+                case SessionMessage.EVT_GET_SESSION: {
+                    handleGET_SESSION(msg,sender);
+                    break;
+                 }
                 default: {
                     //we didn't recognize the message type, do nothing
                     break;
@@ -1314,8 +2015,33 @@ public class DeltaManager extends ClusterManagerBase{
     protected void handleALL_SESSION_TRANSFERCOMPLETE(SessionMessage msg, Member sender) {
         counterReceive_EVT_ALL_SESSION_TRANSFERCOMPLETE++ ;
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.transfercomplete",getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
-        stateTransferCreateSendTime = msg.getTimestamp() ;
-        stateTransfered = true ;
+        synchronized (stateTransferLock) {
+            // Keep the earliest state time of the members
+            if (stateTransferCompleted++ == 0 ||
+                    msg.getTimestamp() < stateTransferCreateSendTime) {
+                stateTransferCreateSendTime = msg.getTimestamp() ;
+            }
+            if (stateTransferCompleted >= stateTransferRequested) {
+                stateTransfered = true ;
+            }
+            // The first slice of the sender not received yet is complete
+            Member[] members = stateTransferMembers;
+            boolean[] received = stateTransferReceived;
+            if (members != null && received != null &&
+                    received.length == members.length) {
+                for (int i = 0; i < members.length; i++) {
+                    if (!received[i] && sender.equals(members[i])) {
+                        boolean[] updated = received.clone();
+                        updated[i] = true;
+                        stateTransferReceived = updated;
+                        break;
+                    }
+                }
+            }
+        }
+        synchronized (fetchLock) {
+            fetchLock.notifyAll();
+        }
     }
 
     /**
@@ -1326,11 +2052,38 @@ public class DeltaManager extends ClusterManagerBase{
      * @throws ClassNotFoundException
      */
     protected void handleSESSION_DELTA(SessionMessage msg, Member sender) throws IOException, ClassNotFoundException {
+        applyDelta(msg.getSessionID(), msg.getSession());
+    }
+
+    /**
+     * handle receive the deltas of several sessions
+     * @param msg
+     * @param sender
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected void handleSESSION_DELTA_BATCH(SessionMessage msg, Member sender) throws IOException, ClassNotFoundException {
+        counterReceive_EVT_SESSION_DELTA_BATCH++;
+        List<String> ids = new ArrayList<String>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        deserializeDeltas(msg.getSession(), ids, deltas);
+        for (int i = 0; i < ids.size(); i++) {
+            applyDelta(ids.get(i), deltas.get(i));
+        }
+    }
+
+    /**
+     * Apply a delta received from another node to the local session
+     * @param sessionId the session id
+     * @param delta the serialized delta request
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected void applyDelta(String sessionId, byte[] delta) throws IOException, ClassNotFoundException {
         counterReceive_EVT_SESSION_DELTA++;
-        byte[] delta = msg.getSession();
-        DeltaSession session = (DeltaSession) findSession(msg.getSessionID());
+        DeltaSession session = (DeltaSession) findSession(sessionId);
         if (session != null) {
-            if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.delta",getName(), msg.getSessionID()));
+            if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.delta",getName(), sessionId));
             try {
                 session.lock();
                 DeltaRequest dreq = deserializeDeltaRequest(session, delta);
@@ -1408,6 +2161,13 @@ public class DeltaManager extends ClusterManagerBase{
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataBegin",getName()));
         byte[] data = msg.getSession();
         deserializeSessions(data);
+        synchronized (fetchLock) {
+            if (!"SESSION-STATE".equals(msg.getSessionID())) {
+                // Answer to EVT_GET_SESSION
+                fetchedSessions.add(msg.getSessionID());
+            }
+            fetchLock.notifyAll();
+        }
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataAfter",getName()));
         //stateTransferred = true;
     }
@@ -1429,6 +2189,11 @@ public class DeltaManager extends ClusterManagerBase{
         // get all sessions and serialize without sync
         Session[] currentSessions = findSessions();
         long findSessionTimestamp = System.currentTimeMillis() ;
+        byte[] slice = msg.getSession();
+        if (slice != null && slice.length == 8) {
+            currentSessions = selectSlice(currentSessions,
+                    XByteBuffer.toInt(slice, 0), XByteBuffer.toInt(slice, 4));
+        }
         if (isSendAllSessions()) {
             sendSessions(sender, currentSessions, findSessionTimestamp);
         } else {
@@ -1456,6 +2221,52 @@ public class DeltaManager extends ClusterManagerBase{
         cluster.send(newmsg, sender);
     }
 
+    /**
+     * Select the sessions of a slice
+     * @param currentSessions all the sessions
+     * @param slice the slice
+     * @param slices the number of slices
+     * @return the sessions of the slice
+     */
+    protected Session[] selectSlice(Session[] currentSessions, int slice, int slices) {
+        if (slices <= 1) {
+            return currentSessions;
+        }
+        List<Session> result = new ArrayList<Session>(currentSessions.length / slices + 1);
+        for (int i = 0; i < currentSessions.length; i++) {
+            if (getSlice(currentSessions[i].getIdInternal(), slices) == slice) {
+                result.add(currentSessions[i]);
+            }
+        }
+        return result.toArray(new Session[result.size()]);
+    }
+
+    /**
+     * handle receive that other node want one session during its state
+     * transfer. The session is sent back alone, or no session is sent back if
+     * it is unknown.
+     * @param msg
+     * @param sender
+     * @throws IOException
+     */
+    protected void handleGET_SESSION(SessionMessage msg, Member sender) throws IOException {
+        counterReceive_EVT_GET_SESSION++;
+        String sessionId = msg.getSessionID();
+        DeltaSession session = findLocalSession(sessionId);
+        Session[] found;
+        if (session != null && session.isValid()) {
+            found = new Session[] {session};
+        } else {
+            found = new Session[0];
+        }
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.getSession",getName(), sessionId, Integer.valueOf(found.length)));
+        byte[] data = serializeSessions(found);
+        SessionMessage newmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_DATA, data, sessionId, sessionId + "-STATE-" + getName());
+        newmsg.setTimestamp(System.currentTimeMillis());
+        counterSend_EVT_ALL_SESSION_DATA++;
+        cluster.send(newmsg, sender);
+    }
+
     /**
      * handle receive change sessionID at other node
      * @param msg
@@ -1485,7 +2296,44 @@ public class DeltaManager extends ClusterManagerBase{
         counterReceive_EVT_ALL_SESSION_NOCONTEXTMANAGER++ ;
         if (log.isDebugEnabled())
             log.debug(sm.getString("deltaManager.receiveMessage.noContextManager",getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
-        noContextManagerReceived = true ;
+        if (!reassignSlice(sender)) {
+            noContextManagerReceived = true ;
+        }
+    }
+
+    /**
+     * Ask another member for the slice of the sessions of a member that does
+     * not have this context.
+     * @param sender the member without context manager
+     * @return <code>true</code> if the slice has been reassigned
+     */
+    protected boolean reassignSlice(Member sender) {
+        Member[] members;
+        Member mbr = null;
+        int slice = -1;
+        synchronized (stateTransferLock) {
+            members = stateTransferMembers;
+            if (members == null || members.length < 2) {
+                return false;
+            }
+            stateTransferFailed.add(sender);
+            for (int i = 0; i < members.length; i++) {
+                if (sender.equals(members[i])) {
+                    slice = i;
+                } else if (mbr == null && !stateTransferFailed.contains(members[i])) {
+                    mbr = members[i];
+                }
+            }
+            if (slice < 0 || mbr == null) {
+                return false;
+            }
+            Member[] updated = members.clone();
+            updated[slice] = mbr;
+            stateTransferMembers = updated;
+        }
+        if (log.isInfoEnabled()) log.info(sm.getString("deltaManager.reassignSlice",getName(), Integer.valueOf(slice), sender, mbr));
+        sendGetAllSessions(mbr, slice, members.length, stateTransferCreateSendTime);
+        return true;
     }
 
     /**
@@ -1518,6 +2366,66 @@ public class DeltaManager extends ClusterManagerBase{
         result.sendAllSessionsSize = sendAllSessionsSize;
         result.sendAllSessionsWaitTime = sendAllSessionsWaitTime ; 
         result.stateTimestampDrop = stateTimestampDrop ;
+        result.deltaBatchWindow = deltaBatchWindow;
+        result.deltaBatchSize = deltaBatchSize;
+        result.deltaCompressionThreshold = deltaCompressionThreshold;
+        result.stateTransferPeers = stateTransferPeers;
+        result.stateTransferAsync = stateTransferAsync;
+        result.stateTransferFetchTimeout = stateTransferFetchTimeout;
         return result;
     }
+
+    // ----------------------------------------------------------- Inner classes
+
+    /**
+     * Waits for the end of an asynchronous state transfer.
+     */
+    private class StateTransferTask implements Runnable {
+
+        private final long beforeSendTime;
+
+        public StateTransferTask(long beforeSendTime) {
+            this.beforeSendTime = beforeSendTime;
+        }
+
+        @Override
+        public void run() {
+            try {
+                waitForSendAllSessions(beforeSendTime);
+            } finally {
+                endStateTransfer();
+                stateTransferThread = null;
+            }
+        }
+    }
+
+    /**
+     * Sends the deltas held back whenever the batch window has elapsed or the
+     * number of pending sessions has reached the batch size.
+     */
+    private class DeltaBatchTask implements Runnable {
+
+        @Override
+        public void run() {
+            while (deltaBatchRunning) {
+                synchronized (deltaBatchLock) {
+                    if (deltaBatchRunning &&
+                            pendingDeltas.size() < deltaBatchSize) {
+                        try {
+                            deltaBatchLock.wait(deltaBatchWindow);
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                }
+                try {
+                    flushDeltas();
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    log.error(sm.getString("deltaManager.createMessage.unableCreateDeltaBatch",
+                            getName()), t);
+                }
+            }
+        }
+    }
 }
@@ -34,6 +34,8 @@ import org.apache.catalina.ha.ClusterMessage;
  *   <li><pre>public static final int EVT_ALL_SESSION_TRANSFERCOMPLETE</pre><li>
  *   <li><pre>public static final int EVT_CHANGE_SESSION_ID</pre><li>
  *   <li><pre>public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER</pre><li>
+ *   <li><pre>public static final int EVT_SESSION_DELTA_BATCH</pre><li>
+ *   <li><pre>public static final int EVT_GET_SESSION</pre><li>
  * </ul>
  *
  */
@@ -88,6 +90,22 @@ public interface SessionMessage extends ClusterMessage {
      */
     public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER = 16;
 
+    /**
+     * Event type used to send the deltas of several sessions in one message.
+     * The session data holds a flag byte, 1 if the rest of the data is
+     * deflated, followed by the number of deltas and, for each delta, the
+     * session id and the serialized delta request.
+     */
+    public static final int EVT_SESSION_DELTA_BATCH = 17;
+
+    /**
+     * Event type used by a starting server to ask for one session whose
+     * state has not been transferred yet. The session is sent back in an
+     * EVT_ALL_SESSION_DATA message with the requested session id, holding no
+     * session if the sender does not know the session.
+     */
+    public static final int EVT_GET_SESSION = 18;
+
     public String getContextName();
     
     public String getEventTypeString();
@@ -84,6 +84,10 @@ public class SessionMessageImpl extends ClusterMessageBase implements SessionMes
      * <B>EVT_ALL_SESSION_NOCONTEXTMANAGER</B><BR>
      *    send that context manager does not exist
      *    after GET_ALL_SESSION received from this sender.<BR>
+     * <B>EVT_SESSION_DELTA_BATCH</B><BR>
+     *    Send the attribute deltas of several sessions.<BR>
+     * <B>EVT_GET_SESSION</B><BR>
+     *    Ask for the state of one session during a state transfer.<BR>
      * @param contextName - the name of the context (application
      * @param eventtype - one of the 8 event type defined in this class
      * @param session - the serialized byte array of the session itself
@@ -153,6 +157,8 @@ public class SessionMessageImpl extends ClusterMessageBase implements SessionMes
             case EVT_ALL_SESSION_TRANSFERCOMPLETE : return "SESSION-STATE-TRANSFERED";
             case EVT_CHANGE_SESSION_ID : return "SESSION-ID-CHANGED";
             case EVT_ALL_SESSION_NOCONTEXTMANAGER : return "NO-CONTEXT-MANAGER";
+            case EVT_SESSION_DELTA_BATCH : return "SESSION-DELTA-BATCH";
+            case EVT_GET_SESSION : return "SESSION-GET";
             default : return "UNKNOWN-EVENT-TYPE";
         }
     }
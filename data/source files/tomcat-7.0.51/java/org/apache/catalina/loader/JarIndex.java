@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+
+/**
+ * Index of the packages, i.e. the directories holding at least one entry,
+ * found in each of a list of JAR files. It lets a class loader probe only the
+ * JARs that may contain a given class or resource.
+ * <p>
+ * The index may be saved to a file and loaded back as long as none of the
+ * JARs changed. A JAR is considered unchanged if its length, its last
+ * modification time and a checksum of its trailing bytes, which hold the
+ * central directory with the CRC of every entry, are the same.
+ */
+public final class JarIndex {
+
+    private static final int MAGIC = 0x4A494458;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The number of trailing bytes of a JAR used to compute its checksum.
+     */
+    private static final int CHECKSUM_LENGTH = 64 * 1024;
+
+    private static final int[] NO_JARS = new int[0];
+
+
+    private final String[] jarPaths;
+    private final long[][] fingerprints;
+    private final Map<String,int[]> packages;
+
+
+    private JarIndex(String[] jarPaths, long[][] fingerprints,
+            Map<String,int[]> packages) {
+        this.jarPaths = jarPaths;
+        this.fingerprints = fingerprints;
+        this.packages = packages;
+    }
+
+
+    /**
+     * Return the positions, in ascending order, of the JARs that may contain
+     * an entry with the given name.
+     */
+    public int[] getJars(String name) {
+        int[] jars = packages.get(getPackage(name));
+        return jars == null ? NO_JARS : jars;
+    }
+
+
+    /**
+     * Return the number of JARs in the index.
+     */
+    public int getJarCount() {
+        return jarPaths.length;
+    }
+
+
+    /**
+     * Return the number of packages in the index.
+     */
+    public int getPackageCount() {
+        return packages.size();
+    }
+
+
+    /**
+     * Build the index of the given JARs, reading several JARs at the same
+     * time.
+     *
+     * @param jars      The JARs, in the order they are searched
+     * @param threads   The maximum number of JARs read at the same time
+     *
+     * @exception IOException if one of the JARs cannot be read
+     */
+    public static JarIndex build(File[] jars, int threads) throws IOException {
+        List<Future<JarContent>> results =
+            new ArrayList<Future<JarContent>>(jars.length);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, jars.length)),
+                new TaskThreadFactory("JarIndex-", true, Thread.NORM_PRIORITY));
+        try {
+            for (int i = 0; i < jars.length; i++) {
+                final File jar = jars[i];
+                results.add(executor.submit(new Callable<JarContent>() {
+                    @Override
+                    public JarContent call() throws IOException {
+                        return new JarContent(readPackages(jar),
+                                fingerprint(jar));
+                    }
+                }));
+            }
+
+            long[][] fingerprints = new long[jars.length][];
+            Map<String,List<Integer>> positions =
+                new HashMap<String,List<Integer>>();
+            for (int i = 0; i < jars.length; i++) {
+                JarContent content;
+                try {
+                    content = results.get(i).get();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                fingerprints[i] = content.fingerprint;
+                for (String jarPackage : content.packages) {
+                    List<Integer> list = positions.get(jarPackage);
+                    if (list == null) {
+                        list = new ArrayList<Integer>(2);
+                        positions.put(jarPackage, list);
+                    }
+                    list.add(Integer.valueOf(i));
+                }
+            }
+
+            Map<String,int[]> packages =
+                new HashMap<String,int[]>(positions.size() * 2);
+            for (Map.Entry<String,List<Integer>> entry : positions.entrySet()) {
+                List<Integer> list = entry.getValue();
+                int[] array = new int[list.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = list.get(i).intValue();
+                }
+                packages.put(entry.getKey(), array);
+            }
+            return new JarIndex(paths(jars), fingerprints, packages);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Load an index saved by {@link #save(File)}.
+     *
+     * @param file  The file holding the index
+     * @param jars  The JARs the index must describe
+     * @return the index, or <code>null</code> if the file does not describe
+     *         the given JARs in their current state
+     *
+     * @exception IOException if the file cannot be read
+     */
+    public static JarIndex load(File file, File[] jars) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String[] jarPaths = paths(jars);
+            int jarCount = in.readInt();
+            if (jarCount != jars.length) {
+                return null;
+            }
+            long[][] fingerprints = new long[jarCount][];
+            for (int i = 0; i < jarCount; i++) {
+                if (!jarPaths[i].equals(in.readUTF())) {
+                    return null;
+                }
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                long checksum = in.readLong();
+                // Check the cheap attributes before reading the JAR
+                if (length != jars[i].length() ||
+                        lastModified != jars[i].lastModified()) {
+                    return null;
+                }
+                fingerprints[i] = fingerprint(jars[i]);
+                if (fingerprints[i][2] != checksum) {
+                    return null;
+                }
+            }
+            int packageCount = in.readInt();
+            Map<String,int[]> packages =
+                new HashMap<String,int[]>(packageCount * 2);
+            for (int i = 0; i < packageCount; i++) {
+                String name = in.readUTF();
+                int[] positions = new int[in.readInt()];
+                for (int j = 0; j < positions.length; j++) {
+                    positions[j] = in.readInt();
+                }
+                packages.put(name, positions);
+            }
+            return new JarIndex(jarPaths, fingerprints, packages);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Save the index to the given file.
+     *
+     * @exception IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(jarPaths.length);
+            for (int i = 0; i < jarPaths.length; i++) {
+                out.writeUTF(jarPaths[i]);
+                out.writeLong(fingerprints[i][0]);
+                out.writeLong(fingerprints[i][1]);
+                out.writeLong(fingerprints[i][2]);
+            }
+            out.writeInt(packages.size());
+            for (Map.Entry<String,int[]> entry : packages.entrySet()) {
+                out.writeUTF(entry.getKey());
+                int[] positions = entry.getValue();
+                out.writeInt(positions.length);
+                for (int position : positions) {
+                    out.writeInt(position);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        // Replace the previous index in one step
+        if (!temp.renameTo(file)) {
+            if (!file.delete() || !temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException(file.getPath());
+            }
+        }
+    }
+
+
+    /**
+     * Return the package of the entry with the given name. The name of a
+     * directory entry may end with a <code>/</code>, which is ignored, as
+     * {@link JarFile#getJarEntry(String)} finds such entries with or without
+     * the trailing <code>/</code>.
+     */
+    static String getPackage(String name) {
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '/') {
+            end--;
+        }
+        int pos = name.lastIndexOf('/', end - 1);
+        return pos < 0 ? "" : name.substring(0, pos);
+    }
+
+
+    private static Set<String> readPackages(File jar) throws IOException {
+        Set<String> result = new HashSet<String>();
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                result.add(getPackage(entries.nextElement().getName()));
+            }
+        } finally {
+            jarFile.close();
+        }
+        return result;
+    }
+
+
+    private static long[] fingerprint(File jar) throws IOException {
+        long length = jar.length();
+        long lastModified = jar.lastModified();
+        CRC32 crc = new CRC32();
+        RandomAccessFile raf = new RandomAccessFile(jar, "r");
+        try {
+            int size = (int) Math.min(raf.length(), CHECKSUM_LENGTH);
+            byte[] buf = new byte[size];
+            raf.seek(raf.length() - size);
+            raf.readFully(buf);
+            crc.update(buf);
+        } finally {
+            raf.close();
+        }
+        return new long[] {length, lastModified, crc.getValue()};
+    }
+
+
+    private static String[] paths(File[] jars) {
+        String[] paths = new String[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            paths[i] = jars[i].getAbsolutePath();
+        }
+        return paths;
+    }
+
+
+    private static final class JarContent {
+
+        final Set<String> packages;
+        final long[] fingerprint;
+
+        JarContent(Set<String> packages, long[] fingerprint) {
+            this.packages = packages;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -55,6 +55,7 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarEntry;
@@ -409,6 +410,38 @@ public class WebappClassLoader
     protected File loaderDir = null;
     protected String canonicalLoaderDir = null;
 
+
+    /**
+     * Should an index of the packages found in each JAR be used to only
+     * search the JARs that may contain a class or resource?
+     */
+    protected boolean useJarIndex = true;
+
+
+    /**
+     * Should the index of the JARs be saved in the work directory so that it
+     * does not have to be built again on the next start if no JAR changed?
+     */
+    protected boolean persistJarIndex = false;
+
+
+    /**
+     * The index of the packages found in each JAR, or <code>null</code> if
+     * all the JARs have to be searched.
+     */
+    protected volatile JarIndex jarIndex = null;
+
+
+    /**
+     * The file in which the index of the JARs is saved.
+     */
+    protected File jarIndexFile = null;
+
+    private long jarIndexBuildTime = 0;
+    private boolean jarIndexLoaded = false;
+    private final AtomicLong jarLookupCount = new AtomicLong();
+    private final AtomicLong jarLookupTime = new AtomicLong();
+
     /**
      * The PermissionCollection for each CodeSource for a web
      * application context.
@@ -623,6 +656,84 @@ public class WebappClassLoader
     }
 
 
+    /**
+     * @return Returns useJarIndex.
+     */
+    public boolean getUseJarIndex() {
+        return useJarIndex;
+    }
+
+    /**
+     * @param useJarIndex Whether an index of the packages found in each JAR
+     *                    should be used to find classes and resources. Must
+     *                    be set before the class loader is started.
+     */
+    public void setUseJarIndex(boolean useJarIndex) {
+        this.useJarIndex = useJarIndex;
+    }
+
+
+    /**
+     * @return Returns persistJarIndex.
+     */
+    public boolean getPersistJarIndex() {
+        return persistJarIndex;
+    }
+
+    /**
+     * @param persistJarIndex Whether the index of the JARs should be saved in
+     *                        the work directory and reused on the next start
+     */
+    public void setPersistJarIndex(boolean persistJarIndex) {
+        this.persistJarIndex = persistJarIndex;
+    }
+
+
+    /**
+     * Return the time, in milliseconds, taken to build or load the index of
+     * the JARs when the class loader was started.
+     */
+    public long getJarIndexBuildTime() {
+        return jarIndexBuildTime;
+    }
+
+
+    /**
+     * Return <code>true</code> if the index of the JARs was loaded from the
+     * work directory rather than built.
+     */
+    public boolean isJarIndexLoaded() {
+        return jarIndexLoaded;
+    }
+
+
+    /**
+     * Return the number of packages in the index of the JARs, or -1 if no
+     * index is used.
+     */
+    public int getJarIndexPackageCount() {
+        JarIndex index = jarIndex;
+        return index == null ? -1 : index.getPackageCount();
+    }
+
+
+    /**
+     * Return the number of times the JARs have been searched for a class or
+     * resource that was not already cached.
+     */
+    public long getJarLookupCount() {
+        return jarLookupCount.get();
+    }
+
+
+    /**
+     * Return the total time, in milliseconds, spent searching the JARs.
+     */
+    public long getJarLookupTime() {
+        return jarLookupTime.get() / 1000000;
+    }
+
+
     /**
      * If there is a Java SecurityManager create a read FilePermission
      * or JndiPermission for the file directory path.
@@ -707,6 +818,7 @@ public class WebappClassLoader
      */
     public void setWorkDir(File workDir) {
         this.loaderDir = new File(workDir, "loader");
+        this.jarIndexFile = new File(workDir, "loader-index.dat");
         if (loaderDir == null) {
             canonicalLoaderDir = null;
         } else {
@@ -984,6 +1096,9 @@ public class WebappClassLoader
         }
         result4[jarRealFiles.length] = file;
         jarRealFiles = result4;
+
+        // The index no longer describes all the JARs
+        jarIndex = null;
     }
 
 
@@ -1362,9 +1477,13 @@ public class WebappClassLoader
         }
 
         // Looking at the JAR files
+        int[] candidates = findJars(name);
+        int candidatesLength =
+            (candidates == null) ? jarFilesLength : candidates.length;
         synchronized (jarFiles) {
-            if (openJARs()) {
-                for (i = 0; i < jarFilesLength; i++) {
+            if (candidatesLength > 0 && openJARs()) {
+                for (int c = 0; c < candidatesLength; c++) {
+                    i = (candidates == null) ? c : candidates[c];
                     JarEntry jarEntry = jarFiles[i].getJarEntry(name);
                     if (jarEntry != null) {
                         try {
@@ -1886,6 +2005,10 @@ public class WebappClassLoader
             needConvert = true;
         }
 
+        if (useJarIndex) {
+            buildJarIndex();
+        }
+
     }
 
 
@@ -1932,6 +2055,7 @@ public class WebappClassLoader
         files = null;
         jarFiles = null;
         jarRealFiles = null;
+        jarIndex = null;
         jarPath = null;
         jarNames = null;
         lastModifiedDates = null;
@@ -3091,13 +3215,29 @@ public class WebappClassLoader
 
         JarEntry jarEntry = null;
 
+        long lookupStart = System.nanoTime();
+        int[] candidates = findJars(path);
+        if (entry == null && candidates != null && candidates.length == 0) {
+            // None of the JARs has anything in that package
+            jarLookupTime.addAndGet(System.nanoTime() - lookupStart);
+            jarLookupCount.incrementAndGet();
+            synchronized (notFoundResources) {
+                notFoundResources.put(name, name);
+            }
+            return null;
+        }
+        int candidatesLength =
+            (candidates == null) ? jarFilesLength : candidates.length;
+
         synchronized (jarFiles) {
 
             try {
                 if (!openJARs()) {
                     return null;
                 }
-                for (i = 0; (entry == null) && (i < jarFilesLength); i++) {
+                for (int c = 0; (entry == null) && (c < candidatesLength); c++) {
+
+                    i = (candidates == null) ? c : candidates[c];
 
                     jarEntry = jarFiles[i].getJarEntry(path);
 
@@ -3195,6 +3335,9 @@ public class WebappClassLoader
 
                 }
 
+                jarLookupTime.addAndGet(System.nanoTime() - lookupStart);
+                jarLookupCount.incrementAndGet();
+
                 if (entry == null) {
                     synchronized (notFoundResources) {
                         notFoundResources.put(name, name);
@@ -3281,6 +3424,70 @@ public class WebappClassLoader
     }
 
 
+    /**
+     * Return the positions of the JARs that may contain an entry with the
+     * given name, or <code>null</code> if all the JARs have to be searched.
+     */
+    protected int[] findJars(String path) {
+        JarIndex index = jarIndex;
+        if (index == null || index.getJarCount() != jarFiles.length) {
+            return null;
+        }
+        return index.getJars(path);
+    }
+
+
+    /**
+     * Build the index of the packages found in each JAR, or load it from the
+     * work directory if it was saved by a previous start and none of the
+     * JARs changed since.
+     */
+    protected void buildJarIndex() {
+        File[] jars = jarRealFiles;
+        if (jars == null || jars.length == 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        JarIndex index = null;
+        if (persistJarIndex && jarIndexFile != null && jarIndexFile.isFile()) {
+            try {
+                index = JarIndex.load(jarIndexFile, jars);
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("webappClassLoader.jarIndexLoadFail",
+                            jarIndexFile), e);
+                }
+            }
+        }
+        jarIndexLoaded = (index != null);
+        if (index == null) {
+            try {
+                index = JarIndex.build(jars,
+                        Runtime.getRuntime().availableProcessors());
+            } catch (IOException e) {
+                log.warn(sm.getString("webappClassLoader.jarIndexFail"), e);
+                return;
+            }
+            if (persistJarIndex && jarIndexFile != null) {
+                try {
+                    index.save(jarIndexFile);
+                } catch (IOException e) {
+                    log.warn(sm.getString("webappClassLoader.jarIndexSaveFail",
+                            jarIndexFile), e);
+                }
+            }
+        }
+        jarIndexBuildTime = System.currentTimeMillis() - start;
+        jarIndex = index;
+        if (log.isDebugEnabled()) {
+            log.debug("JAR index of " + jars.length + " JARs and " +
+                    index.getPackageCount() + " packages " +
+                    (jarIndexLoaded ? "loaded" : "built") + " in " +
+                    jarIndexBuildTime + "ms");
+        }
+    }
+
+
     /**
      * Returns true if the specified package name is sealed according to the
      * given manifest.
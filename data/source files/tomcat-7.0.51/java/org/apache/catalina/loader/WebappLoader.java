@@ -203,6 +203,20 @@ public class WebappLoader extends LifecycleMBeanBase
     private boolean searchExternalFirst = false;
 
 
+    /**
+     * Whether the class loader should use an index of the packages found in
+     * each JAR
+     */
+    private boolean useJarIndex = true;
+
+
+    /**
+     * Whether the class loader should save the index of the JARs in the work
+     * directory
+     */
+    private boolean persistJarIndex = false;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -363,6 +377,38 @@ public class WebappLoader extends LifecycleMBeanBase
         }
     }
 
+    /**
+     * @return Returns useJarIndex.
+     */
+    public boolean getUseJarIndex() {
+        return useJarIndex;
+    }
+
+    /**
+     * @param useJarIndex Whether the class loader should use an index of the
+     *                    packages found in each JAR to find classes and
+     *                    resources
+     */
+    public void setUseJarIndex(boolean useJarIndex) {
+        this.useJarIndex = useJarIndex;
+    }
+
+    /**
+     * @return Returns persistJarIndex.
+     */
+    public boolean getPersistJarIndex() {
+        return persistJarIndex;
+    }
+
+    /**
+     * @param persistJarIndex Whether the class loader should save the index
+     *                        of the JARs in the work directory and reuse it on
+     *                        the next start if no JAR changed
+     */
+    public void setPersistJarIndex(boolean persistJarIndex) {
+        this.persistJarIndex = persistJarIndex;
+    }
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -583,6 +629,8 @@ public class WebappLoader extends LifecycleMBeanBase
             classLoader.setResources(container.getResources());
             classLoader.setDelegate(this.delegate);
             classLoader.setSearchExternalFirst(searchExternalFirst);
+            classLoader.setUseJarIndex(useJarIndex);
+            classLoader.setPersistJarIndex(persistJarIndex);
             if (container instanceof StandardContext) {
                 classLoader.setAntiJARLocking(
                         ((StandardContext) container).getAntiJARLocking());
@@ -259,6 +259,7 @@ public final class SecurityClassLoad {
         loader.loadClass(basePackage + "util.buf.StringCache");
         loader.loadClass(basePackage + "util.buf.StringCache$ByteEntry");
         loader.loadClass(basePackage + "util.buf.StringCache$CharEntry");
+        loader.loadClass(basePackage + "util.buf.StringCache$FrequencySketch");
         // http
         loader.loadClass(basePackage + "util.http.HttpMessages");
         // Make sure system property is read at this point
@@ -34,7 +34,9 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -67,6 +69,7 @@ import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
 import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.MappedFileCache;
 import org.apache.naming.resources.ProxyDirContext;
 import org.apache.naming.resources.Resource;
 import org.apache.naming.resources.ResourceAttributes;
@@ -201,11 +204,33 @@ public class DefaultServlet
      */
     protected int sendfileSize = 48 * 1024;
 
+    /**
+     * Maximum number of bytes of files served via sendfile that may be held in
+     * memory mapped buffers. Zero or less disables the use of mapped files.
+     */
+    protected long mappedCacheMaxSize = 0;
+
+    /**
+     * Maximum size in bytes of a file that will be memory mapped.
+     */
+    protected long mappedFileMaxSize = 1024 * 1024;
+
+    /**
+     * Memory mapped files, if enabled.
+     */
+    protected transient MappedFileCache mappedFileCache = null;
+
     /**
      * Should the Accept-Ranges: bytes header be send with static resources?
      */
     protected boolean useAcceptRanges = true;
 
+    /**
+     * Should a precompressed version of a resource (the resource name with
+     * <code>.gz</code> appended) be served to clients that accept gzip?
+     */
+    protected boolean gzip = false;
+
     /**
      * Full range marker.
      */
@@ -261,7 +286,9 @@ public class DefaultServlet
      */
     @Override
     public void destroy() {
-        // NOOP
+        if (mappedFileCache != null) {
+            mappedFileCache.clear();
+        }
     }
 
 
@@ -289,6 +316,14 @@ public class DefaultServlet
             sendfileSize =
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
 
+        if (getServletConfig().getInitParameter("mappedCacheMaxSize") != null)
+            mappedCacheMaxSize =
+                Long.parseLong(getServletConfig().getInitParameter("mappedCacheMaxSize")) * 1024;
+
+        if (getServletConfig().getInitParameter("mappedFileMaxSize") != null)
+            mappedFileMaxSize =
+                Long.parseLong(getServletConfig().getInitParameter("mappedFileMaxSize")) * 1024;
+
         fileEncoding = getServletConfig().getInitParameter("fileEncoding");
 
         globalXsltFile = getServletConfig().getInitParameter("globalXsltFile");
@@ -299,6 +334,8 @@ public class DefaultServlet
         if (getServletConfig().getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(getServletConfig().getInitParameter("useAcceptRanges"));
 
+        gzip = Boolean.parseBoolean(getServletConfig().getInitParameter("gzip"));
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -328,6 +365,11 @@ public class DefaultServlet
             throw new UnavailableException("No resources");
         }
 
+        if (sendfileSize > 0 && mappedCacheMaxSize > 0) {
+            mappedFileCache =
+                new MappedFileCache(mappedCacheMaxSize, mappedFileMaxSize);
+        }
+
     }
 
 
@@ -678,6 +720,26 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Check if the user agent supports gzip encoding.
+     *
+     * @param request   The servlet request we are processing
+     * @return boolean  true if the user agent supports gzip encoding,
+     *                  and false if the user agent does not support gzip
+     *                  encoding
+     */
+    protected boolean checkIfGzip(HttpServletRequest request) {
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            String header = headers.nextElement();
+            if (header.indexOf("gzip") != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     /**
      * Check if the conditions specified in the optional If headers are
      * satisfied.
@@ -801,13 +863,14 @@ public class DefaultServlet
         boolean isError =
             response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST;
 
+        boolean included = (request.getAttribute(
+                RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
 
             // Checking If headers
-            boolean included = (request.getAttribute(
-                    RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
             if (!included && !isError &&
                     !checkIfHeaders(request, response, cacheEntry.attributes)) {
                 return;
@@ -822,6 +885,28 @@ public class DefaultServlet
             cacheEntry.attributes.setMimeType(contentType);
         }
 
+        // The validators are the ones of the original resource, even when
+        // the precompressed version is served
+        String eTag = null;
+        String lastModifiedHttp = null;
+        if (cacheEntry.resource != null && !isError) {
+            eTag = cacheEntry.attributes.getETag();
+            lastModifiedHttp = cacheEntry.attributes.getLastModifiedHttp();
+        }
+
+        // Serve the precompressed version of the resource if there is one
+        if (gzip && cacheEntry.resource != null && !included &&
+                !path.endsWith(".gz")) {
+            CacheEntry gzipCacheEntry = resources.lookupCache(path + ".gz");
+            if (gzipCacheEntry.exists && gzipCacheEntry.resource != null) {
+                response.addHeader("Vary", "Accept-Encoding");
+                if (checkIfGzip(request)) {
+                    response.addHeader("Content-Encoding", "gzip");
+                    cacheEntry = gzipCacheEntry;
+                }
+            }
+        }
+
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -847,11 +932,10 @@ public class DefaultServlet
                 ranges = parseRange(request, response, cacheEntry.attributes);
 
                 // ETag header
-                response.setHeader("ETag", cacheEntry.attributes.getETag());
+                response.setHeader("ETag", eTag);
 
                 // Last-Modified header
-                response.setHeader("Last-Modified",
-                        cacheEntry.attributes.getLastModifiedHttp());
+                response.setHeader("Last-Modified", lastModifiedHttp);
             }
 
             // Get content length
@@ -1653,6 +1737,16 @@ public class DefaultServlet
                 request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(range.start));
                 request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(range.end + 1));
             }
+            // Only map files that have been requested before
+            if (mappedFileCache != null && entry.accessCount > 0) {
+                ByteBuffer buffer = mappedFileCache.getBuffer(
+                        entry.attributes.getCanonicalPath(),
+                        entry.attributes.getContentLength(),
+                        entry.attributes.getLastModified());
+                if (buffer != null) {
+                    request.setAttribute(Globals.SENDFILE_FILE_BUFFER_ATTR, buffer);
+                }
+            }
             return true;
         }
         return false;
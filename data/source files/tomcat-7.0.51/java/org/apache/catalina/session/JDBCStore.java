@@ -31,6 +31,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import javax.naming.Context;
@@ -878,6 +879,126 @@ public class JDBCStore extends StoreBase {
         }
     }
 
+    /**
+     * Save and remove a batch of sessions in a single transaction, using
+     * JDBC batch updates.
+     *
+     * @param sessions The serialized sessions to save, and the removals
+     * @exception IOException if an input/output error occurs, or if the
+     *  sessions could not be written to the database
+     */
+    @Override
+    public void saveAll(List<SerializedSession> sessions) throws IOException {
+        if (sessions.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            SQLException failure = null;
+            int numberOfTries = 2;
+            while (numberOfTries > 0) {
+                Connection _conn = getConnection();
+                if (_conn == null) {
+                    throw new IOException(sm.getString(
+                            getStoreName() + ".noConnection"));
+                }
+
+                PreparedStatement removeBatch = null;
+                PreparedStatement saveBatch = null;
+                boolean autoCommit = true;
+                try {
+                    autoCommit = _conn.getAutoCommit();
+                    _conn.setAutoCommit(false);
+
+                    // Remove all the sessions, then insert the ones being saved
+                    removeBatch = _conn.prepareStatement("DELETE FROM "
+                            + sessionTable + " WHERE " + sessionIdCol
+                            + " = ?  AND " + sessionAppCol + " = ?");
+                    for (SerializedSession session : sessions) {
+                        removeBatch.setString(1, session.getId());
+                        removeBatch.setString(2, getName());
+                        removeBatch.addBatch();
+                    }
+                    removeBatch.executeBatch();
+
+                    boolean hasSaves = false;
+                    saveBatch = _conn.prepareStatement("INSERT INTO "
+                            + sessionTable + " (" + sessionIdCol + ", "
+                            + sessionAppCol + ", " + sessionDataCol + ", "
+                            + sessionValidCol + ", " + sessionMaxInactiveCol
+                            + ", " + sessionLastAccessedCol
+                            + ") VALUES (?, ?, ?, ?, ?, ?)");
+                    for (SerializedSession session : sessions) {
+                        if (session.isRemoval()) {
+                            continue;
+                        }
+                        byte[] data = session.getData();
+                        saveBatch.setString(1, session.getId());
+                        saveBatch.setString(2, getName());
+                        saveBatch.setBinaryStream(3,
+                                new ByteArrayInputStream(data), data.length);
+                        saveBatch.setString(4, session.isValid() ? "1" : "0");
+                        saveBatch.setInt(5, session.getMaxInactiveInterval());
+                        saveBatch.setLong(6, session.getLastAccessedTime());
+                        saveBatch.addBatch();
+                        hasSaves = true;
+                    }
+                    if (hasSaves) {
+                        saveBatch.executeBatch();
+                    }
+                    _conn.commit();
+                    failure = null;
+                    // Break out after the finally block
+                    numberOfTries = 0;
+                } catch (SQLException e) {
+                    manager.getContainer().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                    failure = e;
+                    try {
+                        _conn.rollback();
+                    } catch (SQLException e1) {
+                        // Ignore
+                    }
+                    if (dbConnection != null)
+                        close(dbConnection);
+                } finally {
+                    if (removeBatch != null) {
+                        try {
+                            removeBatch.close();
+                        } catch (SQLException e) {
+                            // Ignore
+                        }
+                    }
+                    if (saveBatch != null) {
+                        try {
+                            saveBatch.close();
+                        } catch (SQLException e) {
+                            // Ignore
+                        }
+                    }
+                    try {
+                        if (!_conn.isClosed()) {
+                            _conn.setAutoCommit(autoCommit);
+                        }
+                    } catch (SQLException e) {
+                        // Ignore
+                    }
+                    release(_conn);
+                }
+                numberOfTries--;
+            }
+            if (failure != null) {
+                throw new IOException(sm.getString(
+                        getStoreName() + ".saveBatchFailed",
+                        Integer.valueOf(sessions.size())), failure);
+            }
+        }
+
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            manager.getContainer().getLogger().debug(sm.getString(getStoreName() + ".savingBatch",
+                    Integer.valueOf(sessions.size()), sessionTable));
+        }
+    }
+
     // --------------------------------------------------------- Protected Methods
 
     /**
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates storage for byte arrays outside of the Java heap.
+ * <p>
+ * Memory is obtained from the JVM as large direct buffers (segments) that are
+ * cut into blocks whose sizes are powers of two. Freed blocks are kept on a
+ * free list per size and reused by later allocations of the same size class.
+ * Segments are only returned to the JVM when the allocator is cleared.
+ */
+public class OffHeapAllocator {
+
+    private static final int MIN_BLOCK_BITS = 6;
+
+
+    /**
+     * @param segmentSize   The size of each direct buffer allocated from the
+     *                      JVM. It is also the largest value that may be
+     *                      stored.
+     * @param maxSize       The maximum number of bytes allocated from the JVM
+     */
+    public OffHeapAllocator(int segmentSize, long maxSize) {
+        int bits = MIN_BLOCK_BITS;
+        while ((1 << bits) < segmentSize && bits < 30) {
+            bits++;
+        }
+        this.segmentSize = 1 << bits;
+        this.maxSize = maxSize;
+        this.freeLists = new SizeClass[bits - MIN_BLOCK_BITS + 1];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new SizeClass(1 << (i + MIN_BLOCK_BITS));
+        }
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final int segmentSize;
+    private final long maxSize;
+    private final SizeClass[] freeLists;
+
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private ByteBuffer currentSegment = null;
+
+    private final AtomicLong usedSize = new AtomicLong();
+    private final AtomicLong blockCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Return the number of bytes allocated from the JVM.
+     */
+    public synchronized long getAllocatedSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+
+    /**
+     * Return the number of bytes currently used by stored values, including
+     * the space lost by rounding their size up to the size of a block.
+     */
+    public long getUsedSize() {
+        return usedSize.get();
+    }
+
+
+    /**
+     * Return the number of values currently stored.
+     */
+    public long getBlockCount() {
+        return blockCount.get();
+    }
+
+
+    /**
+     * Return the number of values that could not be stored because the
+     * maximum size had been reached or the value was too large.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Copy the given bytes into a block.
+     *
+     * @return the block, or <code>null</code> if there is no space left
+     */
+    public Block store(byte[] value, int length) {
+        int sizeClass = sizeClass(length);
+        if (sizeClass < 0) {
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        SizeClass freeList = freeLists[sizeClass];
+        ByteBuffer buffer;
+        synchronized (freeList) {
+            buffer = freeList.blocks.poll();
+        }
+        if (buffer == null) {
+            buffer = allocate(freeList.blockSize);
+            if (buffer == null) {
+                rejectedCount.incrementAndGet();
+                return null;
+            }
+        }
+        buffer.clear();
+        buffer.put(value, 0, length);
+        usedSize.addAndGet(freeList.blockSize);
+        blockCount.incrementAndGet();
+        return new Block(buffer, length, sizeClass);
+    }
+
+
+    /**
+     * Copy the content of the given block into a new byte array.
+     */
+    public byte[] load(Block block) {
+        byte[] result = new byte[block.length];
+        ByteBuffer buffer = block.buffer.duplicate();
+        buffer.clear();
+        buffer.get(result);
+        return result;
+    }
+
+
+    /**
+     * Return the given block to the free list of its size. The block must not
+     * be used afterwards.
+     */
+    public void free(Block block) {
+        SizeClass freeList = freeLists[block.sizeClass];
+        synchronized (freeList) {
+            if (block.free) {
+                return;
+            }
+            block.free = true;
+            freeList.blocks.add(block.buffer);
+        }
+        usedSize.addAndGet(-freeList.blockSize);
+        blockCount.decrementAndGet();
+    }
+
+
+    /**
+     * Release all the memory of the allocator. All the blocks become invalid.
+     */
+    public synchronized void clear() {
+        for (SizeClass freeList : freeLists) {
+            synchronized (freeList) {
+                freeList.blocks.clear();
+            }
+        }
+        segments.clear();
+        currentSegment = null;
+        usedSize.set(0);
+        blockCount.set(0);
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private int sizeClass(int length) {
+        if (length > segmentSize) {
+            return -1;
+        }
+        int result = 0;
+        while ((1 << (result + MIN_BLOCK_BITS)) < length) {
+            result++;
+        }
+        return result;
+    }
+
+
+    private synchronized ByteBuffer allocate(int blockSize) {
+        if (currentSegment == null || currentSegment.remaining() < blockSize) {
+            if ((long) (segments.size() + 1) * segmentSize > maxSize) {
+                return null;
+            }
+            // The unused end of the previous segment, if any, is wasted
+            currentSegment = ByteBuffer.allocateDirect(segmentSize);
+            segments.add(currentSegment);
+        }
+        int position = currentSegment.position();
+        currentSegment.limit(position + blockSize);
+        ByteBuffer result = currentSegment.slice();
+        currentSegment.limit(currentSegment.capacity());
+        currentSegment.position(position + blockSize);
+        return result;
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * A value held by the allocator.
+     */
+    public static final class Block {
+
+        private final ByteBuffer buffer;
+        private final int length;
+        private final int sizeClass;
+        private boolean free = false;
+
+        Block(ByteBuffer buffer, int length, int sizeClass) {
+            this.buffer = buffer;
+            this.length = length;
+            this.sizeClass = sizeClass;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+
+    private static final class SizeClass {
+
+        private final int blockSize;
+        private final ArrayDeque<ByteBuffer> blocks =
+            new ArrayDeque<ByteBuffer>();
+
+        SizeClass(int blockSize) {
+            this.blockSize = blockSize;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Loader;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Implementation of the <b>Manager</b> interface intended for applications
+ * with a very large number of active sessions.
+ * <p>
+ * It differs from the {@link StandardManager} in two ways:
+ * <ul>
+ * <li>The serializable attributes of the sessions that are not being used by a
+ *     request are stored in serialized form outside of the Java heap (see
+ *     {@link OffHeapSession}).</li>
+ * <li>Sessions are indexed by expiration time in a {@link TimingWheel}, so
+ *     that each expiration pass only looks at the sessions that are due to
+ *     expire rather than at every active session.</li>
+ * </ul>
+ * Sessions are persisted across restarts in the same way as with the
+ * {@link StandardManager}.
+ */
+public class OffHeapManager extends StandardManager {
+
+    private final Log log = LogFactory.getLog(OffHeapManager.class); // must not be static
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The descriptive information about this implementation.
+     */
+    protected static final String info = "OffHeapManager/1.0";
+
+
+    /**
+     * The descriptive name of this Manager implementation (for logging).
+     */
+    protected static final String name = "OffHeapManager";
+
+
+    /**
+     * The size, in bytes, of the segments of memory allocated outside of the
+     * Java heap. It also limits the size of a serialized attribute.
+     */
+    protected int segmentSize = 1024 * 1024;
+
+
+    /**
+     * The maximum amount of memory, in bytes, used outside of the Java heap.
+     * Attributes that do not fit stay on the heap.
+     */
+    protected long maxOffHeapSize = 256L * 1024 * 1024;
+
+
+    /**
+     * The resolution, in milliseconds, of the expiration of sessions.
+     */
+    protected long expirationTick = 1000;
+
+
+    protected volatile OffHeapAllocator allocator = null;
+
+    protected volatile TimingWheel<OffHeapSession> timingWheel = null;
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong storeCount = new AtomicLong();
+    private final AtomicLong expirationLatencyTotal = new AtomicLong();
+    private final AtomicLong expirationLatencyCount = new AtomicLong();
+    private volatile long expirationLatencyMax = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+
+    public long getMaxOffHeapSize() {
+        return maxOffHeapSize;
+    }
+
+
+    public void setMaxOffHeapSize(long maxOffHeapSize) {
+        this.maxOffHeapSize = maxOffHeapSize;
+    }
+
+
+    public long getExpirationTick() {
+        return expirationTick;
+    }
+
+
+    public void setExpirationTick(long expirationTick) {
+        this.expirationTick = expirationTick;
+    }
+
+
+    /**
+     * Return the number of bytes allocated outside of the Java heap.
+     */
+    public long getOffHeapSize() {
+        OffHeapAllocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getAllocatedSize();
+    }
+
+
+    /**
+     * Return the number of bytes allocated outside of the Java heap that are
+     * holding attributes.
+     */
+    public long getOffHeapUsedSize() {
+        OffHeapAllocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getUsedSize();
+    }
+
+
+    /**
+     * Return the number of attributes held outside of the Java heap.
+     */
+    public long getOffHeapAttributeCount() {
+        OffHeapAllocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getBlockCount();
+    }
+
+
+    /**
+     * Return the number of attributes that stayed on the heap because there
+     * was no space left outside of it or the attribute was too large.
+     */
+    public long getOffHeapRejectedCount() {
+        OffHeapAllocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getRejectedCount();
+    }
+
+
+    /**
+     * Return the number of attributes moved back to the heap.
+     */
+    public long getAttributeLoadCount() {
+        return loadCount.get();
+    }
+
+
+    /**
+     * Return the number of attributes moved outside of the heap.
+     */
+    public long getAttributeStoreCount() {
+        return storeCount.get();
+    }
+
+
+    /**
+     * Return the number of sessions whose expiration is scheduled.
+     */
+    public int getScheduledSessions() {
+        TimingWheel<OffHeapSession> timingWheel = this.timingWheel;
+        return timingWheel == null ? 0 : timingWheel.getSize();
+    }
+
+
+    /**
+     * Return the average time, in milliseconds, between the time at which a
+     * session could have expired and the time at which it was expired by the
+     * background process.
+     */
+    public long getExpirationLatencyAverage() {
+        long count = expirationLatencyCount.get();
+        return count == 0 ? 0 : expirationLatencyTotal.get() / count;
+    }
+
+
+    /**
+     * Return the longest time, in milliseconds, between the time at which a
+     * session could have expired and the time at which it was expired by the
+     * background process.
+     */
+    public long getExpirationLatencyMax() {
+        return expirationLatencyMax;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Invalidate the sessions that are due to expire.
+     */
+    @Override
+    public void processExpires() {
+
+        TimingWheel<OffHeapSession> timingWheel = this.timingWheel;
+        if (timingWheel == null) {
+            return;
+        }
+
+        long timeNow = System.currentTimeMillis();
+        List<TimingWheel.Node<OffHeapSession>> due =
+            new ArrayList<TimingWheel.Node<OffHeapSession>>();
+        timingWheel.advance(timeNow, due);
+        int expireHere = 0;
+
+        if (log.isDebugEnabled())
+            log.debug("Start expire sessions " + getName() + " at " + timeNow +
+                    " due sessions " + due.size());
+        for (TimingWheel.Node<OffHeapSession> node : due) {
+            OffHeapSession session = node.getItem();
+            synchronized (session) {
+                if (session.expirationNode != node) {
+                    // Rescheduled in the meantime
+                    continue;
+                }
+                session.expirationNode = null;
+            }
+            if (session.isValid()) {
+                // Accessed since it was scheduled, or in use
+                schedule(session);
+            } else {
+                expireHere++;
+                long latency = timeNow - node.getDeadline();
+                if (latency >= 0) {
+                    expirationLatencyTotal.addAndGet(latency);
+                    expirationLatencyCount.incrementAndGet();
+                    if (latency > expirationLatencyMax) {
+                        expirationLatencyMax = latency;
+                    }
+                }
+            }
+        }
+        long timeEnd = System.currentTimeMillis();
+        if (log.isDebugEnabled())
+             log.debug("End expire sessions " + getName() + " processingTime " +
+                     (timeEnd - timeNow) + " expired sessions: " + expireHere);
+        processingTime += (timeEnd - timeNow);
+
+    }
+
+
+    @Override
+    public void add(Session session) {
+        super.add(session);
+        if (session instanceof OffHeapSession) {
+            schedule((OffHeapSession) session);
+        }
+    }
+
+
+    @Override
+    public void remove(Session session, boolean update) {
+        super.remove(session, update);
+        if (session instanceof OffHeapSession) {
+            cancel((OffHeapSession) session);
+        }
+    }
+
+
+    /**
+     * Schedule the expiration of the given session according to its current
+     * last access time and maximum inactive interval, replacing any previous
+     * scheduling.
+     */
+    public void schedule(OffHeapSession session) {
+        TimingWheel<OffHeapSession> timingWheel = this.timingWheel;
+        if (timingWheel == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.expirationNode != null) {
+                timingWheel.cancel(session.expirationNode);
+                session.expirationNode = null;
+            }
+            long expirationTime = session.getExpirationTime();
+            if (expirationTime >= 0) {
+                session.expirationNode =
+                    timingWheel.schedule(session, expirationTime);
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    @Override
+    protected StandardSession getNewSession() {
+        return new OffHeapSession(this);
+    }
+
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        allocator = new OffHeapAllocator(segmentSize, maxOffHeapSize);
+        timingWheel = new TimingWheel<OffHeapSession>(expirationTick,
+                System.currentTimeMillis());
+
+        // Loads the sessions persisted by the previous shutdown
+        super.startInternal();
+    }
+
+
+    /**
+     * Load the sessions persisted by the previous shutdown, which
+     * {@link StandardManager} adds without going through
+     * {@link #add(Session)}, and schedule their expiration.
+     */
+    @Override
+    protected void doLoad() throws ClassNotFoundException, IOException {
+        super.doLoad();
+        Session[] sessions = findSessions();
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] instanceof OffHeapSession) {
+                OffHeapSession session = (OffHeapSession) sessions[i];
+                if (session.isValidInternal() &&
+                        session.expirationNode == null) {
+                    schedule(session);
+                    session.offload();
+                }
+            }
+        }
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+
+        // Saves and expires all sessions
+        super.stopInternal();
+
+        timingWheel = null;
+        if (allocator != null) {
+            allocator.clear();
+            allocator = null;
+        }
+    }
+
+
+    /**
+     * Cancel the scheduled expiration, if any, of the given session.
+     */
+    protected void cancel(OffHeapSession session) {
+        TimingWheel<OffHeapSession> timingWheel = this.timingWheel;
+        synchronized (session) {
+            if (session.expirationNode != null) {
+                if (timingWheel != null) {
+                    timingWheel.cancel(session.expirationNode);
+                }
+                session.expirationNode = null;
+            }
+        }
+    }
+
+
+    /**
+     * Serialize the given attribute value outside of the Java heap.
+     *
+     * @return the block holding the value, or <code>null</code> if it could
+     *         not be stored
+     */
+    protected OffHeapAllocator.Block store(Object value) {
+        OffHeapAllocator allocator = this.allocator;
+        if (allocator == null) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.close();
+            bytes = bos.toByteArray();
+        } catch (IOException e) {
+            // Not serializable after all, keep it on the heap
+            if (log.isDebugEnabled())
+                log.debug(sm.getString("offHeapManager.storeFail",
+                        value.getClass().getName()), e);
+            return null;
+        }
+        OffHeapAllocator.Block block = allocator.store(bytes, bytes.length);
+        if (block != null) {
+            storeCount.incrementAndGet();
+        }
+        return block;
+    }
+
+
+    /**
+     * Deserialize the attribute value held by the given block. The block is
+     * not freed.
+     *
+     * @return the value, or <code>null</code> if it could not be read
+     */
+    protected Object load(OffHeapAllocator.Block block) {
+        OffHeapAllocator allocator = this.allocator;
+        if (allocator == null) {
+            return null;
+        }
+        ClassLoader classLoader = null;
+        Loader loader = null;
+        if (container != null) {
+            loader = container.getLoader();
+        }
+        if (loader != null) {
+            classLoader = loader.getClassLoader();
+        }
+        ObjectInputStream ois = null;
+        try {
+            ByteArrayInputStream bis =
+                new ByteArrayInputStream(allocator.load(block));
+            if (classLoader != null) {
+                ois = new CustomObjectInputStream(bis, classLoader);
+            } else {
+                ois = new ObjectInputStream(bis);
+            }
+            Object result = ois.readObject();
+            loadCount.incrementAndGet();
+            return result;
+        } catch (ClassNotFoundException e) {
+            log.error(sm.getString("offHeapManager.loadFail"), e);
+        } catch (IOException e) {
+            log.error(sm.getString("offHeapManager.loadFail"), e);
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Release the given block.
+     */
+    protected void free(OffHeapAllocator.Block block) {
+        OffHeapAllocator allocator = this.allocator;
+        if (allocator != null) {
+            allocator.free(block);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Manager;
+
+/**
+ * Session used by the {@link OffHeapManager}.
+ * <p>
+ * While no request is using the session, the attributes that can be
+ * serialized are held outside of the Java heap by the manager. An attribute
+ * is deserialized the first time it is accessed by a request and serialized
+ * again once the last request using the session ends, so that changes made to
+ * mutable attribute values are preserved. Attributes that cannot be
+ * serialized always stay on the heap.
+ * <p>
+ * <b>IMPLEMENTATION NOTE</b>: A change made to an attribute value by a request
+ * that obtained the value just before another request using the same session
+ * ended may be lost.
+ */
+public class OffHeapSession extends StandardSession {
+
+    private static final long serialVersionUID = 1L;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public OffHeapSession(Manager manager) {
+        super(manager);
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The attributes held outside of the Java heap, keyed by attribute name.
+     * The attributes currently on the heap are in {@link #attributes}.
+     */
+    protected transient Map<String, OffHeapAllocator.Block> offHeapAttributes =
+        new ConcurrentHashMap<String, OffHeapAllocator.Block>();
+
+
+    /**
+     * The number of requests currently using this session.
+     */
+    protected transient AtomicInteger activeRequests = new AtomicInteger();
+
+
+    /**
+     * The current scheduling of the expiration of this session.
+     */
+    protected transient volatile TimingWheel.Node<OffHeapSession>
+            expirationNode = null;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the time at which this session will expire if it is not
+     * accessed again, or -1 if it never expires.
+     */
+    public long getExpirationTime() {
+        if (maxInactiveInterval <= 0) {
+            return -1;
+        }
+        long accessedTime;
+        if (LAST_ACCESS_AT_START) {
+            accessedTime = lastAccessedTime;
+        } else {
+            accessedTime = thisAccessedTime;
+        }
+        return accessedTime + maxInactiveInterval * 1000L;
+    }
+
+
+    /**
+     * Return the number of attributes currently held outside of the Java
+     * heap.
+     */
+    public int getOffHeapAttributeCount() {
+        return offHeapAttributes.size();
+    }
+
+
+    @Override
+    public void setMaxInactiveInterval(int interval) {
+        super.setMaxInactiveInterval(interval);
+        // A session that did not expire until now has to be scheduled too,
+        // once it has been added to the manager
+        if (manager instanceof OffHeapManager && (expirationNode != null ||
+                (interval > 0 && isValidInternal() && id != null))) {
+            ((OffHeapManager) manager).schedule(this);
+        }
+    }
+
+
+    // ------------------------------------------------- Session Public Methods
+
+
+    @Override
+    public void access() {
+        super.access();
+        activeRequests.incrementAndGet();
+    }
+
+
+    @Override
+    public void endAccess() {
+        super.endAccess();
+        if (activeRequests.decrementAndGet() <= 0) {
+            offload();
+        }
+    }
+
+
+    @Override
+    public void recycle() {
+        freeOffHeapAttributes();
+        activeRequests.set(0);
+        expirationNode = null;
+        super.recycle();
+    }
+
+
+    // ----------------------------------------------HttpSession Public Methods
+
+
+    @Override
+    public Object getAttribute(String name) {
+        Object value = super.getAttribute(name);
+        if (value == null && name != null && !offHeapAttributes.isEmpty()) {
+            value = materialize(name);
+        }
+        return value;
+    }
+
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        // Validates the state of the session
+        super.getAttributeNames();
+        Set<String> names = new HashSet<String>();
+        names.addAll(offHeapAttributes.keySet());
+        names.addAll(attributes.keySet());
+        return Collections.enumeration(names);
+    }
+
+
+    @Override
+    public void setAttribute(String name, Object value, boolean notify) {
+        if (name != null && offHeapAttributes.containsKey(name)) {
+            if (notify) {
+                // The listeners need the value being replaced
+                materialize(name);
+            } else {
+                freeOffHeapAttribute(name);
+            }
+        }
+        super.setAttribute(name, value, notify);
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    @Override
+    protected String[] keys() {
+        if (offHeapAttributes.isEmpty()) {
+            return super.keys();
+        }
+        Set<String> names = new HashSet<String>();
+        names.addAll(offHeapAttributes.keySet());
+        names.addAll(attributes.keySet());
+        return names.toArray(new String[names.size()]);
+    }
+
+
+    @Override
+    protected void removeAttributeInternal(String name, boolean notify) {
+        if (name != null && offHeapAttributes.containsKey(name)) {
+            if (notify) {
+                // The listeners need the value being removed
+                materialize(name);
+            } else {
+                freeOffHeapAttribute(name);
+            }
+        }
+        super.removeAttributeInternal(name, notify);
+    }
+
+
+    @Override
+    protected void readObject(ObjectInputStream stream)
+        throws ClassNotFoundException, IOException {
+        if (offHeapAttributes == null) {
+            offHeapAttributes =
+                new ConcurrentHashMap<String, OffHeapAllocator.Block>();
+        }
+        if (activeRequests == null) {
+            activeRequests = new AtomicInteger();
+        }
+        super.readObject(stream);
+        if (activeRequests.get() == 0) {
+            offload();
+        }
+    }
+
+
+    @Override
+    protected void writeObject(ObjectOutputStream stream) throws IOException {
+        String[] names = offHeapAttributes.keySet().toArray(new String[0]);
+        for (String name : names) {
+            materialize(name);
+        }
+        super.writeObject(stream);
+    }
+
+
+    /**
+     * Move the attribute with the given name back to the Java heap if it is
+     * currently held outside of it.
+     *
+     * @return the value of the attribute
+     */
+    protected Object materialize(String name) {
+        synchronized (offHeapAttributes) {
+            OffHeapAllocator.Block block = offHeapAttributes.get(name);
+            if (block == null) {
+                return attributes.get(name);
+            }
+            Object value = ((OffHeapManager) manager).load(block);
+            if (value != null) {
+                attributes.put(name, value);
+            }
+            offHeapAttributes.remove(name);
+            ((OffHeapManager) manager).free(block);
+            return value;
+        }
+    }
+
+
+    /**
+     * Move the serializable attributes to off-heap storage.
+     */
+    protected void offload() {
+        if (!isValidInternal() || !(manager instanceof OffHeapManager)) {
+            return;
+        }
+        OffHeapManager offHeapManager = (OffHeapManager) manager;
+        String[] names = attributes.keySet().toArray(EMPTY_ARRAY);
+        for (String name : names) {
+            if (activeRequests.get() > 0) {
+                // A new request started using the session
+                return;
+            }
+            Object value = attributes.get(name);
+            if (!(value instanceof Serializable) || exclude(name)) {
+                continue;
+            }
+            OffHeapAllocator.Block block = offHeapManager.store(value);
+            if (block == null) {
+                continue;
+            }
+            synchronized (offHeapAttributes) {
+                offHeapAttributes.put(name, block);
+                // The value may have been replaced in the meantime
+                if (!((ConcurrentMap<String, Object>) attributes).remove(
+                        name, value)) {
+                    offHeapAttributes.remove(name);
+                    offHeapManager.free(block);
+                }
+            }
+        }
+    }
+
+
+    private void freeOffHeapAttribute(String name) {
+        synchronized (offHeapAttributes) {
+            OffHeapAllocator.Block block = offHeapAttributes.remove(name);
+            if (block != null && manager instanceof OffHeapManager) {
+                ((OffHeapManager) manager).free(block);
+            }
+        }
+    }
+
+
+    private void freeOffHeapAttributes() {
+        synchronized (offHeapAttributes) {
+            if (manager instanceof OffHeapManager) {
+                for (OffHeapAllocator.Block block :
+                        offHeapAttributes.values()) {
+                    ((OffHeapManager) manager).free(block);
+                }
+            }
+            offHeapAttributes.clear();
+        }
+    }
+}
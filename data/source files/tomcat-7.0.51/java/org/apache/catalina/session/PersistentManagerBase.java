@@ -22,10 +22,14 @@ import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.DistributedManager;
 import org.apache.catalina.Lifecycle;
@@ -186,6 +190,54 @@ public abstract class PersistentManagerBase extends ManagerBase
         new HashMap<String,Object>();
 
 
+    /**
+     * Should sessions be written to the Store asynchronously by a dedicated
+     * thread rather than by the thread that swaps them out or backs them up?
+     */
+    protected boolean writeBehind = false;
+
+
+    /**
+     * The maximum time, in milliseconds, a write waits in the write-behind
+     * queue before it is flushed to the Store.
+     */
+    protected int writeBehindDelay = 1000;
+
+
+    /**
+     * The number of queued writes that triggers a flush to the Store without
+     * waiting for the write-behind delay.
+     */
+    protected int writeBehindBatchSize = 100;
+
+
+    /**
+     * Writes waiting to be flushed to the Store, in order, keyed by session
+     * id. A later write of the same session replaces the earlier one.
+     */
+    private LinkedHashMap<String,SerializedSession> pendingWrites =
+        new LinkedHashMap<String,SerializedSession>();
+
+
+    /**
+     * Writes currently being flushed to the Store.
+     */
+    private Map<String,SerializedSession> flushingWrites = null;
+
+
+    private final Object writeBehindLock = new Object();
+    private final Object flushLock = new Object();
+    private volatile Thread writeBehindThread = null;
+    private volatile boolean writeBehindRunning = false;
+
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private final AtomicLong flushTime = new AtomicLong();
+    private volatile long flushTimeMax = 0;
+    private volatile long lastFlushTime = 0;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -292,6 +344,112 @@ public abstract class PersistentManagerBase extends ManagerBase
     }
 
 
+    /**
+     * Indicates whether sessions are written to the Store asynchronously.
+     */
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+
+    /**
+     * Set whether sessions are written to the Store asynchronously by a
+     * dedicated thread. Repeated writes of the same session that are still
+     * waiting to be flushed are coalesced and the writes are flushed in
+     * batches. Only takes effect when the Manager is started.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        boolean oldWriteBehind = this.writeBehind;
+        this.writeBehind = writeBehind;
+        support.firePropertyChange("writeBehind",
+                                   Boolean.valueOf(oldWriteBehind),
+                                   Boolean.valueOf(this.writeBehind));
+    }
+
+
+    public int getWriteBehindDelay() {
+        return writeBehindDelay;
+    }
+
+
+    public void setWriteBehindDelay(int writeBehindDelay) {
+        this.writeBehindDelay = writeBehindDelay;
+    }
+
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+
+    /**
+     * Return the number of writes waiting to be flushed to the Store.
+     */
+    public int getWriteBehindQueueSize() {
+        synchronized (writeBehindLock) {
+            return pendingWrites.size();
+        }
+    }
+
+
+    /**
+     * Return the number of writes that replaced a write of the same session
+     * that was still waiting to be flushed.
+     */
+    public long getWriteBehindCoalescedCount() {
+        return coalescedWrites.get();
+    }
+
+
+    /**
+     * Return the number of flushes of the write-behind queue.
+     */
+    public long getWriteBehindFlushCount() {
+        return flushCount.get();
+    }
+
+
+    /**
+     * Return the number of writes flushed to the Store.
+     */
+    public long getWriteBehindFlushedCount() {
+        return flushedWrites.get();
+    }
+
+
+    /**
+     * Return the time, in milliseconds, taken by the last flush of the
+     * write-behind queue.
+     */
+    public long getWriteBehindLastFlushTime() {
+        return lastFlushTime;
+    }
+
+
+    /**
+     * Return the average time, in milliseconds, taken by a flush of the
+     * write-behind queue.
+     */
+    public long getWriteBehindAverageFlushTime() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : flushTime.get() / count;
+    }
+
+
+    /**
+     * Return the longest time, in milliseconds, taken by a flush of the
+     * write-behind queue.
+     */
+    public long getWriteBehindMaxFlushTime() {
+        return flushTimeMax;
+    }
+
+
     /**
      * Return descriptive information about this Manager implementation and
      * the corresponding version number, in the format
@@ -402,6 +560,14 @@ public abstract class PersistentManagerBase extends ManagerBase
         if (store == null)
             return;
 
+        synchronized (writeBehindLock) {
+            pendingWrites.clear();
+        }
+        // Make sure no flush in progress writes after the store is cleared
+        synchronized (flushLock) {
+            // NOOP
+        }
+
         try {     
             if (SecurityUtil.isPackageProtectionEnabled()){
                 try{
@@ -597,6 +763,10 @@ public abstract class PersistentManagerBase extends ManagerBase
      * @param id Session's id to be removed
      */    
     protected void removeSession(String id){
+        if (writeBehindRunning) {
+            queueWrite(SerializedSession.removal(id));
+            return;
+        }
         try {
             if (SecurityUtil.isPackageProtectionEnabled()){
                 try{
@@ -677,6 +847,11 @@ public abstract class PersistentManagerBase extends ManagerBase
         } catch (IOException e) {
             log.warn(sm.getString("persistentManager.storeKeysException"));
         }
+        // Writes not yet flushed to the store
+        synchronized (writeBehindLock) {
+            addPendingWrites(sessionIds, flushingWrites);
+            addPendingWrites(sessionIds, pendingWrites);
+        }
         return sessionIds;
     }
 
@@ -719,8 +894,28 @@ public abstract class PersistentManagerBase extends ManagerBase
             // First check to see if another thread has loaded the session into
             // the manager
             session = sessions.get(id);
+            // Anything found from here on, from the pending writes or from
+            // the Store, has to be registered with the manager
+            boolean loaded = (session == null);
 
+            SerializedSession pending = null;
             if (session == null) {
+                pending = findPendingWrite(id);
+            }
+
+            if (session == null && pending != null) {
+                // The latest state has not been written to the store yet
+                if (!pending.isRemoval()) {
+                    try {
+                        session = pending.deserialize(this);
+                    } catch (ClassNotFoundException e) {
+                        String msg = sm.getString(
+                                "persistentManager.deserializeError", id);
+                        log.error(msg, e);
+                        throw new IllegalStateException(msg, e);
+                    }
+                }
+            } else if (session == null) {
                 try {
                     if (SecurityUtil.isPackageProtectionEnabled()){
                         try {
@@ -746,7 +941,9 @@ public abstract class PersistentManagerBase extends ManagerBase
                     log.error(msg, e);
                     throw new IllegalStateException(msg, e);
                 }
+            }
 
+            if (loaded) {
                 if (session != null && !session.isValid()) {
                     log.error(sm.getString(
                             "persistentManager.swapInInvalid", id));
@@ -816,6 +1013,19 @@ public abstract class PersistentManagerBase extends ManagerBase
             return;
         }
 
+        if (writeBehindRunning) {
+            // Serialize now, the session may be recycled before the write
+            try {
+                queueWrite(SerializedSession.serialize(
+                        (StandardSession) session));
+            } catch (IOException e) {
+                log.error(sm.getString("persistentManager.serializeError",
+                        session.getIdInternal(), e));
+                throw e;
+            }
+            return;
+        }
+
         try {
             if (SecurityUtil.isPackageProtectionEnabled()){
                 try{
@@ -857,6 +1067,15 @@ public abstract class PersistentManagerBase extends ManagerBase
         else if (store instanceof Lifecycle)
             ((Lifecycle)store).start();
 
+        if (store != null && writeBehind) {
+            writeBehindRunning = true;
+            String containerName = (container == null) ? "" : container.getName();
+            writeBehindThread = new Thread(new WriteBehindTask(),
+                    "PersistentManager-WriteBehind[" + containerName + "]");
+            writeBehindThread.setDaemon(true);
+            writeBehindThread.start();
+        }
+
         setState(LifecycleState.STARTING);
     }
 
@@ -889,6 +1108,8 @@ public abstract class PersistentManagerBase extends ManagerBase
             }
         }
 
+        stopWriteBehind();
+
         if (getStore() != null && getStore() instanceof Lifecycle)
             ((Lifecycle)getStore()).stop();
 
@@ -900,6 +1121,158 @@ public abstract class PersistentManagerBase extends ManagerBase
     // ------------------------------------------------------ Protected Methods
 
 
+    /**
+     * Add the given write to the write-behind queue, replacing any write of
+     * the same session that has not been flushed yet.
+     */
+    protected void queueWrite(SerializedSession write) {
+        synchronized (writeBehindLock) {
+            // Re-insert so that the queue stays in write order
+            if (pendingWrites.remove(write.getId()) != null) {
+                coalescedWrites.incrementAndGet();
+            }
+            pendingWrites.put(write.getId(), write);
+            if (pendingWrites.size() >= writeBehindBatchSize) {
+                writeBehindLock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Return the latest write of the given session that has not reached the
+     * Store yet, if any.
+     */
+    protected SerializedSession findPendingWrite(String id) {
+        synchronized (writeBehindLock) {
+            SerializedSession write = pendingWrites.get(id);
+            if (write == null && flushingWrites != null) {
+                write = flushingWrites.get(id);
+            }
+            return write;
+        }
+    }
+
+
+    /**
+     * Write the content of the write-behind queue to the Store. The writes
+     * that could not be written are put back in the queue, unless a later
+     * write of the same session has been queued in the meantime.
+     *
+     * @return <code>false</code> if the Store failed to write the queue
+     */
+    protected boolean flushWrites() {
+        synchronized (flushLock) {
+            List<SerializedSession> writes;
+            synchronized (writeBehindLock) {
+                if (pendingWrites.isEmpty()) {
+                    return true;
+                }
+                flushingWrites = pendingWrites;
+                pendingWrites = new LinkedHashMap<String,SerializedSession>();
+                writes = new ArrayList<SerializedSession>(
+                        flushingWrites.values());
+            }
+            long start = System.currentTimeMillis();
+            int written = 0;
+            boolean success = false;
+            try {
+                if (store instanceof StoreBase) {
+                    ((StoreBase) store).saveAll(writes);
+                    written = writes.size();
+                } else {
+                    for (SerializedSession write : writes) {
+                        if (write.isRemoval()) {
+                            store.remove(write.getId());
+                        } else {
+                            StandardSession session = write.deserialize(this);
+                            store.save(session);
+                            session.recycle();
+                        }
+                        written++;
+                    }
+                }
+                success = true;
+            } catch (Exception e) {
+                log.error(sm.getString("persistentManager.writeBehindError",
+                        Integer.valueOf(writes.size() - written)), e);
+            } finally {
+                synchronized (writeBehindLock) {
+                    if (!success) {
+                        requeueWrites(writes.subList(written, writes.size()));
+                    }
+                    flushingWrites = null;
+                }
+            }
+            long time = System.currentTimeMillis() - start;
+            lastFlushTime = time;
+            flushTime.addAndGet(time);
+            flushCount.incrementAndGet();
+            flushedWrites.addAndGet(written);
+            if (time > flushTimeMax) {
+                flushTimeMax = time;
+            }
+            return success;
+        }
+    }
+
+
+    /**
+     * Put writes that failed back at the head of the write-behind queue.
+     * Must be called holding <code>writeBehindLock</code>.
+     */
+    private void requeueWrites(List<SerializedSession> writes) {
+        LinkedHashMap<String,SerializedSession> requeued =
+                new LinkedHashMap<String,SerializedSession>();
+        for (SerializedSession write : writes) {
+            // A write queued since the flush started is more recent
+            if (!pendingWrites.containsKey(write.getId())) {
+                requeued.put(write.getId(), write);
+            }
+        }
+        requeued.putAll(pendingWrites);
+        pendingWrites = requeued;
+    }
+
+
+    /**
+     * Stop the write-behind thread, if any, and flush the writes it has not
+     * written yet.
+     */
+    protected void stopWriteBehind() {
+        Thread thread = writeBehindThread;
+        if (thread == null) {
+            return;
+        }
+        writeBehindRunning = false;
+        synchronized (writeBehindLock) {
+            writeBehindLock.notifyAll();
+        }
+        try {
+            thread.join(writeBehindDelay + 10000L);
+        } catch (InterruptedException e) {
+            // Ignore
+        }
+        writeBehindThread = null;
+        flushWrites();
+    }
+
+
+    private void addPendingWrites(Set<String> sessionIds,
+            Map<String,SerializedSession> writes) {
+        if (writes == null) {
+            return;
+        }
+        for (SerializedSession write : writes.values()) {
+            if (!write.isRemoval()) {
+                sessionIds.add(write.getId());
+            } else if (!sessions.containsKey(write.getId())) {
+                sessionIds.remove(write.getId());
+            }
+        }
+    }
+
+
     /**
      * Swap idle sessions out to Store if they are idle too long.
      */
@@ -1046,4 +1419,31 @@ public abstract class PersistentManagerBase extends ManagerBase
 
     }
 
+
+    /**
+     * Flushes the write-behind queue whenever the write-behind delay has
+     * elapsed or the queue has reached the batch size.
+     */
+    private class WriteBehindTask implements Runnable {
+
+        @Override
+        public void run() {
+            boolean failed = false;
+            while (writeBehindRunning) {
+                synchronized (writeBehindLock) {
+                    // Wait for the delay after a failure, rather than retry
+                    // at once a full queue that the Store rejected
+                    if (writeBehindRunning && (failed ||
+                            pendingWrites.size() < writeBehindBatchSize)) {
+                        try {
+                            writeBehindLock.wait(writeBehindDelay);
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                }
+                failed = !flushWrites();
+            }
+        }
+    }
 }
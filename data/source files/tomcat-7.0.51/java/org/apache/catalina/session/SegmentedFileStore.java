@@ -0,0 +1,836 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+
+/**
+ * Implementation of the <b>Store</b> interface that appends saved Sessions
+ * to a small number of log segment files in a configured directory, rather
+ * than writing a file per Session like the {@link FileStore}.
+ * <p>
+ * An index of the latest record of each Session is kept in memory and
+ * rebuilt from the segments when the Store is first used. Records that have
+ * been superseded or removed are reclaimed by copying the live records of
+ * the oldest segments to the end of the log during the background
+ * processing, whenever the proportion of live data falls below the
+ * compaction threshold. Sessions that are saved are still subject to being
+ * expired based on inactivity.
+ */
+public class SegmentedFileStore extends StoreBase {
+
+
+    // ----------------------------------------------------- Constants
+
+
+    private static final String SEGMENT_PREFIX = "sessions-";
+
+    private static final String SEGMENT_EXT = ".log";
+
+    private static final byte RECORD_SESSION = 1;
+
+    private static final byte RECORD_REMOVAL = 2;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The descriptive information about this implementation.
+     */
+    protected static final String info = "SegmentedFileStore/1.0";
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    protected static final String storeName = "segmentedFileStore";
+
+
+    /**
+     * The pathname of the directory in which the segments are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    protected String directory = ".";
+
+
+    /**
+     * The size, in bytes, above which a new segment is started.
+     */
+    protected int segmentSize = 16 * 1024 * 1024;
+
+
+    /**
+     * The proportion of live data below which the oldest segments are
+     * compacted.
+     */
+    protected double compactionThreshold = 0.5;
+
+
+    /**
+     * A File representing the directory in which the segments are stored.
+     */
+    private File directoryFile = null;
+
+
+    /**
+     * The open segments, by sequence number. The last one is the segment
+     * records are appended to.
+     */
+    private TreeMap<Integer,Segment> segments = null;
+
+
+    /**
+     * The location of the latest record of each session in the store.
+     */
+    private Map<String,Entry> index = null;
+
+    private long compactionCount = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store.
+     *
+     * @param path The new directory path
+     */
+    public synchronized void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        this.directoryFile = null;
+        support.firePropertyChange("directory", oldDirectory,
+                                   this.directory);
+    }
+
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
+    /**
+     * Return the number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return segments == null ? 0 : segments.size();
+    }
+
+
+    /**
+     * Return the number of segments that have been compacted.
+     */
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+
+    /**
+     * Return the proportion of the content of the segments that is
+     * referenced by the index.
+     */
+    public synchronized double getLiveRatio() {
+        if (segments == null) {
+            return 1.0;
+        }
+        long size = 0;
+        long live = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.size;
+            live += segment.liveBytes;
+        }
+        return size == 0 ? 1.0 : (double) live / size;
+    }
+
+
+    /**
+     * Return descriptive information about this Store implementation and
+     * the corresponding version number, in the format
+     * <code>&lt;description&gt;/&lt;version&gt;</code>.
+     */
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized int getSize() throws IOException {
+        open();
+        return index.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        open();
+        for (Segment segment : segments.values()) {
+            segment.delete();
+        }
+        segments.clear();
+        index.clear();
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized String[] keys() throws IOException {
+        open();
+        return index.keySet().toArray(new String[index.size()]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        byte[] data;
+        synchronized (this) {
+            open();
+            Entry entry = index.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (manager.getContainer().getLogger().isDebugEnabled()) {
+                manager.getContainer().getLogger().debug(sm.getString(
+                        getStoreName() + ".loading", id,
+                        segments.get(Integer.valueOf(entry.segment)).file));
+            }
+            data = new byte[entry.dataLength];
+            Segment segment = segments.get(Integer.valueOf(entry.segment));
+            segment.read(entry.offset + entry.dataOffset, data, data.length);
+        }
+        return SerializedSession.deserialize(manager, data, 0, data.length);
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void remove(String id) throws IOException {
+        open();
+        if (!index.containsKey(id)) {
+            return;
+        }
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            manager.getContainer().getLogger().debug(sm.getString(
+                    getStoreName() + ".removing", id));
+        }
+        Entry entry = encode(SerializedSession.removal(id));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(entry.record, 0, entry.length);
+        entry.record = null;
+        List<Entry> entries = new ArrayList<Entry>(1);
+        entries.add(entry);
+        append(buffer, entries);
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        SerializedSession serialized =
+            SerializedSession.serialize((StandardSession) session);
+        List<SerializedSession> sessions = new ArrayList<SerializedSession>(1);
+        sessions.add(serialized);
+        saveAll(sessions);
+    }
+
+
+    /**
+     * Append a batch of sessions and removals to the log with as few writes
+     * as the segment size allows.
+     *
+     * @param sessions The serialized sessions to save, and the removals
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void saveAll(List<SerializedSession> sessions)
+            throws IOException {
+        open();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        List<Entry> entries = new ArrayList<Entry>();
+        Set<String> batchIds = new HashSet<String>();
+        for (SerializedSession session : sessions) {
+            if (session.isRemoval() && !index.containsKey(session.getId()) &&
+                    !batchIds.contains(session.getId())) {
+                continue;
+            }
+            Entry entry = encode(session);
+            Segment active = activeSegment();
+            if (buffer.size() > 0 && active.size + buffer.size() +
+                    entry.length > segmentSize) {
+                // Write what fits in the current segment first
+                append(buffer, entries);
+                entries.clear();
+                buffer.reset();
+                active = activeSegment();
+            }
+            entry.offset = buffer.size();
+            buffer.write(entry.record, 0, entry.length);
+            entry.record = null;
+            entries.add(entry);
+            batchIds.add(session.getId());
+            if (manager.getContainer().getLogger().isDebugEnabled()) {
+                manager.getContainer().getLogger().debug(sm.getString(
+                        getStoreName() + ".saving", session.getId(),
+                        active.file));
+            }
+        }
+        if (!entries.isEmpty()) {
+            append(buffer, entries);
+        }
+    }
+
+
+    /**
+     * Expire the stored sessions whose last access time shows that they may
+     * be past their expiration, then compact the oldest segments if the
+     * proportion of live data in the store is below the compaction
+     * threshold.
+     */
+    @Override
+    public void processExpires() {
+        if (!getState().isAvailable()) {
+            return;
+        }
+
+        List<String> candidates = new ArrayList<String>();
+        synchronized (this) {
+            try {
+                open();
+            } catch (IOException e) {
+                manager.getContainer().getLogger().error("Error getting keys", e);
+                return;
+            }
+            long timeNow = System.currentTimeMillis();
+            for (Entry entry : index.values()) {
+                // The last access time is never later than the time used to
+                // decide whether the session has expired
+                if (entry.maxInactiveInterval <= 0 ||
+                        (timeNow - entry.lastAccessedTime) / 1000L >=
+                        entry.maxInactiveInterval) {
+                    candidates.add(entry.id);
+                }
+            }
+        }
+        processExpires(candidates.toArray(new String[candidates.size()]));
+
+        synchronized (this) {
+            try {
+                compact();
+            } catch (IOException e) {
+                manager.getContainer().getLogger().error(
+                        sm.getString(getStoreName() + ".compactFailed"), e);
+            }
+        }
+    }
+
+
+    /**
+     * Compact the oldest segments while the proportion of live data is below
+     * the compaction threshold. The live records of a compacted segment are
+     * appended to the log, the other records are discarded.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public synchronized void compact() throws IOException {
+        if (segments == null) {
+            return;
+        }
+        while (segments.size() > 1 && getLiveRatio() < compactionThreshold) {
+            Segment oldest = segments.firstEntry().getValue();
+            List<Entry> live = new ArrayList<Entry>();
+            for (Entry entry : index.values()) {
+                if (entry.segment == oldest.number) {
+                    live.add(entry);
+                }
+            }
+            // Keep the log order of the records
+            Entry[] sorted = live.toArray(new Entry[live.size()]);
+            Arrays.sort(sorted);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            List<Entry> entries = new ArrayList<Entry>();
+            for (Entry entry : sorted) {
+                Segment active = activeSegment();
+                if (active.size > 0 && active.size + buffer.size() +
+                        entry.length > segmentSize && buffer.size() > 0) {
+                    append(buffer, entries);
+                    entries.clear();
+                    buffer.reset();
+                }
+                byte[] record = new byte[entry.length];
+                oldest.read(entry.offset, record, record.length);
+                Entry copy = new Entry(entry.id, RECORD_SESSION,
+                        entry.maxInactiveInterval, entry.lastAccessedTime);
+                copy.offset = buffer.size();
+                copy.length = entry.length;
+                copy.dataOffset = entry.dataOffset;
+                copy.dataLength = entry.dataLength;
+                buffer.write(record, 0, record.length);
+                entries.add(copy);
+            }
+            if (!entries.isEmpty()) {
+                append(buffer, entries);
+            }
+            // Removal records of the oldest segment are no longer needed
+            segments.remove(Integer.valueOf(oldest.number));
+            oldest.delete();
+            compactionCount++;
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Close the segments.
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        if (segments != null) {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments = null;
+            index = null;
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Open the segments and rebuild the index, if not done yet.
+     */
+    private void open() throws IOException {
+        if (segments != null) {
+            return;
+        }
+        File dir = directory();
+        TreeMap<Integer,Segment> segments = new TreeMap<Integer,Segment>();
+        String[] files = dir.list();
+        if (files != null) {
+            for (String file : files) {
+                if (file.startsWith(SEGMENT_PREFIX) &&
+                        file.endsWith(SEGMENT_EXT)) {
+                    try {
+                        int number = Integer.parseInt(file.substring(
+                                SEGMENT_PREFIX.length(),
+                                file.length() - SEGMENT_EXT.length()));
+                        segments.put(Integer.valueOf(number),
+                                new Segment(number, new File(dir, file)));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+        Map<String,Entry> index = new HashMap<String,Entry>();
+        try {
+            for (Segment segment : segments.values()) {
+                scan(segment, index, segments);
+            }
+        } catch (IOException e) {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            throw e;
+        }
+        this.segments = segments;
+        this.index = index;
+    }
+
+
+    /**
+     * Read the records of the given segment into the index. A truncated or
+     * corrupted record, left by a crash during a write, ends the segment.
+     */
+    private void scan(Segment segment, Map<String,Entry> index,
+            TreeMap<Integer,Segment> segments) throws IOException {
+        byte[] header = new byte[4];
+        CRC32 crc = new CRC32();
+        long offset = 0;
+        long fileLength = segment.raf.length();
+        while (offset + 4 <= fileLength) {
+            segment.read(offset, header, 4);
+            int bodyLength = readInt(header, 0);
+            if (bodyLength <= 0 || offset + 8 + bodyLength > fileLength) {
+                break;
+            }
+            byte[] body = new byte[bodyLength + 4];
+            segment.read(offset + 4, body, body.length);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != readInt(body, bodyLength)) {
+                break;
+            }
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(body, 0, bodyLength));
+            byte type = dis.readByte();
+            String id = dis.readUTF();
+            int maxInactiveInterval = dis.readInt();
+            long lastAccessedTime = dis.readLong();
+            int headerLength = 4 + bodyLength - dis.available();
+
+            Entry entry = new Entry(id, type, maxInactiveInterval,
+                    lastAccessedTime);
+            entry.segment = segment.number;
+            entry.offset = offset;
+            entry.length = bodyLength + 8;
+            entry.dataOffset = headerLength;
+            entry.dataLength = bodyLength + 4 - headerLength;
+            segment.size = offset + entry.length;
+            update(entry, index, segments);
+            offset += entry.length;
+        }
+        if (offset < fileLength) {
+            manager.getContainer().getLogger().warn(sm.getString(
+                    getStoreName() + ".truncated", segment.file,
+                    Long.valueOf(offset)));
+            segment.raf.setLength(offset);
+        }
+        segment.size = offset;
+    }
+
+
+    /**
+     * Make the index point at the given record.
+     */
+    private void update(Entry entry, Map<String,Entry> index,
+            TreeMap<Integer,Segment> segments) {
+        Entry previous;
+        if (entry.type == RECORD_SESSION) {
+            previous = index.put(entry.id, entry);
+            segments.get(Integer.valueOf(entry.segment)).liveBytes +=
+                entry.length;
+        } else {
+            previous = index.remove(entry.id);
+        }
+        if (previous != null) {
+            segments.get(Integer.valueOf(previous.segment)).liveBytes -=
+                previous.length;
+        }
+    }
+
+
+    /**
+     * Encode the given session as a record.
+     *
+     * @return the index entry of the record, holding the encoded record
+     */
+    private Entry encode(SerializedSession session) throws IOException {
+        byte type = session.isRemoval() ? RECORD_REMOVAL : RECORD_SESSION;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        // Placeholder for the length of the body
+        dos.writeInt(0);
+        dos.writeByte(type);
+        dos.writeUTF(session.getId());
+        dos.writeInt(session.getMaxInactiveInterval());
+        dos.writeLong(session.getLastAccessedTime());
+        dos.flush();
+        int headerLength = bos.size();
+        if (!session.isRemoval()) {
+            dos.write(session.getData());
+        }
+        // Placeholder for the checksum
+        dos.writeInt(0);
+        dos.flush();
+        byte[] record = bos.toByteArray();
+        int bodyLength = record.length - 8;
+        writeInt(record, 0, bodyLength);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, bodyLength);
+        writeInt(record, record.length - 4, (int) crc.getValue());
+
+        Entry entry = new Entry(session.getId(), type,
+                session.getMaxInactiveInterval(),
+                session.getLastAccessedTime());
+        entry.record = record;
+        entry.length = record.length;
+        entry.dataOffset = headerLength;
+        entry.dataLength = record.length - 4 - headerLength;
+        return entry;
+    }
+
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) |
+            ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+
+    /**
+     * Append the content of the buffer to the active segment, and update the
+     * index with the entries of the records it holds.
+     */
+    private void append(ByteArrayOutputStream buffer, List<Entry> entries)
+            throws IOException {
+        Segment active = activeSegment();
+        long base = active.size;
+        active.append(buffer.toByteArray(), buffer.size());
+        for (Entry entry : entries) {
+            entry.segment = active.number;
+            entry.offset += base;
+            update(entry, index, segments);
+        }
+    }
+
+
+    /**
+     * Return the segment records are appended to, starting a new one if the
+     * current one is full.
+     */
+    private Segment activeSegment() throws IOException {
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            if (last.size < segmentSize) {
+                return last;
+            }
+        }
+        int number = segments.isEmpty() ? 1 : segments.lastKey().intValue() + 1;
+        String name = SEGMENT_PREFIX + String.format("%08d",
+                Integer.valueOf(number)) + SEGMENT_EXT;
+        Segment segment = new Segment(number, new File(directory(), name));
+        segments.put(Integer.valueOf(number), segment);
+        return segment;
+    }
+
+
+    /**
+     * Return a File object representing the pathname to our
+     * segment directory, creating it if it does not exist.
+     */
+    private File directory() throws IOException {
+
+        if (this.directoryFile != null) {
+            return this.directoryFile;
+        }
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Container container = manager.getContainer();
+            if (container instanceof Context) {
+                ServletContext servletContext =
+                    ((Context) container).getServletContext();
+                File work = (File)
+                    servletContext.getAttribute(ServletContext.TEMPDIR);
+                file = new File(work, this.directory);
+            } else {
+                throw new IllegalArgumentException
+                    ("Parent Container is not a Context");
+            }
+        }
+        if (!file.exists() || !file.isDirectory()) {
+            if (!file.delete() && file.exists()) {
+                throw new IOException(
+                        sm.getString("fileStore.deleteFailed", file));
+            }
+            if (!file.mkdirs() && !file.isDirectory()) {
+                throw new IOException(
+                        sm.getString("fileStore.createFailed", file));
+            }
+        }
+        this.directoryFile = file;
+        return file;
+
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * The location and expiration details of a record.
+     */
+    private static final class Entry implements Comparable<Entry> {
+
+        final String id;
+        final byte type;
+        final int maxInactiveInterval;
+        final long lastAccessedTime;
+        int segment;
+        long offset;
+        int length;
+        int dataOffset;
+        int dataLength;
+        byte[] record;
+
+        Entry(String id, byte type, int maxInactiveInterval,
+                long lastAccessedTime) {
+            this.id = id;
+            this.type = type;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.lastAccessedTime = lastAccessedTime;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return offset < o.offset ? -1 : (offset == o.offset ? 0 : 1);
+        }
+    }
+
+
+    private static final class Segment {
+
+        final int number;
+        final File file;
+        final RandomAccessFile raf;
+        long size = 0;
+        long liveBytes = 0;
+
+        Segment(int number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.size = raf.length();
+        }
+
+        void read(long position, byte[] b, int length) throws IOException {
+            raf.seek(position);
+            raf.readFully(b, 0, length);
+        }
+
+        void append(byte[] b, int length) throws IOException {
+            raf.seek(size);
+            raf.write(b, 0, length);
+            size += length;
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
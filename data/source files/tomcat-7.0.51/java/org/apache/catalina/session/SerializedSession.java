@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Manager;
+import org.apache.catalina.util.CustomObjectInputStream;
+
+/**
+ * Snapshot of a session, serialized in the format used by the
+ * <code>Store</code> implementations, that can be written to a store after
+ * the session itself has been recycled. A snapshot without data represents
+ * the removal of the session from the store.
+ */
+public final class SerializedSession {
+
+    private final String id;
+    private final byte[] data;
+    private final boolean valid;
+    private final int maxInactiveInterval;
+    private final long lastAccessedTime;
+
+
+    private SerializedSession(String id, byte[] data, boolean valid,
+            int maxInactiveInterval, long lastAccessedTime) {
+        this.id = id;
+        this.data = data;
+        this.valid = valid;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
+
+    /**
+     * Serialize the given session.
+     *
+     * @exception IOException if the session could not be serialized
+     */
+    public static SerializedSession serialize(StandardSession session)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos =
+            new ObjectOutputStream(new BufferedOutputStream(bos));
+        try {
+            session.writeObjectData(oos);
+        } finally {
+            oos.close();
+        }
+        return new SerializedSession(session.getIdInternal(),
+                bos.toByteArray(), session.isValidInternal(),
+                session.getMaxInactiveInterval(),
+                session.getLastAccessedTimeInternal());
+    }
+
+
+    /**
+     * Create the snapshot recording the removal of the given session.
+     */
+    public static SerializedSession removal(String id) {
+        return new SerializedSession(id, null, false, 0, 0);
+    }
+
+
+    public String getId() {
+        return id;
+    }
+
+
+    /**
+     * Return the serialized session, or <code>null</code> if this snapshot
+     * records the removal of the session.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+
+    public boolean isRemoval() {
+        return data == null;
+    }
+
+
+    public boolean isValid() {
+        return valid;
+    }
+
+
+    public int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+
+    public long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+
+    /**
+     * Create a new session of the given manager from the serialized data.
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    public StandardSession deserialize(Manager manager)
+            throws ClassNotFoundException, IOException {
+        return deserialize(manager, data, 0, data.length);
+    }
+
+
+    /**
+     * Create a new session of the given manager from session data serialized
+     * by {@link #serialize(StandardSession)}.
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    public static StandardSession deserialize(Manager manager, byte[] data,
+            int offset, int length)
+            throws ClassNotFoundException, IOException {
+        Loader loader = null;
+        ClassLoader classLoader = null;
+        Container container = manager.getContainer();
+        if (container != null) {
+            loader = container.getLoader();
+        }
+        if (loader != null) {
+            classLoader = loader.getClassLoader();
+        }
+        ClassLoader oldThreadContextCL =
+            Thread.currentThread().getContextClassLoader();
+        ObjectInputStream ois = null;
+        try {
+            ByteArrayInputStream bis =
+                new ByteArrayInputStream(data, offset, length);
+            if (classLoader != null) {
+                Thread.currentThread().setContextClassLoader(classLoader);
+                ois = new CustomObjectInputStream(bis, classLoader);
+            } else {
+                ois = new ObjectInputStream(bis);
+            }
+            StandardSession session =
+                (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            Thread.currentThread().setContextClassLoader(oldThreadContextCL);
+        }
+    }
+}
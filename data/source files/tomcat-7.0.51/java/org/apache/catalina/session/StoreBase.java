@@ -20,6 +20,7 @@ package org.apache.catalina.session;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
@@ -125,6 +126,34 @@ public abstract class StoreBase extends LifecycleBase implements Store {
         support.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Save and remove a batch of sessions. The sessions must be processed in
+     * the order of the list. Stores that can process several sessions more
+     * efficiently than one at a time should override this method, the default
+     * implementation calls {@link #save(org.apache.catalina.Session)} and
+     * {@link #remove(String)} for each session.
+     *
+     * @param sessions The serialized sessions to save, and the removals
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public void saveAll(List<SerializedSession> sessions) throws IOException {
+        for (SerializedSession session : sessions) {
+            if (session.isRemoval()) {
+                remove(session.getId());
+            } else {
+                try {
+                    StandardSession standardSession =
+                        session.deserialize(manager);
+                    save(standardSession);
+                    standardSession.recycle();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
     // --------------------------------------------------------- Protected Methods
 
     /**
@@ -146,6 +175,17 @@ public abstract class StoreBase extends LifecycleBase implements Store {
             manager.getContainer().getLogger().error("Error getting keys", e);
             return;
         }
+        processExpires(keys);
+    }
+
+
+    /**
+     * Expire the sessions with the given ids that are past their expiration
+     * and remove them from the Store.
+     *
+     * @param keys The ids of the sessions to check
+     */
+    protected void processExpires(String[] keys) {
         if (manager.getContainer().getLogger().isDebugEnabled()) {
             manager.getContainer().getLogger().debug(getStoreName()+ ": processExpires check number of " + keys.length + " sessions" );
         }
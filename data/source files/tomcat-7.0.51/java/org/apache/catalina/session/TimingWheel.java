@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel used to find the items whose deadline has passed
+ * without looking at the items whose deadline is still in the future.
+ * <p>
+ * Each level has 64 slots. A slot of the first level covers one tick, a slot
+ * of the second level covers 64 ticks and so on. Items are placed in the
+ * lowest level that can hold their deadline and move down a level each time
+ * the slot that holds them is reached, so advancing the wheel only touches
+ * the items that are due plus, occasionally, the content of a single slot of
+ * a higher level.
+ *
+ * @param <T> The type of the scheduled items
+ */
+public class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+
+    /**
+     * @param tickMillis    The duration of a tick of the wheel
+     * @param timeNow       The current time
+     */
+    public TimingWheel(long tickMillis, long timeNow) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = timeNow / tickMillis;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Slot<T>[][] slots = new Slot[LEVELS][SLOTS];
+        this.wheel = slots;
+        for (int i = 0; i < LEVELS; i++) {
+            for (int j = 0; j < SLOTS; j++) {
+                wheel[i][j] = new Slot<T>();
+            }
+        }
+    }
+
+
+    private final long tickMillis;
+    private final Slot<T>[][] wheel;
+    private final Slot<T> overdue = new Slot<T>();
+    private long currentTick;
+    private int size = 0;
+
+
+    /**
+     * Return the number of items currently scheduled.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+
+    /**
+     * Return the duration of a tick of the wheel.
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+
+    /**
+     * Schedule the given item.
+     *
+     * @param item      The item
+     * @param deadline  The time at, or shortly after, which the item should
+     *                  be returned by {@link #advance(long, List)}
+     * @return a handle that may be used to cancel the scheduling
+     */
+    public synchronized Node<T> schedule(T item, long deadline) {
+        // Round up so that items are never returned early
+        Node<T> node = new Node<T>(item, deadline,
+                (deadline + tickMillis - 1) / tickMillis);
+        insert(node);
+        size++;
+        return node;
+    }
+
+
+    /**
+     * Cancel the given scheduling. Cancelled nodes are discarded when their
+     * slot is reached.
+     */
+    public synchronized void cancel(Node<T> node) {
+        if (!node.cancelled) {
+            node.cancelled = true;
+            size--;
+        }
+    }
+
+
+    /**
+     * Advance the wheel to the given time.
+     *
+     * @param timeNow   The current time
+     * @param due       The list to which the nodes of the items whose
+     *                  deadline has passed are added. These nodes are no
+     *                  longer scheduled.
+     */
+    public synchronized void advance(long timeNow, List<Node<T>> due) {
+        long targetTick = timeNow / tickMillis;
+        drain(overdue, due);
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Move the content of the higher level slots that are reached
+            // down before the first level slot is processed
+            for (int level = LEVELS - 1; level > 0; level--) {
+                long shift = SLOT_BITS * level;
+                if ((currentTick & ((1L << shift) - 1)) == 0) {
+                    cascade(wheel[level][(int) ((currentTick >>> shift)
+                            & SLOT_MASK)], due);
+                }
+            }
+            drain(wheel[0][(int) (currentTick & SLOT_MASK)], due);
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void insert(Node<T> node) {
+        long delta = node.tick - currentTick;
+        if (delta <= 0) {
+            overdue.add(node);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            long shift = SLOT_BITS * level;
+            if (delta < (1L << (shift + SLOT_BITS))
+                    || level == LEVELS - 1) {
+                wheel[level][(int) ((node.tick >>> shift) & SLOT_MASK)]
+                        .add(node);
+                return;
+            }
+        }
+    }
+
+
+    private void drain(Slot<T> slot, List<Node<T>> due) {
+        if (slot.nodes.isEmpty()) {
+            return;
+        }
+        for (Node<T> node : slot.nodes) {
+            if (!node.cancelled) {
+                node.cancelled = true;
+                size--;
+                due.add(node);
+            }
+        }
+        slot.clear();
+    }
+
+
+    private void cascade(Slot<T> slot, List<Node<T>> due) {
+        if (slot.nodes.isEmpty()) {
+            return;
+        }
+        ArrayList<Node<T>> nodes = slot.nodes;
+        slot.nodes = new ArrayList<Node<T>>();
+        for (Node<T> node : nodes) {
+            if (node.cancelled) {
+                continue;
+            }
+            if (node.tick <= currentTick) {
+                node.cancelled = true;
+                size--;
+                due.add(node);
+            } else {
+                insert(node);
+            }
+        }
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * A scheduled item.
+     */
+    public static final class Node<T> {
+
+        private final T item;
+        private final long deadline;
+        private final long tick;
+        private boolean cancelled = false;
+
+        Node(T item, long deadline, long tick) {
+            this.item = item;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+
+    private static final class Slot<T> {
+
+        private ArrayList<Node<T>> nodes = new ArrayList<Node<T>>();
+
+        void add(Node<T> node) {
+            nodes.add(node);
+        }
+
+        void clear() {
+            if (nodes.size() > 64) {
+                // Don't hold on to the backing array of a large burst
+                nodes = new ArrayList<Node<T>>();
+            } else {
+                nodes.clear();
+            }
+        }
+    }
+}
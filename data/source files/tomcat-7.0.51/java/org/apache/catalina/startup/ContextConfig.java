@@ -39,7 +39,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.naming.Binding;
 import javax.naming.NameNotFoundException;
@@ -99,6 +104,7 @@ import org.apache.tomcat.util.digester.RuleSet;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.scan.Jar;
 import org.apache.tomcat.util.scan.JarFactory;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXParseException;
 
@@ -125,6 +131,16 @@ public class ContextConfig implements LifecycleListener {
         new LoginConfig("NONE", null, null, null);
 
 
+    private static final String WEB_SERVLET =
+        "Ljavax/servlet/annotation/WebServlet;";
+
+    private static final String WEB_FILTER =
+        "Ljavax/servlet/annotation/WebFilter;";
+
+    private static final String WEB_LISTENER =
+        "Ljavax/servlet/annotation/WebListener;";
+
+
 
     /**
      * The set of Authenticators that we know how to configure.  The key is
@@ -1874,6 +1890,13 @@ public class ContextConfig implements LifecycleListener {
 
     protected void processAnnotations(Set<WebXml> fragments,
             boolean handlesTypesOnly) {
+        int threads = getAnnotationScanThreads();
+        ScanCache cache = ScanCache.getInstance(context);
+        if (threads > 1 || cache != null) {
+            processAnnotationsConcurrently(fragments, handlesTypesOnly,
+                    threads, cache);
+            return;
+        }
         for(WebXml fragment : fragments) {
             WebXml annotations = new WebXml();
             // no impact on distributable
@@ -1888,6 +1911,101 @@ public class ContextConfig implements LifecycleListener {
         }
     }
 
+    /**
+     * Scan the JARs of the given fragments for annotations using several
+     * threads and, if not <code>null</code>, the given scan cache. The class
+     * files are parsed by the scanning threads while the results are checked
+     * against {@link HandlesTypes} and merged, in the order of the fragments,
+     * by the calling thread. Fragments that are not packaged as JARs are
+     * processed by the calling thread.
+     */
+    protected void processAnnotationsConcurrently(Set<WebXml> fragments,
+            boolean handlesTypesOnly, int threads, ScanCache cache) {
+
+        List<WebXml> list = new ArrayList<WebXml>(fragments);
+        List<Future<AnnotationScanResult>> results =
+            new ArrayList<Future<AnnotationScanResult>>(list.size());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, list.size())),
+                new TaskThreadFactory(context.getName() + "-annotationScan-",
+                        true, Thread.NORM_PRIORITY));
+        try {
+            for (WebXml fragment : list) {
+                URL url = fragment.getURL();
+                if (url != null && "jar".equals(url.getProtocol())) {
+                    results.add(executor.submit(new AnnotationScanTask(url,
+                            handlesTypesOnly || fragment.isMetadataComplete(),
+                            cache)));
+                } else {
+                    results.add(null);
+                }
+            }
+
+            for (int i = 0; i < list.size(); i++) {
+                WebXml fragment = list.get(i);
+                Future<AnnotationScanResult> future = results.get(i);
+                WebXml annotations;
+                if (future == null) {
+                    annotations = new WebXml();
+                    // no impact on distributable
+                    annotations.setDistributable(true);
+                    processAnnotationsUrl(fragment.getURL(), annotations,
+                            (handlesTypesOnly || fragment.isMetadataComplete()));
+                } else {
+                    AnnotationScanResult result;
+                    try {
+                        result = future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        log.error(sm.getString("contextConfig.jar",
+                                fragment.getURL()), e);
+                        ok = false;
+                        return;
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(sm.getString(
+                                "contextConfig.jar", fragment.getURL()),
+                                e.getCause());
+                    }
+                    for (ScanCache.ClassEntry entry : result.getClasses()) {
+                        checkHandlesTypes(entry);
+                    }
+                    annotations = result.getAnnotations();
+                }
+                Set<WebXml> set = new HashSet<WebXml>();
+                set.add(annotations);
+                // Merge annotations into fragment - fragment takes priority
+                fragment.merge(set);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Return the number of threads to use to scan JARs for annotations.
+     */
+    private int getAnnotationScanThreads() {
+        if (!(context instanceof StandardContext)) {
+            return 1;
+        }
+        int result = ((StandardContext) context).getAnnotationScanThreads();
+
+        // Positive values are unchanged
+        if (result > 0) {
+            return result;
+        }
+
+        // Zero == Runtime.getRuntime().availableProcessors()
+        // -ve  == Runtime.getRuntime().availableProcessors() + value
+        result = Runtime.getRuntime().availableProcessors() + result;
+        if (result < 1) {
+            result = 1;
+        }
+        return result;
+    }
+
+
     protected void processAnnotationsUrl(URL url, WebXml fragment,
             boolean handlesTypesOnly) {
         if (url == null) {
@@ -2059,17 +2177,29 @@ public class ContextConfig implements LifecycleListener {
             return;
         }
 
+        processAnnotationEntries(clazz, fragment);
+    }
+
+
+    /**
+     * Add the Servlets, filters and listeners declared by the annotations of
+     * the given class to the given fragment. This method does not use any
+     * state of this object and may be called by several threads at the same
+     * time for different fragments.
+     */
+    protected void processAnnotationEntries(JavaClass clazz, WebXml fragment) {
+
         String className = clazz.getClassName();
 
         AnnotationEntry[] annotationsEntries = clazz.getAnnotationEntries();
 
         for (AnnotationEntry ae : annotationsEntries) {
             String type = ae.getAnnotationType();
-            if ("Ljavax/servlet/annotation/WebServlet;".equals(type)) {
+            if (WEB_SERVLET.equals(type)) {
                 processAnnotationWebServlet(className, ae, fragment);
-            }else if ("Ljavax/servlet/annotation/WebFilter;".equals(type)) {
+            }else if (WEB_FILTER.equals(type)) {
                 processAnnotationWebFilter(className, ae, fragment);
-            }else if ("Ljavax/servlet/annotation/WebListener;".equals(type)) {
+            }else if (WEB_LISTENER.equals(type)) {
                 fragment.addListener(className);
             } else {
                 // Unknown annotation - ignore
@@ -2089,18 +2219,32 @@ public class ContextConfig implements LifecycleListener {
         if (typeInitializerMap.size() == 0)
             return;
 
-        if ((javaClass.getAccessFlags() &
+        checkHandlesTypes(new ScanCache.ClassEntry(null, javaClass));
+    }
+
+    /**
+     * Check a class against {@link HandlesTypes}, using the subset of its
+     * byte code kept by the {@link ScanCache}.
+     * @param classEntry
+     */
+    protected void checkHandlesTypes(ScanCache.ClassEntry classEntry) {
+
+        // Skip this if we can
+        if (typeInitializerMap.size() == 0)
+            return;
+
+        if ((classEntry.getAccessFlags() &
                 org.apache.tomcat.util.bcel.Constants.ACC_ANNOTATION) > 0) {
             // Skip annotations.
             return;
         }
 
-        String className = javaClass.getClassName();
+        String className = classEntry.getClassName();
 
         Class<?> clazz = null;
         if (handlesTypesNonAnnotations) {
             // This *might* be match for a HandlesType.
-            populateJavaClassCache(className, javaClass);
+            populateJavaClassCache(className, classEntry);
             JavaClassCacheEntry entry = javaClassCache.get(className);
             if (entry.getSciSet() == null) {
                 try {
@@ -2136,11 +2280,11 @@ public class ContextConfig implements LifecycleListener {
             for (Map.Entry<Class<?>, Set<ServletContainerInitializer>> entry :
                     typeInitializerMap.entrySet()) {
                 if (entry.getKey().isAnnotation()) {
-                    AnnotationEntry[] annotationEntries =
-                            javaClass.getAnnotationEntries();
-                    for (AnnotationEntry annotationEntry : annotationEntries) {
+                    String[] annotationTypes =
+                            classEntry.getAnnotationTypes();
+                    for (String annotationType : annotationTypes) {
                         if (entry.getKey().getName().equals(
-                                getClassName(annotationEntry.getAnnotationType()))) {
+                                getClassName(annotationType))) {
                             if (clazz == null) {
                                 clazz = Introspection.loadClass(
                                         context, className);
@@ -2186,7 +2330,8 @@ public class ContextConfig implements LifecycleListener {
         return msg.toString();
     }
 
-    private void populateJavaClassCache(String className, JavaClass javaClass) {
+    private void populateJavaClassCache(String className,
+            ScanCache.ClassEntry javaClass) {
         if (javaClassCache.containsKey(className)) {
             return;
         }
@@ -2212,7 +2357,8 @@ public class ContextConfig implements LifecycleListener {
             ClassParser parser = new ClassParser(is, null);
             try {
                 JavaClass clazz = parser.parse();
-                populateJavaClassCache(clazz.getClassName(), clazz);
+                populateJavaClassCache(clazz.getClassName(),
+                        new ScanCache.ClassEntry(null, clazz));
             } catch (ClassFormatException e) {
                 log.debug(sm.getString("contextConfig.invalidSciHandlesTypes",
                         className), e);
@@ -2683,6 +2829,160 @@ public class ContextConfig implements LifecycleListener {
         }
     }
 
+    /**
+     * Parses the class files of a JAR, or finds them in the scan cache, and
+     * collects the annotations they declare. This does not modify the state
+     * of the enclosing object, which the results are applied to afterwards.
+     */
+    private class AnnotationScanTask
+            implements Callable<AnnotationScanResult> {
+
+        private final URL url;
+        private final boolean handlesTypesOnly;
+        private final ScanCache cache;
+
+        public AnnotationScanTask(URL url, boolean handlesTypesOnly,
+                ScanCache cache) {
+            this.url = url;
+            this.handlesTypesOnly = handlesTypesOnly;
+            this.cache = cache;
+        }
+
+        @Override
+        public AnnotationScanResult call() {
+            AnnotationScanResult result = new AnnotationScanResult();
+
+            String digest = null;
+            List<ScanCache.ClassEntry> classes = null;
+            File file = (cache == null) ? null : ScanCache.getJarFile(url);
+            if (file != null) {
+                try {
+                    digest = cache.getDigest(file);
+                    classes = cache.getClasses(digest);
+                } catch (IOException e) {
+                    log.warn(sm.getString("scanCache.digestFail", file), e);
+                }
+            }
+
+            Jar jar = null;
+            try {
+                if (classes == null) {
+                    jar = JarFactory.newInstance(url);
+                    classes = scan(jar, result.getAnnotations());
+                    if (digest != null) {
+                        cache.putClasses(digest, classes);
+                    }
+                } else if (!handlesTypesOnly) {
+                    // Only the classes with Servlet annotations are parsed
+                    for (ScanCache.ClassEntry entry : classes) {
+                        if (entry.getEntryName() != null &&
+                                entry.hasAnnotation(WEB_SERVLET, WEB_FILTER,
+                                        WEB_LISTENER)) {
+                            if (jar == null) {
+                                jar = JarFactory.newInstance(url);
+                            }
+                            parse(jar, entry.getEntryName(),
+                                    result.getAnnotations());
+                        }
+                    }
+                }
+                result.setClasses(classes);
+            } catch (IOException e) {
+                log.error(sm.getString("contextConfig.jar", url), e);
+            } finally {
+                if (jar != null) {
+                    jar.close();
+                }
+            }
+            return result;
+        }
+
+        private List<ScanCache.ClassEntry> scan(Jar jar, WebXml fragment) {
+            List<ScanCache.ClassEntry> classes =
+                new ArrayList<ScanCache.ClassEntry>();
+            jar.nextEntry();
+            String entryName = jar.getEntryName();
+            while (entryName != null) {
+                if (entryName.endsWith(".class")) {
+                    InputStream is = null;
+                    try {
+                        is = jar.getEntryInputStream();
+                        JavaClass clazz = new ClassParser(is, null).parse();
+                        classes.add(new ScanCache.ClassEntry(entryName, clazz));
+                        if (!handlesTypesOnly) {
+                            processAnnotationEntries(clazz, fragment);
+                        }
+                    } catch (IOException e) {
+                        log.error(sm.getString("contextConfig.inputStreamJar",
+                                entryName, url),e);
+                    } catch (ClassFormatException e) {
+                        log.error(sm.getString("contextConfig.inputStreamJar",
+                                entryName, url),e);
+                    } finally {
+                        if (is != null) {
+                            try {
+                                is.close();
+                            } catch (IOException ioe) {
+                                // Ignore
+                            }
+                        }
+                    }
+                }
+                jar.nextEntry();
+                entryName = jar.getEntryName();
+            }
+            return classes;
+        }
+
+        private void parse(Jar jar, String entryName, WebXml fragment) {
+            InputStream is = null;
+            try {
+                is = jar.getInputStream(entryName);
+                if (is != null) {
+                    processAnnotationEntries(
+                            new ClassParser(is, null).parse(), fragment);
+                }
+            } catch (IOException e) {
+                log.error(sm.getString("contextConfig.inputStreamJar",
+                        entryName, url),e);
+            } catch (ClassFormatException e) {
+                log.error(sm.getString("contextConfig.inputStreamJar",
+                        entryName, url),e);
+            } finally {
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException ioe) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+
+    private static class AnnotationScanResult {
+        private final WebXml annotations = new WebXml();
+        private List<ScanCache.ClassEntry> classes =
+            Collections.emptyList();
+
+        public AnnotationScanResult() {
+            // no impact on distributable
+            annotations.setDistributable(true);
+        }
+
+        public WebXml getAnnotations() {
+            return annotations;
+        }
+
+        public List<ScanCache.ClassEntry> getClasses() {
+            return classes;
+        }
+
+        public void setClasses(List<ScanCache.ClassEntry> classes) {
+            this.classes = classes;
+        }
+    }
+
     private static class DefaultWebXmlCacheEntry {
         private final WebXml webXml;
         private final long globalTimeStamp;
@@ -2715,7 +3015,7 @@ public class ContextConfig implements LifecycleListener {
 
         private Set<ServletContainerInitializer> sciSet = null;
 
-        public JavaClassCacheEntry(JavaClass javaClass) {
+        public JavaClassCacheEntry(ScanCache.ClassEntry javaClass) {
             superclassName = javaClass.getSuperclassName();
             interfaceNames = javaClass.getInterfaceNames();
         }
@@ -0,0 +1,595 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.core.StandardContext;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.bcel.classfile.AnnotationEntry;
+import org.apache.tomcat.util.bcel.classfile.JavaClass;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * On-disk cache of the results of scanning JARs for annotations and TLDs.
+ * Results are keyed by a digest of the content of the JAR, so they remain
+ * valid across redeployments and may be shared by several web applications
+ * as long as the JAR does not change.
+ * <p>
+ * The classes found in a JAR are stored as the subset of their byte code
+ * needed to check them against {@link javax.servlet.annotation.HandlesTypes}
+ * and to find the classes carrying Servlet annotations. The TLDs found in a
+ * JAR are stored as their URI and listeners.
+ */
+public class ScanCache {
+
+    private static final Log log = LogFactory.getLog(ScanCache.class);
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private static final int MAGIC = 0x53434E43;
+
+    private static final int VERSION = 1;
+
+    private static final String CLASSES_EXT = ".classes";
+
+    private static final String TLDS_EXT = ".tlds";
+
+    /**
+     * The caches by canonical directory, so that web applications configured
+     * with the same directory share the digests computed so far.
+     */
+    private static final ConcurrentMap<File,ScanCache> instances =
+        new ConcurrentHashMap<File,ScanCache>();
+
+
+    /**
+     * Return the scan cache configured for the given context.
+     *
+     * @return the cache, or <code>null</code> if the context does not use a
+     *         scan cache
+     */
+    public static ScanCache getInstance(Context context) {
+        if (!(context instanceof StandardContext)) {
+            return null;
+        }
+        String path = ((StandardContext) context).getScanCacheDirectory();
+        if (path == null || path.length() == 0) {
+            return null;
+        }
+        File dir = new File(path);
+        if (!dir.isAbsolute()) {
+            dir = new File(System.getProperty(Globals.CATALINA_BASE_PROP),
+                    path);
+        }
+        try {
+            dir = dir.getCanonicalFile();
+        } catch (IOException e) {
+            dir = dir.getAbsoluteFile();
+        }
+        ScanCache cache = instances.get(dir);
+        if (cache == null) {
+            cache = new ScanCache(dir);
+            ScanCache previous = instances.putIfAbsent(dir, cache);
+            if (previous != null) {
+                cache = previous;
+            }
+        }
+        return cache;
+    }
+
+
+    /**
+     * Return the local JAR file the given URL refers to.
+     *
+     * @param url   A <code>jar:</code> URL of the root of a JAR
+     * @return the JAR file, or <code>null</code> if the URL does not refer to
+     *         a JAR in the local file system
+     */
+    public static File getJarFile(URL url) {
+        if (!"jar".equals(url.getProtocol())) {
+            return null;
+        }
+        String spec = url.getFile();
+        int separator = spec.indexOf("!/");
+        if (separator < 0 || separator + 2 != spec.length()) {
+            // Not the root of the JAR, or a nested JAR
+            return null;
+        }
+        try {
+            URL jarUrl = new URL(spec.substring(0, separator));
+            if (!"file".equals(jarUrl.getProtocol())) {
+                return null;
+            }
+            File file = new File(jarUrl.toURI());
+            return file.isFile() ? file : null;
+        } catch (IOException e) {
+            return null;
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final File directory;
+
+    /**
+     * The digests computed so far by JAR path. A digest is reused as long as
+     * the length and the last modification time of the JAR are unchanged.
+     */
+    private final ConcurrentMap<String,Digest> digests =
+        new ConcurrentHashMap<String,Digest>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+
+    public ScanCache(File directory) {
+        this.directory = directory;
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+    public File getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Return the number of lookups that found a cached result.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * Return the number of lookups that did not find a cached result.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Return the hexadecimal MD5 digest of the content of the given JAR.
+     *
+     * @exception IOException if the JAR cannot be read
+     */
+    public String getDigest(File jar) throws IOException {
+        String path = jar.getAbsolutePath();
+        long length = jar.length();
+        long lastModified = jar.lastModified();
+        Digest digest = digests.get(path);
+        if (digest != null && digest.length == length &&
+                digest.lastModified == lastModified) {
+            return digest.value;
+        }
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buf = new byte[8192];
+        InputStream is = new FileInputStream(jar);
+        try {
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        String value = HexUtils.toHexString(md.digest());
+        digests.put(path, new Digest(length, lastModified, value));
+        return value;
+    }
+
+
+    /**
+     * Return the classes found in the JAR with the given digest.
+     *
+     * @return the classes, or <code>null</code> if the JAR is not in the cache
+     */
+    public List<ClassEntry> getClasses(String digest) {
+        DataInputStream in = open(digest + CLASSES_EXT);
+        if (in == null) {
+            return null;
+        }
+        try {
+            int count = in.readInt();
+            List<ClassEntry> result = new ArrayList<ClassEntry>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(new ClassEntry(readString(in), in.readUTF(),
+                        readString(in), in.readInt(), readStrings(in),
+                        readStrings(in)));
+            }
+            hitCount.incrementAndGet();
+            return result;
+        } catch (IOException e) {
+            return corrupt(digest + CLASSES_EXT, e);
+        } finally {
+            close(in);
+        }
+    }
+
+
+    /**
+     * Store the classes found in the JAR with the given digest.
+     */
+    public void putClasses(String digest, List<ClassEntry> classes) {
+        DataOutputStream out = null;
+        File temp = null;
+        try {
+            temp = createTempFile(digest);
+            out = create(temp);
+            out.writeInt(classes.size());
+            for (ClassEntry entry : classes) {
+                writeString(out, entry.getEntryName());
+                out.writeUTF(entry.getClassName());
+                writeString(out, entry.getSuperclassName());
+                out.writeInt(entry.getAccessFlags());
+                writeStrings(out, entry.getInterfaceNames());
+                writeStrings(out, entry.getAnnotationTypes());
+            }
+            out.close();
+            out = null;
+            commit(temp, digest + CLASSES_EXT);
+        } catch (IOException e) {
+            log.warn(sm.getString("scanCache.writeFail", digest), e);
+            if (temp != null) {
+                temp.delete();
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+
+    /**
+     * Return the TLDs found in the JAR with the given digest.
+     *
+     * @return the TLDs, or <code>null</code> if the JAR is not in the cache
+     */
+    public List<TldEntry> getTlds(String digest) {
+        DataInputStream in = open(digest + TLDS_EXT);
+        if (in == null) {
+            return null;
+        }
+        try {
+            int count = in.readInt();
+            List<TldEntry> result = new ArrayList<TldEntry>(count);
+            for (int i = 0; i < count; i++) {
+                String entryName = in.readUTF();
+                String uri = readString(in);
+                String[] listeners = readStrings(in);
+                List<String> list = new ArrayList<String>(listeners.length);
+                Collections.addAll(list, listeners);
+                result.add(new TldEntry(entryName, uri, list));
+            }
+            hitCount.incrementAndGet();
+            return result;
+        } catch (IOException e) {
+            return corrupt(digest + TLDS_EXT, e);
+        } finally {
+            close(in);
+        }
+    }
+
+
+    /**
+     * Store the TLDs found in the JAR with the given digest.
+     */
+    public void putTlds(String digest, List<TldEntry> tlds) {
+        DataOutputStream out = null;
+        File temp = null;
+        try {
+            temp = createTempFile(digest);
+            out = create(temp);
+            out.writeInt(tlds.size());
+            for (TldEntry entry : tlds) {
+                out.writeUTF(entry.getEntryName());
+                writeString(out, entry.getUri());
+                List<String> listeners = entry.getListeners();
+                writeStrings(out,
+                        listeners.toArray(new String[listeners.size()]));
+            }
+            out.close();
+            out = null;
+            commit(temp, digest + TLDS_EXT);
+        } catch (IOException e) {
+            log.warn(sm.getString("scanCache.writeFail", digest), e);
+            if (temp != null) {
+                temp.delete();
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private DataInputStream open(String name) {
+        File file = new File(directory, name);
+        if (!file.isFile()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                return in;
+            }
+        } catch (IOException e) {
+            // Treat as a miss below
+        }
+        close(in);
+        missCount.incrementAndGet();
+        return null;
+    }
+
+
+    private <T> List<T> corrupt(String name, IOException e) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("scanCache.readFail", name), e);
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+
+    private File createTempFile(String digest) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() &&
+                !directory.isDirectory()) {
+            throw new IOException(sm.getString("scanCache.mkdirFail",
+                    directory));
+        }
+        return File.createTempFile(digest, ".tmp", directory);
+    }
+
+
+    private static DataOutputStream create(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        return out;
+    }
+
+
+    private void commit(File temp, String name) throws IOException {
+        // Readers never see a partially written entry
+        File file = new File(directory, name);
+        if (!temp.renameTo(file)) {
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException(file.getPath());
+            }
+        }
+    }
+
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+
+    private static String[] readStrings(DataInputStream in)
+            throws IOException {
+        String[] result = new String[in.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = in.readUTF();
+        }
+        return result;
+    }
+
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+
+    private static void writeStrings(DataOutputStream out, String[] strings)
+            throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+
+    // ---------------------------------------------------------- Inner classes
+
+    private static final class Digest {
+
+        final long length;
+        final long lastModified;
+        final String value;
+
+        Digest(long length, long lastModified, String value) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+
+
+    /**
+     * The parts of a class file needed for annotation processing.
+     */
+    public static final class ClassEntry {
+
+        private final String entryName;
+        private final String className;
+        private final String superclassName;
+        private final int accessFlags;
+        private final String[] interfaceNames;
+        private final String[] annotationTypes;
+
+        public ClassEntry(String entryName, JavaClass javaClass) {
+            this.entryName = entryName;
+            this.className = javaClass.getClassName();
+            this.superclassName = javaClass.getSuperclassName();
+            this.accessFlags = javaClass.getAccessFlags();
+            this.interfaceNames = javaClass.getInterfaceNames();
+            AnnotationEntry[] entries = javaClass.getAnnotationEntries();
+            this.annotationTypes = new String[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                annotationTypes[i] = entries[i].getAnnotationType();
+            }
+        }
+
+        public ClassEntry(String entryName, String className,
+                String superclassName, int accessFlags,
+                String[] interfaceNames, String[] annotationTypes) {
+            this.entryName = entryName;
+            this.className = className;
+            this.superclassName = superclassName;
+            this.accessFlags = accessFlags;
+            this.interfaceNames = interfaceNames;
+            this.annotationTypes = annotationTypes;
+        }
+
+        /**
+         * Return the name of the JAR entry holding the class, if known.
+         */
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getSuperclassName() {
+            return superclassName;
+        }
+
+        public int getAccessFlags() {
+            return accessFlags;
+        }
+
+        public String[] getInterfaceNames() {
+            return interfaceNames;
+        }
+
+        /**
+         * Return the types, in internal form, of the annotations of the class.
+         */
+        public String[] getAnnotationTypes() {
+            return annotationTypes;
+        }
+
+        /**
+         * Does the class carry any of the given annotation types?
+         */
+        public boolean hasAnnotation(String... types) {
+            for (String annotationType : annotationTypes) {
+                for (String type : types) {
+                    if (type.equals(annotationType)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * The parts of a TLD needed to configure a web application.
+     */
+    public static final class TldEntry {
+
+        private final String entryName;
+        private final String uri;
+        private final List<String> listeners;
+
+        public TldEntry(String entryName, String uri, List<String> listeners) {
+            this.entryName = entryName;
+            this.uri = uri;
+            this.listeners = listeners;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        /**
+         * Return the URI of the tag library, or <code>null</code> if the TLD
+         * does not define one.
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        public List<String> getListeners() {
+            return listeners;
+        }
+    }
+}
@@ -21,10 +21,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 
@@ -175,6 +177,18 @@ public final class TldConfig  implements LifecycleListener {
 
     private ArrayList<String> listeners = new ArrayList<String>();
 
+    /**
+     * The cache of JAR scan results, if any.
+     */
+    private ScanCache scanCache = null;
+
+    /**
+     * The URI and listeners of the TLD being parsed, recorded for the scan
+     * cache. The listeners are <code>null</code> when not recording.
+     */
+    private String recordedUri = null;
+    private List<String> recordedListeners = null;
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -226,6 +240,24 @@ public final class TldConfig  implements LifecycleListener {
         return result;
     }
 
+    /**
+     * Record the URI of the TLD being parsed for the scan cache.
+     */
+    void recordTaglibUri(String uri) {
+        if (recordedListeners != null) {
+            recordedUri = uri;
+        }
+    }
+
+    /**
+     * Record a listener of the TLD being parsed for the scan cache.
+     */
+    void recordTaglibListener(String listener) {
+        if (recordedListeners != null) {
+            recordedListeners.add(listener);
+        }
+    }
+
 
     /**
      * Scan for and configure all tag library descriptors found in this
@@ -262,6 +294,7 @@ public final class TldConfig  implements LifecycleListener {
         tldScanResourcePaths(WEB_INF);
 
         // Stages 3b & 4
+        scanCache = ScanCache.getInstance(context);
         JarScanner jarScanner = context.getJarScanner();
         jarScanner.scan(context.getServletContext(),
                 context.getLoader().getClassLoader(),
@@ -475,11 +508,33 @@ public final class TldConfig  implements LifecycleListener {
      */
     private void tldScanJar(JarURLConnection jarConn) {
 
+        URL url = jarConn.getURL();
+        String digest = null;
+        File file = (scanCache == null) ? null : ScanCache.getJarFile(url);
+        if (file != null) {
+            try {
+                digest = scanCache.getDigest(file);
+            } catch (IOException ioe) {
+                log.warn(sm.getString("scanCache.digestFail", file), ioe);
+            }
+        }
+        List<ScanCache.TldEntry> tlds = null;
+        if (digest != null) {
+            List<ScanCache.TldEntry> cached = scanCache.getTlds(digest);
+            if (cached != null) {
+                for (ScanCache.TldEntry tld : cached) {
+                    tldReplay(tld);
+                }
+                return;
+            }
+            tlds = new ArrayList<ScanCache.TldEntry>();
+        }
+
         Jar jar = null;
         InputStream is;
         
         try {
-            jar = JarFactory.newInstance(jarConn.getURL());
+            jar = JarFactory.newInstance(url);
             
             jar.nextEntry();
             String entryName = jar.getEntryName();
@@ -487,11 +542,20 @@ public final class TldConfig  implements LifecycleListener {
                 if (entryName.startsWith("META-INF/") &&
                         entryName.endsWith(".tld")) {
                     is = null;
+                    if (tlds != null) {
+                        recordedUri = null;
+                        recordedListeners = new ArrayList<String>();
+                    }
                     try {
                         is = jar.getEntryInputStream();
                         XmlErrorHandler handler = tldScanStream(is);
-                        handler.logFindings(log, jarConn.getURL() + entryName);
+                        handler.logFindings(log, url + entryName);
+                        if (tlds != null) {
+                            tlds.add(new ScanCache.TldEntry(entryName,
+                                    recordedUri, recordedListeners));
+                        }
                     } finally {
+                        recordedListeners = null;
                         if (is != null) {
                             try {
                                 is.close();
@@ -504,8 +568,11 @@ public final class TldConfig  implements LifecycleListener {
                 jar.nextEntry();
                 entryName = jar.getEntryName();
             }
+            if (tlds != null) {
+                scanCache.putTlds(digest, tlds);
+            }
         } catch (IOException ioe) {
-            log.warn(sm.getString("tldConfig.jarFail", jarConn.getURL()), ioe);
+            log.warn(sm.getString("tldConfig.jarFail", url), ioe);
         } finally {
             if (jar != null) {
                 jar.close();
@@ -514,6 +581,32 @@ public final class TldConfig  implements LifecycleListener {
     }
 
 
+    /*
+     * Applies a TLD found in the scan cache the same way the TldRuleSet
+     * applies a parsed TLD.
+     */
+    private void tldReplay(ScanCache.TldEntry tld) {
+        String uri = tld.getUri();
+        if (uri != null) {
+            if (isKnownTaglibUri(uri)) {
+                // This is expected if the URI was defined in web.xml
+                if (isKnownWebxmlTaglibUri(uri)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("tldConfig.duplicateUri", uri));
+                    }
+                } else {
+                    log.info(sm.getString("tldConfig.duplicateUri", uri));
+                }
+                return;
+            }
+            addTaglibUri(uri);
+        }
+        for (String listener : tld.getListeners()) {
+            addApplicationListener(listener);
+        }
+    }
+
+
     /*
      * Scan the TLD contents in the specified input stream, and register
      * any application event listeners found there.  <b>NOTE</b> - This 
@@ -568,6 +661,7 @@ public final class TldConfig  implements LifecycleListener {
             taglibUris.clear();
             webxmlTaglibUris.clear();
             listeners.clear();
+            scanCache = null;
         }
     }
     
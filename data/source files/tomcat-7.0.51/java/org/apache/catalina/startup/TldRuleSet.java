@@ -151,6 +151,7 @@ final class TaglibUriRule extends Rule {
             // New URI. Add it to known list and carry on
             tldConfig.addTaglibUri(text);
         }
+        tldConfig.recordTaglibUri(text);
     }
     
     public boolean isDuplicateUri() {
@@ -176,6 +177,7 @@ final class TaglibListenerRule extends Rule {
             throws Exception {
         TldConfig tldConfig =
             (TldConfig) digester.peek(digester.getCount() - 1);
+        tldConfig.recordTaglibListener(text.trim());
         
         // Only process the listener if the URI is not a duplicate
         if (!taglibUriRule.isDuplicateUri()) {
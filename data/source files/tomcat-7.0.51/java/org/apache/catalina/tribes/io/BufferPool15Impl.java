@@ -20,14 +20,39 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Pool of XByteBuffer objects sorted by capacity. Buffers are allocated with a
+ * capacity rounded up to a power of two and each power of two has its own
+ * queue, so that a request is served by a buffer of the right size rather than
+ * by any pooled buffer that then has to be expanded.
  *
  * @author Filip Hanik
  * @version 1.0
  */
 class BufferPool15Impl implements BufferPool.BufferPoolAPI {
+
+    /**
+     * The smallest capacity handed out, as a power of two (1kB).
+     */
+    protected static final int MIN_SHIFT = 10;
+
+    /**
+     * The largest capacity pooled, as a power of two (1GB).
+     */
+    protected static final int MAX_SHIFT = 30;
+
     protected int maxSize;
     protected AtomicInteger size = new AtomicInteger(0);
-    protected ConcurrentLinkedQueue<XByteBuffer> queue = new ConcurrentLinkedQueue<XByteBuffer>();
+    protected final ConcurrentLinkedQueue<XByteBuffer>[] queues;
+
+    public BufferPool15Impl() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedQueue<XByteBuffer>[] q =
+            new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        queues = q;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<XByteBuffer>();
+        }
+    }
 
     @Override
     public void setMaxSize(int bytes) {
@@ -37,26 +62,37 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
 
     @Override
     public XByteBuffer getBuffer(int minSize, boolean discard) {
-        XByteBuffer buffer = queue.poll();
-        if ( buffer != null ) size.addAndGet(-buffer.getCapacity());
-        if ( buffer == null ) buffer = new XByteBuffer(minSize,discard);
-        else if ( buffer.getCapacity() <= minSize ) buffer.expand(minSize);
-        buffer.setDiscard(discard);
-        buffer.reset();
+        int index = ceilIndex(minSize);
+        XByteBuffer buffer = null;
+        if ( index < queues.length ) buffer = queues[index].poll();
+        if ( buffer != null ) {
+            size.addAndGet(-buffer.getCapacity());
+            buffer.setDiscard(discard);
+            buffer.reset();
+        } else if ( index < queues.length ) {
+            buffer = new XByteBuffer(1 << (index + MIN_SHIFT), discard);
+        } else {
+            buffer = new XByteBuffer(minSize, discard);
+        }
         return buffer;
     }
 
     @Override
     public void returnBuffer(XByteBuffer buffer) {
-        if ( (size.get() + buffer.getCapacity()) <= maxSize ) {
-            size.addAndGet(buffer.getCapacity());
-            queue.offer(buffer);
+        int capacity = buffer.getCapacity();
+        int index = floorIndex(capacity);
+        if ( index < 0 ) return;
+        if ( (size.get() + capacity) <= maxSize ) {
+            size.addAndGet(capacity);
+            queues[index].offer(buffer);
         }
     }
 
     @Override
     public void clear() {
-        queue.clear();
+        for (int i = 0; i < queues.length; i++) {
+            queues[i].clear();
+        }
         size.set(0);
     }
 
@@ -64,4 +100,22 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
         return maxSize;
     }
 
+    /**
+     * Index of the smallest size class holding at least the given number of
+     * bytes.
+     */
+    protected static int ceilIndex(int bytes) {
+        if ( bytes <= (1 << MIN_SHIFT) ) return 0;
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Index of the largest size class whose buffers are not larger than the
+     * given capacity, or -1 if the capacity is below the smallest class.
+     */
+    protected static int floorIndex(int capacity) {
+        if ( capacity < (1 << MIN_SHIFT) ) return -1;
+        return Math.min(31 - Integer.numberOfLeadingZeros(capacity) - MIN_SHIFT,
+                MAX_SHIFT - MIN_SHIFT);
+    }
 }
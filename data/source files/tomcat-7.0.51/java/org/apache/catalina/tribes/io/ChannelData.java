@@ -203,6 +203,21 @@ public class ChannelData implements ChannelMessage {
     }
 
     public byte[] getDataPackage(byte[] data, int offset)  {
+        getDataPackageHeader(data,offset);
+        offset += getDataPackageHeaderLength();
+        System.arraycopy(message.getBytesDirect(),0,data,offset,message.getLength());
+        return data;
+    }
+
+    /**
+     * Writes the data package without the message bytes, i.e. everything up
+     * to and including the message length.
+     * @param data - the array the header is written to
+     * @param offset - the position of the header in <code>data</code>
+     * @return <code>data</code>
+     * @see #getDataPackageHeaderLength()
+     */
+    public byte[] getDataPackageHeader(byte[] data, int offset)  {
         byte[] addr = ((MemberImpl)address).getData(false);
         XByteBuffer.toBytes(options,data,offset);
         offset += 4; //options
@@ -218,10 +233,15 @@ public class ChannelData implements ChannelMessage {
         offset += addr.length; //addr data
         XByteBuffer.toBytes(message.getLength(),data,offset);
         offset += 4; //message.length
-        System.arraycopy(message.getBytesDirect(),0,data,offset,message.getLength());
-        offset += message.getLength(); //message data
         return data;
     }
+
+    /**
+     * @return the length of the data package without the message bytes
+     */
+    public int getDataPackageHeaderLength() {
+        return getDataPackageLength() - message.getLength();
+    }
     
     /**
      * Deserializes a ChannelData object from a byte array
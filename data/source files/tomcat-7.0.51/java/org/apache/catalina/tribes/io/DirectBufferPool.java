@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffers sorted by capacity. Capacities are powers of two
+ * between 1kB and 4MB and each power of two has its own queue. Direct memory
+ * is expensive to allocate and is only reclaimed by the garbage collector, so
+ * the buffers returned to the pool are kept until the pool holds
+ * <code>maxSize</code> bytes.
+ * <br>
+ * <b>Buffers larger than the largest size class are not pooled</b>, callers
+ * are expected to fall back to heap memory for such sizes.
+ */
+public class DirectBufferPool {
+
+    public static final long DEFAULT_POOL_SIZE = 100*1024*1024; //100MB
+
+    protected static final int MIN_SHIFT = 10;
+    protected static final int MAX_SHIFT = 22;
+
+    protected static volatile DirectBufferPool instance = null;
+
+    protected final ConcurrentLinkedQueue<ByteBuffer>[] queues;
+    protected final long maxSize;
+    protected final AtomicLong size = new AtomicLong(0);
+    protected final AtomicLong allocated = new AtomicLong(0);
+
+    /**
+     * @param maxSize the maximum number of bytes held by the pool
+     */
+    public DirectBufferPool(long maxSize) {
+        this.maxSize = maxSize;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedQueue<ByteBuffer>[] q =
+            new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        queues = q;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+    }
+
+    public static DirectBufferPool getDirectBufferPool() {
+        if ( instance == null ) {
+            synchronized (DirectBufferPool.class) {
+                if ( instance == null ) {
+                    instance = new DirectBufferPool(DEFAULT_POOL_SIZE);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the capacity of the largest buffer served by the pool
+     */
+    public static int getMaxBufferSize() {
+        return 1 << MAX_SHIFT;
+    }
+
+    /**
+     * Returns a cleared direct buffer with a capacity of at least
+     * <code>minSize</code> bytes.
+     * @param minSize the minimum capacity
+     * @return a buffer, or <code>null</code> if <code>minSize</code> is larger
+     *         than {@link #getMaxBufferSize()}
+     */
+    public ByteBuffer getBuffer(int minSize) {
+        int index = index(minSize);
+        if ( index >= queues.length ) return null;
+        ByteBuffer buffer = queues[index].poll();
+        if ( buffer != null ) {
+            size.addAndGet(-buffer.capacity());
+            buffer.clear();
+        } else {
+            buffer = ByteBuffer.allocateDirect(1 << (index + MIN_SHIFT));
+            allocated.addAndGet(buffer.capacity());
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #getBuffer(int)} to the pool. The
+     * buffer must not be used afterwards.
+     */
+    public void returnBuffer(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = index(capacity);
+        if ( !buffer.isDirect() || index >= queues.length ||
+                capacity != (1 << (index + MIN_SHIFT)) ) {
+            // Not one of ours
+            return;
+        }
+        if ( (size.get() + capacity) <= maxSize ) {
+            size.addAndGet(capacity);
+            queues[index].offer(buffer);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < queues.length; i++) {
+            queues[i].clear();
+        }
+        size.set(0);
+    }
+
+    /**
+     * @return the number of bytes currently held by the pool
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of bytes of direct memory allocated by the pool since
+     *         it was created
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    protected static int index(int bytes) {
+        if ( bytes <= (1 << MIN_SHIFT) ) return 0;
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_SHIFT;
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.catalina.tribes.io;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SocketChannel;
 
 import org.apache.catalina.tribes.ChannelMessage;
@@ -42,6 +43,12 @@ public class ObjectReader {
 
     private XByteBuffer buffer;
 
+    /**
+     * Decoder of the packages read from a channel, created on first use of
+     * {@link #read(ScatteringByteChannel)}
+     */
+    private PackageDecoder decoder = null;
+
     protected long lastAccess = System.currentTimeMillis();
 
     protected boolean accessed = false;
@@ -109,6 +116,19 @@ public class ObjectReader {
         return pkgCnt;
     }
 
+    /**
+     * Reads packages from a stream channel without appending the data to the
+     * buffer of this reader.
+     * @see PackageDecoder#read(ScatteringByteChannel)
+     * @param channel the channel to read from
+     * @return the number of bytes read, or -1 on end of stream
+     * @throws java.io.IOException
+     */
+    public int read(ScatteringByteChannel channel) throws java.io.IOException {
+        if ( decoder == null ) decoder = new PackageDecoder();
+        return decoder.read(channel);
+    }
+
     /**
      * Send buffer to cluster listener (callback).
      * Is message complete receiver send message to callback?
@@ -121,6 +141,7 @@ public class ObjectReader {
      * @throws java.io.IOException
      */
     public ChannelMessage[] execute() throws java.io.IOException {
+        if ( decoder != null ) return decoder.execute();
         int pkgCnt = buffer.countPackages();
         ChannelMessage[] result = new ChannelMessage[pkgCnt];
         for (int i=0; i<pkgCnt; i++)  {
@@ -131,11 +152,13 @@ public class ObjectReader {
     }
 
     public int bufferSize() {
+        if ( decoder != null ) return decoder.bufferSize();
         return buffer.getLength();
     }
 
 
     public boolean hasPackage() {
+        if ( decoder != null ) return decoder.count()>0;
         return buffer.countPackages(true)>0;
     }
     /**
@@ -143,11 +166,13 @@ public class ObjectReader {
      * @return int
      */
     public int count() {
+        if ( decoder != null ) return decoder.count();
         return buffer.countPackages();
     }
 
     public void close() {
         this.buffer = null;
+        if ( decoder != null ) decoder.close();
     }
 
     public long getLastAccess() {
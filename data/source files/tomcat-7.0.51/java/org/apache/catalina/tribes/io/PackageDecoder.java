@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the transfer packages, as described in {@link XByteBuffer}, read
+ * from a stream channel.
+ * <br>
+ * Once the start of a package has been read, the data is read with a
+ * scattering read straight into a pooled buffer of the right size, followed
+ * by the footer and the start of the next package. Unlike appending the
+ * stream to an XByteBuffer and extracting the packages from it, the data is
+ * neither copied to an intermediate buffer nor shifted when a package is
+ * removed.
+ * <br>
+ * <b>THIS CLASS IS NOT THREAD SAFE</B>
+ */
+public class PackageDecoder {
+
+    private static final int HEADER_LENGTH = XByteBuffer.START_DATA.length + 4;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    private final ByteBuffer footer = ByteBuffer.allocate(XByteBuffer.END_DATA.length);
+    private final ByteBuffer[] buffers = new ByteBuffer[] {null, footer, header};
+
+    /**
+     * The data of the package being read, <code>null</code> while reading
+     * the start of a package
+     */
+    private XByteBuffer data = null;
+
+    private final List<ChannelData> packages = new ArrayList<ChannelData>();
+
+    /**
+     * Reads from the channel until no more data is available or at least one
+     * package is complete.
+     * @param channel - the channel to read from
+     * @return the number of bytes read, or -1 if the end of stream has been
+     *         reached before reading any byte
+     * @throws IOException if the channel cannot be read or if the data is
+     *         not a valid package
+     */
+    public int read(ScatteringByteChannel channel) throws IOException {
+        int total = 0;
+        while ( packages.isEmpty() ) {
+            long read;
+            if ( data == null ) {
+                read = channel.read(header);
+            } else {
+                read = channel.read(buffers);
+            }
+            if ( read < 0 ) return total == 0 ? -1 : total;
+            if ( read == 0 ) break;
+            total += read;
+            if ( data != null && !footer.hasRemaining() ) {
+                endPackage();
+            }
+            if ( data == null && !header.hasRemaining() ) {
+                startPackage();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of complete packages that have not been taken yet
+     */
+    public int count() {
+        return packages.size();
+    }
+
+    /**
+     * Takes the complete packages.
+     * @return the packages, in the order they have been read
+     */
+    public ChannelData[] execute() {
+        if ( packages.isEmpty() ) return ChannelData.EMPTY_DATA_ARRAY;
+        ChannelData[] result = packages.toArray(new ChannelData[packages.size()]);
+        packages.clear();
+        return result;
+    }
+
+    /**
+     * @return the number of bytes of the package currently being read
+     */
+    public int bufferSize() {
+        if ( data == null ) return header.position();
+        return HEADER_LENGTH + buffers[0].position() + footer.position();
+    }
+
+    /**
+     * Returns the buffer of the package being read to the pool.
+     */
+    public void close() {
+        if ( data != null ) {
+            BufferPool.getBufferPool().returnBuffer(data);
+            data = null;
+        }
+        header.clear();
+        footer.clear();
+        buffers[0] = null;
+        packages.clear();
+    }
+
+    private void startPackage() throws IOException {
+        byte[] h = header.array();
+        for (int i = 0; i < XByteBuffer.START_DATA.length; i++) {
+            if ( h[i] != XByteBuffer.START_DATA[i] ) {
+                throw new IOException("Invalid package header.");
+            }
+        }
+        int size = XByteBuffer.toInt(h, XByteBuffer.START_DATA.length);
+        if ( size < 0 ) throw new IOException("Invalid package size:"+size);
+        header.clear();
+        data = BufferPool.getBufferPool().getBuffer(size, false);
+        data.setLength(size);
+        buffers[0] = ByteBuffer.wrap(data.getBytesDirect(), 0, size);
+    }
+
+    private void endPackage() throws IOException {
+        byte[] f = footer.array();
+        for (int i = 0; i < XByteBuffer.END_DATA.length; i++) {
+            if ( f[i] != XByteBuffer.END_DATA[i] ) {
+                throw new IOException("Invalid package footer.");
+            }
+        }
+        footer.clear();
+        buffers[0] = null;
+        XByteBuffer xbuf = data;
+        data = null;
+        packages.add(ChannelData.getDataFromPackage(xbuf));
+    }
+}
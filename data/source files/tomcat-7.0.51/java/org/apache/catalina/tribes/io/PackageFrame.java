@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A complete transfer package, as described in {@link XByteBuffer}, ready to
+ * be written with a gathering write. The package is encoded once and may be
+ * written to any number of channels, each writer using its own copy of the
+ * buffers returned by {@link #getBuffers()}.
+ * <br>
+ * A heap frame is made of three buffers: the header, which holds everything
+ * up to and including the message length, the message bytes themselves and
+ * the footer. The message bytes are not copied.<br>
+ * A direct frame is made of one buffer borrowed from the
+ * {@link DirectBufferPool}, the message bytes are copied once into it. The
+ * buffer is returned to the pool by {@link #release()}.
+ */
+public final class PackageFrame {
+
+    private final ByteBuffer[] buffers;
+    private final ByteBuffer pooled;
+    private final int length;
+    private volatile boolean released = false;
+
+    private PackageFrame(ByteBuffer[] buffers, ByteBuffer pooled, int length) {
+        this.buffers = buffers;
+        this.pooled = pooled;
+        this.length = length;
+    }
+
+    /**
+     * Encodes a package.
+     * @param cdata - the message data to be contained within the package
+     * @param direct - <code>true</code> to encode the package in a pooled
+     * direct buffer. Packages larger than the largest pooled buffer are always
+     * encoded on the heap.
+     * @return the frame
+     */
+    public static PackageFrame create(ChannelData cdata, boolean direct) {
+        int dlength = cdata.getDataPackageLength();
+        int length = XByteBuffer.getDataPackageLength(dlength);
+        int hlength = XByteBuffer.START_DATA.length + 4 +
+            cdata.getDataPackageHeaderLength();
+        byte[] header = new byte[hlength];
+        System.arraycopy(XByteBuffer.START_DATA, 0, header, 0, XByteBuffer.START_DATA.length);
+        XByteBuffer.toBytes(dlength, header, XByteBuffer.START_DATA.length);
+        cdata.getDataPackageHeader(header, XByteBuffer.START_DATA.length + 4);
+        XByteBuffer message = cdata.getMessage();
+        if ( direct ) {
+            ByteBuffer buf = DirectBufferPool.getDirectBufferPool().getBuffer(length);
+            if ( buf != null ) {
+                buf.put(header);
+                buf.put(message.getBytesDirect(), 0, message.getLength());
+                buf.put(XByteBuffer.END_DATA);
+                buf.flip();
+                return new PackageFrame(new ByteBuffer[] {buf}, buf, length);
+            }
+        }
+        ByteBuffer[] buffers = new ByteBuffer[] {
+                ByteBuffer.wrap(header),
+                ByteBuffer.wrap(message.getBytesDirect(), 0, message.getLength()),
+                ByteBuffer.wrap(XByteBuffer.END_DATA).asReadOnlyBuffer()};
+        return new PackageFrame(buffers, null, length);
+    }
+
+    /**
+     * @return new buffers, positioned at the start of the package, sharing
+     *         the content of the frame
+     * @throws IllegalStateException if the frame has been released
+     */
+    public ByteBuffer[] getBuffers() {
+        if ( released ) throw new IllegalStateException("Package frame has been released.");
+        ByteBuffer[] result = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            result[i] = buffers[i].duplicate();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of bytes in the package
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isDirect() {
+        return pooled != null;
+    }
+
+    /**
+     * Returns the pooled buffer, if any, to the pool. The buffers obtained
+     * from {@link #getBuffers()} must not be used afterwards.
+     */
+    public void release() {
+        if ( released ) return;
+        released = true;
+        if ( pooled != null ) DirectBufferPool.getDirectBufferPool().returnBuffer(pooled);
+    }
+}
@@ -53,12 +53,12 @@ public class XByteBuffer
     /**
      * This is a package header, 7 bytes (FLT2002)
      */
-    private static final byte[] START_DATA = {70,76,84,50,48,48,50};
+    static final byte[] START_DATA = {70,76,84,50,48,48,50};
     
     /**
      * This is the package footer, 7 bytes (TLF2003)
      */
-    private static final byte[] END_DATA = {84,76,70,50,48,48,51};
+    static final byte[] END_DATA = {84,76,70,50,48,48,51};
  
     /**
      * Variable to hold the data
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.catalina.tribes.Member;
+
+/**
+ * A consistent hash ring of members. Each member is placed on the ring at
+ * <code>virtualNodes</code> points computed from its host and port, so a
+ * member keeps its place when it restarts. A key belongs to the first member
+ * found clockwise from the hash of the key.<br/>
+ * Adding or removing a member only moves the keys between the removed or
+ * added points and their predecessors, about <code>1/n</code> of the keys.
+ * <br/>
+ * <b>This class is not thread safe</b>
+ * @version 1.0
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 100;
+
+    private static final Charset CHARSET_ISO_8859_1 =
+        Charset.forName("ISO-8859-1");
+
+    private final TreeMap<Long, Member> ring = new TreeMap<Long, Member>();
+    private final Set<Member> members = new HashSet<Member>();
+    private final int virtualNodes;
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes int - the number of points of each member on the ring
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Adds a member to the ring
+     * @param member Member
+     * @return boolean - true if the member was not on the ring
+     */
+    public boolean add(Member member) {
+        if ( !members.add(member) ) return false;
+        place(member);
+        return true;
+    }
+
+    /**
+     * Removes a member from the ring. The points it shared with another
+     * member at the same host and port are given to that member.
+     * @param member Member
+     * @return boolean - true if the member was on the ring
+     */
+    public boolean remove(Member member) {
+        if ( !members.remove(member) ) return false;
+        Iterator<Map.Entry<Long, Member>> i = ring.entrySet().iterator();
+        while ( i.hasNext() ) {
+            if ( member.equals(i.next().getValue()) ) i.remove();
+        }
+        for (Member other : members) {
+            if ( other.getPort() == member.getPort() &&
+                 Arrays.equals(other.getHost(), member.getHost()) ) place(other);
+        }
+        return true;
+    }
+
+    /**
+     * Updates the ring to hold exactly the given members. The departed
+     * members are removed first, so that a restarted member takes the points
+     * of its previous instance.
+     * @param current Member[]
+     * @return boolean - true if the ring has changed
+     */
+    public boolean update(Member[] current) {
+        boolean changed = false;
+        Set<Member> set = new HashSet<Member>(Arrays.asList(current));
+        Member[] existing = members.toArray(new Member[members.size()]);
+        for (Member member : existing) {
+            if ( !set.contains(member) && remove(member) ) changed = true;
+        }
+        for (Member member : current) {
+            if ( add(member) ) changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Puts a member at its points that are not taken by another member
+     * @param member Member
+     */
+    private void place(Member member) {
+        MessageDigest md5 = getDigest();
+        for (int i = 0; i < virtualNodes; i++) {
+            md5.reset();
+            md5.update(member.getHost());
+            md5.update((":" + member.getPort() + "#" + i).getBytes(CHARSET_ISO_8859_1));
+            byte[] digest = md5.digest();
+            long point = 0;
+            for (int j = 0; j < 8; j++) {
+                point = (point << 8) | (digest[j] & 0xff);
+            }
+            Long key = Long.valueOf(point);
+            if ( !ring.containsKey(key) ) ring.put(key, member);
+        }
+    }
+
+    public boolean contains(Member member) {
+        return members.contains(member);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Returns the owner of a key
+     * @param key Object
+     * @return Member - the owner, or null if the ring is empty
+     */
+    public Member getMember(Object key) {
+        if ( ring.isEmpty() ) return null;
+        SortedMap<Long, Member> tail = ring.tailMap(Long.valueOf(hash(key)));
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    /**
+     * Returns the distinct members found clockwise from the hash of a key,
+     * the owner of the key first
+     * @param key Object
+     * @param count int - the maximum number of members to return
+     * @return Member[]
+     */
+    public Member[] getMembers(Object key, int count) {
+        count = Math.min(count, members.size());
+        List<Member> result = new ArrayList<Member>(count);
+        if ( count <= 0 ) return new Member[0];
+        Long start = Long.valueOf(hash(key));
+        for (Member member : ring.tailMap(start).values()) {
+            if ( !result.contains(member) ) result.add(member);
+            if ( result.size() == count ) break;
+        }
+        if ( result.size() < count ) {
+            for (Member member : ring.headMap(start).values()) {
+                if ( !result.contains(member) ) result.add(member);
+                if ( result.size() == count ) break;
+            }
+        }
+        return result.toArray(new Member[result.size()]);
+    }
+
+    /**
+     * Spreads the hash code of a key over 64 bits.
+     * @param key Object
+     * @return long - the position of the key on the ring
+     */
+    public static long hash(Object key) {
+        // MurmurHash3 finalizer
+        long h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException x) {
+            // MD5 is always available
+            throw new IllegalStateException(x);
+        }
+    }
+}
@@ -17,6 +17,9 @@
 package org.apache.catalina.tribes.tipis;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.catalina.tribes.Channel;
 import org.apache.catalina.tribes.ChannelException;
@@ -56,6 +59,11 @@ import org.apache.juli.logging.LogFactory;
  * or to replicate all objects. If an object doesn't implement the <code>ReplicatedMapEntry</code> interface
  * each time the object gets replicated the entire object gets serialized, hence a call to <code>replicate(true)</code>
  * will replicate all objects in this map that are using this node as primary.
+ * <br><br>
+ * The backup node of an entry is picked on a {@link ConsistentHashRing} of the map members,
+ * so a membership change only moves the entries owned by the member that left or joined.
+ * The entries owned by a new member are moved to it on <code>heartbeat()</code>,
+ * at most <code>rebalanceRate</code> entries at a time.
  * 
  * <br><br><b>REMBER TO CALL <code>breakdown()</code> or <code>finalize()</code> when you are done with the map to 
  * avoid memory leaks.<br><br>
@@ -67,6 +75,32 @@ public class LazyReplicatedMap extends AbstractReplicatedMap {
     private static final long serialVersionUID = 1L;
     private final Log log = LogFactory.getLog(LazyReplicatedMap.class);
 
+    public static final int DEFAULT_REBALANCE_RATE = 1000;
+
+    /**
+     * The ring used to pick the backup node of the entries. This field,
+     * virtualNodes and rebalancePending have no initializer as the map
+     * members are added by the constructor of the super class.
+     */
+    protected transient ConsistentHashRing ring;
+    /**
+     * The number of points of each member on the ring, 0 for the default
+     */
+    protected transient int virtualNodes;
+    /**
+     * Set when a member has been added, entries may have to be moved
+     */
+    protected transient volatile boolean rebalancePending;
+    /**
+     * The maximum number of entries moved to their new backup node per
+     * heartbeat, -1 for no limit, 0 to never move entries
+     */
+    protected transient int rebalanceRate = DEFAULT_REBALANCE_RATE;
+    /**
+     * Number of entries moved to a new backup node by a rebalance
+     */
+    protected transient long rebalancedEntries;
+
 
 //------------------------------------------------------------------------------    
 //              CONSTRUCTORS / DESTRUCTORS
@@ -117,6 +151,147 @@ public class LazyReplicatedMap extends AbstractReplicatedMap {
     }
 
 
+//------------------------------------------------------------------------------    
+//              CONSISTENT HASHING
+//------------------------------------------------------------------------------
+    public int getVirtualNodes() {
+        return virtualNodes > 0 ? virtualNodes : ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+    }
+
+    /**
+     * Sets the number of points of each member on the ring. Changing it moves
+     * the entries, it should be set before the map is used.
+     * @param virtualNodes int
+     */
+    public synchronized void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        if ( ring != null && ring.getVirtualNodes() != getVirtualNodes() ) {
+            ring = null;
+            rebalancePending = true;
+        }
+    }
+
+    public int getRebalanceRate() {
+        return rebalanceRate;
+    }
+
+    public void setRebalanceRate(int rebalanceRate) {
+        this.rebalanceRate = rebalanceRate;
+    }
+
+    public long getRebalancedEntries() {
+        return rebalancedEntries;
+    }
+
+    public boolean isRebalancePending() {
+        return rebalancePending;
+    }
+
+    /**
+     * Returns the backup candidates of a key, the preferred backup node first
+     * @param key Object
+     * @param members Member[] - the current map members
+     * @return Member[]
+     */
+    protected synchronized Member[] getBackupCandidates(Object key, Member[] members) {
+        if ( ring == null ) ring = new ConsistentHashRing(getVirtualNodes());
+        ring.update(members);
+        return ring.getMembers(key, members.length);
+    }
+
+    @Override
+    public void mapMemberAdded(Member member) {
+        boolean known;
+        synchronized (mapMembers) {
+            known = mapMembers.containsKey(member);
+        }
+        super.mapMemberAdded(member);
+        //the new member now owns some of our entries
+        if ( !known && !member.equals(getChannel().getLocalMember(false)) ) rebalancePending = true;
+    }
+
+    @Override
+    public void heartbeat() {
+        super.heartbeat();
+        if ( rebalancePending && rebalanceRate != 0 ) {
+            int moved = rebalance(rebalanceRate);
+            if ( moved > 0 && log.isInfoEnabled() )
+                log.info("Map["+mapname+"] moved "+moved+" entries to their new backup node.");
+        }
+    }
+
+    /**
+     * Moves the primary entries of this node whose backup node is not the one
+     * picked on the ring to that node.
+     * @param max int - the maximum number of entries to move, -1 for no limit
+     * @return int - the number of entries moved
+     */
+    public int rebalance(int max) {
+        rebalancePending = false;
+        Member[] members = getMapMembers();
+        if ( members.length == 0 ) return 0;
+        int moved = 0;
+        synchronized (stateMutex) {
+            @SuppressWarnings("unchecked")
+            Iterator<Map.Entry<?,?>> i = entrySetFull().iterator();
+            while (i.hasNext()) {
+                Object key = i.next().getKey();
+                MapEntry entry = getInternal(key);
+                if ( entry == null || !entry.isPrimary() || !entry.isSerializable() ) continue;
+                Member[] candidates = getBackupCandidates(key, members);
+                Member[] backup = entry.getBackupNodes();
+                if ( candidates.length == 0 || (backup != null && backup.length == 1 && backup[0].equals(candidates[0])) ) continue;
+                if ( max >= 0 && moved >= max ) {
+                    //more next time
+                    rebalancePending = true;
+                    break;
+                }
+                try {
+                    entry.setBackupNodes(publishEntryInfo(key, entry.getValue()));
+                    entry.setPrimary(channel.getLocalMember(false));
+                    moved++;
+                } catch (ChannelException x) {
+                    log.error("Unable to relocate[" + key + "] to a new backup node", x);
+                }
+            }
+        }
+        rebalancedEntries += moved;
+        return moved;
+    }
+
+    /**
+     * Counts the entries of the map by primary node, as known by this node
+     * @return Map - the number of entries of each member
+     */
+    public Map<Member, Integer> getPrimaryCounts() {
+        return countOwners(true);
+    }
+
+    /**
+     * Counts the entries of the map by backup node, as known by this node
+     * @return Map - the number of entries of each member
+     */
+    public Map<Member, Integer> getBackupCounts() {
+        return countOwners(false);
+    }
+
+    protected Map<Member, Integer> countOwners(boolean primary) {
+        Map<Member, Integer> result = new HashMap<Member, Integer>();
+        @SuppressWarnings("unchecked")
+        Iterator<Map.Entry<?,?>> i = entrySetFull().iterator();
+        while (i.hasNext()) {
+            MapEntry entry = getInternal(i.next().getKey());
+            if ( entry == null ) continue;
+            Member[] owners = primary ? wrap(entry.getPrimary()) : entry.getBackupNodes();
+            if ( owners == null ) continue;
+            for (Member owner : owners) {
+                Integer count = result.get(owner);
+                result.put(owner, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+            }
+        }
+        return result;
+    }
+
 //------------------------------------------------------------------------------    
 //              METHODS TO OVERRIDE    
 //------------------------------------------------------------------------------
@@ -136,25 +311,18 @@ public class LazyReplicatedMap extends AbstractReplicatedMap {
     protected Member[] publishEntryInfo(Object key, Object value) throws ChannelException {
         if  (! (key instanceof Serializable && value instanceof Serializable)  ) return new Member[0];
         Member[] members = getMapMembers();
-        int firstIdx = getNextBackupIndex();
-        int nextIdx = firstIdx;
         Member[] backup = new Member[0];
         
         //there are no backups
-        if ( members.length == 0 || firstIdx == -1 ) return backup;
+        if ( members.length == 0 ) return backup;
         
+        //the backup node is the owner of the key on the ring, the next ones are fallbacks
+        Member[] candidates = getBackupCandidates(key, members);
+        int nextIdx = 0;
         boolean success = false;
         do {
             //select a backup node
-            Member next = members[nextIdx];
-            
-            //increment for the next round of back up selection
-            nextIdx = nextIdx + 1;
-            if ( nextIdx >= members.length ) nextIdx = 0;
-            
-            if (next == null) {
-                continue;
-            }
+            Member next = candidates[nextIdx++];
             MapMessage msg = null;
             try {
                 backup = wrap(next);
@@ -187,7 +355,7 @@ public class LazyReplicatedMap extends AbstractReplicatedMap {
                 //should still get it.
                 log.error("Unable to replicate proxy key:"+key+" to backup:"+next+". Reason:"+x.getMessage(),x);
             }
-        } while ( !success && (firstIdx!=nextIdx));
+        } while ( !success && nextIdx < candidates.length);
         return backup;
     }
 
@@ -67,21 +67,17 @@ public class NioReplicationTask extends AbstractRxTask {
     // loop forever waiting for work to do
     @Override
     public synchronized void run() {
-        if ( buffer == null ) {
-            int size = getRxBufSize();
-            if (key.channel() instanceof DatagramChannel) {
-                size = ChannelReceiver.MAX_UDP_SIZE;
-            }
+        if (key == null) {
+            return; // just in case
+        }
+        //stream channels are read by the ObjectReader, only datagrams need a buffer
+        if ( buffer == null && key.channel() instanceof DatagramChannel ) {
+            int size = ChannelReceiver.MAX_UDP_SIZE;
             if ( (getOptions() & OPTION_DIRECT_BUFFER) == OPTION_DIRECT_BUFFER) {
                 buffer = ByteBuffer.allocateDirect(size);
             } else {
                 buffer = ByteBuffer.allocate(size);
             }
-        } else {
-            buffer.clear();
-        }
-        if (key == null) {
-            return; // just in case
         }
         if ( log.isTraceEnabled() )
             log.trace("Servicing key:"+key);
@@ -153,23 +149,15 @@ public class NioReplicationTask extends AbstractRxTask {
         reader.access();
         ReadableByteChannel channel = (ReadableByteChannel) key.channel();
         int count=-1;
-        buffer.clear();         // make buffer empty
         SocketAddress saddr = null;
 
         if (channel instanceof SocketChannel) {
-            // loop while data available, channel is non-blocking
-            while ((count = channel.read (buffer)) > 0) {
-                buffer.flip();      // make buffer readable
-                if ( buffer.hasArray() )
-                    reader.append(buffer.array(),0,count,false);
-                else
-                    reader.append(buffer,count,false);
-                buffer.clear();     // make buffer empty
-                //do we have at least one package?
-                if ( reader.hasPackage() ) break;
-            }
+            // read while data available, channel is non-blocking, until we
+            // have at least one package
+            count = reader.read((SocketChannel)channel);
         } else if (channel instanceof DatagramChannel) {
             DatagramChannel dchannel = (DatagramChannel)channel;
+            buffer.clear();     // make buffer empty
             saddr = dchannel.receive(buffer);
             buffer.flip();      // make buffer readable
             if ( buffer.hasArray() )
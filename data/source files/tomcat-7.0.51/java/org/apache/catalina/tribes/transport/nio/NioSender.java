@@ -28,6 +28,7 @@ import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 
 import org.apache.catalina.tribes.RemoteProcessException;
+import org.apache.catalina.tribes.io.PackageFrame;
 import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.catalina.tribes.transport.AbstractSender;
 import org.apache.juli.logging.Log;
@@ -63,6 +64,8 @@ public class NioSender extends AbstractSender {
     protected ByteBuffer readbuf = null;
     protected ByteBuffer writebuf = null;
     protected byte[] current = null;
+    protected PackageFrame frame = null;
+    protected ByteBuffer[] framebufs = null;
     protected XByteBuffer ackbuf = new XByteBuffer(128,true);
     protected int remaining = 0;
     protected boolean complete;
@@ -89,7 +92,7 @@ public class NioSender extends AbstractSender {
         if ( key.isConnectable() ) {
             if ( socketChannel.finishConnect() ) {
                 completeConnect();
-                if ( current != null ) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                if ( hasMessage() ) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                 return false;
             } else  {
                 //wait for the connection to finish
@@ -165,7 +168,7 @@ public class NioSender extends AbstractSender {
 
     protected boolean read(SelectionKey key) throws IOException {
         //if there is no message here, we are done
-        if ( current == null ) return true;
+        if ( !hasMessage() ) return true;
         int read = isUdpBased()?dataChannel.read(readbuf) : socketChannel.read(readbuf);
         //end of stream
         if ( read == -1 ) throw new IOException("Unable to receive an ack message. EOF on socket channel has been reached.");
@@ -190,11 +193,17 @@ public class NioSender extends AbstractSender {
         if ( (!isConnected()) || (this.socketChannel==null && this.dataChannel==null)) {
             throw new IOException("NioSender is not connected, this should not occur.");
         }
-        if ( current != null ) {
+        if ( hasMessage() ) {
             if ( remaining > 0 ) {
                 //we have written everything, or we are starting a new package
                 //protect against buffer overwrite
-                int byteswritten = isUdpBased()?dataChannel.write(writebuf) : socketChannel.write(writebuf);
+                long byteswritten;
+                if ( framebufs != null ) {
+                    //gathering write of the header, data and footer
+                    byteswritten = isUdpBased()?dataChannel.write(framebufs) : socketChannel.write(framebufs);
+                } else {
+                    byteswritten = isUdpBased()?dataChannel.write(writebuf) : socketChannel.write(writebuf);
+                }
                 if (byteswritten == -1 ) throw new EOFException();
                 remaining -= byteswritten;
                 //if the entire message was written from the buffer
@@ -304,6 +313,8 @@ public class NioSender extends AbstractSender {
         if ( readbuf != null ) readbuf.clear();
         if ( writebuf != null ) writebuf.clear();
         current = null;
+        frame = null;
+        framebufs = null;
         ackbuf.clear();
         remaining = 0;
         complete = false;
@@ -337,6 +348,8 @@ public class NioSender extends AbstractSender {
    public synchronized void setMessage(byte[] data,int offset, int length) throws IOException {
        if ( data != null ) {
            current = data;
+           frame = null;
+           framebufs = null;
            remaining = length;
            ackbuf.clear();
            if ( writebuf != null ) writebuf.clear();
@@ -358,10 +371,40 @@ public class NioSender extends AbstractSender {
        }
    }
 
+   /**
+    * Sets a package to send without copying it. The frame must not be
+    * released before the message has been sent.
+    * @param frame PackageFrame
+    * @throws IOException
+    */
+   public synchronized void setMessage(PackageFrame frame) throws IOException {
+       if ( frame != null ) {
+           current = null;
+           this.frame = frame;
+           framebufs = frame.getBuffers();
+           remaining = frame.getLength();
+           ackbuf.clear();
+           if (isConnected()) {
+               if (isUdpBased())
+                   dataChannel.register(getSelector(), SelectionKey.OP_WRITE, this);
+               else
+                   socketChannel.register(getSelector(), SelectionKey.OP_WRITE, this);
+           }
+       }
+   }
+
    public byte[] getMessage() {
        return current;
    }
 
+   public PackageFrame getFrame() {
+       return frame;
+   }
+
+   protected boolean hasMessage() {
+       return current != null || frame != null;
+   }
+
 
 
     public boolean isComplete() {
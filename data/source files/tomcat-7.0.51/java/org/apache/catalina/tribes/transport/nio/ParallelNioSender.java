@@ -32,7 +32,7 @@ import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.UniqueId;
 import org.apache.catalina.tribes.io.ChannelData;
-import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.io.PackageFrame;
 import org.apache.catalina.tribes.transport.AbstractSender;
 import org.apache.catalina.tribes.transport.MultiPointSender;
 import org.apache.catalina.tribes.transport.SenderState;
@@ -73,11 +73,19 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
     public synchronized void sendMessage(Member[] destination, ChannelMessage msg) throws ChannelException {
         long start = System.currentTimeMillis();
         this.setUdpBased((msg.getOptions()&Channel.SEND_OPTIONS_UDP) == Channel.SEND_OPTIONS_UDP);
-        byte[] data = XByteBuffer.createDataPackage((ChannelData)msg);
-        NioSender[] senders = setupForSend(destination);
-        connect(senders);
-        setData(senders,data);
+        //encoded once, shared by all the senders
+        PackageFrame frame = PackageFrame.create((ChannelData)msg, getDirectBuffer());
+        try {
+            NioSender[] senders = setupForSend(destination);
+            connect(senders);
+            setData(senders,frame);
+            sendMessage(senders, msg, start);
+        } finally {
+            frame.release();
+        }
+    }
 
+    private void sendMessage(NioSender[] senders, ChannelMessage msg, long start) throws ChannelException {
         int remaining = senders.length;
         ChannelException cx = null;
         try {
@@ -173,13 +181,13 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
                     throw cx;
                 }
 
-                byte[] data = sender.getMessage();
+                PackageFrame frame = sender.getFrame();
                 if ( retry ) {
                     try {
                         sender.disconnect();
                         sender.connect();
                         sender.setAttempt(attempt);
-                        sender.setMessage(data);
+                        sender.setMessage(frame);
                     }catch ( Exception ignore){
                         state.setFailing();
                     }
@@ -207,11 +215,11 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
         if ( x != null ) throw x;
     }
 
-    private void setData(NioSender[] senders, byte[] data) throws ChannelException {
+    private void setData(NioSender[] senders, PackageFrame frame) throws ChannelException {
         ChannelException x = null;
         for (int i=0; i<senders.length; i++ ) {
             try {
-                senders[i].setMessage(data);
+                senders[i].setMessage(frame);
             }catch ( IOException io ) {
                 if ( x==null ) x = new ChannelException(io);
                 x.addFaultyMember(senders[i].getDestination(),io);
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring of log entries with any number of producers and a
+ * single consumer.
+ * <p>
+ * A producer claims a slot by advancing the tail with a compare-and-set and
+ * then publishes its entry in the slot. The consumer takes the published
+ * entries in order and stops at the first slot that has been claimed but not
+ * published yet. Only one thread at a time may call {@link #drain(List, int)}.
+ */
+public final class AccessLogRing {
+
+    private final AtomicReferenceArray<String> entries;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+
+    /**
+     * @param capacity  The minimum number of entries the ring can hold. It is
+     *                  rounded up to a power of two.
+     */
+    public AccessLogRing(int capacity) {
+        int size = 2;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.entries = new AtomicReferenceArray<String>(size);
+    }
+
+
+    /**
+     * Add an entry to the ring.
+     *
+     * @return <code>false</code> if the ring is full
+     */
+    public boolean offer(String entry) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        entries.lazySet((int) t & mask, entry);
+        return true;
+    }
+
+
+    /**
+     * Move the published entries, in order, to the given list.
+     *
+     * @param out   The list the entries are added to
+     * @param max   The maximum number of entries to move
+     * @return the number of entries moved
+     */
+    public int drain(List<String> out, int max) {
+        long h = head;
+        int count = 0;
+        while (count < max) {
+            int index = (int) h & mask;
+            String entry = entries.get(index);
+            if (entry == null) {
+                break;
+            }
+            // Clear the slot before making it available to the producers
+            entries.lazySet(index, null);
+            out.add(entry);
+            h++;
+            count++;
+        }
+        head = h;
+        return count;
+    }
+
+
+    /**
+     * Return the number of entries claimed and not yet consumed.
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return size < 0 ? 0 : (int) size;
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -35,6 +35,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -223,6 +225,47 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     private boolean buffered = true;
 
 
+    /**
+     * Should log entries be handed to a dedicated writer thread rather than
+     * written by the request processing threads?
+     */
+    protected boolean asyncWriter = false;
+
+
+    /**
+     * The number of log entries that may wait for the writer thread.
+     */
+    protected int asyncQueueSize = 16384;
+
+
+    /**
+     * What to do with a log entry when the queue of the writer thread is
+     * full: <code>block</code>, <code>drop</code> or <code>spill</code>.
+     */
+    protected String asyncOverflowPolicy = "block";
+
+
+    /**
+     * The queues of the writer thread. Request processing threads are spread
+     * over several queues to limit contention.
+     */
+    private volatile AccessLogRing[] asyncQueues = null;
+
+    private volatile Thread asyncThread = null;
+
+    private volatile boolean asyncRunning = false;
+
+    private final AtomicLong asyncDroppedCount = new AtomicLong();
+
+    private final AtomicLong asyncSpilledCount = new AtomicLong();
+
+    /**
+     * The maximum number of entries written by the writer thread before it
+     * checks for rotation and flushes.
+     */
+    private static final int ASYNC_BATCH_SIZE = 1024;
+
+
     /**
      * The suffix that is added to log file filenames.
      */
@@ -477,6 +520,18 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     };
 
 
+    /**
+     * Per thread buffer used to build log entries.
+     */
+    private static final ThreadLocal<StringBuilder> localBuffer =
+            new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+
     /**
      * The system time when we last updated the Date that this valve
      * uses for log lines.
@@ -744,6 +799,107 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     }
 
 
+    /**
+     * Are log entries written by a dedicated writer thread?
+     */
+    public boolean isAsyncWriter() {
+        return asyncWriter;
+    }
+
+
+    /**
+     * Set whether log entries are handed to a dedicated writer thread rather
+     * than written by the request processing threads. Only takes effect when
+     * the valve is started.
+     *
+     * @param asyncWriter true to use a writer thread
+     */
+    public void setAsyncWriter(boolean asyncWriter) {
+        this.asyncWriter = asyncWriter;
+    }
+
+
+    /**
+     * Return the number of log entries that may wait for the writer thread.
+     */
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+
+    /**
+     * Set the number of log entries that may wait for the writer thread.
+     *
+     * @param asyncQueueSize The new queue size
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+
+    /**
+     * Return what happens to a log entry when the queue of the writer thread
+     * is full.
+     */
+    public String getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+
+    /**
+     * Set what happens to a log entry when the queue of the writer thread is
+     * full: <code>block</code> waits for space in the queue,
+     * <code>drop</code> discards the entry and <code>spill</code> writes it
+     * directly from the request processing thread.
+     *
+     * @param asyncOverflowPolicy The new policy
+     */
+    public void setAsyncOverflowPolicy(String asyncOverflowPolicy) {
+        if (!"block".equals(asyncOverflowPolicy) &&
+                !"drop".equals(asyncOverflowPolicy) &&
+                !"spill".equals(asyncOverflowPolicy)) {
+            throw new IllegalArgumentException(sm.getString(
+                    "accessLogValve.invalidOverflowPolicy",
+                    asyncOverflowPolicy));
+        }
+        this.asyncOverflowPolicy = asyncOverflowPolicy;
+    }
+
+
+    /**
+     * Return the number of log entries waiting for the writer thread.
+     */
+    public int getAsyncQueueDepth() {
+        AccessLogRing[] queues = asyncQueues;
+        if (queues == null) {
+            return 0;
+        }
+        int depth = 0;
+        for (AccessLogRing queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+
+    /**
+     * Return the number of log entries discarded because the queue of the
+     * writer thread was full.
+     */
+    public long getAsyncDroppedCount() {
+        return asyncDroppedCount.get();
+    }
+
+
+    /**
+     * Return the number of log entries written by request processing threads
+     * because the queue of the writer thread was full.
+     */
+    public long getAsyncSpilledCount() {
+        return asyncSpilledCount.get();
+    }
+
+
     /**
      * Return the log file suffix.
      */
@@ -970,13 +1126,20 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         long start = request.getCoyoteRequest().getStartTime();
         Date date = getDate(start + time);
 
-        StringBuilder result = new StringBuilder(128);
+        StringBuilder result = localBuffer.get();
+        result.setLength(0);
 
         for (int i = 0; i < logElements.length; i++) {
             logElements[i].addElement(result, date, request, response, time);
         }
 
-        log(result.toString());
+        String message = result.toString();
+        if (result.capacity() > 8192) {
+            // Don't keep the buffer of an unusually long entry
+            localBuffer.set(new StringBuilder(128));
+        }
+
+        log(message);
     }
 
 
@@ -1140,26 +1303,24 @@ public class AccessLogValve extends ValveBase implements AccessLog {
      */
     public void log(String message) {
 
+        AccessLogRing[] queues = asyncQueues;
+        if (queues != null) {
+            if (enqueue(queues, message)) {
+                if (!asyncRunning) {
+                    // The valve is stopping and the queues may have been
+                    // drained already
+                    drainQueues(queues, new ArrayList<String>(1));
+                }
+                return;
+            }
+            // Spill, the queue is full
+        }
+
         rotate();
 
         /* In case something external rotated the file instead */
         if (checkExists) {
-            synchronized (this) {
-                if (currentLogFile != null && !currentLogFile.exists()) {
-                    try {
-                        close(false);
-                    } catch (Throwable e) {
-                        ExceptionUtils.handleThrowable(e);
-                        log.info(sm.getString("accessLogValve.closeFail"), e);
-                    }
-
-                    /* Make sure date is correct */
-                    dateStamp = fileDateFormatter.format(
-                            new Date(System.currentTimeMillis()));
-
-                    open();
-                }
-            }
+            reopenIfMoved();
         }
 
         // Log this message
@@ -1175,6 +1336,83 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     }
 
 
+    /**
+     * Reopen the log file if something external moved it.
+     */
+    private synchronized void reopenIfMoved() {
+        if (currentLogFile != null && !currentLogFile.exists()) {
+            try {
+                close(false);
+            } catch (Throwable e) {
+                ExceptionUtils.handleThrowable(e);
+                log.info(sm.getString("accessLogValve.closeFail"), e);
+            }
+
+            /* Make sure date is correct */
+            dateStamp = fileDateFormatter.format(
+                    new Date(System.currentTimeMillis()));
+
+            open();
+        }
+    }
+
+
+    /**
+     * Hand the given message to the writer thread.
+     *
+     * @return <code>false</code> if the message must be written by the
+     *         calling thread
+     */
+    private boolean enqueue(AccessLogRing[] queues, String message) {
+        AccessLogRing queue = queues[(int) Thread.currentThread().getId() &
+                (queues.length - 1)];
+        while (!queue.offer(message)) {
+            LockSupport.unpark(asyncThread);
+            if ("drop".equals(asyncOverflowPolicy)) {
+                asyncDroppedCount.incrementAndGet();
+                return true;
+            } else if ("spill".equals(asyncOverflowPolicy) || !asyncRunning) {
+                asyncSpilledCount.incrementAndGet();
+                return false;
+            }
+            LockSupport.parkNanos(100000);
+        }
+        if (queue.size() > queue.getCapacity() / 2) {
+            // Don't wait for the writer thread to wake up on its own
+            LockSupport.unpark(asyncThread);
+        }
+        return true;
+    }
+
+
+    /**
+     * Write the entries waiting in the queues of the writer thread.
+     *
+     * @return the number of entries written
+     */
+    private synchronized int drainQueues(AccessLogRing[] queues,
+            List<String> batch) {
+        if (queues == null) {
+            return 0;
+        }
+        int count = 0;
+        for (AccessLogRing queue : queues) {
+            batch.clear();
+            count += queue.drain(batch, ASYNC_BATCH_SIZE);
+            if (writer != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    writer.println(batch.get(i));
+                }
+            }
+        }
+        batch.clear();
+        if (count > 0 && !buffered && writer != null) {
+            writer.flush();
+        }
+        return count;
+    }
+
+
     /**
      * Open the new log file for the date specified by <code>dateStamp</code>.
      */
@@ -1260,6 +1498,25 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         }
         open();
 
+        if (asyncWriter) {
+            int cpus = Runtime.getRuntime().availableProcessors();
+            int count = 1;
+            while (count < cpus && count < 16) {
+                count <<= 1;
+            }
+            AccessLogRing[] queues = new AccessLogRing[count];
+            for (int i = 0; i < count; i++) {
+                queues[i] = new AccessLogRing(
+                        Math.max(asyncQueueSize / count, 64));
+            }
+            asyncQueues = queues;
+            asyncRunning = true;
+            asyncThread = new Thread(new AsyncWriter(),
+                    "AccessLogWriter[" + prefix + "]");
+            asyncThread.setDaemon(true);
+            asyncThread.start();
+        }
+
         setState(LifecycleState.STARTING);
     }
 
@@ -1275,9 +1532,56 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     protected synchronized void stopInternal() throws LifecycleException {
 
         setState(LifecycleState.STOPPING);
+        if (asyncQueues != null) {
+            // The writer thread exits once it sees it is no longer running,
+            // the remaining entries are written here
+            asyncRunning = false;
+            LockSupport.unpark(asyncThread);
+            List<String> batch = new ArrayList<String>();
+            while (drainQueues(asyncQueues, batch) > 0) {
+                // NOOP
+            }
+            asyncQueues = null;
+            asyncThread = null;
+        }
         close(false);
     }
 
+
+    /**
+     * Writes the entries handed over by the request processing threads and
+     * handles the rotation of the log file, so that request processing
+     * threads never wait for the log file.
+     */
+    private class AsyncWriter implements Runnable {
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<String>();
+            while (asyncRunning) {
+                int count = 0;
+                try {
+                    synchronized (AccessLogValve.this) {
+                        if (!asyncRunning) {
+                            break;
+                        }
+                        rotate();
+                        if (checkExists) {
+                            reopenIfMoved();
+                        }
+                        count = drainQueues(asyncQueues, batch);
+                    }
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    log.error(sm.getString("accessLogValve.writeFail"), t);
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(10000000);
+                }
+            }
+        }
+    }
+
     /**
      * AccessLogElement writes the partial message into the buffer.
      */
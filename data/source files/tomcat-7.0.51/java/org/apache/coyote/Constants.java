@@ -130,6 +130,20 @@ public final class Constants {
         "org.apache.tomcat.sendfile.end";
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass to the
+     * connector a read-only copy of the content of the file that is to be
+     * served by sendfile, typically a memory mapped buffer. The value should be
+     * a {@code java.nio.ByteBuffer} with position zero that contains the whole
+     * file. The part to serve is still defined by
+     * {@link #SENDFILE_FILE_START_ATTR} and {@link #SENDFILE_FILE_END_ATTR}.
+     * Connectors that are not able to use the buffer ignore it and read the
+     * file named by {@link #SENDFILE_FILENAME_ATTR} instead.
+     */
+    public static final String SENDFILE_FILE_BUFFER_ATTR =
+        "org.apache.tomcat.sendfile.buffer";
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
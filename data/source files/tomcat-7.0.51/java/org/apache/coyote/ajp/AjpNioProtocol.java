@@ -162,6 +162,8 @@ public class AjpNioProtocol extends AbstractAjpProtocol {
             processor.recycle(isSocketClosing);
             recycledProcessors.offer(processor);
             if (addToPoller) {
+                // Idle until the next request
+                socket.getSocket().releaseBuffers(false);
                 socket.getSocket().getPoller().add(socket.getSocket());
             }
         }
@@ -220,6 +220,12 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     protected int compressionMinSize = 2048;
 
 
+    /**
+     * Cache of compressed response bodies, if enabled.
+     */
+    protected CompressionCache compressionCache = null;
+
+
     /**
      * Socket buffering.
      */
@@ -309,6 +315,29 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Set the gzip compression level, from 0 to 9 or -1 for the default level.
+     */
+    public void setGzipLevel(int gzipLevel) {
+        getGzipOutputFilter().setLevel(gzipLevel);
+    }
+
+
+    /**
+     * Set the cache of compressed response bodies.
+     */
+    public void setCompressionCache(CompressionCache compressionCache) {
+        this.compressionCache = compressionCache;
+        getGzipOutputFilter().setCache(compressionCache);
+    }
+
+
+    private GzipOutputFilter getGzipOutputFilter() {
+        return (GzipOutputFilter)
+                getOutputBuffer().getFilters()[Constants.GZIP_FILTER];
+    }
+
+
     /**
      * Set no compression user agent pattern. Regular expression as supported
      * by {@link Pattern}.
@@ -622,6 +651,43 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Look the compressed body of the response up in the cache. Only the
+     * complete bodies of successful GET requests with an entity tag are
+     * cached. A weak entity tag may be shared by different bodies, so the
+     * response must also have a last modification date, which is part of the
+     * key along with the length.
+     *
+     * @return the length of the cached body, or -1 if it is not cached
+     */
+    private long prepareCompressionCache() {
+        if (response.getStatus() != 200 ||
+                response.getContentLengthLong() < 0 ||
+                !request.method().equals("GET")) {
+            return -1;
+        }
+        MessageBytes eTag = response.getMimeHeaders().getValue("ETag");
+        if (eTag == null) {
+            return -1;
+        }
+        String validator = eTag.toString();
+        if (validator.startsWith("W/")) {
+            MessageBytes lastModified =
+                response.getMimeHeaders().getValue("Last-Modified");
+            if (lastModified == null) {
+                return -1;
+            }
+            validator = validator + ' ' + response.getContentLengthLong() +
+                    ' ' + lastModified.toString();
+        }
+        String key = CompressionCache.getKey(request.serverName().toString(),
+                request.requestURI().toString(),
+                request.queryString().toString(), validator);
+        return getGzipOutputFilter().setCacheKey(key,
+                response.getContentLengthLong());
+    }
+
+
     /**
      * Specialized utility method: find a sequence of lower case bytes inside
      * a ByteChunk.
@@ -760,6 +826,10 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
         if (actionCode == ActionCode.CLOSE) {
             // End the processing of the current request
 
+            if (compressionCache != null &&
+                    (error || response.isExceptionPresent())) {
+                getGzipOutputFilter().cancelCache();
+            }
             try {
                 getOutputBuffer().endRequest();
             } catch (IOException e) {
@@ -1434,9 +1504,14 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             if (isCompressable) {
                 useCompression = useCompression();
             }
-            // Change content-length to -1 to force chunking
+            // Change content-length to -1 to force chunking, unless the
+            // compressed body is cached
             if (useCompression) {
-                response.setContentLength(-1);
+                long compressedLength = -1;
+                if (compressionCache != null) {
+                    compressedLength = prepareCompressionCache();
+                }
+                response.setContentLength(compressedLength);
             }
         }
 
@@ -1742,6 +1817,10 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             response.setStatus(500);
             error = true;
         }
+        if (compressionCache != null &&
+                (error || response.isExceptionPresent())) {
+            getGzipOutputFilter().cancelCache();
+        }
         try {
             getOutputBuffer().endRequest();
         } catch (IOException e) {
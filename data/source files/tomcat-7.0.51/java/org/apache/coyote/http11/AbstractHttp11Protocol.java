@@ -121,6 +121,54 @@ public abstract class AbstractHttp11Protocol extends AbstractProtocol {
     }
 
 
+    /**
+     * Level of the gzip compression, from 0 to 9 or -1 for the default level.
+     */
+    private int gzipLevel = -1;
+    public int getGzipLevel() { return gzipLevel; }
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+
+
+    /**
+     * Maximum total size in bytes of the compressed response bodies that are
+     * cached. Zero or less disables the cache.
+     */
+    private int compressionCacheSize = 0;
+    public int getCompressionCacheSize() { return compressionCacheSize; }
+    public void setCompressionCacheSize(int compressionCacheSize) {
+        this.compressionCacheSize = compressionCacheSize;
+    }
+
+    private CompressionCache compressionCache = null;
+    protected synchronized CompressionCache getCompressionCache() {
+        if (compressionCache == null && compressionCacheSize > 0) {
+            compressionCache = new CompressionCache(compressionCacheSize);
+        }
+        return compressionCache;
+    }
+
+    public long getCompressionCacheHitCount() {
+        CompressionCache cache = getCompressionCache();
+        return (cache == null) ? 0 : cache.getHitCount();
+    }
+
+    public long getCompressionCacheMissCount() {
+        CompressionCache cache = getCompressionCache();
+        return (cache == null) ? 0 : cache.getMissCount();
+    }
+
+    /**
+     * Compression time in milliseconds saved by the cache of compressed
+     * response bodies.
+     */
+    public long getCompressionCacheTimeSaved() {
+        CompressionCache cache = getCompressionCache();
+        return (cache == null) ? 0 : cache.getTimeSaved();
+    }
+
+
     /**
      * Regular expression that defines the User agents which should be
      * restricted to HTTP/1.0 support.
@@ -19,6 +19,9 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
@@ -110,6 +113,42 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
     private static final org.apache.juli.logging.Log log
         = org.apache.juli.logging.LogFactory.getLog(AbstractOutputBuffer.class);
 
+    /**
+     * Maximum number of entries in the cache of encoded header names and
+     * values.
+     */
+    private static final int ENCODED_CACHE_SIZE = 1000;
+
+    /**
+     * Encoded header names, status messages and values of the headers listed
+     * in {@link #cachedHeaderValues}.
+     */
+    private static final ConcurrentHashMap<String,byte[]> encodedCache =
+        new ConcurrentHashMap<String,byte[]>();
+
+    /**
+     * Headers which only take a few distinct values, the values of which are
+     * cached once encoded.
+     */
+    private static final Set<String> cachedHeaderValues =
+        new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        cachedHeaderValues.add("Content-Type");
+        cachedHeaderValues.add("Content-Language");
+        cachedHeaderValues.add("Content-Encoding");
+        cachedHeaderValues.add("Server");
+        cachedHeaderValues.add("Vary");
+        cachedHeaderValues.add("Connection");
+        cachedHeaderValues.add("Transfer-Encoding");
+    }
+
+    /**
+     * The last encoded date. The date of the responses changes at most once
+     * a second.
+     */
+    private static volatile EncodedDate encodedDate = new EncodedDate("");
+
     // ------------------------------------------------------------- Properties
 
 
@@ -354,7 +393,7 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
             message = response.getMessage();
         }
         if (message == null) {
-            write(HttpMessages.getInstance(
+            writeEncoded(HttpMessages.getInstance(
                     response.getLocale()).getMessage(status));
         } else {
             write(message);
@@ -388,10 +427,28 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
      */
     public void sendHeader(MessageBytes name, MessageBytes value) {
 
-        write(name);
-        buf[pos++] = Constants.COLON;
-        buf[pos++] = Constants.SP;
-        write(value);
+        if (name.getType() == MessageBytes.T_STR) {
+            String n = name.getString();
+            writeEncoded(n);
+            buf[pos++] = Constants.COLON;
+            buf[pos++] = Constants.SP;
+            if (value.getType() == MessageBytes.T_STR) {
+                if (n.equalsIgnoreCase("Date")) {
+                    write(encodeDate(value.getString()));
+                } else if (cachedHeaderValues.contains(n)) {
+                    writeEncoded(value.getString());
+                } else {
+                    write(value);
+                }
+            } else {
+                write(value);
+            }
+        } else {
+            write(name);
+            buf[pos++] = Constants.COLON;
+            buf[pos++] = Constants.SP;
+            write(value);
+        }
         buf[pos++] = Constants.CR;
         buf[pos++] = Constants.LF;
 
@@ -524,6 +581,63 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
     }
 
 
+    /**
+     * Write the specified String to the output stream, without filtering,
+     * using the cache of encoded strings. This method is meant to be used for
+     * the strings of the response header which only take a few distinct
+     * values.
+     *
+     * @param s data to be written
+     */
+    protected void writeEncoded(String s) {
+
+        if (s == null)
+            return;
+
+        byte[] b = encodedCache.get(s);
+        if (b == null) {
+            b = encode(s);
+            if (encodedCache.size() < ENCODED_CACHE_SIZE) {
+                encodedCache.put(s, b);
+            }
+        }
+        write(b);
+
+    }
+
+
+    /**
+     * Encode a String of the response header the same way as
+     * {@link #write(String)}.
+     */
+    private static byte[] encode(String s) {
+        int len = s.length();
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt (i);
+            if (((c <= 31) && (c != 9)) || c == 127 || c > 255) {
+                c = ' ';
+            }
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+
+
+    /**
+     * Return the encoded form of a date header, encoding it only when it
+     * changed since the previous response.
+     */
+    private static byte[] encodeDate(String date) {
+        EncodedDate current = encodedDate;
+        if (!current.date.equals(date)) {
+            current = new EncodedDate(date);
+            encodedDate = current;
+        }
+        return current.bytes;
+    }
+
+
     /**
      * This method will print the specified integer to the output stream, 
      * without filtering. This method is meant to be used to write the 
@@ -549,4 +663,19 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer{
         }
     }
 
+
+    /**
+     * A date header and its encoded form.
+     */
+    private static final class EncodedDate {
+
+        private final String date;
+        private final byte[] bytes;
+
+        private EncodedDate(String date) {
+            this.date = date;
+            this.bytes = encode(date);
+        }
+    }
+
 }
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the gzip compressed bodies of responses, shared by the processors
+ * of a connector. Entries are keyed by the request and the validators of the
+ * response, its entity tag and, for a weak entity tag, its length and last
+ * modification date, so a new version of a resource never matches the body of
+ * a previous one. The cache is bounded by the total size of the compressed
+ * bodies and the least recently used entries are evicted first.
+ */
+public class CompressionCache {
+
+    private final long maxSize;
+    private final long maxEntrySize;
+
+    private final LinkedHashMap<String,Entry> entries =
+        new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong timeSaved = new AtomicLong();
+
+
+    /**
+     * @param maxSize The maximum total size in bytes of the cached bodies. A
+     *                body larger than an eighth of it is never cached.
+     */
+    public CompressionCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / 8;
+    }
+
+
+    /**
+     * Build the key of a response.
+     *
+     * @param validator The validators of the response that identify its body
+     */
+    public static String getKey(String host, String uri, String query,
+            String validator) {
+        StringBuilder key = new StringBuilder(host.length() + uri.length() +
+                validator.length() + 2 +
+                (query == null ? 0 : query.length() + 1));
+        key.append(host).append(' ').append(uri);
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        key.append(' ').append(validator);
+        return key.toString();
+    }
+
+
+    /**
+     * @return the cached body for the key or <code>null</code>
+     */
+    public Entry get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+            timeSaved.addAndGet(entry.compressionTime);
+        }
+        return entry;
+    }
+
+
+    /**
+     * Cache a compressed body.
+     *
+     * @param key             The key of the response
+     * @param data            The compressed body
+     * @param compressionTime The time in nanoseconds it took to compress it
+     */
+    public void put(String key, byte[] data, long compressionTime) {
+        if (data.length > maxEntrySize) {
+            return;
+        }
+        Entry entry = new Entry(data, compressionTime);
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.data.length;
+            }
+            size += data.length;
+            Iterator<Entry> iter = entries.values().iterator();
+            while (size > maxSize && iter.hasNext()) {
+                size -= iter.next().data.length;
+                iter.remove();
+            }
+        }
+    }
+
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+
+    /**
+     * @return the current total size in bytes of the cached bodies
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+
+    /**
+     * @return the compression time in milliseconds that has been saved by
+     *         serving cached bodies
+     */
+    public long getTimeSaved() {
+        return timeSaved.get() / 1000000;
+    }
+
+
+    public static class Entry {
+        private final byte[] data;
+        private final long compressionTime;
+
+        Entry(byte[] data, long compressionTime) {
+            this.data = data;
+            this.compressionTime = compressionTime;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -308,6 +308,8 @@ public class Http11AprProtocol extends AbstractHttp11Protocol {
                     proto.getConnectionUploadTimeout());
             processor.setDisableUploadTimeout(proto.getDisableUploadTimeout());
             processor.setCompressionMinSize(proto.getCompressionMinSize());
+            processor.setGzipLevel(proto.getGzipLevel());
+            processor.setCompressionCache(proto.getCompressionCache());
             processor.setCompression(proto.getCompression());
             processor.setNoCompressionUserAgents(proto.getNoCompressionUserAgents());
             processor.setCompressableMimeTypes(proto.getCompressableMimeTypes());
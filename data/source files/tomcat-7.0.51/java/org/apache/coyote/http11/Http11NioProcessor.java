@@ -19,6 +19,7 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 
 import javax.net.ssl.SSLEngine;
@@ -531,6 +532,17 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
                     org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
             sendfileData.length = ((Long) request.getAttribute(
                     org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue() - sendfileData.pos;
+            Object buffer = request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_BUFFER_ATTR);
+            if (buffer instanceof ByteBuffer) {
+                ByteBuffer content = ((ByteBuffer) buffer).duplicate();
+                if (sendfileData.pos >= 0 && sendfileData.length >= 0 &&
+                        sendfileData.pos + sendfileData.length <= content.capacity()) {
+                    content.limit((int) (sendfileData.pos + sendfileData.length));
+                    content.position((int) sendfileData.pos);
+                    sendfileData.buffer = content;
+                }
+            }
             return true;
         }
         return false;
@@ -88,6 +88,22 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol {
         return ((NioEndpoint)endpoint).getPollerThreadCount();
     }
 
+    public void setShardCount(int shardCount) {
+        ((NioEndpoint)endpoint).setShardCount(shardCount);
+    }
+
+    public int getShardCount() {
+        return ((NioEndpoint)endpoint).getShardCount();
+    }
+
+    public void setReusePort(boolean reusePort) {
+        ((NioEndpoint)endpoint).setReusePort(reusePort);
+    }
+
+    public boolean getReusePort() {
+        return ((NioEndpoint)endpoint).getReusePort();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ((NioEndpoint)endpoint).setSelectorTimeout(timeout);
     }
@@ -218,6 +234,8 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol {
             processor.recycle(isSocketClosing);
             recycledProcessors.offer(processor);
             if (addToPoller) {
+                // Idle until the next request
+                socket.getSocket().releaseBuffers(false);
                 socket.getSocket().getPoller().add(socket.getSocket());
             }
         }
@@ -267,6 +285,8 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol {
                     proto.getConnectionUploadTimeout());
             processor.setDisableUploadTimeout(proto.getDisableUploadTimeout());
             processor.setCompressionMinSize(proto.getCompressionMinSize());
+            processor.setGzipLevel(proto.getGzipLevel());
+            processor.setCompressionCache(proto.getCompressionCache());
             processor.setCompression(proto.getCompression());
             processor.setNoCompressionUserAgents(proto.getNoCompressionUserAgents());
             processor.setCompressableMimeTypes(proto.getCompressableMimeTypes());
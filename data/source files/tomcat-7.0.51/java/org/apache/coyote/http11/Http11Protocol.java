@@ -172,6 +172,8 @@ public class Http11Protocol extends AbstractHttp11JsseProtocol {
                     proto.getConnectionUploadTimeout());
             processor.setDisableUploadTimeout(proto.getDisableUploadTimeout());
             processor.setCompressionMinSize(proto.getCompressionMinSize());
+            processor.setGzipLevel(proto.getGzipLevel());
+            processor.setCompressionCache(proto.getCompressionCache());
             processor.setCompression(proto.getCompression());
             processor.setNoCompressionUserAgents(proto.getNoCompressionUserAgents());
             processor.setCompressableMimeTypes(proto.getCompressableMimeTypes());
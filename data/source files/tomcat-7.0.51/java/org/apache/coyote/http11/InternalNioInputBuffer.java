@@ -25,6 +25,7 @@ import org.apache.coyote.InputBuffer;
 import org.apache.coyote.Request;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
@@ -526,6 +527,7 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
         if ( headerParsePos == HeaderParsePosition.HEADER_START ) {
             // Mark the current buffer position
             headerData.start = pos;
+            headerData.nameHash = 0;
             headerParsePos = HeaderParsePosition.HEADER_NAME;
         }
 
@@ -546,7 +548,8 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
             chr = buf[pos];
             if (chr == Constants.COLON) {
                 headerParsePos = HeaderParsePosition.HEADER_VALUE_START;
-                headerData.headerValue = headers.addValue(buf, headerData.start, pos - headerData.start);
+                headerData.headerValue = headers.addValue(buf, headerData.start,
+                        pos - headerData.start, headerData.nameHash);
                 pos++;
                 // Mark the current buffer position
                 headerData.start = pos;
@@ -564,6 +567,8 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
             if ((chr >= Constants.A) && (chr <= Constants.Z)) {
                 buf[pos] = (byte) (chr - Constants.LC_OFFSET);
             }
+            headerData.nameHash =
+                MimeHeaders.updateNameHash(headerData.nameHash, buf[pos]);
             pos++;
         }
 
@@ -736,8 +741,14 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
          * header name and is created after the name has been parsed.
          */
         MessageBytes headerValue = null;
+        /**
+         * When parsing header name: hash of the characters read so far, as
+         * indexed by {@link MimeHeaders}.
+         */
+        int nameHash = 0;
         public void recycle() {
             start = 0;
+            nameHash = 0;
             realPos = 0;
             lastSignificantChar = 0;
             headerValue = null;
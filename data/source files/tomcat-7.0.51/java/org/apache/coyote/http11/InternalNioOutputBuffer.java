@@ -30,6 +30,7 @@ import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
 import org.apache.tomcat.util.net.NioSelectorPool;
+import org.apache.tomcat.util.net.SecureNioChannel;
 import org.apache.tomcat.util.net.SocketWrapper;
 
 /**
@@ -76,6 +77,14 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
      */
     private NioSelectorPool pool;
 
+    /**
+     * The response header is in the header buffer but not yet in the socket
+     * buffer: if the whole body is then written at once, the header and the
+     * body are written together by a single gathering write instead of being
+     * copied to the socket buffer.
+     */
+    private boolean headerPending = false;
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -103,6 +112,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     @Override
     public void recycle() {
         super.recycle();
+        headerPending = false;
         if (socket != null) {
             socket.getBufHandler().getWriteBuffer().clear();
             socket = null;
@@ -110,6 +120,16 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     }
 
 
+    /**
+     * End processing of current HTTP request.
+     */
+    @Override
+    public void nextRequest() {
+        super.nextRequest();
+        headerPending = false;
+    }
+
+
     /**
      * End request.
      * 
@@ -198,10 +218,48 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
         response.setCommitted(true);
 
         if (pos > 0) {
-            // Sending the response header buffer
+            if (socket instanceof SecureNioChannel) {
+                // Sending the response header buffer
+                addToBB(buf, 0, pos);
+            } else {
+                // Wait for the body, the header is sent with it
+                headerPending = true;
+            }
+        }
+
+    }
+
+
+    /**
+     * Copy the response header to the socket buffer if it is still pending.
+     */
+    private void writePendingHeader() throws IOException {
+        if (headerPending) {
+            headerPending = false;
             addToBB(buf, 0, pos);
         }
+    }
 
+
+    /**
+     * Write the response header and the body with a single gathering write.
+     * The channel is non blocking so whatever could not be written at once
+     * is then written by blocking writes.
+     */
+    private synchronized void writeHeaderAndBody(byte[] b, int off, int len)
+            throws IOException {
+        headerPending = false;
+        NioEndpoint.KeyAttachment ka = (NioEndpoint.KeyAttachment)socket.getAttachment(false);
+        if ( ka == null ) throw new IOException("Key must be cancelled");
+        ka.access();
+        ByteBuffer[] srcs = new ByteBuffer[] {
+                ByteBuffer.wrap(buf, 0, pos), ByteBuffer.wrap(b, off, len) };
+        socket.getIOChannel().write(srcs);
+        for (int i = 0; i < srcs.length; i++) {
+            if (srcs[i].hasRemaining()) {
+                writeToSocket(srcs[i], true, false);
+            }
+        }
     }
 
     private synchronized void addToBB(byte[] buf, int offset, int length) throws IOException {
@@ -229,6 +287,8 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
      */
     private void flushBuffer() throws IOException {
 
+        writePendingHeader();
+
         //prevent timeout for async,
         SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
         if (key != null) {
@@ -265,6 +325,15 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
             int len = chunk.getLength();
             int start = chunk.getStart();
             byte[] b = chunk.getBuffer();
+            if (headerPending) {
+                if (byteCount + len == response.getContentLengthLong()) {
+                    // The whole body is there
+                    writeHeaderAndBody(b, start, len);
+                    byteCount += chunk.getLength();
+                    return chunk.getLength();
+                }
+                writePendingHeader();
+            }
             addToBB(b, start, len);
             byteCount += chunk.getLength();
             return chunk.getLength();
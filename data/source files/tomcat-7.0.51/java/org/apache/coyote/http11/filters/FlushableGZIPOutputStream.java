@@ -32,9 +32,27 @@ import java.util.zip.GZIPOutputStream;
  */
 public class FlushableGZIPOutputStream extends GZIPOutputStream {
     public FlushableGZIPOutputStream(OutputStream os) throws IOException {
+        this(os, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param os    The stream the compressed data is written to
+     * @param level The compression level, from 0 to 9 or
+     *              {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IOException
+     */
+    public FlushableGZIPOutputStream(OutputStream os, int level)
+            throws IOException {
         super(os);
+        this.level = level;
+        def.setLevel(level);
     }
 
+    /**
+     * The compression level, restored after a flush.
+     */
+    private final int level;
+
     /**
      * It is used to reserve one byte of real data so that it can be used when
      * flushing the stream.
@@ -99,7 +117,7 @@ public class FlushableGZIPOutputStream extends GZIPOutputStream {
     private void reenableCompression() {
         if (flagReenableCompression && !def.finished()) {
             flagReenableCompression = false;
-            def.setLevel(Deflater.DEFAULT_COMPRESSION);
+            def.setLevel(level);
         }
     }
 
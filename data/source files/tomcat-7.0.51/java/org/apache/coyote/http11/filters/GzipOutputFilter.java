@@ -19,10 +19,12 @@ package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.CompressionCache;
 import org.apache.coyote.http11.OutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 
@@ -62,6 +64,122 @@ public class GzipOutputFilter implements OutputFilter {
     protected OutputStream fakeOutputStream = new FakeOutputStream();
 
 
+    /**
+     * Compression level.
+     */
+    protected int level = Deflater.DEFAULT_COMPRESSION;
+
+
+    /**
+     * Cache of compressed bodies, if any.
+     */
+    protected CompressionCache cache = null;
+
+
+    /**
+     * Key under which the body of the current response will be cached, if it
+     * is being captured.
+     */
+    protected String cacheKey = null;
+
+
+    /**
+     * Length of the uncompressed body of the current response, which must be
+     * written completely for its compressed body to be cached.
+     */
+    protected long contentLength = -1;
+
+
+    /**
+     * Number of uncompressed bytes of the current response written so far.
+     */
+    protected long uncompressedLength = 0;
+
+
+    /**
+     * Compressed body of the current response, captured for the cache.
+     */
+    protected ByteChunk captured = new ByteChunk();
+
+
+    /**
+     * Time spent writing the compressed body of the current response to the
+     * next buffer, which is not part of the compression time.
+     */
+    protected long writeTime = 0;
+
+
+    /**
+     * Time spent compressing and writing the current response.
+     */
+    protected long totalTime = 0;
+
+
+    /**
+     * Cached body for the current response, written instead of compressing
+     * the body of the response.
+     */
+    protected CompressionCache.Entry cached = null;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getLevel() {
+        return level;
+    }
+
+
+    /**
+     * Set the compression level, from 0 to 9 or
+     * {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+
+    public CompressionCache getCache() {
+        return cache;
+    }
+
+
+    public void setCache(CompressionCache cache) {
+        this.cache = cache;
+    }
+
+
+    /**
+     * Look the current response up in the cache. If its compressed body is
+     * cached, it will be written instead of compressing the body of the
+     * response. Otherwise, the compressed body of the response will be
+     * cached if all of its uncompressed body is written.
+     *
+     * @param key The key of the response
+     * @param contentLength The length of the uncompressed body
+     * @return the length of the cached body, or -1 if it is not cached
+     */
+    public long setCacheKey(String key, long contentLength) {
+        cached = cache.get(key);
+        if (cached != null) {
+            return cached.getData().length;
+        }
+        cacheKey = key;
+        this.contentLength = contentLength;
+        return -1;
+    }
+
+
+    /**
+     * Do not cache the compressed body of the current response, which is in
+     * error.
+     */
+    public void cancelCache() {
+        cacheKey = null;
+        captured.recycle();
+    }
+
+
     // --------------------------------------------------- OutputBuffer Methods
 
 
@@ -73,11 +191,24 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteChunk chunk, Response res)
         throws IOException {
+        if (cached != null) {
+            // The cached body is written when the response ends
+            return chunk.getLength();
+        }
+        long start = 0;
+        if (cacheKey != null) {
+            start = System.nanoTime();
+            uncompressedLength += chunk.getLength();
+        }
         if (compressionStream == null) {
-            compressionStream = new FlushableGZIPOutputStream(fakeOutputStream);
+            compressionStream =
+                new FlushableGZIPOutputStream(fakeOutputStream, level);
         }
         compressionStream.write(chunk.getBytes(), chunk.getStart(), 
                                 chunk.getLength());
+        if (cacheKey != null) {
+            totalTime += System.nanoTime() - start;
+        }
         return chunk.getLength();
     }
 
@@ -94,7 +225,7 @@ public class GzipOutputFilter implements OutputFilter {
      * Added to allow flushing to happen for the gzip'ed outputstream
      */
     public void flush() {
-        if (compressionStream != null) {
+        if (compressionStream != null && cached == null) {
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("Flushing the compression stream!");
@@ -135,11 +266,27 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public long end()
         throws IOException {
+        if (cached != null) {
+            byte[] data = cached.getData();
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(data, 0, data.length);
+            buffer.doWrite(chunk, null);
+            return ((OutputFilter) buffer).end();
+        }
+        long start = (cacheKey == null) ? 0 : System.nanoTime();
         if (compressionStream == null) {
-            compressionStream = new FlushableGZIPOutputStream(fakeOutputStream);
+            compressionStream =
+                new FlushableGZIPOutputStream(fakeOutputStream, level);
         }
         compressionStream.finish();
         compressionStream.close();
+        if (cacheKey != null && uncompressedLength == contentLength) {
+            totalTime += System.nanoTime() - start;
+            byte[] data = new byte[captured.getLength()];
+            System.arraycopy(captured.getBuffer(), captured.getStart(), data,
+                    0, data.length);
+            cache.put(cacheKey, data, totalTime - writeTime);
+        }
         return ((OutputFilter) buffer).end();
     }
 
@@ -151,6 +298,13 @@ public class GzipOutputFilter implements OutputFilter {
     public void recycle() {
         // Set compression stream to null
         compressionStream = null;
+        cacheKey = null;
+        cached = null;
+        contentLength = -1;
+        uncompressedLength = 0;
+        captured.recycle();
+        writeTime = 0;
+        totalTime = 0;
     }
 
 
@@ -167,14 +321,26 @@ public class GzipOutputFilter implements OutputFilter {
             // Shouldn't get used for good performance, but is needed for 
             // compatibility with Sun JDK 1.4.0
             singleByteBuffer[0] = (byte) (b & 0xff);
-            outputChunk.setBytes(singleByteBuffer, 0, 1);
-            buffer.doWrite(outputChunk, null);
+            write(singleByteBuffer, 0, 1);
         }
         @Override
         public void write(byte[] b, int off, int len)
             throws IOException {
             outputChunk.setBytes(b, off, len);
+            if (cacheKey == null) {
+                buffer.doWrite(outputChunk, null);
+                return;
+            }
+            if (captured.getLength() + len > cache.getMaxEntrySize()) {
+                // Too large to be cached
+                cacheKey = null;
+                captured.recycle();
+            } else {
+                captured.append(b, off, len);
+            }
+            long start = System.nanoTime();
             buffer.doWrite(outputChunk, null);
+            writeTime += System.nanoTime() - start;
         }
         @Override
         public void flush() throws IOException {/*NOOP*/}
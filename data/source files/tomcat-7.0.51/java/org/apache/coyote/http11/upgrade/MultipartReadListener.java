@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.upgrade;
+
+import java.io.IOException;
+
+import org.apache.coyote.http11.upgrade.servlet31.ReadListener;
+import org.apache.tomcat.util.http.MultipartParser;
+
+/**
+ * Non-blocking reader of a multipart body sent on an upgraded connection. The
+ * data is passed to the parser as it becomes available and reading stops as
+ * soon as the stream is not ready, so the connection is never blocked waiting
+ * for the client and the handler of the parser controls how fast the parts
+ * are consumed.
+ */
+public abstract class MultipartReadListener implements ReadListener {
+
+    private final AbstractServletInputStream in;
+    private final MultipartParser parser;
+    private final byte[] buffer;
+    private boolean done = false;
+
+
+    /**
+     * @param in         The input stream of the upgraded connection
+     * @param parser     The parser of the body
+     * @param bufferSize The size of the reads
+     */
+    public MultipartReadListener(AbstractServletInputStream in,
+            MultipartParser parser, int bufferSize) {
+        this.in = in;
+        this.parser = parser;
+        this.buffer = new byte[bufferSize];
+    }
+
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        while (!done && in.isReady()) {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                onAllDataRead();
+                return;
+            }
+            parser.parse(buffer, 0, read);
+            if (parser.isComplete()) {
+                done = true;
+                onComplete();
+            }
+        }
+    }
+
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (!done) {
+            done = true;
+            parser.finish();
+            onComplete();
+        }
+    }
+
+
+    /**
+     * The final boundary of the body has been read.
+     *
+     * @throws IOException
+     */
+    protected abstract void onComplete() throws IOException;
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.el.lang;
+
+/**
+ * Implemented by the {@link javax.el.ELResolver}s built from the standard
+ * resolvers, which can tell whether the properties of beans are read by a
+ * {@link javax.el.BeanELResolver} before any other resolver may handle them.
+ * The bean properties of hot expressions are only read directly, without the
+ * resolver chain, when the resolver of the context is known to do so.
+ */
+public interface StandardResolverChain {
+
+    /**
+     * @return <code>true</code> if, for a base that is not <code>null</code>,
+     *         a map, a list, an array or a resource bundle, the first resolver
+     *         that may resolve the property is a
+     *         {@link javax.el.BeanELResolver}
+     */
+    public boolean isBeanResolverFirst();
+}
@@ -66,6 +66,39 @@ public final class AstValue extends SimpleNode {
         }
     }
 
+    /**
+     * Number of evaluations after which the bean properties of an expression
+     * are read directly instead of through the ELResolver chain. 0 disables
+     * compiling.
+     */
+    protected static final int COMPILE_THRESHOLD;
+
+    static {
+        String threshold;
+        if (IS_SECURITY_ENABLED) {
+            threshold = AccessController.doPrivileged(
+                    new PrivilegedAction<String>(){
+                        @Override
+                        public String run() {
+                            return System.getProperty(
+                                    "org.apache.el.parser.COMPILE_THRESHOLD",
+                                    "0");
+                        }
+                    }
+            );
+        } else {
+            threshold = System.getProperty(
+                    "org.apache.el.parser.COMPILE_THRESHOLD", "0");
+        }
+        COMPILE_THRESHOLD = Integer.parseInt(threshold);
+    }
+
+    // Number of evaluations before compiling
+    private volatile int evaluations = 0;
+
+    // Direct accessors of the properties, by child index
+    private volatile PropertyAccessor[] accessors = null;
+
     protected static class Target {
         protected Object base;
 
@@ -162,6 +195,12 @@ public final class AstValue extends SimpleNode {
         int i = 1;
         Object suffix = null;
         ELResolver resolver = ctx.getELResolver();
+        PropertyAccessor[] accessors = this.accessors;
+        if (accessors == null && COMPILE_THRESHOLD > 0 &&
+                ++evaluations >= COMPILE_THRESHOLD) {
+            accessors = new PropertyAccessor[propCount];
+            this.accessors = accessors;
+        }
         while (base != null && i < propCount) {
             suffix = this.children[i].getValue(ctx);
             if (i + 1 < propCount &&
@@ -177,7 +216,26 @@ public final class AstValue extends SimpleNode {
                 if (suffix == null) {
                     return null;
                 }
-                
+
+                if (accessors != null &&
+                        this.children[i] instanceof AstDotSuffix) {
+                    PropertyAccessor accessor = accessors[i];
+                    if (accessor == null ||
+                            !accessor.matches(resolver, base)) {
+                        // First evaluation since compiled, or the types
+                        // have changed
+                        accessor = PropertyAccessor.specialize(accessor,
+                                resolver, base, suffix);
+                        accessors[i] = accessor;
+                    }
+                    if (accessor.isCompiled()) {
+                        ctx.setPropertyResolved(true);
+                        base = accessor.getValue(base);
+                        i++;
+                        continue;
+                    }
+                }
+
                 ctx.setPropertyResolved(false);
                 base = resolver.getValue(ctx, base, suffix);
                 i++;
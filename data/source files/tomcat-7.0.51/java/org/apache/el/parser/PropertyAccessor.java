@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el.parser;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import javax.el.BeanELResolver;
+import javax.el.ELException;
+import javax.el.ELResolver;
+
+import org.apache.el.lang.StandardResolverChain;
+import org.apache.el.util.MessageFactory;
+
+/**
+ * Direct read access to a bean property, used by a compiled {@link AstValue}
+ * instead of the {@link ELResolver} chain.
+ * <p>
+ * An accessor is specialized for the resolver and the bean type seen when it
+ * is created and only applies while both stay the same. When another type or
+ * resolver is seen, the expression falls back to the resolver chain and the
+ * accessor is specialized again, up to {@link #MAX_SPECIALIZATIONS} times,
+ * after which the property is always resolved through the resolver chain.
+ * <p>
+ * Compiling only applies to a {@link BeanELResolver} and to the resolver
+ * chains that are known to reach one first for beans, see
+ * {@link StandardResolverChain}. With any other resolver, such as a chain
+ * including resolvers added by the application, the properties are resolved
+ * through the resolver chain. Maps, lists, arrays and resource bundles are
+ * never compiled, since the standard resolvers handle them before the bean
+ * resolver.
+ */
+final class PropertyAccessor {
+
+    static final int MAX_SPECIALIZATIONS = 8;
+
+    /**
+     * The property is always resolved through the resolver chain.
+     */
+    static final PropertyAccessor MEGAMORPHIC =
+        new PropertyAccessor(null, null, null, null, MAX_SPECIALIZATIONS);
+
+    private final ELResolver resolver;
+    private final Class<?> type;
+    private final String property;
+    private final Method getter;
+    private final int specializations;
+
+    private PropertyAccessor(ELResolver resolver, Class<?> type,
+            String property, Method getter, int specializations) {
+        this.resolver = resolver;
+        this.type = type;
+        this.property = property;
+        this.getter = getter;
+        this.specializations = specializations;
+    }
+
+    /**
+     * @return <code>true</code> if this accessor has been specialized for
+     *         the given resolver and bean
+     */
+    boolean matches(ELResolver resolver, Object base) {
+        return this.resolver == resolver && base.getClass() == type;
+    }
+
+    /**
+     * @return <code>false</code> if the property of the bean type must be
+     *         resolved through the resolver chain
+     */
+    boolean isCompiled() {
+        return getter != null;
+    }
+
+    Object getValue(Object base) throws ELException {
+        try {
+            return getter.invoke(base, (Object[]) null);
+        } catch (IllegalAccessException e) {
+            throw new ELException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ThreadDeath) {
+                throw (ThreadDeath) cause;
+            }
+            if (cause instanceof VirtualMachineError) {
+                throw (VirtualMachineError) cause;
+            }
+            throw new ELException(MessageFactory.get(
+                    "error.property.invocation", type.getName(), property),
+                    cause);
+        }
+    }
+
+    /**
+     * Specializes an accessor for a new resolver or bean type.
+     *
+     * @param previous The accessor that did not match, if any
+     * @param resolver The resolver of the evaluation
+     * @param base     The bean
+     * @param property The name of the property
+     * @return the new accessor
+     */
+    static PropertyAccessor specialize(PropertyAccessor previous,
+            ELResolver resolver, Object base, Object property) {
+        int specializations = 0;
+        if (previous != null) {
+            specializations = previous.specializations + 1;
+            if (specializations >= MAX_SPECIALIZATIONS) {
+                return MEGAMORPHIC;
+            }
+        }
+        Class<?> type = base.getClass();
+        String name = property.toString();
+        Method getter = null;
+        if (isBeanResolverFirst(resolver)) {
+            getter = findGetter(type, name);
+        }
+        return new PropertyAccessor(resolver, type, name, getter,
+                specializations);
+    }
+
+    private static boolean isBeanResolverFirst(ELResolver resolver) {
+        if (resolver.getClass() == BeanELResolver.class) {
+            return true;
+        }
+        return resolver instanceof StandardResolverChain &&
+                ((StandardResolverChain) resolver).isBeanResolverFirst();
+    }
+
+    private static Method findGetter(Class<?> type, String name) {
+        if (Map.class.isAssignableFrom(type) ||
+                List.class.isAssignableFrom(type) ||
+                ResourceBundle.class.isAssignableFrom(type) ||
+                type.isArray()) {
+            return null;
+        }
+        try {
+            PropertyDescriptor[] pds =
+                Introspector.getBeanInfo(type).getPropertyDescriptors();
+            for (PropertyDescriptor pd : pds) {
+                if (pd.getName().equals(name)) {
+                    return getMethod(type, pd.getReadMethod());
+                }
+            }
+        } catch (IntrospectionException e) {
+            // Leave it to the resolver chain
+        }
+        return null;
+    }
+
+    /*
+     * Same as javax.el.BeanELResolver: the getter must be called through a
+     * public type
+     */
+    private static Method getMethod(Class<?> type, Method m) {
+        if (m == null || Modifier.isPublic(type.getModifiers())) {
+            return m;
+        }
+        Class<?>[] inf = type.getInterfaces();
+        Method mp = null;
+        for (int i = 0; i < inf.length; i++) {
+            try {
+                mp = inf[i].getMethod(m.getName(), m.getParameterTypes());
+                mp = getMethod(mp.getDeclaringClass(), mp);
+                if (mp != null) {
+                    return mp;
+                }
+            } catch (NoSuchMethodException e) {
+                // Ignore
+            }
+        }
+        Class<?> sup = type.getSuperclass();
+        if (sup != null) {
+            try {
+                mp = sup.getMethod(m.getName(), m.getParameterTypes());
+                mp = getMethod(mp.getDeclaringClass(), mp);
+                if (mp != null) {
+                    return mp;
+                }
+            } catch (NoSuchMethodException e) {
+                // Ignore
+            }
+        }
+        return null;
+    }
+}
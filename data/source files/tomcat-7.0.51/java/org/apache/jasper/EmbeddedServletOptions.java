@@ -199,6 +199,12 @@ public final class EmbeddedServletOptions implements Options {
      */
     private int jspIdleTimeout = -1;
 
+    /**
+     * The number of background threads that compile all the JSPs when the
+     * web-application starts.
+     */
+    private int precompileThreads = 0;
+
     public String getProperty(String name ) {
         return settings.getProperty( name );
     }
@@ -442,6 +448,15 @@ public final class EmbeddedServletOptions implements Options {
         return jspIdleTimeout;
     }
 
+    /**
+     * Should the jsps be compiled in the background when the web-application
+     * starts, and with how many threads? Default: 0
+     */
+    @Override
+    public int getPrecompileThreads() {
+        return precompileThreads;
+    }
+
     /**
      * Create an EmbeddedServletOptions object using data available from
      * ServletConfig and ServletContext. 
@@ -741,6 +756,17 @@ public final class EmbeddedServletOptions implements Options {
             }
         }
 
+        String precompileThreads = config.getInitParameter("precompileThreads");
+        if (precompileThreads != null) {
+            try {
+                this.precompileThreads = Integer.parseInt(precompileThreads);
+            } catch(NumberFormatException ex) {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.precompileThreads", ""+this.precompileThreads));
+                }
+            }
+        }
+
         // Setup the global Tag Libraries location cache for this
         // web-application.
         tldLocationsCache = TldLocationsCache.getInstance(context);
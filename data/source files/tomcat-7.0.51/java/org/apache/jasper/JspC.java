@@ -34,7 +34,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -43,6 +42,12 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.servlet.jsp.tagext.TagLibraryInfo;
 
@@ -129,6 +134,7 @@ public class JspC extends Task implements Options {
     protected static final String SWITCH_VALIDATE_TLD = "-validateTld";
     protected static final String SWITCH_BLOCK_EXTERNAL = "-blockExternal";
     protected static final String SWITCH_NO_BLOCK_EXTERNAL = "-no-blockExternal";
+    protected static final String SWITCH_THREAD_COUNT = "-threadCount";
     protected static final String SHOW_SUCCESS ="-s";
     protected static final String LIST_ERRORS = "-l";
     protected static final int INC_WEBXML = 10;
@@ -176,8 +182,9 @@ public class JspC extends Task implements Options {
     protected boolean smapSuppressed = true;
     protected boolean smapDumped = false;
     protected boolean caching = true;
+    // Shared by the threads compiling the pages in parallel
     protected final Map<String, TagLibraryInfo> cache =
-        new HashMap<String, TagLibraryInfo>();
+        new ConcurrentHashMap<String, TagLibraryInfo>();
 
     protected String compiler = null;
 
@@ -192,6 +199,13 @@ public class JspC extends Task implements Options {
      */
     protected boolean failOnError = true;
 
+    /**
+     * The number of threads used to compile the JSP files. Default is half
+     * the number of processors, rounded up.
+     */
+    protected int threadCount =
+        (Runtime.getRuntime().availableProcessors() + 1) / 2;
+
     /**
      * The file extensions to be handled as JSP files.
      * Default list is .jsp and .jspx.
@@ -374,6 +388,8 @@ public class JspC extends Task implements Options {
                 setBlockExternal(true);
             } else if (tok.equals(SWITCH_NO_BLOCK_EXTERNAL)) {
                 setBlockExternal(false);
+            } else if (tok.equals(SWITCH_THREAD_COUNT)) {
+                setThreadCount(nextArg());
             } else {
                 if (tok.startsWith("-")) {
                     throw new JasperException("Unrecognized option: " + tok +
@@ -471,6 +487,15 @@ public class JspC extends Task implements Options {
         return -1;
     }
 
+    /**
+     * In JspC this always returns <code>0</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPrecompileThreads() {
+        return 0;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -956,6 +981,43 @@ public class JspC extends Task implements Options {
         return failOnError;
     }
 
+    /**
+     * Returns the number of threads used to compile the JSP files.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the number of threads used to compile the JSP files. A value
+     * ending with <code>C</code>, e.g. <code>1.5C</code>, is multiplied by
+     * the number of processors.
+     */
+    public void setThreadCount(String threadCount) {
+        if (threadCount == null) {
+            return;
+        }
+        int newThreadCount;
+        try {
+            if (threadCount.endsWith("C")) {
+                double factor = Double.parseDouble(
+                        threadCount.substring(0, threadCount.length() - 1));
+                newThreadCount = (int) (factor *
+                        Runtime.getRuntime().availableProcessors());
+            } else {
+                newThreadCount = Integer.parseInt(threadCount);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new BuildException(Localizer.getMessage(
+                    "jspc.error.parseThreadCount", threadCount));
+        }
+        if (newThreadCount < 1) {
+            throw new BuildException(Localizer.getMessage(
+                    "jspc.error.minThreadCount", ""+newThreadCount));
+        }
+        this.threadCount = newThreadCount;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1149,6 +1211,24 @@ public class JspC extends Task implements Options {
 
     protected void processFile(String file)
         throws JasperException
+    {
+        JspCompilationContext clctxt = compileFile(file);
+        if (clctxt != null) {
+            completeFile(file, clctxt);
+        }
+    }
+
+    /**
+     * Compiles the given JSP file if it is out of date.
+     *
+     * @param file The JSP file, relative to the web application root
+     * @return the compilation context of the file, or <code>null</code> if
+     *         the file failed to compile and {@link #getFailOnError()} is
+     *         <code>false</code>
+     * @throws JasperException if the file failed to compile
+     */
+    protected JspCompilationContext compileFile(String file)
+        throws JasperException
     {
         if (log.isDebugEnabled()) {
             log.debug("Processing file: " + file);
@@ -1201,12 +1281,7 @@ public class JspC extends Task implements Options {
 
                 clc.compile(compile, true);
             }
-
-            // Generate mapping
-            generateWebMapping( file, clctxt );
-            if ( showSuccess ) {
-                log.info( "Built File: " + file );
-            }
+            return clctxt;
 
         } catch (JasperException je) {
             Throwable rootCause = je;
@@ -1226,6 +1301,7 @@ public class JspC extends Task implements Options {
             } else {
                 log.error(je.getMessage());
             }
+            return null;
 
         } catch (Exception e) {
             if ((e instanceof FileNotFoundException) && log.isWarnEnabled()) {
@@ -1240,6 +1316,80 @@ public class JspC extends Task implements Options {
         }
     }
 
+    /**
+     * Generates the mapping of a compiled JSP file.
+     */
+    protected void completeFile(String file, JspCompilationContext clctxt)
+        throws JasperException
+    {
+        try {
+            generateWebMapping( file, clctxt );
+        } catch (IOException e) {
+            throw new JasperException(e);
+        }
+        if ( showSuccess ) {
+            log.info( "Built File: " + file );
+        }
+    }
+
+    /**
+     * Compiles the given JSP files with {@link #getThreadCount()} threads.
+     * The mappings are generated in the order of the files once they are
+     * compiled, so the generated web.xml does not depend on the order in
+     * which the compilations complete.
+     */
+    protected void processFiles(final List<String> files)
+        throws JasperException
+    {
+        int threads = Math.min(threadCount, files.size());
+        if (threads <= 1) {
+            for (String file : files) {
+                processFile(file);
+            }
+            return;
+        }
+
+        // The first file sets up the scratch directory and the class loader
+        // shared by all the compilations
+        processFile(files.get(0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<JspCompilationContext>> results =
+                new ArrayList<Future<JspCompilationContext>>(files.size());
+            for (int i = 1; i < files.size(); i++) {
+                final String file = files.get(i);
+                results.add(executor.submit(
+                        new Callable<JspCompilationContext>() {
+                            @Override
+                            public JspCompilationContext call()
+                                    throws JasperException {
+                                return compileFile(file);
+                            }
+                        }));
+            }
+            for (int i = 1; i < files.size(); i++) {
+                JspCompilationContext clctxt;
+                try {
+                    clctxt = results.get(i - 1).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof JasperException) {
+                        throw (JasperException) cause;
+                    }
+                    throw new JasperException(cause);
+                }
+                if (clctxt != null) {
+                    completeFile(files.get(i), clctxt);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new JasperException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Locate all jsp files in the webapp. Used if no explicit
      * jsps are specified.
@@ -1325,6 +1475,7 @@ public class JspC extends Task implements Options {
 
             initWebXml();
 
+            List<String> files = new ArrayList<String>(pages.size());
             Iterator<String> iter = pages.iterator();
             while (iter.hasNext()) {
                 String nextjsp = iter.next().toString();
@@ -1347,8 +1498,9 @@ public class JspC extends Task implements Options {
                 if (nextjsp.startsWith("." + File.separatorChar)) {
                     nextjsp = nextjsp.substring(2);
                 }
-                processFile(nextjsp);
+                files.add(nextjsp);
             }
+            processFiles(files);
 
             completeWebXml();
 
@@ -233,4 +233,11 @@ public interface Options {
      * If unset or less or equal than 0, no jsps are unloaded.
      */
     public int getJspIdleTimeout();
+
+    /**
+     * The number of background threads that compile all the JSPs of the
+     * web-application when it starts. If unset or less or equal than 0, JSPs
+     * are compiled on first access only.
+     */
+    public int getPrecompileThreads();
 }
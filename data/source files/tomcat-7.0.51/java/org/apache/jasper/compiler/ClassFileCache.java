@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the class files looked up by the Java compiler while compiling
+ * the JSPs of a web application. Every JSP refers to the same servlet API,
+ * JDK and library classes, so they are read from the class loader once per
+ * web application instead of once per compilation. Missing classes are
+ * remembered too, since the compiler probes for many names that turn out to
+ * be packages.
+ * <p>
+ * Only classes that cannot change while the web application is running may
+ * be cached. The generated JSP and tag file classes must be looked up
+ * through the class loader each time.
+ */
+public class ClassFileCache {
+
+    private static final byte[] MISSING = new byte[0];
+
+    private final ConcurrentMap<String, byte[]> classFiles =
+        new ConcurrentHashMap<String, byte[]>();
+
+
+    /**
+     * Get the bytes of a class file, reading them from the given class loader
+     * the first time.
+     *
+     * @param resourceName Name of the class file, e.g. java/lang/Object.class
+     * @param loader       Class loader to read the class file from
+     * @return the bytes of the class file, or <code>null</code> if the class
+     *         loader does not provide it
+     * @throws IOException if the class file cannot be read
+     */
+    public byte[] getClassFile(String resourceName, ClassLoader loader)
+            throws IOException {
+        byte[] result = classFiles.get(resourceName);
+        if (result == null) {
+            result = readClassFile(resourceName, loader);
+            classFiles.putIfAbsent(resourceName,
+                    result == null ? MISSING : result);
+        } else if (result == MISSING) {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of cached lookups, including the missing classes
+     */
+    public int size() {
+        return classFiles.size();
+    }
+
+    public void clear() {
+        classFiles.clear();
+    }
+
+    /**
+     * Read the bytes of a class file without caching them.
+     *
+     * @param resourceName Name of the class file, e.g. java/lang/Object.class
+     * @param loader       Class loader to read the class file from
+     * @return the bytes of the class file, or <code>null</code> if the class
+     *         loader does not provide it
+     * @throws IOException if the class file cannot be read
+     */
+    public static byte[] readClassFile(String resourceName,
+            ClassLoader loader) throws IOException {
+        InputStream is = loader.getResourceAsStream(resourceName);
+        if (is == null) {
+            return null;
+        }
+        try {
+            byte[] buf = new byte[8192];
+            ByteArrayOutputStream baos =
+                new ByteArrayOutputStream(buf.length);
+            int count;
+            while ((count = is.read(buf, 0, buf.length)) > 0) {
+                baos.write(buf, 0, count);
+            }
+            return baos.toByteArray();
+        } finally {
+            try {
+                is.close();
+            } catch (IOException exc) {
+                // Ignore
+            }
+        }
+    }
+}
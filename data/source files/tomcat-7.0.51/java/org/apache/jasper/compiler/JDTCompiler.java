@@ -19,13 +19,11 @@ package org.apache.jasper.compiler;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -34,6 +32,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.apache.jasper.Constants;
 import org.apache.jasper.JasperException;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -83,6 +82,13 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
             ((packageName.length() != 0) ? (packageName + ".") : "") 
                     + ctxt.getServletClassName();
         final ClassLoader classLoader = ctxt.getJspLoader();
+        final ClassFileCache classFileCache =
+            ctxt.getRuntimeContext().getClassFileCache();
+        // Generated classes may change between compilations and must not
+        // be cached
+        final String jspPackagePrefix = Constants.JSP_PACKAGE_NAME + ".";
+        final String servletPackagePrefix =
+            (packageName.length() != 0) ? (packageName + ".") : null;
         String[] fileNames = new String[] {sourceFile};
         String[] classNames = new String[] {targetClassName};
         final ArrayList<JavacErrorDetail> problemList =
@@ -205,7 +211,6 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                 
                 private NameEnvironmentAnswer findType(String className) {
 
-                    InputStream is = null;
                     try {
                         if (className.equals(targetClassName)) {
                             ICompilationUnit compilationUnit = 
@@ -213,20 +218,8 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                             return 
                                 new NameEnvironmentAnswer(compilationUnit, null);
                         }
-                        String resourceName = 
-                            className.replace('.', '/') + ".class";
-                        is = classLoader.getResourceAsStream(resourceName);
-                        if (is != null) {
-                            byte[] classBytes;
-                            byte[] buf = new byte[8192];
-                            ByteArrayOutputStream baos = 
-                                new ByteArrayOutputStream(buf.length);
-                            int count;
-                            while ((count = is.read(buf, 0, buf.length)) > 0) {
-                                baos.write(buf, 0, count);
-                            }
-                            baos.flush();
-                            classBytes = baos.toByteArray();
+                        byte[] classBytes = getClassFile(className);
+                        if (classBytes != null) {
                             char[] fileName = className.toCharArray();
                             ClassFileReader classFileReader = 
                                 new ClassFileReader(classBytes, fileName, 
@@ -238,26 +231,34 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                         log.error("Compilation error", exc);
                     } catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
                         log.error("Compilation error", exc);
-                    } finally {
-                        if (is != null) {
-                            try {
-                                is.close();
-                            } catch (IOException exc) {
-                                // Ignore
-                            }
-                        }
                     }
                     return null;
                 }
 
+                private byte[] getClassFile(String className)
+                        throws IOException {
+                    String resourceName = 
+                        className.replace('.', '/') + ".class";
+                    if (className.startsWith(jspPackagePrefix) ||
+                            (servletPackagePrefix != null &&
+                                    className.startsWith(servletPackagePrefix))) {
+                        return ClassFileCache.readClassFile(resourceName,
+                                classLoader);
+                    }
+                    return classFileCache.getClassFile(resourceName,
+                            classLoader);
+                }
+
                 private boolean isPackage(String result) {
                     if (result.equals(targetClassName)) {
                         return false;
                     }
-                    String resourceName = result.replace('.', '/') + ".class";
-                    InputStream is = 
-                        classLoader.getResourceAsStream(resourceName);
-                    return is == null;
+                    try {
+                        return getClassFile(result) == null;
+                    } catch (IOException exc) {
+                        log.error("Compilation error", exc);
+                        return false;
+                    }
                 }
 
                 @Override
@@ -198,6 +198,11 @@ public final class JspRuntimeContext {
      */
     private FastRemovalDequeue<JspServletWrapper> jspQueue = null;
 
+    /**
+     * Class files looked up by the Java compiler
+     */
+    private final ClassFileCache classFileCache = new ClassFileCache();
+
     // ------------------------------------------------------ Public Methods
 
     /**
@@ -307,6 +312,16 @@ public final class JspRuntimeContext {
         return permissionCollection;
     }
 
+    /**
+     * Get the cache of the class files looked up by the Java compiler
+     * while compiling the JSPs of this web application context.
+     *
+     * @return ClassFileCache class file cache
+     */
+    public ClassFileCache getClassFileCache() {
+        return classFileCache;
+    }
+
     /**
      * Process a "destroy" event for this web application context.
      */                                                        
@@ -315,6 +330,7 @@ public final class JspRuntimeContext {
         while (servlets.hasNext()) {
             servlets.next().destroy();
         }
+        classFileCache.clear();
     }
 
     /**
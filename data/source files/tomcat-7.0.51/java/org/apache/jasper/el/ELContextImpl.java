@@ -32,6 +32,7 @@ import javax.el.ResourceBundleELResolver;
 import javax.el.ValueExpression;
 import javax.el.VariableMapper;
 
+import org.apache.el.lang.StandardResolverChain;
 import org.apache.jasper.Constants;
 
 /**
@@ -70,18 +71,34 @@ public final class ELContextImpl extends ELContext {
 
     }
 
+    /**
+     * The standard resolvers, which read the properties of beans with the
+     * bean resolver.
+     */
+    private static final class DefaultELResolver extends CompositeELResolver
+            implements StandardResolverChain {
+
+        public DefaultELResolver() {
+            add(new MapELResolver());
+            add(new ResourceBundleELResolver());
+            add(new ListELResolver());
+            add(new ArrayELResolver());
+            add(new BeanELResolver());
+        }
+
+        @Override
+        public boolean isBeanResolverFirst() {
+            return true;
+        }
+    }
+
     private static final ELResolver DefaultResolver;
 
     static {
         if (Constants.IS_SECURITY_ENABLED) {
             DefaultResolver = null;
         } else {
-            DefaultResolver = new CompositeELResolver();
-            ((CompositeELResolver) DefaultResolver).add(new MapELResolver());
-            ((CompositeELResolver) DefaultResolver).add(new ResourceBundleELResolver());
-            ((CompositeELResolver) DefaultResolver).add(new ListELResolver());
-            ((CompositeELResolver) DefaultResolver).add(new ArrayELResolver());
-            ((CompositeELResolver) DefaultResolver).add(new BeanELResolver());
+            DefaultResolver = new DefaultELResolver();
         }
     }
 
@@ -127,13 +144,7 @@ public final class ELContextImpl extends ELContext {
 
     public static ELResolver getDefaultResolver() {
         if (Constants.IS_SECURITY_ENABLED) {
-            CompositeELResolver defaultResolver = new CompositeELResolver();
-            defaultResolver.add(new MapELResolver());
-            defaultResolver.add(new ResourceBundleELResolver());
-            defaultResolver.add(new ListELResolver());
-            defaultResolver.add(new ArrayELResolver());
-            defaultResolver.add(new BeanELResolver());
-            return defaultResolver;
+            return new DefaultELResolver();
         } else {
             return DefaultResolver;
         }
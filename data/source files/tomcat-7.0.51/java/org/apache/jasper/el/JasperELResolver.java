@@ -32,11 +32,14 @@ import javax.el.ResourceBundleELResolver;
 import javax.servlet.jsp.el.ImplicitObjectELResolver;
 import javax.servlet.jsp.el.ScopedAttributeELResolver;
 
+import org.apache.el.lang.StandardResolverChain;
+
 /**
  * Jasper-specific CompositeELResolver that optimizes certain functions to avoid
  * unnecessary resolver calls.
  */
-public class JasperELResolver extends CompositeELResolver {
+public class JasperELResolver extends CompositeELResolver
+        implements StandardResolverChain {
 
     private int size;
     private ELResolver[] resolvers;
@@ -75,6 +78,14 @@ public class JasperELResolver extends CompositeELResolver {
         size ++;
     }
 
+    /**
+     * The resolvers added by the application are ahead of the bean resolver.
+     */
+    @Override
+    public boolean isBeanResolverFirst() {
+        return appResolversSize == 0;
+    }
+
     @Override
     public Object getValue(ELContext context, Object base, Object property)
         throws NullPointerException, PropertyNotFoundException, ELException {
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+/**
+ * Pool of tag handlers that can be reused, without locking.
+ * <p>
+ * The shared handlers are kept in a bounded array of slots that are taken
+ * and filled with atomic operations. In per-thread mode, each thread also
+ * keeps up to {@link #OPTION_THREAD_CACHE_SIZE} handlers in a cache of its
+ * own in front of the shared slots, so a thread that reuses a handler gets
+ * it back without touching memory written by other threads. In per-page mode
+ * (a thread cache size of 0) all the handlers are shared.
+ * <p>
+ * Unlike {@link PerThreadTagHandlerPool}, the handlers cached by a thread
+ * are not lost when the thread dies: the thread caches are registered with
+ * the pool, and the handlers of dead threads are moved back to the shared
+ * slots when the pool runs out of handlers or a new thread starts using it.
+ * {@link #release()} empties all the thread caches, so they do not keep the
+ * handlers, and their web application, alive after the page is unloaded.
+ * <p>
+ * To use it, set the <code>tagpoolClassName</code> init parameter of the
+ * JSP servlet or the web application to the name of this class.
+ */
+public class ConcurrentTagHandlerPool extends TagHandlerPool {
+
+    public static final String OPTION_THREAD_CACHE_SIZE =
+        "tagpoolThreadCacheSize";
+
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 1;
+
+    /**
+     * Minimum interval between two searches for the caches of dead threads
+     * when the pool runs out of handlers.
+     */
+    private static final long EXPUNGE_INTERVAL = 1000;
+
+    private AtomicReferenceArray<Tag> handlers;
+
+    private int threadCacheSize;
+
+    private ThreadLocal<ThreadCache> threadCache;
+
+    private final Set<ThreadCache> threadCaches = Collections.newSetFromMap(
+            new ConcurrentHashMap<ThreadCache, Boolean>());
+
+    private volatile long lastExpunge = 0;
+
+    private static final class ThreadCache {
+
+        private final WeakReference<Thread> thread;
+        private final AtomicReferenceArray<Tag> handlers;
+
+        private ThreadCache(Thread thread, int size) {
+            this.thread = new WeakReference<Thread>(thread);
+            this.handlers = new AtomicReferenceArray<Tag>(size);
+        }
+
+        private boolean isDead() {
+            Thread t = thread.get();
+            return t == null || !t.isAlive();
+        }
+    }
+
+    /**
+     * Constructs a tag handler pool with the default capacity.
+     */
+    public ConcurrentTagHandlerPool() {
+        super();
+    }
+
+    @Override
+    protected void init(ServletConfig config) {
+        int cacheSize = DEFAULT_THREAD_CACHE_SIZE;
+        String cacheSizeS = getOption(config, OPTION_THREAD_CACHE_SIZE, null);
+        if (cacheSizeS != null) {
+            try {
+                cacheSize = Integer.parseInt(cacheSizeS);
+            } catch (Exception ex) {
+                cacheSize = DEFAULT_THREAD_CACHE_SIZE;
+            }
+        }
+        init(getMaxSize(config), cacheSize);
+        instanceManager = InstanceManagerFactory.getInstanceManager(config);
+    }
+
+    /**
+     * Sets the capacity of the pool.
+     *
+     * @param maxSize
+     *            Number of shared handlers
+     * @param threadCacheSize
+     *            Number of handlers cached by each thread, 0 or less to
+     *            share all the handlers
+     */
+    protected void init(int maxSize, int threadCacheSize) {
+        this.handlers = new AtomicReferenceArray<Tag>(maxSize);
+        this.threadCacheSize = Math.max(0, threadCacheSize);
+        if (this.threadCacheSize > 0) {
+            threadCache = new ThreadLocal<ThreadCache>() {
+                @Override
+                protected ThreadCache initialValue() {
+                    // Threads come and go as the thread pool is resized
+                    expungeDeadThreadCaches();
+                    ThreadCache cache = new ThreadCache(
+                            Thread.currentThread(),
+                            ConcurrentTagHandlerPool.this.threadCacheSize);
+                    threadCaches.add(cache);
+                    return cache;
+                }
+            };
+        } else {
+            threadCache = null;
+        }
+    }
+
+    public int getThreadCacheSize() {
+        return threadCacheSize;
+    }
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * instantiating one if this tag handler pool is empty.
+     *
+     * @param handlerClass
+     *            Tag handler class
+     * @return Reused or newly instantiated tag handler
+     * @throws JspException
+     *             if a tag handler cannot be instantiated
+     */
+    @Override
+    public Tag get(Class<? extends Tag> handlerClass) throws JspException {
+        Tag handler = null;
+        if (threadCache != null) {
+            handler = poll(threadCache.get().handlers, 0);
+        }
+        if (handler == null) {
+            handler = poll(handlers, start());
+        }
+        if (handler == null && threadCache != null) {
+            long now = System.currentTimeMillis();
+            if (now - lastExpunge > EXPUNGE_INTERVAL) {
+                lastExpunge = now;
+                if (expungeDeadThreadCaches()) {
+                    handler = poll(handlers, start());
+                }
+            }
+        }
+        if (handler == null) {
+            handler = newHandler(handlerClass);
+        }
+        return handler;
+    }
+
+    /**
+     * Adds the given tag handler to this tag handler pool, unless this tag
+     * handler pool has already reached its capacity, in which case the tag
+     * handler's release() method is called.
+     *
+     * @param handler
+     *            Tag handler to add to this tag handler pool
+     */
+    @Override
+    public void reuse(Tag handler) {
+        if (threadCache != null && offer(threadCache.get().handlers, 0,
+                handler)) {
+            return;
+        }
+        if (offer(handlers, start(), handler)) {
+            return;
+        }
+        destroyHandler(handler);
+    }
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool, including the handlers cached by threads.
+     */
+    @Override
+    public void release() {
+        Iterator<ThreadCache> iter = threadCaches.iterator();
+        while (iter.hasNext()) {
+            ThreadCache cache = iter.next();
+            if (cache.isDead()) {
+                iter.remove();
+            }
+            Tag handler;
+            while ((handler = poll(cache.handlers, 0)) != null) {
+                destroyHandler(handler);
+            }
+        }
+        Tag handler;
+        while ((handler = poll(handlers, 0)) != null) {
+            destroyHandler(handler);
+        }
+    }
+
+    /**
+     * Moves the handlers cached by threads that have died to the shared
+     * slots.
+     *
+     * @return <code>true</code> if any handler has been moved
+     */
+    protected boolean expungeDeadThreadCaches() {
+        boolean result = false;
+        Iterator<ThreadCache> iter = threadCaches.iterator();
+        while (iter.hasNext()) {
+            ThreadCache cache = iter.next();
+            if (!cache.isDead()) {
+                continue;
+            }
+            iter.remove();
+            Tag handler;
+            while ((handler = poll(cache.handlers, 0)) != null) {
+                if (offer(handlers, 0, handler)) {
+                    result = true;
+                } else {
+                    destroyHandler(handler);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Threads start searching the shared slots at different positions, so
+     * they do not all compete for the same slot.
+     */
+    private int start() {
+        int length = handlers.length();
+        if (length == 0) {
+            return 0;
+        }
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
+    private static Tag poll(AtomicReferenceArray<Tag> slots, int start) {
+        int length = slots.length();
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (slots.get(index) != null) {
+                Tag handler = slots.getAndSet(index, null);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean offer(AtomicReferenceArray<Tag> slots, int start,
+            Tag handler) {
+        int length = slots.length();
+        for (int i = 0; i < length; i++) {
+            int index = (start + i) % length;
+            if (slots.get(index) == null &&
+                    slots.compareAndSet(index, null, handler)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -66,18 +66,7 @@ public class TagHandlerPool {
     }
 
     protected void init(ServletConfig config) {
-        int maxSize = -1;
-        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
-        if (maxSizeS != null) {
-            try {
-                maxSize = Integer.parseInt(maxSizeS);
-            } catch (Exception ex) {
-                maxSize = -1;
-            }
-        }
-        if (maxSize < 0) {
-            maxSize = Constants.MAX_POOL_SIZE;
-        }
+        int maxSize = getMaxSize(config);
         this.handlers = new Tag[maxSize];
         this.current = -1;
         instanceManager = InstanceManagerFactory.getInstanceManager(config);
@@ -112,6 +101,20 @@ public class TagHandlerPool {
 
         // Out of sync block - there is no need for other threads to
         // wait for us to construct a tag for this thread.
+        return newHandler(handlerClass);
+    }
+
+    /**
+     * Instantiates a new tag handler.
+     *
+     * @param handlerClass
+     *            Tag handler class
+     * @return Newly instantiated tag handler
+     * @throws JspException
+     *             if a tag handler cannot be instantiated
+     */
+    protected Tag newHandler(Class<? extends Tag> handlerClass)
+            throws JspException {
         try {
             if (Constants.USE_INSTANCE_MANAGER_FOR_TAGS) {
                 return (Tag) instanceManager.newInstance(
@@ -144,34 +147,56 @@ public class TagHandlerPool {
             }
         }
         // There is no need for other threads to wait for us to release
+        destroyHandler(handler);
+    }
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool.
+     */
+    public synchronized void release() {
+        for (int i = current; i >= 0; i--) {
+            destroyHandler(handlers[i]);
+        }
+    }
+
+    /**
+     * Calls the release() method of the given tag handler and then its
+     * preDestroy methods.
+     *
+     * @param handler
+     *            Tag handler that will not be reused
+     */
+    protected void destroyHandler(Tag handler) {
         handler.release();
         try {
             instanceManager.destroyInstance(handler);
         } catch (Exception e) {
             Throwable t = ExceptionUtils.unwrapInvocationTargetException(e);
             ExceptionUtils.handleThrowable(t);
-            log.warn("Error processing preDestroy on tag instance of " +
-                    handler.getClass().getName(), t);
+            log.warn("Error processing preDestroy on tag instance of "
+                    + handler.getClass().getName(), t);
         }
     }
 
     /**
-     * Calls the release() method of all available tag handlers in this tag
-     * handler pool.
+     * Returns the capacity of the pool configured with the
+     * {@link #OPTION_MAXSIZE} option.
      */
-    public synchronized void release() {
-        for (int i = current; i >= 0; i--) {
-            Tag handler = handlers[i];
-            handler.release();
+    protected static int getMaxSize(ServletConfig config) {
+        int maxSize = -1;
+        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
+        if (maxSizeS != null) {
             try {
-                instanceManager.destroyInstance(handler);
-            } catch (Exception e) {
-                Throwable t = ExceptionUtils.unwrapInvocationTargetException(e);
-                ExceptionUtils.handleThrowable(t);
-                log.warn("Error processing preDestroy on tag instance of "
-                        + handler.getClass().getName(), t);
+                maxSize = Integer.parseInt(maxSizeS);
+            } catch (Exception ex) {
+                maxSize = -1;
             }
         }
+        if (maxSize < 0) {
+            maxSize = Constants.MAX_POOL_SIZE;
+        }
+        return maxSize;
     }
 
     protected static String getOption(ServletConfig config, String name,
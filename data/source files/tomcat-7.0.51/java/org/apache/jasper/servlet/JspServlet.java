@@ -24,6 +24,13 @@ import java.net.MalformedURLException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletConfig;
@@ -35,6 +42,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.jasper.Constants;
 import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.JasperException;
 import org.apache.jasper.Options;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
@@ -74,6 +82,8 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     //jspFile for a jsp configured explicitly as a servlet, in environments where this configuration is
     //translated into an init-param for this servlet.
     private String jspFile;
+    // Compiles the JSPs of the web application in the background
+    private transient ExecutorService precompileExecutor;
 
 
     /*
@@ -144,6 +154,8 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                 if (t instanceof ServletException) throw (ServletException)t;
                 throw new ServletException("Could not precompile jsp: " + jspFile, e);
             }
+        } else if (options.getPrecompileThreads() > 0) {
+            startPrecompile(options.getPrecompileThreads());
         }
 
         if (log.isDebugEnabled()) {
@@ -351,6 +363,10 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
             log.debug("JspServlet.destroy()");
         }
 
+        if (precompileExecutor != null) {
+            precompileExecutor.shutdownNow();
+            precompileExecutor = null;
+        }
         rctxt.destroy();
     }
 
@@ -363,6 +379,82 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
 
     // -------------------------------------------------------- Private Methods
 
+    /**
+     * Compiles all the JSPs of the web application in the background, so
+     * the first requests do not wait for them to be compiled.
+     */
+    private void startPrecompile(int threads) {
+        List<String> jspUris = new ArrayList<String>();
+        try {
+            findJspFiles("/", jspUris);
+        } catch (JasperException e) {
+            log.warn(Localizer.getMessage("jsp.error.precompile.scan",
+                    context.getContextPath()), e);
+            return;
+        }
+        if (jspUris.isEmpty()) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(Localizer.getMessage("jsp.message.precompile",
+                    ""+jspUris.size(), context.getContextPath(), ""+threads));
+        }
+
+        final ClassLoader loader =
+            Thread.currentThread().getContextClassLoader();
+        final String namePrefix = config.getServletName() + "-precompile-";
+        precompileExecutor = Executors.newFixedThreadPool(
+                Math.min(threads, jspUris.size()), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                namePrefix + count.incrementAndGet());
+                        t.setDaemon(true);
+                        t.setContextClassLoader(loader);
+                        return t;
+                    }
+                });
+        for (final String jspUri : jspUris) {
+            precompileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serviceJspFile(null, null, jspUri, true);
+                    } catch (Throwable t) {
+                        ExceptionUtils.handleThrowable(t);
+                        log.warn(Localizer.getMessage("jsp.error.precompile",
+                                jspUri), t);
+                    }
+                }
+            });
+        }
+        // Let the threads end once all the JSPs are compiled
+        precompileExecutor.shutdown();
+    }
+
+
+    private void findJspFiles(String path, List<String> jspUris)
+            throws JasperException {
+        Set<String> paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        for (String resourcePath : paths) {
+            if (resourcePath.endsWith("/")) {
+                if (!resourcePath.equals("/WEB-INF/classes/") &&
+                        !resourcePath.equals("/WEB-INF/lib/")) {
+                    findJspFiles(resourcePath, jspUris);
+                }
+            } else if (resourcePath.endsWith(".jsp") ||
+                    resourcePath.endsWith(".jspx") ||
+                    options.getJspConfig().isJspPage(resourcePath)) {
+                jspUris.add(resourcePath);
+            }
+        }
+    }
+
+
     private void serviceJspFile(HttpServletRequest request,
                                 HttpServletResponse response, String jspUri,
                                 boolean precompile)
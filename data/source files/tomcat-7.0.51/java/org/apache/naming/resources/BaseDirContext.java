@@ -132,6 +132,13 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheObjectMaxSize = 512; // 512 K
 
 
+    /**
+     * Class name of the cache implementation. If <code>null</code>, the
+     * default {@link ResourceCache} is used.
+     */
+    protected String cacheClassName = null;
+
+
     /**
      * Aliases allow content to be included from other locations.
      */
@@ -378,6 +385,23 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Return the class name of the cache implementation.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the cache implementation, which must extend
+     * {@link ResourceCache}.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -0,0 +1,590 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.naming.resources;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resource cache that may be used concurrently without external
+ * synchronization. The cache is split into a fixed number of segments, each
+ * of which is backed by a {@link ConcurrentHashMap} for lookups and guarded by
+ * its own lock for updates to the eviction policy.
+ * <p>
+ * Eviction follows the W-TinyLFU policy: new entries are placed in a small
+ * LRU admission window and, once they leave it, only enter the main
+ * (segmented LRU) region if they have been accessed more often than the entry
+ * they would replace. Access frequencies are tracked by an approximate,
+ * periodically aged count-min sketch. This keeps one-off requests, such as a
+ * crawler walking every resource of a web application, from flushing the
+ * frequently used entries out of the cache.
+ * <p>
+ * As with {@link ResourceCache}, capacity is measured in KB using
+ * {@link CacheEntry#size} as the weight of each entry.
+ */
+public class ConcurrentResourceCache extends ResourceCache {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public ConcurrentResourceCache() {
+        this(16);
+    }
+
+
+    public ConcurrentResourceCache(int concurrencyLevel) {
+        int count = 1;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+        }
+        segmentMask = count - 1;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        resizeSegments();
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Segments. The number of segments is always a power of two.
+     */
+    private final Segment[] segments;
+
+
+    /**
+     * Mask used to select a segment from a hash.
+     */
+    private final int segmentMask;
+
+
+    /**
+     * Percentage of each segment reserved for the admission window.
+     */
+    protected int windowPercentage = 1;
+
+
+    /**
+     * Percentage of the main region of each segment reserved for entries that
+     * have been accessed more than once.
+     */
+    protected int protectedPercentage = 80;
+
+
+    private final AtomicLong accessCounter = new AtomicLong();
+    private final AtomicLong hitsCounter = new AtomicLong();
+    private final AtomicLong evictionCounter = new AtomicLong();
+    private final AtomicLong rejectionCounter = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the access count.
+     */
+    @Override
+    public long getAccessCount() {
+        return accessCounter.get();
+    }
+
+
+    /**
+     * Return the number of cache hits.
+     */
+    @Override
+    public long getHitsCount() {
+        return hitsCounter.get();
+    }
+
+
+    /**
+     * Return the number of entries removed from the cache to make space for
+     * other entries.
+     */
+    public long getEvictionCount() {
+        return evictionCounter.get();
+    }
+
+
+    /**
+     * Return the number of entries that were not added to the cache, or were
+     * dropped when leaving the admission window, because they were either too
+     * large or not accessed often enough.
+     */
+    public long getRejectionCount() {
+        return rejectionCounter.get();
+    }
+
+
+    /**
+     * Set the maximum size of the cache in KB.
+     */
+    @Override
+    public void setCacheMaxSize(int cacheMaxSize) {
+        super.setCacheMaxSize(cacheMaxSize);
+        resizeSegments();
+    }
+
+
+    /**
+     * Return the current cache size in KB.
+     */
+    @Override
+    public int getCacheSize() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            size += segments[i].weight();
+        }
+        return size;
+    }
+
+
+    /**
+     * Return the number of entries currently held in the cache.
+     */
+    public int getEntryCount() {
+        int count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            count += segments[i].map.size();
+        }
+        return count;
+    }
+
+
+    /**
+     * Return the number of segments.
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+
+    public int getWindowPercentage() {
+        return windowPercentage;
+    }
+
+
+    public void setWindowPercentage(int windowPercentage) {
+        this.windowPercentage = windowPercentage;
+        resizeSegments();
+    }
+
+
+    public int getProtectedPercentage() {
+        return protectedPercentage;
+    }
+
+
+    public void setProtectedPercentage(int protectedPercentage) {
+        this.protectedPercentage = protectedPercentage;
+        resizeSegments();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Space is reserved when an entry is loaded so this always succeeds. The
+     * eviction policy decides whether or not the entry is kept.
+     */
+    @Override
+    public boolean allocate(int space) {
+        return true;
+    }
+
+
+    @Override
+    public CacheEntry lookup(String name) {
+        accessCounter.incrementAndGet();
+        int hash = hash(name);
+        Segment segment = segmentFor(hash);
+        Node node = segment.map.get(name);
+        segment.recordAccess(hash, node);
+        if (node == null) {
+            return null;
+        }
+        hitsCounter.incrementAndGet();
+        return node.entry;
+    }
+
+
+    @Override
+    public void load(CacheEntry entry) {
+        int hash = hash(entry.name);
+        segmentFor(hash).add(hash, entry);
+    }
+
+
+    @Override
+    public boolean unload(String name) {
+        return segmentFor(hash(name)).remove(name);
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void resizeSegments() {
+        int segmentMaxSize = Math.max(1, cacheMaxSize / segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].setMaximum(segmentMaxSize);
+        }
+    }
+
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 16) & segmentMask];
+    }
+
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+
+    // -------------------------------------------------------- Private Classes
+
+
+    /**
+     * Cache node, linked into exactly one of the window, probation or protected
+     * queues of its segment.
+     */
+    private static final class Node {
+        final int hash;
+        final CacheEntry entry;
+        final int weight;
+        int queue;
+        Node prev;
+        Node next;
+
+        Node(int hash, CacheEntry entry) {
+            this.hash = hash;
+            this.entry = entry;
+            this.weight = Math.max(1, entry.size);
+        }
+    }
+
+
+    /**
+     * Doubly linked LRU queue of nodes. The head is the least recently used
+     * node.
+     */
+    private static final class Queue {
+        final int id;
+        final Node head = new Node(0, new CacheEntry());
+        int weight = 0;
+
+        Queue(int id) {
+            this.id = id;
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node first() {
+            return (head.next == head) ? null : head.next;
+        }
+
+        void addLast(Node node) {
+            node.queue = id;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            weight += node.weight;
+        }
+
+        void unlink(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToLast(Node node) {
+            unlink(node);
+            addLast(node);
+        }
+    }
+
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+
+    private final class Segment {
+
+        final ConcurrentHashMap<String,Node> map =
+            new ConcurrentHashMap<String,Node>();
+
+        /**
+         * Guards the queues and the sketch. Lookups only attempt to acquire
+         * it, so that access ordering is best effort under contention while
+         * lookups themselves never block.
+         */
+        final ReentrantLock lock = new ReentrantLock();
+
+        final Queue window = new Queue(WINDOW);
+        final Queue probation = new Queue(PROBATION);
+        final Queue protect = new Queue(PROTECTED);
+        final FrequencySketch sketch = new FrequencySketch();
+
+        int maximum;
+        int windowMaximum;
+        int protectedMaximum;
+
+        int weight() {
+            lock.lock();
+            try {
+                return window.weight + probation.weight + protect.weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void setMaximum(int maximum) {
+            lock.lock();
+            try {
+                this.maximum = maximum;
+                windowMaximum = Math.max(1, (maximum * windowPercentage) / 100);
+                int mainMaximum = Math.max(0, maximum - windowMaximum);
+                protectedMaximum = (mainMaximum * protectedPercentage) / 100;
+                sketch.ensureCapacity(maximum);
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void recordAccess(int hash, Node node) {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                sketch.increment(hash);
+                if (node != null && node.prev != null) {
+                    onHit(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void add(int hash, CacheEntry entry) {
+            Node node = new Node(hash, entry);
+            lock.lock();
+            try {
+                if (node.weight > maximum) {
+                    rejectionCounter.incrementAndGet();
+                    return;
+                }
+                if (map.putIfAbsent(entry.name, node) != null) {
+                    return;
+                }
+                window.addLast(node);
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(String name) {
+            lock.lock();
+            try {
+                Node node = map.remove(name);
+                if (node == null) {
+                    return false;
+                }
+                unlink(node);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void onHit(Node node) {
+            switch (node.queue) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                protect.addLast(node);
+                // Demote the least recently used protected entries
+                while (protect.weight > protectedMaximum) {
+                    Node demoted = protect.first();
+                    protect.unlink(demoted);
+                    probation.addLast(demoted);
+                }
+                break;
+            default:
+                protect.moveToLast(node);
+            }
+        }
+
+        private void evict() {
+            // Entries leaving the admission window are candidates for the main
+            // region
+            while (window.weight > windowMaximum) {
+                Node candidate = window.first();
+                window.unlink(candidate);
+                admit(candidate);
+            }
+            // Only needed if the maximum size has been reduced
+            while (probation.weight + protect.weight
+                    > maximum - windowMaximum) {
+                Node victim = probation.first();
+                if (victim == null) {
+                    victim = protect.first();
+                }
+                discard(victim);
+                evictionCounter.incrementAndGet();
+            }
+        }
+
+        private void admit(Node candidate) {
+            int mainMaximum = maximum - windowMaximum;
+            if (candidate.weight > mainMaximum) {
+                discard(candidate);
+                rejectionCounter.incrementAndGet();
+                return;
+            }
+            int candidateFrequency = sketch.frequency(candidate.hash);
+            while (probation.weight + protect.weight + candidate.weight
+                    > mainMaximum) {
+                Node victim = probation.first();
+                if (victim == null) {
+                    victim = protect.first();
+                }
+                if (sketch.frequency(victim.hash) >= candidateFrequency) {
+                    discard(candidate);
+                    rejectionCounter.incrementAndGet();
+                    return;
+                }
+                unlink(victim);
+                map.remove(victim.entry.name, victim);
+                evictionCounter.incrementAndGet();
+            }
+            probation.addLast(candidate);
+        }
+
+        private void discard(Node node) {
+            if (node.prev != null) {
+                unlink(node);
+            }
+            map.remove(node.entry.name, node);
+        }
+
+        private void unlink(Node node) {
+            switch (node.queue) {
+            case WINDOW:
+                window.unlink(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                break;
+            default:
+                protect.unlink(node);
+            }
+        }
+    }
+
+
+    /**
+     * Count-min sketch with four rows of 4-bit counters, used to estimate how
+     * often a resource has been requested. All counters are halved once the
+     * number of increments reaches ten times the table size so that the
+     * estimates favour recent activity.
+     */
+    private static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private long[] table = new long[0];
+        private int tableMask;
+        private int sampleSize;
+        private int additions;
+
+        void ensureCapacity(int maximum) {
+            int length = 1;
+            int target = Math.min(Math.max(maximum, 16), 1 << 20);
+            while (length < target) {
+                length <<= 1;
+            }
+            if (table.length >= length) {
+                return;
+            }
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * length;
+            additions = 0;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i);
+                frequency = Math.min(frequency,
+                        (int) ((table[index] >>> shift) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i);
+                if (((table[index] >>> shift) & 0xfL) != 0xfL) {
+                    table[index] += (1L << shift);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private int offsetOf(int hash, int row) {
+            // Each row uses its own quarter of the 16 counters in a word
+            return ((((hash >>> (row << 3)) & 3) << 2) + row) << 2;
+        }
+    }
+}
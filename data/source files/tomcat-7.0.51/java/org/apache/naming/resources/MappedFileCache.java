@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.naming.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Cache of read-only memory mapped files, so that connectors that are able to
+ * write a {@link ByteBuffer} directly to the network can serve the content of
+ * static resources without copying it into the Java heap.
+ * <p>
+ * The total number of mapped bytes is limited and the least recently used
+ * files are dropped from the cache when that limit is reached. The mapping
+ * itself is released by the JVM once the buffer is no longer referenced.
+ * <p>
+ * Before a cached mapping is returned, the length and last modification time
+ * of the file are compared with the values seen when the file was mapped. If
+ * they differ the mapping is discarded and <code>null</code> is returned so
+ * that the caller falls back to reading the file, since accessing a mapping of
+ * a file that has been truncated will fail.
+ */
+public class MappedFileCache {
+
+    private static final Log log = LogFactory.getLog(MappedFileCache.class);
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * @param maxSize       Maximum number of bytes mapped at any one time
+     * @param maxFileSize   Maximum size of an individual file that may be
+     *                      mapped
+     */
+    public MappedFileCache(long maxSize, long maxFileSize) {
+        this.maxSize = maxSize;
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final long maxSize;
+    private final long maxFileSize;
+
+    /**
+     * Canonical path -> mapped file, in access order.
+     */
+    private final LinkedHashMap<String,MappedFile> files =
+        new LinkedHashMap<String,MappedFile>(16, 0.75f, true);
+
+    private long size = 0;
+
+    private final AtomicLong hitsCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+
+    /**
+     * Return the number of bytes currently mapped.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+
+    public long getHitsCount() {
+        return hitsCount.get();
+    }
+
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+
+    /**
+     * Return the number of mappings discarded because the file changed on
+     * disk.
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Obtain a read-only buffer for the whole of the given file. The returned
+     * buffer is not shared so the caller may change its position and limit.
+     *
+     * @param canonicalPath Canonical path of the file
+     * @param length        Expected length of the file
+     * @param lastModified  Expected last modification time of the file
+     * @return the buffer or <code>null</code> if the file could not or should
+     *         not be mapped
+     */
+    public ByteBuffer getBuffer(String canonicalPath, long length,
+            long lastModified) {
+
+        if (length <= 0 || length > maxFileSize || length > maxSize) {
+            return null;
+        }
+
+        MappedFile mappedFile;
+        synchronized (this) {
+            mappedFile = files.get(canonicalPath);
+        }
+
+        if (mappedFile != null) {
+            if (mappedFile.length == length
+                    && mappedFile.lastModified == lastModified
+                    && mappedFile.isCurrent()) {
+                hitsCount.incrementAndGet();
+                return mappedFile.buffer.duplicate();
+            }
+            invalidationCount.incrementAndGet();
+            remove(canonicalPath, mappedFile);
+            return null;
+        }
+
+        missCount.incrementAndGet();
+
+        File file = new File(canonicalPath);
+        if (file.length() != length || file.lastModified() != lastModified) {
+            return null;
+        }
+        mappedFile = map(file, length, lastModified);
+        if (mappedFile == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            MappedFile current = files.get(canonicalPath);
+            if (current != null) {
+                // Another thread mapped the same file
+                mappedFile = current;
+            } else {
+                Iterator<MappedFile> iter = files.values().iterator();
+                while (size + length > maxSize && iter.hasNext()) {
+                    MappedFile eldest = iter.next();
+                    iter.remove();
+                    size -= eldest.length;
+                    evictionCount.incrementAndGet();
+                }
+                files.put(canonicalPath, mappedFile);
+                size += length;
+            }
+        }
+        return mappedFile.buffer.duplicate();
+
+    }
+
+
+    /**
+     * Discard the mapping, if any, for the given file.
+     */
+    public synchronized void remove(String canonicalPath) {
+        MappedFile mappedFile = files.remove(canonicalPath);
+        if (mappedFile != null) {
+            size -= mappedFile.length;
+        }
+    }
+
+
+    /**
+     * Discard all mappings.
+     */
+    public synchronized void clear() {
+        files.clear();
+        size = 0;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private synchronized void remove(String canonicalPath,
+            MappedFile mappedFile) {
+        if (files.get(canonicalPath) == mappedFile) {
+            files.remove(canonicalPath);
+            size -= mappedFile.length;
+        }
+    }
+
+
+    private static MappedFile map(File file, long length, long lastModified) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, length);
+            return new MappedFile(file, buffer, length, lastModified);
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to map file [" + file + "]", e);
+            }
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Classes
+
+
+    private static final class MappedFile {
+
+        final File file;
+        final ByteBuffer buffer;
+        final long length;
+        final long lastModified;
+
+        MappedFile(File file, ByteBuffer buffer, long length,
+                long lastModified) {
+            this.file = file;
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        boolean isCurrent() {
+            return file.length() == length
+                && file.lastModified() == lastModified;
+        }
+    }
+}
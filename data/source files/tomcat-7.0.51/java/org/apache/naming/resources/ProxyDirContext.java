@@ -77,6 +77,9 @@ public class ProxyDirContext implements DirContext {
             // the caching policy.
             BaseDirContext baseDirContext = (BaseDirContext) dirContext;
             if (baseDirContext.isCached()) {
+                if (baseDirContext.getCacheClassName() != null) {
+                    cacheClassName = baseDirContext.getCacheClassName();
+                }
                 try {
                     cache = (ResourceCache) 
                         Class.forName(cacheClassName).newInstance();
@@ -85,6 +88,7 @@ public class ProxyDirContext implements DirContext {
                             "resources.invalidCache", cacheClassName), e);
                 }
                 cache.setCacheMaxSize(baseDirContext.getCacheMaxSize());
+                concurrentCache = (cache instanceof ConcurrentResourceCache);
                 cacheTTL = baseDirContext.getCacheTTL();
                 cacheObjectMaxSize = baseDirContext.getCacheObjectMaxSize();
                 // cacheObjectMaxSize must be less than cacheMaxSize
@@ -170,6 +174,12 @@ public class ProxyDirContext implements DirContext {
     protected ResourceCache cache = null;
 
 
+    /**
+     * Does the cache handle its own synchronization?
+     */
+    protected boolean concurrentCache = false;
+
+
     /**
      * Cache TTL.
      */
@@ -1680,6 +1690,10 @@ public class ProxyDirContext implements DirContext {
         entry.timestamp = System.currentTimeMillis() + cacheTTL;
 
         // Add new entry to cache
+        if (concurrentCache) {
+            cache.load(entry);
+            return;
+        }
         synchronized (cache) {
             // Check cache size, and remove elements if too big
             if ((cache.lookup(name) == null) && cache.allocate(entry.size)) {
@@ -1704,6 +1718,11 @@ public class ProxyDirContext implements DirContext {
         } else {
             name2 = name + "/";
         }
+        if (concurrentCache) {
+            boolean result = cache.unload(name);
+            cache.unload(name2);
+            return result;
+        }
         synchronized (cache) {
             boolean result = cache.unload(name);
             cache.unload(name2);
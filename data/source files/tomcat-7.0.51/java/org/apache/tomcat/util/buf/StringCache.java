@@ -17,23 +17,25 @@
 package org.apache.tomcat.util.buf;
 
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class implements a String cache for ByteChunk and CharChunk.
+ * <p>
+ * The cache is a fixed size, direct mapped table indexed by the hash of the
+ * bytes or chars being converted. Lookups and updates never block: a slot
+ * holds at most one entry and a candidate only replaces the current occupant
+ * of its slot if it has been seen more often recently, as estimated by a small
+ * frequency sketch. The counters of the sketch are halved every
+ * <code>trainThreshold</code> conversions so the content of the cache keeps
+ * following the Strings that are currently in use rather than being frozen
+ * after an initial training phase.
  *
  * @author Remy Maucherat
  */
 public class StringCache {
 
 
-    private static final org.apache.juli.logging.Log log=
-        org.apache.juli.logging.LogFactory.getLog( StringCache.class );
-
-
     // ------------------------------------------------------- Static Variables
 
 
@@ -48,6 +50,9 @@ public class StringCache {
             "tomcat.util.buf.StringCache.char.enabled", "false")));
 
 
+    /**
+     * Number of conversions after which the usage statistics are aged.
+     */
     protected static int trainThreshold = Integer.parseInt(System.getProperty(
             "tomcat.util.buf.StringCache.trainThreshold", "20000"));
 
@@ -60,54 +65,58 @@ public class StringCache {
             "tomcat.util.buf.StringCache.maxStringSize", "128"));
 
 
-   /**
-     * Statistics hash map for byte chunk.
+    /**
+     * Cache for byte chunk.
      */
-    protected static HashMap<ByteEntry,int[]> bcStats =
-        new HashMap<ByteEntry,int[]>(cacheSize);
+    protected static volatile AtomicReferenceArray<ByteEntry> bcCache =
+        new AtomicReferenceArray<ByteEntry>(tableSize(cacheSize));
 
 
     /**
-     * toString count for byte chunk.
+     * Usage statistics for byte chunk.
      */
-    protected static int bcCount = 0;
+    protected static volatile FrequencySketch bcStats =
+        new FrequencySketch(tableSize(cacheSize));
 
 
     /**
-     * Cache for byte chunk.
+     * Cache for char chunk.
      */
-    protected static ByteEntry[] bcCache = null;
+    protected static volatile AtomicReferenceArray<CharEntry> ccCache =
+        new AtomicReferenceArray<CharEntry>(tableSize(cacheSize));
 
 
     /**
-     * Statistics hash map for char chunk.
+     * Usage statistics for char chunk.
      */
-    protected static HashMap<CharEntry,int[]> ccStats =
-        new HashMap<CharEntry,int[]>(cacheSize);
+    protected static volatile FrequencySketch ccStats =
+        new FrequencySketch(tableSize(cacheSize));
 
 
     /**
-     * toString count for char chunk.
+     * Access count.
      */
-    protected static int ccCount = 0;
+    protected static int accessCount = 0;
 
 
     /**
-     * Cache for char chunk.
+     * Hit count.
      */
-    protected static CharEntry[] ccCache = null;
+    protected static int hitCount = 0;
 
 
     /**
-     * Access count.
+     * Number of times a String was added to the cache, or replaced another
+     * one.
      */
-    protected static int accessCount = 0;
+    protected static int admissionCount = 0;
 
 
     /**
-     * Hit count.
+     * Approximate number of bytes of String content that did not need to be
+     * allocated because of cache hits.
      */
-    protected static int hitCount = 0;
+    protected static long bytesSaved = 0;
 
 
     // ------------------------------------------------------------ Properties
@@ -122,10 +131,12 @@ public class StringCache {
 
 
     /**
-     * @param cacheSize The cacheSize to set.
+     * @param cacheSize The cacheSize to set. The content of the cache is
+     *                  discarded.
      */
     public void setCacheSize(int cacheSize) {
         StringCache.cacheSize = cacheSize;
+        reset();
     }
 
 
@@ -177,6 +188,22 @@ public class StringCache {
     }
 
 
+    /**
+     * @return Returns the maxStringSize.
+     */
+    public int getMaxStringSize() {
+        return maxStringSize;
+    }
+
+
+    /**
+     * @param maxStringSize The maxStringSize to set.
+     */
+    public void setMaxStringSize(int maxStringSize) {
+        StringCache.maxStringSize = maxStringSize;
+    }
+
+
     /**
      * @return Returns the accessCount.
      */
@@ -193,252 +220,140 @@ public class StringCache {
     }
 
 
+    /**
+     * @return Returns the ratio of hits to accesses.
+     */
+    public double getHitRatio() {
+        int accesses = accessCount;
+        if (accesses == 0) {
+            return 0;
+        }
+        return (double) hitCount / accesses;
+    }
+
+
+    /**
+     * @return Returns the admissionCount.
+     */
+    public int getAdmissionCount() {
+        return admissionCount;
+    }
+
+
+    /**
+     * @return Returns the approximate number of bytes of String content that
+     *         were not allocated thanks to the cache.
+     */
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+
+    /**
+     * @return Returns the number of Strings currently cached.
+     */
+    public int getEntryCount() {
+        return count(bcCache) + count(ccCache);
+    }
+
+
     // -------------------------------------------------- Public Static Methods
 
 
     public void reset() {
         hitCount = 0;
         accessCount = 0;
-        synchronized (bcStats) {
-            bcCache = null;
-            bcCount = 0;
-        }
-        synchronized (ccStats) {
-            ccCache = null;
-            ccCount = 0;
-        }
+        admissionCount = 0;
+        bytesSaved = 0;
+        int size = tableSize(cacheSize);
+        bcStats = new FrequencySketch(size);
+        bcCache = new AtomicReferenceArray<ByteEntry>(size);
+        ccStats = new FrequencySketch(size);
+        ccCache = new AtomicReferenceArray<CharEntry>(size);
     }
 
 
     public static String toString(ByteChunk bc) {
 
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (bcCache == null) {
-            String value = bc.toStringInternal();
-            if (byteEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (bcStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting for the lock, just return the toString
-                    // value we just calculated
-                    if (bcCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in
-                    // which case the cache must be created, or we just update
-                    // the count for the string
-                    if (bcCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap<Integer,ArrayList<ByteEntry>> tempMap =
-                            new TreeMap<Integer,ArrayList<ByteEntry>>();
-                        for (Entry<ByteEntry,int[]> item : bcStats.entrySet()) {
-                            ByteEntry entry = item.getKey();
-                            int[] countA = item.getValue();
-                            Integer count = Integer.valueOf(countA[0]);
-                            // Add to the list for that count
-                            ArrayList<ByteEntry> list = tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList<ByteEntry>();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = bcStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        ByteEntry[] tempbcCache = new ByteEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        ByteChunk tempChunk = new ByteChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList<ByteEntry> list = tempMap.get(key);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                                ByteEntry entry = list.get(i);
-                                tempChunk.setBytes(entry.name, 0,
-                                        entry.name.length);
-                                int insertPos = findClosest(tempChunk,
-                                        tempbcCache, n);
-                                if (insertPos == n) {
-                                    tempbcCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempbcCache, insertPos + 1,
-                                            tempbcCache, insertPos + 2,
-                                            n - insertPos - 1);
-                                    tempbcCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        bcCount = 0;
-                        bcStats.clear();
-                        bcCache = tempbcCache;
-                        if (log.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            log.debug("ByteCache generation time: " +
-                                    (t2 - t1) + "ms");
-                        }
-                    } else {
-                        bcCount++;
-                        // Allocate new ByteEntry for the lookup
-                        ByteEntry entry = new ByteEntry();
-                        entry.value = value;
-                        int[] count = bcStats.get(entry);
-                        if (count == null) {
-                            int end = bc.getEnd();
-                            int start = bc.getStart();
-                            // Create byte array and copy bytes
-                            entry.name = new byte[bc.getLength()];
-                            System.arraycopy(bc.getBuffer(), start, entry.name,
-                                    0, end - start);
-                            // Set encoding
-                            entry.charset = bc.getCharset();
-                            // Initialize occurrence count to one
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            bcStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
-                }
-            }
-            return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(bc);
-            if (result == null) {
-                return bc.toStringInternal();
-            }
-            // Note: We don't care about safety for the stats
+        int length = bc.getLength();
+        if (!byteEnabled || length >= maxStringSize) {
+            return bc.toStringInternal();
+        }
+
+        // Note: We don't care about safety for the stats
+        accessCount++;
+        int hash = hash(bc);
+        AtomicReferenceArray<ByteEntry> cache = bcCache;
+        int index = hash & (cache.length() - 1);
+        ByteEntry current = cache.get(index);
+        if (current != null && current.hash == hash
+                && compare(bc, current.name) == 0
+                && bc.getCharset().equals(current.charset)) {
             hitCount++;
-            return result;
+            bytesSaved += 2 * current.value.length();
+            return current.value;
         }
 
+        String value = bc.toStringInternal();
+        FrequencySketch stats = bcStats;
+        int frequency = stats.increment(hash);
+        if (frequency > 1 && (current == null
+                || frequency > stats.frequency(current.hash))) {
+            ByteEntry entry = new ByteEntry();
+            entry.name = new byte[length];
+            System.arraycopy(bc.getBuffer(), bc.getStart(), entry.name, 0,
+                    length);
+            entry.charset = bc.getCharset();
+            entry.value = value;
+            entry.hash = hash;
+            // Losing the race against another thread is fine
+            if (cache.compareAndSet(index, current, entry)) {
+                admissionCount++;
+            }
+        }
+        return value;
+
     }
 
 
     public static String toString(CharChunk cc) {
 
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (ccCache == null) {
-            String value = cc.toStringInternal();
-            if (charEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (ccStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting for the lock, just return the toString
-                    // value we just calculated
-                    if (ccCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in
-                    // which case the cache must be created, or we just update
-                    // the count for the string
-                    if (ccCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap<Integer,ArrayList<CharEntry>> tempMap =
-                            new TreeMap<Integer,ArrayList<CharEntry>>();
-                        for (Entry<CharEntry,int[]> item : ccStats.entrySet()) {
-                            CharEntry entry = item.getKey();
-                            int[] countA = item.getValue();
-                            Integer count = Integer.valueOf(countA[0]);
-                            // Add to the list for that count
-                            ArrayList<CharEntry> list = tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList<CharEntry>();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = ccStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        CharEntry[] tempccCache = new CharEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        CharChunk tempChunk = new CharChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList<CharEntry> list = tempMap.get(key);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                                CharEntry entry = list.get(i);
-                                tempChunk.setChars(entry.name, 0,
-                                        entry.name.length);
-                                int insertPos = findClosest(tempChunk,
-                                        tempccCache, n);
-                                if (insertPos == n) {
-                                    tempccCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempccCache, insertPos + 1,
-                                            tempccCache, insertPos + 2,
-                                            n - insertPos - 1);
-                                    tempccCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        ccCount = 0;
-                        ccStats.clear();
-                        ccCache = tempccCache;
-                        if (log.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            log.debug("CharCache generation time: " +
-                                    (t2 - t1) + "ms");
-                        }
-                    } else {
-                        ccCount++;
-                        // Allocate new CharEntry for the lookup
-                        CharEntry entry = new CharEntry();
-                        entry.value = value;
-                        int[] count = ccStats.get(entry);
-                        if (count == null) {
-                            int end = cc.getEnd();
-                            int start = cc.getStart();
-                            // Create char array and copy chars
-                            entry.name = new char[cc.getLength()];
-                            System.arraycopy(cc.getBuffer(), start, entry.name,
-                                    0, end - start);
-                            // Initialize occurrence count to one
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            ccStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
-                }
-            }
-            return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(cc);
-            if (result == null) {
-                return cc.toStringInternal();
-            }
-            // Note: We don't care about safety for the stats
+        int length = cc.getLength();
+        if (!charEnabled || length >= maxStringSize) {
+            return cc.toStringInternal();
+        }
+
+        // Note: We don't care about safety for the stats
+        accessCount++;
+        int hash = hash(cc);
+        AtomicReferenceArray<CharEntry> cache = ccCache;
+        int index = hash & (cache.length() - 1);
+        CharEntry current = cache.get(index);
+        if (current != null && current.hash == hash
+                && compare(cc, current.name) == 0) {
             hitCount++;
-            return result;
+            bytesSaved += 2 * current.value.length();
+            return current.value;
         }
 
+        String value = cc.toStringInternal();
+        FrequencySketch stats = ccStats;
+        int frequency = stats.increment(hash);
+        if (frequency > 1 && (current == null
+                || frequency > stats.frequency(current.hash))) {
+            CharEntry entry = new CharEntry();
+            entry.name = new char[length];
+            System.arraycopy(cc.getBuffer(), cc.getStart(), entry.name, 0,
+                    length);
+            entry.value = value;
+            entry.hash = hash;
+            // Losing the race against another thread is fine
+            if (cache.compareAndSet(index, current, entry)) {
+                admissionCount++;
+            }
+        }
+        return value;
+
     }
 
 
@@ -483,63 +398,19 @@ public class StringCache {
      * String.
      */
     protected static final String find(ByteChunk name) {
-        int pos = findClosest(name, bcCache, bcCache.length);
-        if ((pos < 0) || (compare(name, bcCache[pos].name) != 0)
-                || !(name.getCharset().equals(bcCache[pos].charset))) {
+        int hash = hash(name);
+        AtomicReferenceArray<ByteEntry> cache = bcCache;
+        ByteEntry entry = cache.get(hash & (cache.length() - 1));
+        if (entry == null || entry.hash != hash
+                || compare(name, entry.name) != 0
+                || !(name.getCharset().equals(entry.charset))) {
             return null;
         } else {
-            return bcCache[pos].value;
+            return entry.value;
         }
     }
 
 
-    /**
-     * Find an entry given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    protected static final int findClosest(ByteChunk name, ByteEntry[] array,
-            int len) {
-
-        int a = 0;
-        int b = len - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-
-        if (compare(name, array[0].name) < 0) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, array[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, array[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
-            }
-        }
-
-    }
-
-
     /**
      * Compare given char chunk with char array.
      * Return -1, 0 or +1 if inferior, equal, or superior to the String.
@@ -578,59 +449,126 @@ public class StringCache {
      * String.
      */
     protected static final String find(CharChunk name) {
-        int pos = findClosest(name, ccCache, ccCache.length);
-        if ((pos < 0) || (compare(name, ccCache[pos].name) != 0)) {
+        int hash = hash(name);
+        AtomicReferenceArray<CharEntry> cache = ccCache;
+        CharEntry entry = cache.get(hash & (cache.length() - 1));
+        if (entry == null || entry.hash != hash
+                || compare(name, entry.name) != 0) {
             return null;
         } else {
-            return ccCache[pos].value;
+            return entry.value;
+        }
+    }
+
+
+    /**
+     * Hash the content of the given byte chunk. The bits are spread so the
+     * low order bits may be used to index the cache.
+     */
+    protected static final int hash(ByteChunk name) {
+        byte[] b = name.getBuffer();
+        int end = name.getEnd();
+        int h = 0;
+        for (int i = name.getStart(); i < end; i++) {
+            h = 31 * h + b[i];
         }
+        return spread(h);
     }
 
 
     /**
-     * Find an entry given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
+     * Hash the content of the given char chunk. The bits are spread so the
+     * low order bits may be used to index the cache.
      */
-    protected static final int findClosest(CharChunk name, CharEntry[] array,
-            int len) {
+    protected static final int hash(CharChunk name) {
+        char[] c = name.getBuffer();
+        int end = name.getEnd();
+        int h = 0;
+        for (int i = name.getStart(); i < end; i++) {
+            h = 31 * h + c[i];
+        }
+        return spread(h);
+    }
+
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
 
-        int a = 0;
-        int b = len - 1;
 
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
+    /**
+     * Number of slots used for a cache that should hold the given number of
+     * entries.
+     */
+    private static int tableSize(int size) {
+        int result = 16;
+        while (result < size && result < (1 << 30)) {
+            result <<= 1;
         }
+        return result;
+    }
 
-        if (compare(name, array[0].name) < 0 ) {
-            return -1;
+
+    private static int count(AtomicReferenceArray<?> cache) {
+        int result = 0;
+        for (int i = 0; i < cache.length(); i++) {
+            if (cache.get(i) != null) {
+                result++;
+            }
         }
-        if (b == 0) {
-            return 0;
+        return result;
+    }
+
+
+    // -------------------------------------------- FrequencySketch Inner Class
+
+
+    /**
+     * Approximate count of the recent occurrences of hash values, using two
+     * rows of counters. All counters are halved every
+     * <code>trainThreshold</code> increments. Updates are not synchronized,
+     * losing some of them only makes the estimates slightly less accurate.
+     */
+    protected static class FrequencySketch {
+
+        private final int[] counters;
+        private final int mask;
+        private int additions = 0;
+
+        public FrequencySketch(int size) {
+            // Four counters per cache slot
+            counters = new int[size * 4];
+            mask = counters.length - 1;
         }
 
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, array[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
+        public int increment(int hash) {
+            int i1 = hash & mask;
+            int i2 = rehash(hash) & mask;
+            int c1 = ++counters[i1];
+            int c2 = ++counters[i2];
+            if (++additions >= trainThreshold) {
+                age();
             }
-            if ((b - a) == 1) {
-                int result2 = compare(name, array[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
+            return Math.min(c1, c2);
+        }
+
+        public int frequency(int hash) {
+            return Math.min(counters[hash & mask],
+                    counters[rehash(hash) & mask]);
+        }
+
+        private void age() {
+            additions = 0;
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>>= 1;
             }
         }
 
+        private static int rehash(int hash) {
+            int h = hash * 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
     }
 
 
@@ -642,6 +580,7 @@ public class StringCache {
         public byte[] name = null;
         public Charset charset = null;
         public String value = null;
+        public int hash = 0;
 
         @Override
         public String toString() {
@@ -669,6 +608,7 @@ public class StringCache {
 
         public char[] name = null;
         public String value = null;
+        public int hash = 0;
 
         @Override
         public String toString() {
@@ -18,8 +18,10 @@ package org.apache.tomcat.util.http;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
+import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -51,15 +53,20 @@ import org.apache.tomcat.util.res.StringManager;
 /* Headers are first parsed and stored in the order they are
    received. This is based on the fact that most servlets will not
    directly access all headers, and most headers are single-valued.
-   ( the alternative - a hash or similar data structure - will add
-   an overhead that is not needed in most cases )
 
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
+   Lookups by name go through an open-addressed index of the header
+   names, built as the headers are added. The index holds the position
+   of each header (+1, 0 marks an empty slot), is probed linearly and is
+   kept, like the fields, when the headers are recycled so a request does
+   not allocate anything. A few headers are still scanned. Names that are not US-ASCII are not indexed:
+   while there is one, lookups fall back to scanning the headers. Removing
+   a header moves the last one, so the index is then rebuilt on the next
+   lookup.
+
    Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
    - scan "common" values ( length, cookies, etc ) during the parse
    ( addHeader hook )
 
@@ -96,6 +103,17 @@ public class MimeHeaders {
      */
     public static final int DEFAULT_HEADER_SIZE=8;
 
+    /**
+     * The hash of a name that is not indexed.
+     */
+    private static final int NO_HASH = -1;
+
+    /**
+     * Up to this number of header fields, scanning them is faster than
+     * hashing the name to look up.
+     */
+    private static final int SCAN_THRESHOLD = 8;
+
     private static final StringManager sm =
             StringManager.getManager("org.apache.tomcat.util.http");
 
@@ -115,6 +133,24 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * The index of the header names: a power of two sized, open-addressed
+     * table of header positions + 1. It always has at least twice as many
+     * slots as there are header fields.
+     */
+    private int[] index = new int[DEFAULT_HEADER_SIZE * 2];
+
+    /**
+     * <code>false</code> if headers have been removed since the index was
+     * last built.
+     */
+    private boolean indexValid = true;
+
+    /**
+     * The number of header fields whose names are not indexed.
+     */
+    private int unhashed;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -150,7 +186,12 @@ public class MimeHeaders {
         for (int i = 0; i < count; i++) {
             headers[i].recycle();
         }
+        if (count > 0) {
+            Arrays.fill(index, 0);
+        }
         count = 0;
+        unhashed = 0;
+        indexValid = true;
     }
 
     /**
@@ -202,21 +243,130 @@ public class MimeHeaders {
     /** Find the index of a header with the given name.
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
-        for (int i = starting; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+        int hash = count - starting > SCAN_THRESHOLD ? hashName(name) : NO_HASH;
+        if (hash == NO_HASH || !ensureIndex()) {
+            for (int i = starting; i < count; i++) {
+                if (headers[i].getName().equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Headers with the same name are found in the order they were added
+        int mask = index.length - 1;
+        int slot = spread(hash) & mask;
+        int entry;
+        while ((entry = index[slot]) != 0) {
+            int i = entry - 1;
+            if (i >= starting && headers[i].nameHash == hash &&
+                    headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
             }
+            slot = (slot + 1) & mask;
         }
         return -1;
     }
 
+    // -------------------- Name index --------------------
+
+    /**
+     * Adds a character of a header name to the hash of the characters that
+     * precede it. Starting from 0, this gives the hash expected by
+     * {@link #addValue(byte[], int, int, int)}. Only valid for US-ASCII
+     * names.
+     */
+    public static int updateNameHash(int hash, int c) {
+        return 31 * hash + Ascii.toLower(c);
+    }
+
+    private static int hashName(String name) {
+        if (name == null) {
+            return NO_HASH;
+        }
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c > 127) {
+                return NO_HASH;
+            }
+            hash = updateNameHash(hash, c);
+        }
+        return hash & 0x7fffffff;
+    }
+
+    private static int hashName(byte b[], int start, int len) {
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            if (b[i] < 0) {
+                return NO_HASH;
+            }
+            hash = updateNameHash(hash, b[i]);
+        }
+        return hash & 0x7fffffff;
+    }
+
+    private static int hashName(char c[], int start, int len) {
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            if (c[i] > 127) {
+                return NO_HASH;
+            }
+            hash = updateNameHash(hash, c[i]);
+        }
+        return hash & 0x7fffffff;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Indexes the last header field added.
+     */
+    private void addToIndex(MimeHeaderField mh, int hash) {
+        mh.nameHash = hash;
+        if (hash == NO_HASH) {
+            unhashed++;
+        } else if (index.length < count * 2) {
+            index = new int[index.length * 2];
+            indexValid = false;
+        } else if (indexValid) {
+            insert(count - 1, hash);
+        }
+    }
+
+    private void insert(int idx, int hash) {
+        int mask = index.length - 1;
+        int slot = spread(hash) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = idx + 1;
+    }
+
+    /**
+     * Rebuilds the index if needed.
+     *
+     * @return <code>true</code> if the index can be used for lookups
+     */
+    private boolean ensureIndex() {
+        if (!indexValid) {
+            Arrays.fill(index, 0);
+            unhashed = 0;
+            for (int i = 0; i < count; i++) {
+                int hash = headers[i].nameHash;
+                if (hash == NO_HASH) {
+                    unhashed++;
+                } else {
+                    insert(i, hash);
+                }
+            }
+            indexValid = true;
+        }
+        return unhashed == 0;
+    }
+
     // -------------------- --------------------
 
     /**
@@ -269,6 +419,7 @@ public class MimeHeaders {
     public MessageBytes addValue( String name ) {
          MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        addToIndex(mh, hashName(name));
         return mh.getValue();
     }
 
@@ -280,6 +431,19 @@ public class MimeHeaders {
     {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setBytes(b, startN, len);
+        addToIndex(mhf, hashName(b, startN, len));
+        return mhf.getValue();
+    }
+
+    /** Create a new named header using un-translated byte[], when
+        the hash of the US-ASCII name has already been computed with
+        {@link #updateNameHash(int, int)} while parsing it.
+     */
+    public MessageBytes addValue(byte b[], int startN, int len, int nameHash)
+    {
+        MimeHeaderField mhf=createHeader();
+        mhf.getName().setBytes(b, startN, len);
+        addToIndex(mhf, nameHash & 0x7fffffff);
         return mhf.getValue();
     }
 
@@ -289,6 +453,7 @@ public class MimeHeaders {
     {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setChars(c, startN, len);
+        addToIndex(mhf, hashName(c, startN, len));
         return mhf.getValue();
     }
 
@@ -298,19 +463,16 @@ public class MimeHeaders {
         if this .
     */
     public MessageBytes setValue( String name ) {
-        for ( int i = 0; i < count; i++ ) {
-            if(headers[i].getName().equalsIgnoreCase(name)) {
-                for ( int j=i+1; j < count; j++ ) {
-                    if(headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        int i = findHeader(name, 0);
+        if (i >= 0) {
+            // Removing a header does not move the ones before it
+            int j;
+            while ((j = findHeader(name, i + 1)) >= 0) {
+                removeHeader(j);
             }
+            return headers[i].getValue();
         }
-        MimeHeaderField mh = createHeader();
-        mh.getName().setString(name);
-        return mh.getValue();
+        return addValue(name);
     }
 
     //-------------------- Getting headers --------------------
@@ -320,12 +482,8 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     /**
@@ -334,17 +492,14 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown.
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int i = findHeader(name, 0);
+        if (i < 0) {
+            return null;
         }
-        return result;
+        if (findHeader(name, i + 1) >= 0) {
+            throw new IllegalArgumentException();
+        }
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -364,7 +519,7 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
-        for (int i = 0; i < count; i++) {
+        for (int i = findHeader(name, 0); i >= 0 && i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 removeHeader(i--);
             }
@@ -382,6 +537,7 @@ public class MimeHeaders {
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        indexValid = false;
     }
 
 }
@@ -460,11 +616,12 @@ class ValuesEnumerator implements Enumeration<String> {
 
     private void findNext() {
         next=null;
-        for(; pos< size; pos++ ) {
-            MessageBytes n1=headers.getName( pos );
-            if( n1.equalsIgnoreCase( name )) {
+        if (pos < size) {
+            pos = headers.findHeader(name, pos);
+            if (pos >= 0 && pos < size) {
                 next=headers.getValue( pos );
-                break;
+            } else {
+                pos = size;
             }
         }
         pos++;
@@ -490,6 +647,11 @@ class MimeHeaderField {
     MimeHeaderField next;
     MimeHeaderField prev;
 
+    /**
+     * The hash of the name, as indexed by {@link MimeHeaders}.
+     */
+    int nameHash;
+
     protected final MessageBytes nameB = MessageBytes.newInstance();
     protected final MessageBytes valueB = MessageBytes.newInstance();
 
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.IOException;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Push parser for <code>multipart/form-data</code> request bodies (RFC 2388).
+ * The body is passed to {@link #parse(byte[], int, int)} in chunks of any
+ * size as it is read and the parts are reported to a {@link Handler} as soon
+ * as they are seen, so neither the body nor a part has to be held in memory.
+ * <p>
+ * The parser only keeps the headers of the current part and, between two
+ * chunks, the few bytes that may be the start of a boundary. Instances are not
+ * thread safe.
+ */
+public class MultipartParser {
+
+    private static final StringManager sm =
+        StringManager.getManager("org.apache.tomcat.util.http");
+
+    /**
+     * Default limit for the size of the headers of a part.
+     */
+    public static final int DEFAULT_MAX_HEADER_SIZE = 10 * 1024;
+
+    /**
+     * Receives the parts of a multipart body.
+     */
+    public interface Handler {
+
+        /**
+         * A new part starts.
+         *
+         * @param headers The headers of the part. They are only valid until
+         *                the next part starts.
+         * @throws IOException
+         */
+        public void startPart(MimeHeaders headers) throws IOException;
+
+        /**
+         * Content of the current part. The bytes are only valid for the
+         * duration of the call.
+         *
+         * @throws IOException
+         */
+        public void partData(byte[] b, int off, int len) throws IOException;
+
+        /**
+         * The current part is complete.
+         *
+         * @throws IOException
+         */
+        public void endPart() throws IOException;
+    }
+
+    private static enum State {
+        PREAMBLE, AFTER_BOUNDARY, HEADERS, BODY, EPILOGUE
+    }
+
+    private static final byte CR = (byte) '\r';
+    private static final byte LF = (byte) '\n';
+
+    private final Handler handler;
+    private final long maxPartSize;
+    private final long maxSize;
+    private int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+
+    /**
+     * CRLF--boundary. The CRLF belongs to the delimiter, not to the content
+     * of the part it ends.
+     */
+    private final byte[] delimiter;
+
+    /**
+     * The start of the delimiter seen at the end of the previous chunk.
+     */
+    private final byte[] carry;
+    private int carryLen;
+
+    private State state = State.PREAMBLE;
+    private boolean afterDash;
+    private boolean afterCR;
+    private byte[] headerBuf = new byte[256];
+    private int headerLen;
+    private final MimeHeaders headers = new MimeHeaders();
+    private long partSize;
+    private long size;
+
+
+    /**
+     * @param boundary    The boundary parameter of the content type
+     * @param handler     Receives the parts
+     * @param maxPartSize The maximum size of the content of a part, -1 for no
+     *                    limit
+     * @param maxSize     The maximum size of the body, -1 for no limit
+     */
+    public MultipartParser(String boundary, Handler handler, long maxPartSize,
+            long maxSize) {
+        if (boundary == null || boundary.length() == 0 ||
+                boundary.length() > 70) {
+            throw new IllegalArgumentException(
+                    sm.getString("multipart.invalidBoundary", boundary));
+        }
+        this.delimiter = ("\r\n--" + boundary).getBytes(B2CConverter.ISO_8859_1);
+        this.carry = new byte[delimiter.length];
+        this.handler = handler;
+        this.maxPartSize = maxPartSize;
+        this.maxSize = maxSize;
+        // The first boundary may be the very start of the body
+        carry[0] = CR;
+        carry[1] = LF;
+        carryLen = 2;
+    }
+
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+
+    /**
+     * @return <code>true</code> once the final boundary has been seen
+     */
+    public boolean isComplete() {
+        return state == State.EPILOGUE;
+    }
+
+
+    /**
+     * Parses the next chunk of the body.
+     *
+     * @throws IOException if the body is not a valid multipart body or if the
+     *         handler fails
+     * @throws IllegalStateException if a size limit is exceeded
+     */
+    public void parse(byte[] b, int off, int len) throws IOException {
+        size += len;
+        if (maxSize > -1 && size > maxSize) {
+            throw new IllegalStateException(sm.getString(
+                    "multipart.maxSize", Long.valueOf(maxSize)));
+        }
+        int end = off + len;
+        int pos = off;
+        while (pos < end) {
+            switch (state) {
+            case PREAMBLE:
+            case BODY:
+                pos = parseContent(b, pos, end);
+                break;
+            case AFTER_BOUNDARY:
+                pos = parseAfterBoundary(b, pos, end);
+                break;
+            case HEADERS:
+                pos = parseHeaders(b, pos, end);
+                break;
+            case EPILOGUE:
+                // Ignored
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Signals the end of the body.
+     *
+     * @throws IOException if the final boundary has not been seen
+     */
+    public void finish() throws IOException {
+        if (state != State.EPILOGUE) {
+            throw new IOException(sm.getString("multipart.incomplete"));
+        }
+    }
+
+
+    private int parseContent(byte[] b, int pos, int end) throws IOException {
+        int dlen = delimiter.length;
+
+        if (carryLen > 0) {
+            // Look for a delimiter that starts in the carried bytes
+            for (int p = 0; p < carryLen; p++) {
+                int k = 0;
+                int q = p;
+                while (q < carryLen && carry[q] == delimiter[k]) {
+                    q++;
+                    k++;
+                }
+                if (q < carryLen) {
+                    continue;
+                }
+                int j = pos;
+                while (k < dlen && j < end && b[j] == delimiter[k]) {
+                    j++;
+                    k++;
+                }
+                if (k == dlen) {
+                    content(carry, 0, p);
+                    carryLen = 0;
+                    boundary();
+                    return j;
+                }
+                if (j == end) {
+                    // Still undecided
+                    content(carry, 0, p);
+                    System.arraycopy(carry, p, carry, 0, carryLen - p);
+                    carryLen -= p;
+                    System.arraycopy(b, pos, carry, carryLen, end - pos);
+                    carryLen += end - pos;
+                    return end;
+                }
+            }
+            content(carry, 0, carryLen);
+            carryLen = 0;
+        }
+
+        byte first = delimiter[0];
+        int start = pos;
+        for (int i = pos; i < end; i++) {
+            if (b[i] != first) {
+                continue;
+            }
+            int k = 1;
+            while (k < dlen && i + k < end && b[i + k] == delimiter[k]) {
+                k++;
+            }
+            if (k == dlen) {
+                content(b, start, i - start);
+                boundary();
+                return i + dlen;
+            }
+            if (i + k == end) {
+                content(b, start, i - start);
+                carryLen = end - i;
+                System.arraycopy(b, i, carry, 0, carryLen);
+                return end;
+            }
+        }
+        content(b, start, end - start);
+        return end;
+    }
+
+
+    private void content(byte[] b, int off, int len) throws IOException {
+        if (len == 0 || state == State.PREAMBLE) {
+            return;
+        }
+        partSize += len;
+        if (maxPartSize > -1 && partSize > maxPartSize) {
+            throw new IllegalStateException(sm.getString(
+                    "multipart.maxPartSize", Long.valueOf(maxPartSize)));
+        }
+        handler.partData(b, off, len);
+    }
+
+
+    private void boundary() throws IOException {
+        if (state == State.BODY) {
+            handler.endPart();
+        }
+        state = State.AFTER_BOUNDARY;
+        afterDash = false;
+        afterCR = false;
+    }
+
+
+    private int parseAfterBoundary(byte[] b, int pos, int end)
+            throws IOException {
+        while (pos < end) {
+            byte c = b[pos++];
+            if (afterDash) {
+                if (c != '-') {
+                    throw new IOException(sm.getString("multipart.malformed"));
+                }
+                state = State.EPILOGUE;
+                return end;
+            } else if (afterCR) {
+                if (c != LF) {
+                    throw new IOException(sm.getString("multipart.malformed"));
+                }
+                state = State.HEADERS;
+                headerLen = 0;
+                return pos;
+            } else if (c == '-') {
+                afterDash = true;
+            } else if (c == CR) {
+                afterCR = true;
+            } else if (c != ' ' && c != '\t') {
+                // Only linear white space may follow the boundary
+                throw new IOException(sm.getString("multipart.malformed"));
+            }
+        }
+        return pos;
+    }
+
+
+    private int parseHeaders(byte[] b, int pos, int end) throws IOException {
+        while (pos < end) {
+            if (headerLen >= maxHeaderSize) {
+                throw new IllegalStateException(sm.getString(
+                        "multipart.maxHeaderSize",
+                        Integer.valueOf(maxHeaderSize)));
+            }
+            if (headerLen == headerBuf.length) {
+                byte[] tmp = new byte[Math.min(headerLen * 2, maxHeaderSize)];
+                System.arraycopy(headerBuf, 0, tmp, 0, headerLen);
+                headerBuf = tmp;
+            }
+            byte c = b[pos++];
+            headerBuf[headerLen++] = c;
+            if (c == LF && headerLen > 1 && headerBuf[headerLen - 2] == CR &&
+                    (headerLen == 2 || (headerLen > 3 &&
+                            headerBuf[headerLen - 3] == LF &&
+                            headerBuf[headerLen - 4] == CR))) {
+                processHeaders();
+                partSize = 0;
+                state = State.BODY;
+                handler.startPart(headers);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+
+    /**
+     * Unfolds the header block in place and adds the headers, which refer to
+     * the header buffer, to the headers of the part.
+     */
+    private void processHeaders() {
+        headers.recycle();
+        byte[] buf = headerBuf;
+        // Drop the CRLF of the empty line
+        int len = headerLen - 2;
+
+        // Unfold: CRLF followed by linear white space is removed
+        int w = 0;
+        for (int r = 0; r < len; r++) {
+            if (buf[r] == CR && r + 2 < len && buf[r + 1] == LF &&
+                    (buf[r + 2] == ' ' || buf[r + 2] == '\t')) {
+                r++;
+                continue;
+            }
+            buf[w++] = buf[r];
+        }
+        len = w;
+
+        int lineStart = 0;
+        while (lineStart < len) {
+            int lineEnd = lineStart;
+            while (lineEnd < len && buf[lineEnd] != CR) {
+                lineEnd++;
+            }
+            int colon = lineStart;
+            while (colon < lineEnd && buf[colon] != ':') {
+                colon++;
+            }
+            // Lines without a name are ignored
+            if (colon > lineStart && colon < lineEnd) {
+                int valueStart = colon + 1;
+                while (valueStart < lineEnd && isWhite(buf[valueStart])) {
+                    valueStart++;
+                }
+                int valueEnd = lineEnd;
+                while (valueEnd > valueStart && isWhite(buf[valueEnd - 1])) {
+                    valueEnd--;
+                }
+                headers.addValue(buf, lineStart, colon - lineStart).setBytes(
+                        buf, valueStart, valueEnd - valueStart);
+            }
+            // Skip the CRLF
+            lineStart = lineEnd + 2;
+        }
+    }
+
+
+    private static boolean isWhite(byte c) {
+        return c == ' ' || c == '\t';
+    }
+}
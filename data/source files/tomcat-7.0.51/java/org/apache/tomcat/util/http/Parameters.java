@@ -20,10 +20,12 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -71,6 +73,12 @@ public final class Parameters {
      */
     private boolean parseFailed = false;
 
+    /**
+     * Should parameters be indexed when they are processed and only decoded
+     * when they are requested?
+     */
+    private boolean lazy = false;
+
     public Parameters() {
         // NO-OP
     }
@@ -101,14 +109,37 @@ public final class Parameters {
         }
     }
 
-    public boolean isParseFailed() {
-        return parseFailed;
-    }
-
     public void setParseFailed(boolean parseFailed) {
         this.parseFailed = parseFailed;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Enables or disables lazy parsing. When enabled, processing parameters
+     * only finds where each name and value starts and ends, and the names
+     * and values are decoded when they are requested. The processed bytes
+     * must then not be modified until this object is recycled. Disabling it
+     * decodes the parameters that have been indexed so far.
+     */
+    public void setLazy(boolean lazy) {
+        if (!lazy) {
+            decodeIndex();
+        }
+        this.lazy = lazy;
+    }
+
+    /**
+     * Note that if parameters are parsed lazily, this decodes all of them to
+     * find the ones that can not be decoded.
+     */
+    public boolean isParseFailed() {
+        decodeIndex();
+        return parseFailed;
+    }
+
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
@@ -116,6 +147,7 @@ public final class Parameters {
         encoding=null;
         decodedQuery.recycle();
         parseFailed = false;
+        recycleIndex();
     }
 
     // -------------------- Data access --------------------
@@ -127,6 +159,7 @@ public final class Parameters {
         if (key == null) {
             return;
         }
+        decodeIndex();
         ArrayList<String> values = paramHashValues.get(key);
         if (values == null) {
             values = new ArrayList<String>(newValues.length);
@@ -141,6 +174,9 @@ public final class Parameters {
 
     public String[] getParameterValues(String name) {
         handleQueryParameters();
+        if (useIndex()) {
+            return getIndexedValues(name);
+        }
         // no "facade"
         ArrayList<String> values = paramHashValues.get(name);
         if (values == null) {
@@ -151,11 +187,15 @@ public final class Parameters {
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        decodeIndex();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
+        if (useIndex()) {
+            return getIndexedValue(name);
+        }
         ArrayList<String> values = paramHashValues.get(name);
         if (values != null) {
             if(values.size() == 0) {
@@ -202,6 +242,17 @@ public final class Parameters {
             return;
         }
 
+        decodeIndex();
+        countParameter();
+        ArrayList<String> values = paramHashValues.get(key);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            paramHashValues.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private void countParameter() throws IllegalStateException {
         parameterCount ++;
         if (limit > -1 && parameterCount > limit) {
             // Processing this parameter will push us over the limit. ISE is
@@ -210,13 +261,6 @@ public final class Parameters {
             throw new IllegalStateException(sm.getString(
                     "parameters.maxCountFail", Integer.valueOf(limit)));
         }
-
-        ArrayList<String> values = paramHashValues.get(key);
-        if (values == null) {
-            values = new ArrayList<String>(1);
-            paramHashValues.put(key, values);
-        }
-        values.add(value);
     }
 
     public void setURLDecoder( UDecoder u ) {
@@ -250,6 +294,11 @@ public final class Parameters {
 
         int decodeFailCount = 0;
 
+        int segment = -1;
+        if (lazy) {
+            segment = addSegment(bytes, charset);
+        }
+
         int pos = start;
         int end = start + len;
 
@@ -357,6 +406,19 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                try {
+                    countParameter();
+                } catch (IllegalStateException ise) {
+                    logMaxCountFail(ise);
+                    break;
+                }
+                addToIndex(segment, nameStart, nameEnd, valueStart, valueEnd,
+                        (decodeName ? DECODE_NAME : 0) |
+                        (decodeValue ? DECODE_VALUE : 0));
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -404,24 +466,7 @@ public final class Parameters {
                 try {
                     addParameter(name, value);
                 } catch (IllegalStateException ise) {
-                    // Hitting limit stops processing further params but does
-                    // not cause request to fail.
-                    parseFailed = true;
-                    UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
-                    if (logMode != null) {
-                        String message = ise.getMessage();
-                        switch (logMode) {
-                            case INFO_THEN_DEBUG:
-                                message += sm.getString(
-                                        "parameters.maxCountFail.fallToDebug");
-                                //$FALL-THROUGH$
-                            case INFO:
-                                log.info(message);
-                                break;
-                            case DEBUG:
-                                log.debug(message);
-                        }
-                    }
+                    logMaxCountFail(ise);
                     break;
                 }
             } catch (IOException e) {
@@ -481,6 +526,27 @@ public final class Parameters {
         }
     }
 
+    private void logMaxCountFail(IllegalStateException ise) {
+        // Hitting limit stops processing further params but does
+        // not cause request to fail.
+        parseFailed = true;
+        UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
+        if (logMode != null) {
+            String message = ise.getMessage();
+            switch (logMode) {
+                case INFO_THEN_DEBUG:
+                    message += sm.getString(
+                            "parameters.maxCountFail.fallToDebug");
+                    //$FALL-THROUGH$
+                case INFO:
+                    log.info(message);
+                    break;
+                case DEBUG:
+                    log.debug(message);
+            }
+        }
+    }
+
     private void urlDecode(ByteChunk bc)
         throws IOException {
         if( urlDec==null ) {
@@ -513,10 +579,289 @@ public final class Parameters {
         }
     }
 
+    // -------------------- Lazy parsing --------------------
+    // The processed bytes are kept as segments, one per call to
+    // processParameters. Each parameter is indexed with FIELDS ints: its
+    // segment, the start and end of its name and value (value start is -1
+    // without a value) and flags. Decoded names and values are cached, and
+    // all the arrays are kept when recycling.
+
+    /**
+     * After this many lookups, the index is decoded into the map.
+     */
+    private static final int MAX_INDEXED_LOOKUPS = 8;
+
+    private static final int FIELDS = 6;
+    private static final int DECODE_NAME = 1;
+    private static final int DECODE_VALUE = 2;
+    private static final int FAILED = 4;
+
+    /**
+     * Whether each charset decodes parameter names as ASCII does.
+     */
+    private static final ConcurrentHashMap<Charset,Boolean> ASCII_COMPATIBLE =
+            new ConcurrentHashMap<Charset,Boolean>();
+
+    private byte[][] segments = new byte[2][];
+    private Charset[] segmentCharsets = new Charset[2];
+    private boolean[] segmentAscii = new boolean[2];
+    private int segmentCount = 0;
+
+    private int[] index = new int[16 * FIELDS];
+    private String[] indexNames = new String[16];
+    private String[] indexValues = new String[16];
+    private int indexCount = 0;
+    private int indexedLookups = 0;
+
+    private int addSegment(byte[] bytes, Charset charset) {
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segmentCount * 2);
+            segmentCharsets = Arrays.copyOf(segmentCharsets, segmentCount * 2);
+            segmentAscii = Arrays.copyOf(segmentAscii, segmentCount * 2);
+        }
+        segments[segmentCount] = bytes;
+        segmentCharsets[segmentCount] = charset;
+        // Names that do not need decoding can then be compared byte by byte
+        segmentAscii[segmentCount] = isAsciiCompatible(charset);
+        return segmentCount++;
+    }
+
+    /**
+     * @return <code>true</code> if the charset decodes the characters used in
+     *         parameter names without decoding as ASCII does
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        Boolean result = ASCII_COMPATIBLE.get(charset);
+        if (result == null) {
+            result = Boolean.valueOf("=&%+az".equals(
+                    new String("=&%+az".getBytes(DEFAULT_CHARSET), charset)));
+            ASCII_COMPATIBLE.put(charset, result);
+        }
+        return result.booleanValue();
+    }
+
+    private void addToIndex(int segment, int nameStart, int nameEnd,
+            int valueStart, int valueEnd, int flags) {
+        int pos = indexCount * FIELDS;
+        if (pos == index.length) {
+            index = Arrays.copyOf(index, pos * 2);
+            indexNames = Arrays.copyOf(indexNames, indexCount * 2);
+            indexValues = Arrays.copyOf(indexValues, indexCount * 2);
+        }
+        index[pos] = segment;
+        index[pos + 1] = nameStart;
+        index[pos + 2] = nameEnd;
+        index[pos + 3] = valueStart;
+        index[pos + 4] = valueEnd;
+        index[pos + 5] = flags;
+        indexCount++;
+    }
+
+    private void recycleIndex() {
+        Arrays.fill(segments, 0, segmentCount, null);
+        Arrays.fill(segmentCharsets, 0, segmentCount, null);
+        Arrays.fill(indexNames, 0, indexCount, null);
+        Arrays.fill(indexValues, 0, indexCount, null);
+        segmentCount = 0;
+        indexCount = 0;
+        indexedLookups = 0;
+    }
+
+    /**
+     * @return <code>true</code> if a lookup should go through the index
+     */
+    private boolean useIndex() {
+        if (indexCount == 0) {
+            return false;
+        }
+        if (!paramHashValues.isEmpty() ||
+                ++indexedLookups > MAX_INDEXED_LOOKUPS) {
+            // Looking up in the map is now cheaper
+            decodeIndex();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the indexed parameters into the map and clears the index.
+     */
+    private void decodeIndex() {
+        if (segmentCount == 0) {
+            return;
+        }
+        for (int i = 0; i < indexCount; i++) {
+            if (decodeName(i) && decodeValue(i)) {
+                ArrayList<String> values = paramHashValues.get(indexNames[i]);
+                if (values == null) {
+                    values = new ArrayList<String>(1);
+                    paramHashValues.put(indexNames[i], values);
+                }
+                values.add(indexValues[i]);
+            }
+        }
+        recycleIndex();
+    }
+
+    private String getIndexedValue(String name) {
+        for (int i = 0; i < indexCount; i++) {
+            if (nameMatches(i, name) && decodeValue(i)) {
+                return indexValues[i];
+            }
+        }
+        return null;
+    }
+
+    private String[] getIndexedValues(String name) {
+        ArrayList<String> values = null;
+        for (int i = 0; i < indexCount; i++) {
+            if (nameMatches(i, name) && decodeValue(i)) {
+                if (values == null) {
+                    values = new ArrayList<String>(1);
+                }
+                values.add(indexValues[i]);
+            }
+        }
+        if (values == null) {
+            return null;
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
+    private boolean nameMatches(int i, String name) {
+        int pos = i * FIELDS;
+        int flags = index[pos + 5];
+        if ((flags & FAILED) != 0) {
+            return false;
+        }
+        if (indexNames[i] == null && (flags & DECODE_NAME) == 0 &&
+                segmentAscii[index[pos]]) {
+            byte[] bytes = segments[index[pos]];
+            int start = index[pos + 1];
+            int len = index[pos + 2] - start;
+            boolean ascii = true;
+            for (int j = 0; j < len; j++) {
+                if (bytes[start + j] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                if (len != name.length()) {
+                    return false;
+                }
+                for (int j = 0; j < len; j++) {
+                    if (bytes[start + j] != name.charAt(j)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return decodeName(i) && indexNames[i].equals(name);
+    }
+
+    private boolean decodeName(int i) {
+        if (indexNames[i] == null) {
+            int pos = i * FIELDS;
+            if ((index[pos + 5] & FAILED) != 0) {
+                return false;
+            }
+            indexNames[i] = decode(i, index[pos + 1], index[pos + 2],
+                    (index[pos + 5] & DECODE_NAME) != 0);
+        }
+        return indexNames[i] != null;
+    }
+
+    private boolean decodeValue(int i) {
+        if (indexValues[i] == null) {
+            int pos = i * FIELDS;
+            if ((index[pos + 5] & FAILED) != 0) {
+                return false;
+            }
+            if (index[pos + 3] < 0) {
+                indexValues[i] = "";
+            } else {
+                indexValues[i] = decode(i, index[pos + 3], index[pos + 4],
+                        (index[pos + 5] & DECODE_VALUE) != 0);
+            }
+        }
+        return indexValues[i] != null;
+    }
+
+    /**
+     * Decodes a name or a value of an indexed parameter. If that fails, the
+     * parameter is ignored from then on.
+     */
+    private String decode(int i, int start, int end, boolean urlDecode) {
+        int pos = i * FIELDS;
+        int segment = index[pos];
+        byte[] bytes = segments[segment];
+        // Take a copy of the original bytes for debug logging, decoding
+        // is done in place
+        String original = null;
+        if (log.isDebugEnabled()) {
+            original = new String(bytes, start, end - start, DEFAULT_CHARSET);
+        }
+        tmpValue.setBytes(bytes, start, end - start);
+        try {
+            if (urlDecode) {
+                urlDecode(tmpValue);
+            }
+            tmpValue.setCharset(segmentCharsets[segment]);
+            return tmpValue.toString();
+        } catch (IOException e) {
+            index[pos + 5] |= FAILED;
+            parseFailed = true;
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("parameters.decodeFail.debug",
+                        (start == index[pos + 1]) ? original : rawName(i),
+                        (start == index[pos + 1]) ? rawValue(i) : original),
+                        e);
+            } else if (log.isInfoEnabled()) {
+                UserDataHelper.Mode logMode = userDataLog.getNextMode();
+                if (logMode != null) {
+                    String message = sm.getString("parameters.decodeFail.info",
+                            rawName(i), rawValue(i));
+                    switch (logMode) {
+                        case INFO_THEN_DEBUG:
+                            message += sm.getString("parameters.fallToDebug");
+                            log.info(message);
+                            break;
+                        case INFO:
+                            log.info(message);
+                            break;
+                        case DEBUG:
+                            log.debug(message);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            tmpValue.recycle();
+        }
+    }
+
+    private String rawName(int i) {
+        int pos = i * FIELDS;
+        return new String(segments[index[pos]], index[pos + 1],
+                index[pos + 2] - index[pos + 1], DEFAULT_CHARSET);
+    }
+
+    private String rawValue(int i) {
+        int pos = i * FIELDS;
+        if (index[pos + 3] < 0) {
+            return "";
+        }
+        return new String(segments[index[pos]], index[pos + 3],
+                index[pos + 4] - index[pos + 3], DEFAULT_CHARSET);
+    }
+
     /**
      * Debug purpose
      */
     public String paramsAsString() {
+        decodeIndex();
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
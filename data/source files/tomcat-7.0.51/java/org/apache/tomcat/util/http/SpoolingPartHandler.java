@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * {@link MultipartParser.Handler} that keeps the content of a part in memory
+ * up to a threshold and writes larger parts to a temporary file as the data
+ * arrives, so that only the threshold is ever buffered per part.
+ */
+public abstract class SpoolingPartHandler implements MultipartParser.Handler {
+
+    private final File directory;
+    private final int threshold;
+
+    private final ByteChunk memory = new ByteChunk();
+    private MimeHeaders headers;
+    private File file;
+    private FileChannel channel;
+    private long size;
+
+
+    /**
+     * @param directory The directory of the temporary files, the default
+     *                  temporary directory if <code>null</code>
+     * @param threshold The size above which the content of a part is written
+     *                  to a file
+     */
+    public SpoolingPartHandler(File directory, int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+        memory.setLimit(-1);
+    }
+
+
+    @Override
+    public void startPart(MimeHeaders headers) throws IOException {
+        this.headers = headers;
+        memory.recycle();
+        file = null;
+        size = 0;
+    }
+
+
+    @Override
+    public void partData(byte[] b, int off, int len) throws IOException {
+        size += len;
+        if (channel == null && memory.getLength() + len > threshold) {
+            file = File.createTempFile("upload_", ".tmp", directory);
+            try {
+                channel = new FileOutputStream(file).getChannel();
+                if (memory.getLength() > 0) {
+                    write(memory.getBuffer(), memory.getStart(),
+                            memory.getLength());
+                }
+            } catch (IOException ioe) {
+                abort();
+                throw ioe;
+            }
+            memory.recycle();
+        }
+        if (channel == null) {
+            memory.append(b, off, len);
+        } else {
+            write(b, off, len);
+        }
+    }
+
+
+    @Override
+    public void endPart() throws IOException {
+        File f = file;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            file = null;
+        }
+        part(headers, f == null ? memory : null, f, size);
+    }
+
+
+    /**
+     * Releases the file of a part that has not been completed, for instance
+     * when parsing failed.
+     */
+    public void abort() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // Ignore
+            }
+            channel = null;
+        }
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    /**
+     * A part is complete.
+     *
+     * @param headers The headers of the part, only valid for the duration of
+     *                the call
+     * @param content The content of the part if it has been kept in memory,
+     *                only valid for the duration of the call
+     * @param file    The file holding the content of the part if it has been
+     *                spooled to disk. It belongs to the caller, which must
+     *                move or delete it.
+     * @param size    The size of the content
+     * @throws IOException
+     */
+    protected abstract void part(MimeHeaders headers, ByteChunk content,
+            File file, long size) throws IOException;
+}
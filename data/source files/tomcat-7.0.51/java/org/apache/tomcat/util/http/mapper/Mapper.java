@@ -60,6 +60,14 @@ public final class Mapper {
     protected ContextVersion context = new ContextVersion();
 
 
+    /**
+     * Use the compiled {@link WrapperTree} for exact and prefix wrapper
+     * mapping. Only expected to be disabled to compare the performance of the
+     * two implementations.
+     */
+    boolean useWrapperTree = true;
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -407,6 +415,8 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            context.wrapperTree = new WrapperTree(context.exactWrappers,
+                    context.wildcardWrappers);
         }
     }
 
@@ -519,6 +529,8 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            context.wrapperTree = new WrapperTree(context.exactWrappers,
+                    context.wildcardWrappers);
         }
     }
 
@@ -851,34 +863,28 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        Wrapper[] exactWrappers = contextVersion.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
-
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        Wrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
-        if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
-                                       path, mappingData);
-            if (mappingData.wrapper != null && mappingData.jspWildCard) {
-                char[] buf = path.getBuffer();
-                if (buf[pathEnd - 1] == '/') {
-                    /*
-                     * Path ending in '/' was mapped to JSP servlet based on
-                     * wildcard match (e.g., as specified in url-pattern of a
-                     * jsp-property-group.
-                     * Force the context's welcome files, which are interpreted
-                     * as JSP files (since they match the url-pattern), to be
-                     * considered. See Bugzilla 27664.
-                     */
-                    mappingData.wrapper = null;
-                    checkJspWelcomeFiles = true;
-                } else {
-                    // See Bugzilla 27704
-                    mappingData.wrapperPath.setChars(buf, path.getStart(),
-                                                     path.getLength());
-                    mappingData.pathInfo.recycle();
-                }
+        boolean prefixMatch = internalMapExactOrWildcardWrapper(
+                contextVersion, path, mappingData);
+        if (prefixMatch && mappingData.jspWildCard) {
+            char[] buf = path.getBuffer();
+            if (buf[pathEnd - 1] == '/') {
+                /*
+                 * Path ending in '/' was mapped to JSP servlet based on
+                 * wildcard match (e.g., as specified in url-pattern of a
+                 * jsp-property-group.
+                 * Force the context's welcome files, which are interpreted
+                 * as JSP files (since they match the url-pattern), to be
+                 * considered. See Bugzilla 27664.
+                 */
+                mappingData.wrapper = null;
+                checkJspWelcomeFiles = true;
+            } else {
+                // See Bugzilla 27704
+                mappingData.wrapperPath.setChars(buf, path.getStart(),
+                                                 path.getLength());
+                mappingData.pathInfo.recycle();
             }
         }
 
@@ -914,14 +920,9 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
-
                     // Rule 4b -- Welcome resources processing for prefix match
-                    if (mappingData.wrapper == null) {
-                        internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
-                    }
+                    internalMapExactOrWildcardWrapper(contextVersion, path,
+                            mappingData);
 
                     // Rule 4c -- Welcome resources processing
                     //            for physical folder
@@ -1031,6 +1032,81 @@ public final class Mapper {
     }
 
 
+    /**
+     * Exact and prefix mapping.
+     *
+     * @return <code>true</code> if a wrapper was found using a prefix match
+     */
+    private final boolean internalMapExactOrWildcardWrapper(
+            ContextVersion contextVersion, CharChunk path,
+            MappingData mappingData) {
+        WrapperTree wrapperTree = contextVersion.wrapperTree;
+        if (useWrapperTree && wrapperTree.complete) {
+            return internalMapWrapperTree(wrapperTree, path, mappingData);
+        }
+        internalMapExactWrapper(contextVersion.exactWrappers, path,
+                mappingData);
+        if (mappingData.wrapper == null) {
+            internalMapWildcardWrapper(contextVersion.wildcardWrappers,
+                    contextVersion.nesting, path, mappingData);
+            return mappingData.wrapper != null;
+        }
+        return false;
+    }
+
+
+    /**
+     * Exact and prefix mapping using a single walk of the path segments.
+     *
+     * @return <code>true</code> if a wrapper was found using a prefix match
+     */
+    private final boolean internalMapWrapperTree(WrapperTree wrapperTree,
+            CharChunk path, MappingData mappingData) {
+
+        char[] buf = path.getBuffer();
+        int start = path.getStart();
+        int end = path.getEnd();
+
+        PathNode node = wrapperTree.root;
+        Wrapper exact = null;
+        Wrapper wildcard = null;
+        if (start == end || buf[start] == '/') {
+            wildcard = node.wildcardWrapper;
+        }
+        if (start < end && buf[start] == '/') {
+            int pos = start + 1;
+            while (true) {
+                int segmentEnd = pos;
+                while (segmentEnd < end && buf[segmentEnd] != '/') {
+                    segmentEnd++;
+                }
+                node = node.findChild(buf, pos, segmentEnd);
+                if (node == null) {
+                    break;
+                }
+                if (node.wildcardWrapper != null) {
+                    wildcard = node.wildcardWrapper;
+                }
+                if (segmentEnd == end) {
+                    exact = node.exactWrapper;
+                    break;
+                }
+                pos = segmentEnd + 1;
+            }
+        }
+
+        if (exact != null) {
+            mapExactWrapper(exact, path, mappingData);
+            return false;
+        }
+        if (wildcard != null) {
+            mapWildcardWrapper(wildcard, path, mappingData);
+            return true;
+        }
+        return false;
+    }
+
+
     /**
      * Exact mapping.
      */
@@ -1038,17 +1114,23 @@ public final class Mapper {
         (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
         int pos = find(wrappers, path);
         if ((pos != -1) && (path.equals(wrappers[pos].name))) {
-            mappingData.requestPath.setString(wrappers[pos].name);
-            mappingData.wrapper = wrappers[pos].object;
-            if (path.equals("/")) {
-                // Special handling for Context Root mapped servlet
-                mappingData.pathInfo.setString("/");
-                mappingData.wrapperPath.setString("");
-                // This seems wrong but it is what the spec says...
-                mappingData.contextPath.setString("");
-            } else {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-            }
+            mapExactWrapper(wrappers[pos], path, mappingData);
+        }
+    }
+
+
+    private static final void mapExactWrapper(Wrapper wrapper, CharChunk path,
+            MappingData mappingData) {
+        mappingData.requestPath.setString(wrapper.name);
+        mappingData.wrapper = wrapper.object;
+        if (path.equals("/")) {
+            // Special handling for Context Root mapped servlet
+            mappingData.pathInfo.setString("/");
+            mappingData.wrapperPath.setString("");
+            // This seems wrong but it is what the spec says...
+            mappingData.contextPath.setString("");
+        } else {
+            mappingData.wrapperPath.setString(wrapper.name);
         }
     }
 
@@ -1088,22 +1170,29 @@ public final class Mapper {
             }
             path.setEnd(pathEnd);
             if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+                mapWildcardWrapper(wrappers[pos], path, mappingData);
             }
         }
     }
 
 
+    private static final void mapWildcardWrapper(Wrapper wrapper,
+            CharChunk path, MappingData mappingData) {
+        int length = wrapper.name.length();
+        mappingData.wrapperPath.setString(wrapper.name);
+        if (path.getLength() > length) {
+            mappingData.pathInfo.setChars
+                (path.getBuffer(),
+                 path.getOffset() + length,
+                 path.getLength() - length);
+        }
+        mappingData.requestPath.setChars
+            (path.getBuffer(), path.getOffset(), path.getLength());
+        mappingData.wrapper = wrapper.object;
+        mappingData.jspWildCard = wrapper.jspWildCard;
+    }
+
+
     /**
      * Extension mappings.
      *
@@ -1369,6 +1458,31 @@ public final class Mapper {
     }
 
 
+    /**
+     * Compare given char array range with String.
+     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
+     */
+    private static final int compare(char[] c, int start, int end,
+                                     String compareTo) {
+        int len = Math.min(end - start, compareTo.length());
+        for (int i = 0; i < len; i++) {
+            char c1 = c[i + start];
+            char c2 = compareTo.charAt(i);
+            if (c1 > c2) {
+                return 1;
+            } else if (c1 < c2) {
+                return -1;
+            }
+        }
+        if (compareTo.length() > (end - start)) {
+            return -1;
+        } else if (compareTo.length() < (end - start)) {
+            return 1;
+        }
+        return 0;
+    }
+
+
     /**
      * Find the position of the last slash in the given char chunk.
      */
@@ -1510,6 +1624,7 @@ public final class Mapper {
         public Wrapper[] wildcardWrappers = new Wrapper[0];
         public Wrapper[] extensionWrappers = new Wrapper[0];
         public int nesting = 0;
+        public volatile WrapperTree wrapperTree = WrapperTree.EMPTY;
 
     }
 
@@ -1523,4 +1638,124 @@ public final class Mapper {
         public boolean jspWildCard = false;
         public boolean resourceOnly = false;
     }
+
+
+    // ------------------------------------------------ WrapperTree Inner Class
+
+
+    /**
+     * Immutable tree of the path segments of the exact and wildcard wrappers
+     * of a context version, so that both can be matched in a single walk of
+     * the request path. A new tree is built, and then published, whenever the
+     * wrappers of the context version change.
+     */
+    protected static final class WrapperTree {
+
+        public static final WrapperTree EMPTY =
+            new WrapperTree(new Wrapper[0], new Wrapper[0]);
+
+        public final PathNode root = new PathNode("");
+
+        /**
+         * <code>false</code> if some of the wrappers could not be added to the
+         * tree since their mapping does not start with '/'.
+         */
+        public final boolean complete;
+
+        public WrapperTree(Wrapper[] exactWrappers,
+                Wrapper[] wildcardWrappers) {
+            boolean complete = true;
+            for (int i = 0; i < exactWrappers.length; i++) {
+                String name = exactWrappers[i].name;
+                if (name.startsWith("/")) {
+                    addPath(name).exactWrapper = exactWrappers[i];
+                } else {
+                    complete = false;
+                }
+            }
+            for (int i = 0; i < wildcardWrappers.length; i++) {
+                String name = wildcardWrappers[i].name;
+                if (name.length() == 0) {
+                    root.wildcardWrapper = wildcardWrappers[i];
+                } else if (name.startsWith("/")) {
+                    addPath(name).wildcardWrapper = wildcardWrappers[i];
+                } else {
+                    complete = false;
+                }
+            }
+            this.complete = complete;
+        }
+
+        private PathNode addPath(String name) {
+            PathNode node = root;
+            int pos = 1;
+            while (true) {
+                int segmentEnd = name.indexOf('/', pos);
+                if (segmentEnd == -1) {
+                    segmentEnd = name.length();
+                }
+                node = node.addChild(name.substring(pos, segmentEnd));
+                if (segmentEnd == name.length()) {
+                    return node;
+                }
+                pos = segmentEnd + 1;
+            }
+        }
+    }
+
+
+    protected static final class PathNode {
+
+        public final String segment;
+        public PathNode[] children = new PathNode[0];
+        public Wrapper exactWrapper = null;
+        public Wrapper wildcardWrapper = null;
+
+        public PathNode(String segment) {
+            this.segment = segment;
+        }
+
+        /**
+         * Find the child for the given segment using a binary search of the
+         * children, which are sorted by segment.
+         */
+        public PathNode findChild(char[] buf, int start, int end) {
+            PathNode[] children = this.children;
+            int a = 0;
+            int b = children.length - 1;
+            while (a <= b) {
+                int i = (a + b) >>> 1;
+                int result = compare(buf, start, end, children[i].segment);
+                if (result > 0) {
+                    a = i + 1;
+                } else if (result < 0) {
+                    b = i - 1;
+                } else {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        PathNode addChild(String segment) {
+            int pos = 0;
+            while (pos < children.length) {
+                int result = segment.compareTo(children[pos].segment);
+                if (result == 0) {
+                    return children[pos];
+                } else if (result < 0) {
+                    break;
+                }
+                pos++;
+            }
+            PathNode child = new PathNode(segment);
+            PathNode[] newChildren = new PathNode[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newChildren[pos] = child;
+            System.arraycopy(children, pos, newChildren, pos + 1,
+                    children.length - pos);
+            children = newChildren;
+            return child;
+        }
+    }
 }
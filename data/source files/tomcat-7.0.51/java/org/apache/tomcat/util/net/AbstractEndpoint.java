@@ -755,6 +755,12 @@ public abstract class AbstractEndpoint {
         if (latch!=null) latch.countUpOrAwait();
     }
 
+    protected boolean tryCountUpConnection() {
+        if (maxConnections==-1) return true;
+        LimitLatch latch = connectionLimitLatch;
+        return latch==null || latch.tryCountUp();
+    }
+
     protected long countDownConnection() {
         if (maxConnections==-1) return -1;
         LimitLatch latch = connectionLimitLatch;
@@ -26,6 +26,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
 import org.apache.tomcat.util.net.NioEndpoint.Poller;
+import org.apache.tomcat.util.net.NioEndpoint.PooledBufferHandler;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 
 /**
@@ -55,13 +56,33 @@ public class NioChannel implements ByteChannel{
     }
 
     public void reset() throws IOException {
-        bufHandler.getReadBuffer().clear();
-        bufHandler.getWriteBuffer().clear();
+        if (bufHandler instanceof PooledBufferHandler) {
+            ((PooledBufferHandler) bufHandler).release(true);
+        } else {
+            bufHandler.getReadBuffer().clear();
+            bufHandler.getWriteBuffer().clear();
+        }
         this.sendFile = false;
     }
 
+    /**
+     * Return the application buffers to the shared pool they were borrowed
+     * from, if any.
+     *
+     * @param force <code>true</code> to return the buffers even if they hold
+     *              data, once the connection is closed
+     */
+    public void releaseBuffers(boolean force) {
+        if (bufHandler instanceof PooledBufferHandler) {
+            ((PooledBufferHandler) bufHandler).release(force);
+        }
+    }
+
     public int getBufferSize() {
         if ( bufHandler == null ) return 0;
+        if (bufHandler instanceof PooledBufferHandler) {
+            return ((PooledBufferHandler) bufHandler).getBorrowedSize();
+        }
         int size = 0;
         size += bufHandler.getReadBuffer()!=null?bufHandler.getReadBuffer().capacity():0;
         size += bufHandler.getWriteBuffer()!=null?bufHandler.getWriteBuffer().capacity():0;
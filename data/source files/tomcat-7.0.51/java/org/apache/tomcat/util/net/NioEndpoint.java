@@ -20,6 +20,7 @@ package org.apache.tomcat.util.net;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -86,6 +87,12 @@ public class NioEndpoint extends AbstractEndpoint {
 
     protected NioSelectorPool selectorPool = new NioSelectorPool();
 
+    /**
+     * Shared pool the application buffers of non secure channels are
+     * borrowed from, if enabled.
+     */
+    protected SlabBufferPool slabPool = null;
+
     /**
      * Server socket "pointer".
      */
@@ -340,11 +347,42 @@ public class NioEndpoint extends AbstractEndpoint {
     protected long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
+    /**
+     * Number of shards. Each shard is a poller that accepts its own
+     * connections and keeps them for their whole lifetime, instead of the
+     * acceptor threads handing the connections to the pollers in turn.
+     * Sharding is disabled if zero.
+     */
+    protected int shardCount = 0;
+    public void setShardCount(int shardCount) { this.shardCount = shardCount; }
+    public int getShardCount() { return shardCount; }
+
+    /**
+     * Give each shard its own listening socket, bound with SO_REUSEPORT so
+     * that the operating system spreads the connections over the shards.
+     * Ignored if the JVM does not support the option.
+     */
+    protected boolean reusePort = true;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
+    /**
+     * The listening sockets of the shards, <code>null</code> if sharding is
+     * disabled. They are all the server socket if the shards share it.
+     */
+    protected ServerSocketChannel[] shardSocks = null;
+
     /**
      * The socket poller.
      */
     protected Poller[] pollers = null;
     protected AtomicInteger pollerRotater = new AtomicInteger(0);
+
+    /**
+     * The maximum number of connections a shard accepts before it processes
+     * the events of the connections it already has.
+     */
+    private static final int MAX_ACCEPT_BATCH = 64;
     /**
      * Return an available poller in true round robin fashion
      */
@@ -458,6 +496,30 @@ public class NioEndpoint extends AbstractEndpoint {
     }
 
 
+    /**
+     * Statistics of each poller: the number of connections it has accepted,
+     * if it is a shard, the number of events it has processed, the number of
+     * times it has been woken up by another thread and the number of selects.
+     */
+    public String[] getShardStatistics() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new String[0];
+        }
+        String[] result = new String[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            if (poller != null) {
+                result[i] = "accepted=" + poller.getAcceptCount() +
+                        ", events=" + poller.getEventCount() +
+                        ", wakeups=" + poller.getWakeupCount() +
+                        ", selects=" + poller.getSelectCount();
+            }
+        }
+        return result;
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
 
@@ -470,9 +532,37 @@ public class NioEndpoint extends AbstractEndpoint {
         serverSock = ServerSocketChannel.open();
         socketProperties.setProperties(serverSock.socket());
         InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
+        boolean shardSockets = shardCount > 1 && reusePort;
+        if (shardSockets && !setReusePort(serverSock)) {
+            log.warn(sm.getString("endpoint.nio.reusePortUnsupported",
+                    Integer.valueOf(shardCount)));
+            shardSockets = false;
+        }
         serverSock.socket().bind(addr,getBacklog());
-        serverSock.configureBlocking(true); //mimic APR behavior
-        serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        if (shardCount > 0) {
+            // The pollers of the shards select the listening sockets
+            shardSocks = new ServerSocketChannel[shardCount];
+            shardSocks[0] = serverSock;
+            // All the shards listen on the port of the first, which may be
+            // an ephemeral port
+            InetSocketAddress shardAddr = new InetSocketAddress(
+                    addr.getAddress(), serverSock.socket().getLocalPort());
+            for (int i = 1; i < shardCount; i++) {
+                if (shardSockets) {
+                    shardSocks[i] = ServerSocketChannel.open();
+                    socketProperties.setProperties(shardSocks[i].socket());
+                    setReusePort(shardSocks[i]);
+                    shardSocks[i].socket().bind(shardAddr, getBacklog());
+                    shardSocks[i].configureBlocking(false);
+                } else {
+                    shardSocks[i] = serverSock;
+                }
+            }
+            serverSock.configureBlocking(false);
+        } else {
+            serverSock.configureBlocking(true); //mimic APR behavior
+            serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
@@ -483,7 +573,8 @@ public class NioEndpoint extends AbstractEndpoint {
             //minimum one poller thread
             pollerThreadCount = 1;
         }
-        stopLatch = new CountDownLatch(pollerThreadCount);
+        stopLatch = new CountDownLatch(
+                shardCount > 0 ? shardCount : pollerThreadCount);
 
         // Initialize SSL if needed
         if (isSSLEnabled()) {
@@ -505,6 +596,39 @@ public class NioEndpoint extends AbstractEndpoint {
 
         if (oomParachute>0) reclaimParachute(true);
         selectorPool.open();
+
+        if (socketProperties.getSlabPool()) {
+            String sizes = socketProperties.getSlabSizeClasses();
+            slabPool = new SlabBufferPool(sizes == null ?
+                    new int[] {socketProperties.getAppReadBufSize(),
+                            socketProperties.getAppWriteBufSize()} :
+                    SlabBufferPool.parseSizes(sizes),
+                    socketProperties.getSlabSize(),
+                    socketProperties.getSlabPoolSize());
+        }
+    }
+
+    /**
+     * Sets SO_REUSEPORT, which is only available on Java 9 and later.
+     *
+     * @return <code>true</code> if the option has been set
+     */
+    private boolean setReusePort(ServerSocketChannel ssc) {
+        try {
+            Object option = Class.forName("java.net.StandardSocketOptions")
+                    .getField("SO_REUSEPORT").get(null);
+            Method setOption = ServerSocketChannel.class.getMethod(
+                    "setOption", Class.forName("java.net.SocketOption"),
+                    Object.class);
+            setOption.invoke(ssc, option, Boolean.TRUE);
+            return true;
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("endpoint.nio.reusePortUnsupported",
+                        Integer.valueOf(shardCount)), e);
+            }
+            return false;
+        }
     }
 
     public KeyManager[] wrap(KeyManager[] managers) {
@@ -538,6 +662,20 @@ public class NioEndpoint extends AbstractEndpoint {
 
             initializeConnectionLatch();
 
+            if (shardCount > 0) {
+                // Start shard threads, the pollers accept the connections
+                pollers = new Poller[shardCount];
+                for (int i=0; i<pollers.length; i++) {
+                    pollers[i] = new Poller(shardSocks[i]);
+                    Thread pollerThread = new Thread(pollers[i], getName() + "-Shard-"+i);
+                    pollerThread.setPriority(threadPriority);
+                    pollerThread.setDaemon(true);
+                    pollerThread.start();
+                }
+                acceptors = new Acceptor[0];
+                return;
+            }
+
             // Start poller threads
             pollers = new Poller[getPollerThreadCount()];
             for (int i=0; i<pollers.length; i++) {
@@ -553,6 +691,17 @@ public class NioEndpoint extends AbstractEndpoint {
     }
 
 
+    /**
+     * Resume the endpoint. The shards are woken up so that they select their
+     * listening socket again.
+     */
+    @Override
+    public void resume() {
+        super.resume();
+        wakeupShards(false);
+    }
+
+
     /**
      * Stop the endpoint. This will cause all processing threads to stop.
      */
@@ -596,12 +745,19 @@ public class NioEndpoint extends AbstractEndpoint {
             stop();
         }
         // Close server socket
+        for (int i = 1; shardSocks != null && i < shardSocks.length; i++) {
+            if (shardSocks[i] != serverSock) {
+                shardSocks[i].close();
+            }
+        }
+        shardSocks = null;
         serverSock.socket().close();
         serverSock.close();
         serverSock = null;
         sslContext = null;
         releaseCaches();
         selectorPool.close();
+        slabPool = null;
         if (log.isDebugEnabled()) {
             log.debug("Destroy completed for "+new InetSocketAddress(getAddress(),getPort()));
         }
@@ -611,6 +767,41 @@ public class NioEndpoint extends AbstractEndpoint {
     // ------------------------------------------------------ Protected Methods
 
 
+    /**
+     * Closing a connection releases a permit, the shards waiting for one are
+     * woken up rather than left until their next selector timeout.
+     */
+    @Override
+    protected long countDownConnection() {
+        long result = super.countDownConnection();
+        if (result >= 0) {
+            wakeupShards(true);
+        }
+        return result;
+    }
+
+
+    /**
+     * Wake up the pollers of the shards, if any.
+     *
+     * @param waitingOnly <code>true</code> to only wake up the shards that
+     *                    wait for a connection to be closed
+     */
+    protected void wakeupShards(boolean waitingOnly) {
+        Poller[] pollers = this.pollers;
+        if (shardCount == 0 || pollers == null) {
+            return;
+        }
+        for (int i = 0; i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            if (poller != null &&
+                    (!waitingOnly || poller.acceptSuspendedUntil == 0)) {
+                poller.wakeupAccept();
+            }
+        }
+    }
+
+
     public int getWriteBufSize() {
         return socketProperties.getTxBufSize();
     }
@@ -623,6 +814,42 @@ public class NioEndpoint extends AbstractEndpoint {
         return selectorPool;
     }
 
+    public SlabBufferPool getSlabPool() {
+        return slabPool;
+    }
+
+    /**
+     * Bytes of direct memory allocated by the shared buffer pool.
+     */
+    public long getSlabPoolAllocatedBytes() {
+        SlabBufferPool pool = slabPool;
+        return pool == null ? 0 : pool.getAllocatedBytes();
+    }
+
+    /**
+     * Buffers of the shared buffer pool currently used by connections.
+     */
+    public int getSlabPoolBorrowedCount() {
+        SlabBufferPool pool = slabPool;
+        return pool == null ? 0 : pool.getBorrowedCount();
+    }
+
+    /**
+     * Buffers of the shared buffer pool available for connections.
+     */
+    public int getSlabPoolFreeCount() {
+        SlabBufferPool pool = slabPool;
+        return pool == null ? 0 : pool.getFreeCount();
+    }
+
+    /**
+     * Buffer requests the shared buffer pool could not serve from its slabs.
+     */
+    public long getSlabPoolOverflowCount() {
+        SlabBufferPool pool = slabPool;
+        return pool == null ? 0 : pool.getOverflowCount();
+    }
+
     @Override
     public boolean getUseSendfile() {
         return useSendfile;
@@ -647,6 +874,17 @@ public class NioEndpoint extends AbstractEndpoint {
      * Process the specified connection.
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, null);
+    }
+
+    /**
+     * Process the specified connection.
+     *
+     * @param socket The connection
+     * @param poller The poller of the connection, the next one in turn if
+     *               <code>null</code>
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -664,6 +902,13 @@ public class NioEndpoint extends AbstractEndpoint {
                                                                        Math.max(appbufsize,socketProperties.getAppWriteBufSize()),
                                                                        socketProperties.getDirectBuffer());
                     channel = new SecureNioChannel(socket, engine, bufhandler, selectorPool);
+                } else if (slabPool != null) {
+                    // normal tcp setup, buffers borrowed when needed
+                    PooledBufferHandler bufhandler = new PooledBufferHandler(slabPool,
+                                                                             socketProperties.getAppReadBufSize(),
+                                                                             socketProperties.getAppWriteBufSize());
+
+                    channel = new NioChannel(socket, bufhandler);
                 } else {
                     // normal tcp setup
                     NioBufferHandler bufhandler = new NioBufferHandler(socketProperties.getAppReadBufSize(),
@@ -681,7 +926,7 @@ public class NioEndpoint extends AbstractEndpoint {
                     channel.reset();
                 }
             }
-            getPoller0().register(channel);
+            (poller != null ? poller : getPoller0()).register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -952,17 +1197,62 @@ public class NioEndpoint extends AbstractEndpoint {
 
         protected volatile int keyCount = 0;
 
+        /**
+         * The listening socket of the shard, <code>null</code> if the
+         * connections are accepted by the acceptor threads.
+         */
+        protected final ServerSocketChannel acceptSock;
+        protected SelectionKey acceptKey = null;
+
+        /**
+         * Accepting has been suspended, because of the maximum number of
+         * connections or of an error, until that time.
+         */
+        protected volatile long acceptSuspendedUntil = -1;
+
+        /**
+         * The listening socket is not selected while the endpoint is paused,
+         * so that the connections wait in the backlog.
+         */
+        protected boolean acceptPaused = false;
+
+        // Statistics
+        protected volatile long acceptCount = 0;
+        protected volatile long eventCount = 0;
+        protected AtomicLong wakeupCount = new AtomicLong(0l);
+        protected volatile long selectCount = 0;
+
         public Poller() throws IOException {
+            this(null);
+        }
+
+        /**
+         * @param acceptSock The listening socket of the shard if the poller
+         *                   accepts its own connections
+         */
+        public Poller(ServerSocketChannel acceptSock) throws IOException {
             synchronized (Selector.class) {
                 // Selector.open() isn't thread safe
                 // http://bugs.sun.com/view_bug.do?bug_id=6427854
                 // Affects 1.6.0_29, fixed in 1.7.0_01
                 this.selector = Selector.open();
             }
+            this.acceptSock = acceptSock;
+            if (acceptSock != null) {
+                acceptKey = acceptSock.register(selector, SelectionKey.OP_ACCEPT);
+            }
         }
 
         public int getKeyCount() { return keyCount; }
 
+        public long getAcceptCount() { return acceptCount; }
+
+        public long getEventCount() { return eventCount; }
+
+        public long getWakeupCount() { return wakeupCount.get(); }
+
+        public long getSelectCount() { return selectCount; }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -983,7 +1273,10 @@ public class NioEndpoint extends AbstractEndpoint {
         @Deprecated
         public void addEvent(Runnable event) {
             events.offer(event);
-            if ( wakeupCounter.incrementAndGet() == 0 ) selector.wakeup();
+            if ( wakeupCounter.incrementAndGet() == 0 ) {
+                wakeupCount.incrementAndGet();
+                selector.wakeup();
+            }
         }
 
         /**
@@ -1034,6 +1327,7 @@ public class NioEndpoint extends AbstractEndpoint {
             Runnable r = null;
             while ( (r = events.poll()) != null ) {
                 result = true;
+                eventCount++;
                 try {
                     r.run();
                     if ( r instanceof PollerEvent ) {
@@ -1048,6 +1342,86 @@ public class NioEndpoint extends AbstractEndpoint {
             return result;
         }
 
+        /**
+         * Accepts the pending connections of the shard. They are registered
+         * with this poller without waking it up, since it is the current
+         * thread.
+         */
+        protected void accept() {
+            for (int i = 0; i < MAX_ACCEPT_BATCH; i++) {
+                if (paused) {
+                    if (!acceptPaused) {
+                        setAcceptPaused(true);
+                    }
+                    return;
+                }
+                if (!tryCountUpConnection()) {
+                    // Retried on each loop until a connection closes
+                    suspendAccept(0);
+                    return;
+                }
+                SocketChannel socket = null;
+                try {
+                    socket = acceptSock.accept();
+                } catch (IOException ioe) {
+                    countDownConnection();
+                    if (running) {
+                        log.error(sm.getString("endpoint.accept.fail"), ioe);
+                    }
+                    // Do not retry in a tight loop, if the ulimit for open
+                    // files has been reached for instance
+                    suspendAccept(System.currentTimeMillis() + 1000);
+                    return;
+                }
+                if (acceptSuspendedUntil >= 0) {
+                    acceptSuspendedUntil = -1;
+                    acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+                if (socket == null) {
+                    // No more pending connection, or another shard that
+                    // shares the socket got it
+                    countDownConnection();
+                    return;
+                }
+                acceptCount++;
+                if (running && !paused) {
+                    if (!setSocketOptions(socket, this)) {
+                        countDownConnection();
+                        closeSocket(socket);
+                    }
+                } else {
+                    countDownConnection();
+                    closeSocket(socket);
+                }
+            }
+        }
+
+        private void suspendAccept(long until) {
+            if (acceptSuspendedUntil < 0) {
+                acceptKey.interestOps(0);
+            }
+            acceptSuspendedUntil = until;
+        }
+
+        private void setAcceptPaused(boolean acceptPaused) {
+            this.acceptPaused = acceptPaused;
+            if (acceptSuspendedUntil < 0) {
+                acceptKey.interestOps(
+                        acceptPaused ? 0 : SelectionKey.OP_ACCEPT);
+            }
+        }
+
+        /**
+         * Wake up the poller of a shard so that it accepts again, once the
+         * endpoint has been resumed or a connection has been closed.
+         */
+        protected void wakeupAccept() {
+            if ( wakeupCounter.incrementAndGet() == 0 ) {
+                wakeupCount.incrementAndGet();
+                selector.wakeup();
+            }
+        }
+
         public void register(final NioChannel socket) {
             socket.setPoller(this);
             KeyAttachment key = keyCache.poll();
@@ -1111,6 +1485,11 @@ public class NioEndpoint extends AbstractEndpoint {
                 } catch (Exception ignore) {
                 }
                 if (ka!=null) {
+                    // Whatever the reason of the close, the pooled buffers
+                    // must go back to the pool
+                    if (ka.getSocket() != null) {
+                        ka.getSocket().releaseBuffers(true);
+                    }
                     ka.reset();
                     countDownConnection();
                 }
@@ -1153,8 +1532,16 @@ public class NioEndpoint extends AbstractEndpoint {
                     } else {
                         hasEvents = events();
                     }
+                    if (acceptKey != null && acceptPaused != paused) {
+                        setAcceptPaused(paused);
+                    }
+                    if (acceptSuspendedUntil >= 0 &&
+                            System.currentTimeMillis() >= acceptSuspendedUntil) {
+                        accept();
+                    }
                     try {
                         if ( !close ) {
+                            selectCount++;
                             if (wakeupCounter.getAndSet(-1) > 0) {
                                 //if we are here, means we have other stuff to do
                                 //do a non blocking select
@@ -1204,6 +1591,9 @@ public class NioEndpoint extends AbstractEndpoint {
                         // cancelledKey()
                         if (attachment == null) {
                             iterator.remove();
+                            if (sk == acceptKey) {
+                                accept();
+                            }
                         } else {
                             attachment.access();
                             iterator.remove();
@@ -1304,8 +1694,8 @@ public class NioEndpoint extends AbstractEndpoint {
                     log.trace("Processing send file for: " + sd.fileName);
                 }
 
-                //setup the file channel
-                if ( sd.fchannel == null ) {
+                //setup the file channel unless the content is already in memory
+                if ( sd.buffer == null && sd.fchannel == null ) {
                     File f = new File(sd.fileName);
                     if ( !f.exists() ) {
                         cancelledKey(sk,SocketStatus.ERROR,false);
@@ -1327,6 +1717,13 @@ public class NioEndpoint extends AbstractEndpoint {
                     if (sc.flushOutbound()) {
                         attachment.access();
                     }
+                } else if (sd.buffer != null) {
+                    int written = wc.write(sd.buffer);
+                    if ( written > 0 ) {
+                        sd.pos += written;
+                        sd.length -= written;
+                        attachment.access();
+                    }
                 } else {
                     long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
                     if ( written > 0 ) {
@@ -1347,9 +1744,11 @@ public class NioEndpoint extends AbstractEndpoint {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
                     attachment.setSendfileData(null);
-                    try {
-                        sd.fchannel.close();
-                    } catch (Exception ignore) {
+                    if (sd.fchannel != null) {
+                        try {
+                            sd.fchannel.close();
+                        } catch (Exception ignore) {
+                        }
                     }
                     if ( sd.keepAlive ) {
                             if (log.isDebugEnabled()) {
@@ -1422,7 +1821,9 @@ public class NioEndpoint extends AbstractEndpoint {
                 keycount++;
                 try {
                     KeyAttachment ka = (KeyAttachment) key.attachment();
-                    if ( ka == null ) {
+                    if ( key == acceptKey ) {
+                        // The listening socket of the shard
+                    } else if ( ka == null ) {
                         cancelledKey(key, SocketStatus.ERROR,false); //we don't support any keys without attachments
                     } else if ( ka.getError() ) {
                         cancelledKey(key, SocketStatus.ERROR,true);//TODO this is not yet being used
@@ -1620,6 +2021,74 @@ public class NioEndpoint extends AbstractEndpoint {
 
     }
 
+    /**
+     * Application buffer handler that borrows its buffers from a shared pool
+     * the first time they are used and returns them when the connection is
+     * idle, so that idle keep-alive connections do not hold any buffer.
+     */
+    public static class PooledBufferHandler implements ApplicationBufferHandler {
+        protected final SlabBufferPool pool;
+        protected final int readsize;
+        protected final int writesize;
+        protected ByteBuffer readbuf = null;
+        protected ByteBuffer writebuf = null;
+
+        public PooledBufferHandler(SlabBufferPool pool, int readsize, int writesize) {
+            this.pool = pool;
+            this.readsize = readsize;
+            this.writesize = writesize;
+        }
+
+        @Override
+        public ByteBuffer expand(ByteBuffer buffer, int remaining) {return buffer;}
+
+        @Override
+        public ByteBuffer getReadBuffer() {
+            if (readbuf == null) readbuf = pool.allocate(readsize);
+            return readbuf;
+        }
+
+        @Override
+        public ByteBuffer getWriteBuffer() {
+            if (writebuf == null) writebuf = pool.allocate(writesize);
+            return writebuf;
+        }
+
+        /**
+         * Return the number of bytes of the buffers currently borrowed.
+         */
+        public int getBorrowedSize() {
+            int size = 0;
+            if (readbuf != null) size += readbuf.capacity();
+            if (writebuf != null) size += writebuf.capacity();
+            return size;
+        }
+
+        /**
+         * Return the buffers to the pool. Unless forced, a buffer is only
+         * returned if it holds no data, i.e. the read buffer has been
+         * consumed and the write buffer is clear.
+         *
+         * @param force <code>true</code> when the connection is closed
+         */
+        public synchronized void release(boolean force) {
+            if (readbuf != null && (force || !readbuf.hasRemaining() || isClear(readbuf))) {
+                ByteBuffer buffer = readbuf;
+                readbuf = null;
+                pool.release(buffer);
+            }
+            if (writebuf != null && (force || isClear(writebuf))) {
+                ByteBuffer buffer = writebuf;
+                writebuf = null;
+                pool.release(buffer);
+            }
+        }
+
+        private static boolean isClear(ByteBuffer buffer) {
+            return buffer.position() == 0 && buffer.limit() == buffer.capacity();
+        }
+    }
+
     // ------------------------------------------------ Handler Inner Interface
 
 
@@ -1725,6 +2194,7 @@ public class NioEndpoint extends AbstractEndpoint {
                         try {
                             if (ka!=null) ka.setComet(false);
                             socket.getPoller().cancelledKey(key, SocketStatus.ERROR, false);
+                            socket.releaseBuffers(true);
                             if (running && !paused) {
                                 nioChannels.offer(socket);
                             }
@@ -1741,6 +2211,7 @@ public class NioEndpoint extends AbstractEndpoint {
                     if (key != null) {
                         socket.getPoller().cancelledKey(key, SocketStatus.DISCONNECT, false);
                     }
+                    socket.releaseBuffers(true);
                     nioChannels.offer(socket);
                     socket = null;
                     if ( ka!=null ) keyCache.offer(ka);
@@ -1802,6 +2273,9 @@ public class NioEndpoint extends AbstractEndpoint {
         // File
         public String fileName;
         public FileChannel fchannel;
+        // Content of the file, if available in memory, positioned and limited
+        // to the part of the file to send
+        public ByteBuffer buffer;
         public long pos;
         public long length;
         // KeepAlive flag
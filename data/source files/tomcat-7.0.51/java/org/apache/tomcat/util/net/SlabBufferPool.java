@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffers carved out of large slabs of direct memory.
+ * <p>
+ * The pool serves a fixed set of buffer sizes, the size classes. A request is
+ * served by the smallest size class that fits it. When the free list of a size
+ * class is empty, a new slab is allocated and sliced into buffers of that
+ * class. Once the slabs reach the maximum size of the pool, or if no size
+ * class fits a request, buffers are allocated on the heap and are not pooled.
+ * Slabs are never freed, the memory of the pool is therefore the peak of the
+ * buffers in use at the same time.
+ */
+public class SlabBufferPool {
+
+    private final SizeClass[] sizeClasses;
+    private final int slabSize;
+    private final long maxSize;
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicInteger borrowedCount = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+
+    /**
+     * @param sizes     The buffer sizes served by the pool
+     * @param slabSize  The size in bytes of the slabs. A slab holds at least
+     *                  one buffer.
+     * @param maxSize   The maximum number of bytes of slabs to allocate, or
+     *                  -1 for no limit
+     */
+    public SlabBufferPool(int[] sizes, int slabSize, long maxSize) {
+        int[] sorted = sizes.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] > 0 && (count == 0 || sorted[count - 1] != sorted[i])) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(sorted[i]);
+        }
+        this.slabSize = slabSize;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Parse a comma separated list of buffer sizes.
+     *
+     * @exception IllegalArgumentException if a size is not a positive integer
+     */
+    public static int[] parseSizes(String sizes) {
+        String[] values = sizes.split(",");
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i].trim());
+            if (result[i] <= 0) {
+                throw new IllegalArgumentException(sizes);
+            }
+        }
+        return result;
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * Return the buffer sizes served by the pool, in ascending order.
+     */
+    public int[] getSizeClasses() {
+        int[] result = new int[sizeClasses.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizeClasses[i].size;
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the number of bytes of slabs allocated so far.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+
+    /**
+     * Return the number of pooled buffers currently lent.
+     */
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+
+    /**
+     * Return the total number of buffers requested from the pool.
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+
+    /**
+     * Return the total number of requests served by an unpooled buffer.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+
+    /**
+     * Return the number of buffers available, for all size classes.
+     */
+    public int getFreeCount() {
+        int result = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            result += sizeClass.freeCount.get();
+        }
+        return result;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Borrow a buffer with a capacity of at least the given size. The buffer
+     * is cleared.
+     */
+    public ByteBuffer allocate(int size) {
+        borrowCount.incrementAndGet();
+        SizeClass sizeClass = findSizeClass(size, false);
+        if (sizeClass != null) {
+            ByteBuffer buffer = sizeClass.poll();
+            if (buffer == null) {
+                buffer = allocateSlab(sizeClass);
+            }
+            if (buffer != null) {
+                borrowedCount.incrementAndGet();
+                return buffer;
+            }
+        }
+        overflowCount.incrementAndGet();
+        return ByteBuffer.allocate(size);
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #allocate(int)}. The buffer must not
+     * be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            // Unpooled buffer
+            return;
+        }
+        SizeClass sizeClass = findSizeClass(buffer.capacity(), true);
+        if (sizeClass != null) {
+            borrowedCount.decrementAndGet();
+            buffer.clear();
+            sizeClass.offer(buffer);
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private SizeClass findSizeClass(int size, boolean exact) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass.size >= size) {
+                return (!exact || sizeClass.size == size) ? sizeClass : null;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Allocate a slab for the given size class, keep one of its buffers and
+     * add the others to the free list.
+     */
+    private ByteBuffer allocateSlab(SizeClass sizeClass) {
+        int count = Math.max(1, slabSize / sizeClass.size);
+        long bytes = (long) count * sizeClass.size;
+        long allocated;
+        do {
+            allocated = allocatedBytes.get();
+            if (maxSize >= 0 && allocated + bytes > maxSize) {
+                return null;
+            }
+        } while (!allocatedBytes.compareAndSet(allocated, allocated + bytes));
+
+        ByteBuffer slab = ByteBuffer.allocateDirect((int) bytes);
+        ByteBuffer result = null;
+        for (int i = 0; i < count; i++) {
+            slab.limit((i + 1) * sizeClass.size);
+            slab.position(i * sizeClass.size);
+            ByteBuffer buffer = slab.slice();
+            if (result == null) {
+                result = buffer;
+            } else {
+                sizeClass.offer(buffer);
+            }
+        }
+        return result;
+    }
+
+
+    private static final class SizeClass {
+
+        final int size;
+        final ConcurrentLinkedQueue<ByteBuffer> free =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+        final AtomicInteger freeCount = new AtomicInteger();
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                freeCount.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        void offer(ByteBuffer buffer) {
+            free.offer(buffer);
+            freeCount.incrementAndGet();
+        }
+    }
+}
@@ -101,6 +101,35 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Enable/disable borrowing the application buffers of non secure
+     * channels from a shared pool of direct memory slabs, only while the
+     * channel is being processed, rather than allocating them per channel
+     * Default is disabled
+     */
+    protected boolean slabPool = false;
+
+    /**
+     * Size in bytes of the slabs of the shared buffer pool
+     * Default value is 1MB (1024*1024 bytes)
+     */
+    protected int slabSize = 1024*1024;
+
+    /**
+     * Maximum size in bytes of the slabs of the shared buffer pool. Buffers
+     * requested beyond that are allocated on the heap and not pooled.
+     * -1 means unlimited
+     * Default value is 100MB (1024*1024*100 bytes)
+     */
+    protected int slabPoolSize = 1024*1024*100;
+
+    /**
+     * Comma separated list of the buffer sizes in bytes served by the shared
+     * buffer pool
+     * Default value is the application read and write buffer sizes
+     */
+    protected String slabSizeClasses = null;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -275,6 +304,22 @@ public class SocketProperties {
         return bufferPoolSize;
     }
 
+    public boolean getSlabPool() {
+        return slabPool;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public int getSlabPoolSize() {
+        return slabPoolSize;
+    }
+
+    public String getSlabSizeClasses() {
+        return slabSizeClasses;
+    }
+
     public int getEventCache() {
         return eventCache;
     }
@@ -364,6 +409,22 @@ public class SocketProperties {
         this.bufferPoolSize = bufferPoolSize;
     }
 
+    public void setSlabPool(boolean slabPool) {
+        this.slabPool = slabPool;
+    }
+
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    public void setSlabPoolSize(int slabPoolSize) {
+        this.slabPoolSize = slabPoolSize;
+    }
+
+    public void setSlabSizeClasses(String slabSizeClasses) {
+        this.slabSizeClasses = slabSizeClasses;
+    }
+
     public void setEventCache(int eventCache) {
         this.eventCache = eventCache;
     }
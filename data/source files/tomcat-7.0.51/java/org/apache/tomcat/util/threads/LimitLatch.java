@@ -115,6 +115,14 @@ public class LimitLatch {
         sync.acquireSharedInterruptibly(1);
     }
 
+    /**
+     * Acquires a shared latch if one is available without waiting.
+     * @return <code>true</code> if a shared latch has been acquired
+     */
+    public boolean tryCountUp() {
+        return sync.tryAcquireShared(1) >= 0;
+    }
+
     /**
      * Releases a shared latch, making it available for another thread to use.
      * @return the previous counter value
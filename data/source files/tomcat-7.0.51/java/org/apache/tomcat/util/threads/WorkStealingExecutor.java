@@ -0,0 +1,631 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Thread pool that spreads the submitted tasks over several queues instead of
+ * a single blocking queue. A task is added to the queue of the submitting
+ * thread, so that each poller of a connector mostly uses its own queue, and an
+ * idle worker is woken directly. Workers take tasks from their own queue first
+ * and steal from the other queues when it is empty.
+ * <p>
+ * Threads are created when a task is submitted and no worker is idle, up to
+ * the maximum pool size, and the threads above the core pool size exit after
+ * being idle for the keep alive time. Like {@link ThreadPoolExecutor}, the
+ * threads are renewed after a context has been stopped.
+ */
+public class WorkStealingExecutor extends AbstractExecutorService {
+
+    protected static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    private static final Log log = LogFactory.getLog(WorkStealingExecutor.class);
+
+    private final ThreadFactory threadFactory;
+    private final ConcurrentLinkedQueue<Runnable>[] queues;
+    private final int maxQueueSize;
+
+    private volatile int corePoolSize;
+    private volatile int maximumPoolSize;
+    private volatile long keepAliveTime;
+
+    private final Set<Worker> workers = Collections.newSetFromMap(
+            new ConcurrentHashMap<Worker,Boolean>());
+    private final ConcurrentLinkedQueue<Worker> idleWorkers =
+        new ConcurrentLinkedQueue<Worker>();
+    private final AtomicInteger poolSize = new AtomicInteger(0);
+    private final AtomicInteger largestPoolSize = new AtomicInteger(0);
+    private final AtomicInteger workerNumber = new AtomicInteger(0);
+
+    /**
+     * Number of tasks waiting in the queues. Only maintained when the size of
+     * the queues is bounded.
+     */
+    private final AtomicInteger queued = new AtomicInteger(0);
+
+    /**
+     * Tasks completed by the workers that have exited.
+     */
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+
+    private volatile boolean shutdown = false;
+    private final ReentrantLock terminationLock = new ReentrantLock();
+    private final Condition termination = terminationLock.newCondition();
+
+    private final AtomicLong lastContextStoppedTime = new AtomicLong(0L);
+    private final AtomicLong lastTimeThreadKilledItself = new AtomicLong(0L);
+    private volatile long threadRenewalDelay =
+        Constants.DEFAULT_THREAD_RENEWAL_DELAY;
+
+
+    /**
+     * @param corePoolSize    The number of threads kept when idle
+     * @param maximumPoolSize The maximum number of threads
+     * @param keepAliveTime   The time the threads above the core pool size
+     *                        are kept when idle
+     * @param unit            The unit of the keep alive time
+     * @param queues          The number of queues, the number of available
+     *                        processors if zero or negative
+     * @param maxQueueSize    The maximum number of tasks waiting for a thread
+     * @param threadFactory   The factory of the worker threads
+     */
+    public WorkStealingExecutor(int corePoolSize, int maximumPoolSize,
+            long keepAliveTime, TimeUnit unit, int queues, int maxQueueSize,
+            ThreadFactory threadFactory) {
+        if (corePoolSize < 0 || maximumPoolSize <= 0 ||
+                maximumPoolSize < corePoolSize || keepAliveTime < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (queues <= 0) {
+            queues = Runtime.getRuntime().availableProcessors();
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedQueue<Runnable>[] q = new ConcurrentLinkedQueue[queues];
+        this.queues = q;
+        for (int i = 0; i < queues; i++) {
+            this.queues[i] = new ConcurrentLinkedQueue<Runnable>();
+        }
+        this.corePoolSize = corePoolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.keepAliveTime = unit.toNanos(keepAliveTime);
+        this.maxQueueSize = maxQueueSize;
+        this.threadFactory = threadFactory;
+    }
+
+
+    // ------------------------------------------------------------- Execution
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(
+                    sm.getString("workStealingExecutor.shutdown"));
+        }
+        boolean bounded = maxQueueSize < Integer.MAX_VALUE;
+        if (bounded && queued.incrementAndGet() > maxQueueSize &&
+                poolSize.get() >= maximumPoolSize) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException(
+                    sm.getString("workStealingExecutor.queueFull"));
+        }
+
+        queues[(int) (Thread.currentThread().getId() % queues.length)].offer(
+                command);
+
+        // The task must be queued before looking for an idle worker: a worker
+        // that is becoming idle registers itself before checking the queues
+        // one last time, so one of the two always sees the other
+        Worker idle;
+        while ((idle = idleWorkers.poll()) != null) {
+            if (idle.idle.compareAndSet(true, false)) {
+                LockSupport.unpark(idle.thread);
+                return;
+            }
+        }
+        if (poolSize.get() < maximumPoolSize) {
+            addWorker();
+        }
+    }
+
+
+    /**
+     * Executes the given command, waiting for the specified time if the
+     * queues are full.
+     *
+     * @throws RejectedExecutionException if the queues are still full after
+     *         the timeout
+     */
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            try {
+                execute(command);
+                return;
+            } catch (RejectedExecutionException rx) {
+                if (shutdown || System.nanoTime() - deadline >= 0) {
+                    throw rx;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                if (Thread.interrupted()) {
+                    throw new RejectedExecutionException(
+                            new InterruptedException());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Starts all the core threads.
+     */
+    public void prestartAllCoreThreads() {
+        while (poolSize.get() < corePoolSize && addWorker()) {
+            // NOOP
+        }
+    }
+
+
+    private boolean addWorker() {
+        while (true) {
+            int size = poolSize.get();
+            if (size >= maximumPoolSize || shutdown) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size + 1)) {
+                int largest;
+                while ((largest = largestPoolSize.get()) < size + 1 &&
+                        !largestPoolSize.compareAndSet(largest, size + 1)) {
+                    // NOOP
+                }
+                break;
+            }
+        }
+        Worker worker = new Worker(workerNumber.getAndIncrement());
+        Thread t = null;
+        try {
+            t = threadFactory.newThread(worker);
+        } finally {
+            if (t == null) {
+                poolSize.decrementAndGet();
+            }
+        }
+        worker.thread = t;
+        workers.add(worker);
+        t.start();
+        return true;
+    }
+
+
+    /**
+     * @return the next task for a worker, from its own queue if possible
+     */
+    private Runnable poll(int home) {
+        int n = queues.length;
+        for (int i = 0; i < n; i++) {
+            Runnable task = queues[(home + i) % n].poll();
+            if (task != null) {
+                if (maxQueueSize < Integer.MAX_VALUE) {
+                    queued.decrementAndGet();
+                }
+                return task;
+            }
+        }
+        return null;
+    }
+
+
+    private boolean queuesEmpty() {
+        for (ConcurrentLinkedQueue<Runnable> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Removes an idle worker above the core pool size from the pool.
+     *
+     * @return <code>true</code> if the worker may exit
+     */
+    private boolean tryExit() {
+        while (true) {
+            int size = poolSize.get();
+            if (size <= corePoolSize && !shutdown) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size - 1)) {
+                break;
+            }
+        }
+        if (!shutdown && !queuesEmpty()) {
+            // A task was added while no worker was idle and the pool looked
+            // full: keep this worker
+            poolSize.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+
+    private void workerExited(Worker worker) {
+        workers.remove(worker);
+        completedTaskCount.addAndGet(worker.completedTasks);
+        if (!worker.removed) {
+            poolSize.decrementAndGet();
+        }
+        if (shutdown) {
+            if (poolSize.get() == 0) {
+                terminationLock.lock();
+                try {
+                    termination.signalAll();
+                } finally {
+                    terminationLock.unlock();
+                }
+            }
+        } else if (!worker.removed) {
+            // Replace a thread that failed or has been renewed
+            addWorker();
+        }
+    }
+
+
+    private class Worker implements Runnable {
+
+        private final int home;
+        private final AtomicBoolean idle = new AtomicBoolean(false);
+        private volatile Thread thread;
+        private volatile boolean running = false;
+        private volatile long completedTasks = 0;
+
+        /**
+         * The worker has exited after being idle and is no longer counted in
+         * the pool size.
+         */
+        private boolean removed = false;
+
+        Worker(int number) {
+            this.home = number % queues.length;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable task = poll(home);
+                    if (task == null) {
+                        task = waitForTask();
+                        if (task == null) {
+                            return;
+                        }
+                    }
+                    running = true;
+                    try {
+                        task.run();
+                    } finally {
+                        running = false;
+                        completedTasks++;
+                    }
+                    if (isStale() && shouldBeRenewed()) {
+                        return;
+                    }
+                }
+            } finally {
+                workerExited(this);
+            }
+        }
+
+        /**
+         * @return a task or <code>null</code> if the worker must exit
+         */
+        private Runnable waitForTask() {
+            idle.set(true);
+            idleWorkers.offer(this);
+            while (true) {
+                Runnable task = poll(home);
+                if (task != null) {
+                    // Either still idle or claimed by a submitter whose task
+                    // will be found on the next poll
+                    idle.set(false);
+                    return task;
+                }
+                if (!idle.get()) {
+                    // Claimed by a submitter but another worker has taken
+                    // the task
+                    idle.set(true);
+                    idleWorkers.offer(this);
+                    continue;
+                }
+                if (shutdown) {
+                    idle.set(false);
+                    return null;
+                }
+                long wait = keepAliveTime;
+                if (isStale()) {
+                    // Retry once the renewal delay has elapsed
+                    wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(
+                            Math.max(threadRenewalDelay, 1)));
+                }
+                long start = System.nanoTime();
+                LockSupport.parkNanos(WorkStealingExecutor.this, wait);
+                Thread.interrupted();
+                if (!idle.get()) {
+                    // Woken by a submitter
+                    continue;
+                }
+                boolean timedOut = System.nanoTime() - start >= keepAliveTime;
+                boolean stale = isStale();
+                if ((stale || (timedOut && poolSize.get() > corePoolSize)) &&
+                        idle.compareAndSet(true, false)) {
+                    // The worker claimed itself, so its entry may still be
+                    // queued
+                    idleWorkers.remove(this);
+                    if (stale && shouldBeRenewed()) {
+                        return null;
+                    }
+                    if (timedOut && tryExit()) {
+                        removed = true;
+                        return null;
+                    }
+                    idle.set(true);
+                    idleWorkers.offer(this);
+                }
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------ Thread renewal
+
+    public long getThreadRenewalDelay() {
+        return threadRenewalDelay;
+    }
+
+
+    public void setThreadRenewalDelay(long threadRenewalDelay) {
+        this.threadRenewalDelay = threadRenewalDelay;
+    }
+
+
+    /**
+     * Renews the threads of the pool, so that they do not keep references to
+     * the class loader of a stopped context.
+     */
+    public void contextStopping() {
+        lastContextStoppedTime.set(System.currentTimeMillis());
+        // Wake the idle threads so that they are renewed too
+        for (Worker worker : workers) {
+            Thread t = worker.thread;
+            if (t != null && worker.idle.get()) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the current thread has been created before
+     *         a context was stopped
+     */
+    private boolean isStale() {
+        if (threadRenewalDelay >= 0 &&
+                Thread.currentThread() instanceof TaskThread) {
+            TaskThread t = (TaskThread) Thread.currentThread();
+            return t.getCreationTime() < lastContextStoppedTime.get();
+        }
+        return false;
+    }
+
+
+    /**
+     * @return <code>true</code> if the current, stale, thread is the next one
+     *         to be renewed
+     */
+    private boolean shouldBeRenewed() {
+        long lastTime = lastTimeThreadKilledItself.get();
+        if (lastTime + threadRenewalDelay < System.currentTimeMillis() &&
+                lastTimeThreadKilledItself.compareAndSet(lastTime,
+                        System.currentTimeMillis() + 1)) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString(
+                        "threadPoolExecutor.threadStoppedToAvoidPotentialLeak",
+                        Thread.currentThread().getName()));
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    // ------------------------------------------------------------- Shutdown
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            Thread t = worker.thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (ConcurrentLinkedQueue<Runnable> queue : queues) {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                tasks.add(task);
+            }
+        }
+        for (Worker worker : workers) {
+            Thread t = worker.thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+        return tasks;
+    }
+
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && poolSize.get() == 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        terminationLock.lock();
+        try {
+            while (!isTerminated()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = termination.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+
+    // ----------------------------------------------------------- Properties
+
+    public int getCorePoolSize() {
+        return corePoolSize;
+    }
+
+
+    public void setCorePoolSize(int corePoolSize) {
+        this.corePoolSize = corePoolSize;
+    }
+
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+
+    public long getKeepAliveTime(TimeUnit unit) {
+        return unit.convert(keepAliveTime, TimeUnit.NANOSECONDS);
+    }
+
+
+    public void setKeepAliveTime(long time, TimeUnit unit) {
+        this.keepAliveTime = unit.toNanos(time);
+    }
+
+
+    public int getQueueCount() {
+        return queues.length;
+    }
+
+
+    // ----------------------------------------------------------- Statistics
+
+    public int getPoolSize() {
+        return poolSize.get();
+    }
+
+
+    public int getLargestPoolSize() {
+        return largestPoolSize.get();
+    }
+
+
+    public int getActiveCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            if (worker.running) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public long getCompletedTaskCount() {
+        long count = completedTaskCount.get();
+        for (Worker worker : workers) {
+            count += worker.completedTasks;
+        }
+        return count;
+    }
+
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ConcurrentLinkedQueue<Runnable> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+
+    /**
+     * @return the number of entries of the queue of idle workers
+     */
+    int getIdleWorkerEntries() {
+        return idleWorkers.size();
+    }
+}
@@ -40,6 +40,10 @@ public class Constants {
 
     // Buffers
     static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    // Maximum number of free message buffers of each size kept for reuse
+    static final int MESSAGE_BUFFER_POOL_SIZE = Integer.getInteger(
+            "org.apache.tomcat.websocket.MESSAGE_BUFFER_POOL_SIZE", 256)
+            .intValue();
 
     // Client connection
     public static final String HOST_HEADER_NAME = "Host";
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the buffers used to assemble incoming messages. The pool is shared
+ * by the sessions, which only hold message buffers while they receive a
+ * message, so that idle sessions do not hold any. The buffers are pooled by
+ * capacity and at most <code>maxIdle</code> free buffers of each capacity are
+ * kept, the others being left to the garbage collector.
+ */
+public class MessageBufferPool {
+
+    private final int maxIdle;
+
+    private final ConcurrentHashMap<Integer,BufferQueue<ByteBuffer>> byteBuffers
+            = new ConcurrentHashMap<Integer,BufferQueue<ByteBuffer>>();
+    private final ConcurrentHashMap<Integer,BufferQueue<CharBuffer>> charBuffers
+            = new ConcurrentHashMap<Integer,BufferQueue<CharBuffer>>();
+
+
+    public MessageBufferPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+
+    /**
+     * @return a cleared heap buffer of the given capacity
+     */
+    public ByteBuffer getByteBuffer(int capacity) {
+        ByteBuffer buffer = getQueue(byteBuffers, capacity).poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+        return buffer;
+    }
+
+
+    /**
+     * @return a cleared heap buffer of the given capacity
+     */
+    public CharBuffer getCharBuffer(int capacity) {
+        CharBuffer buffer = getQueue(charBuffers, capacity).poll();
+        if (buffer == null) {
+            buffer = CharBuffer.allocate(capacity);
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #getByteBuffer(int)} to the pool.
+     * The buffer must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        getQueue(byteBuffers, buffer.capacity()).offer(buffer, maxIdle);
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #getCharBuffer(int)} to the pool.
+     * The buffer must not be used afterwards.
+     */
+    public void release(CharBuffer buffer) {
+        buffer.clear();
+        getQueue(charBuffers, buffer.capacity()).offer(buffer, maxIdle);
+    }
+
+
+    /**
+     * @return the number of free buffers held by the pool
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (BufferQueue<ByteBuffer> queue : byteBuffers.values()) {
+            count += queue.size.get();
+        }
+        for (BufferQueue<CharBuffer> queue : charBuffers.values()) {
+            count += queue.size.get();
+        }
+        return count;
+    }
+
+
+    private static <T extends Buffer> BufferQueue<T> getQueue(
+            ConcurrentHashMap<Integer,BufferQueue<T>> queues, int capacity) {
+        Integer key = Integer.valueOf(capacity);
+        BufferQueue<T> queue = queues.get(key);
+        if (queue == null) {
+            queue = new BufferQueue<T>();
+            BufferQueue<T> existing = queues.putIfAbsent(key, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        return queue;
+    }
+
+
+    private static class BufferQueue<T extends Buffer> {
+
+        private final ConcurrentLinkedQueue<T> queue =
+                new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        private T poll() {
+            T buffer = queue.poll();
+            if (buffer != null) {
+                size.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        private void offer(T buffer, int maxIdle) {
+            if (size.incrementAndGet() > maxIdle) {
+                size.decrementAndGet();
+            } else {
+                queue.offer(buffer);
+            }
+        }
+    }
+}
@@ -42,9 +42,18 @@ public abstract class WsFrameBase {
     private static final StringManager sm =
             StringManager.getManager(Constants.PACKAGE_NAME);
 
+    // Message buffers are only held while a message is being received
+    private static final MessageBufferPool messageBufferPool =
+            new MessageBufferPool(Constants.MESSAGE_BUFFER_POOL_SIZE);
+
+    // Bytes of eight ASCII characters have no high bit set
+    private static final long NON_ASCII_BITS = 0x8080808080808080L;
+
     // Connection level attributes
     protected final WsSession wsSession;
     protected final byte[] inputBuffer;
+    // Used to read eight bytes at a time from the input buffer
+    private final ByteBuffer inputBufferView;
 
     // Attributes for control messages
     // Control messages can appear in the middle of other messages so need
@@ -73,6 +82,8 @@ public abstract class WsFrameBase {
     private int rsv = 0;
     private byte opCode = 0;
     private final byte[] mask = new byte[4];
+    // The mask repeated twice, to unmask eight bytes at a time
+    private long maskLong = 0;
     private int maskIndex = 0;
     private long payloadLength = 0;
     private long payloadWritten = 0;
@@ -86,10 +97,7 @@ public abstract class WsFrameBase {
     public WsFrameBase(WsSession wsSession) {
 
         inputBuffer = new byte[Constants.DEFAULT_BUFFER_SIZE];
-        messageBufferBinary =
-                ByteBuffer.allocate(wsSession.getMaxBinaryMessageBufferSize());
-        messageBufferText =
-                CharBuffer.allocate(wsSession.getMaxTextMessageBufferSize());
+        inputBufferView = ByteBuffer.wrap(inputBuffer);
         this.wsSession = wsSession;
     }
 
@@ -167,19 +175,13 @@ public abstract class WsFrameBase {
                     if (opCode == Constants.OPCODE_BINARY) {
                         // New binary message
                         textMessage = false;
-                        int size = wsSession.getMaxBinaryMessageBufferSize();
-                        if (size != messageBufferBinary.capacity()) {
-                            messageBufferBinary = ByteBuffer.allocate(size);
-                        }
+                        getMessageBuffers();
                         binaryMsgHandler = wsSession.getBinaryMessageHandler();
                         textMsgHandler = null;
                     } else if (opCode == Constants.OPCODE_TEXT) {
                         // New text message
                         textMessage = true;
-                        int size = wsSession.getMaxTextMessageBufferSize();
-                        if (size != messageBufferText.capacity()) {
-                            messageBufferText = CharBuffer.allocate(size);
-                        }
+                        getMessageBuffers();
                         binaryMsgHandler = null;
                         textMsgHandler = wsSession.getTextMessageHandler();
                     } else {
@@ -257,6 +259,8 @@ public abstract class WsFrameBase {
         }
         if (isMasked()) {
             System.arraycopy(inputBuffer, readPos, mask, 0, 4);
+            long maskInt = inputBufferView.getInt(readPos) & 0xFFFFFFFFL;
+            maskLong = (maskInt << 32) | maskInt;
             readPos += 4;
         }
         state = State.DATA;
@@ -385,7 +389,7 @@ public abstract class WsFrameBase {
 
     private boolean processDataText() throws IOException {
         // Copy the available data to the buffer
-        while (!appendPayloadToMessage(messageBufferBinary)) {
+        while (!appendPayloadToText()) {
             // Frame not complete - we ran out of something
             // Convert bytes to UTF-8
             messageBufferBinary.flip();
@@ -566,9 +570,52 @@ public abstract class WsFrameBase {
     }
 
 
+    private void getMessageBuffers() {
+        int size = wsSession.getMaxBinaryMessageBufferSize();
+        if (messageBufferBinary == null ||
+                size != messageBufferBinary.capacity()) {
+            if (messageBufferBinary != null) {
+                messageBufferPool.release(messageBufferBinary);
+            }
+            messageBufferBinary = messageBufferPool.getByteBuffer(size);
+        }
+        if (textMessage) {
+            size = wsSession.getMaxTextMessageBufferSize();
+            if (messageBufferText == null ||
+                    size != messageBufferText.capacity()) {
+                if (messageBufferText != null) {
+                    messageBufferPool.release(messageBufferText);
+                }
+                messageBufferText = messageBufferPool.getCharBuffer(size);
+            }
+        }
+    }
+
+
+    private void releaseMessageBuffers() {
+        if (messageBufferBinary != null) {
+            messageBufferPool.release(messageBufferBinary);
+            messageBufferBinary = null;
+        }
+        if (messageBufferText != null) {
+            messageBufferPool.release(messageBufferText);
+            messageBufferText = null;
+        }
+    }
+
+
     private void newMessage() {
-        messageBufferBinary.clear();
-        messageBufferText.clear();
+        if (readPos == writePos) {
+            // No more data for now, the session may stay idle for a while
+            releaseMessageBuffers();
+        } else {
+            if (messageBufferBinary != null) {
+                messageBufferBinary.clear();
+            }
+            if (messageBufferText != null) {
+                messageBufferText.clear();
+            }
+        }
         utf8DecoderMessage.reset();
         continuationExpected = false;
         newFrame();
@@ -629,19 +676,83 @@ public abstract class WsFrameBase {
     }
 
 
-    private boolean appendPayloadToMessage(ByteBuffer dest) {
-        if (isMasked()) {
-            while (payloadWritten < payloadLength && readPos < writePos &&
-                    dest.hasRemaining()) {
-                byte b = (byte) ((inputBuffer[readPos] ^ mask[maskIndex]) & 0xFF);
-                maskIndex++;
-                if (maskIndex == 4) {
-                    maskIndex = 0;
+    /**
+     * Append the payload to the text message. While no partial character is
+     * waiting in the binary buffer, the ASCII payload is unmasked, validated
+     * and decoded in a single pass, eight bytes at a time, and only the rest
+     * of the payload is left to the UTF-8 decoder.
+     */
+    private boolean appendPayloadToText() {
+        if (messageBufferBinary.position() == 0) {
+            appendAsciiPayloadToText();
+        }
+        return appendPayloadToMessage(messageBufferBinary);
+    }
+
+
+    private void appendAsciiPayloadToText() {
+        int toWrite = (int) Math.min(Math.min(
+                payloadLength - payloadWritten, writePos - readPos),
+                messageBufferText.remaining());
+        boolean masked = isMasked();
+        long wordMask = masked ? maskLong : 0;
+        char[] chars = messageBufferText.array();
+        int offset = messageBufferText.arrayOffset();
+        int charPos = offset + messageBufferText.position();
+        int start = readPos;
+        int end = readPos + toWrite;
+        while (readPos < end) {
+            if (maskIndex == 0 && end - readPos >= 8) {
+                long word = inputBufferView.getLong(readPos) ^ wordMask;
+                if ((word & NON_ASCII_BITS) != 0) {
+                    break;
+                }
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    chars[charPos++] = (char) ((word >>> shift) & 0x7F);
+                }
+                readPos += 8;
+            } else {
+                // Single bytes until the mask is aligned and at the end
+                int b = inputBuffer[readPos];
+                if (masked) {
+                    b ^= mask[maskIndex];
+                }
+                if ((b & 0x80) != 0) {
+                    break;
                 }
+                chars[charPos++] = (char) b;
                 readPos++;
-                payloadWritten++;
-                dest.put(b);
+                if (masked) {
+                    maskIndex = (maskIndex + 1) & 3;
+                }
             }
+        }
+        payloadWritten += readPos - start;
+        messageBufferText.position(charPos - offset);
+    }
+
+
+    private boolean appendPayloadToMessage(ByteBuffer dest) {
+        if (isMasked()) {
+            int toWrite = (int) Math.min(Math.min(
+                    payloadLength - payloadWritten, writePos - readPos),
+                    dest.remaining());
+            int end = readPos + toWrite;
+            // Unmask single bytes until the mask is aligned, then eight bytes
+            // at a time
+            while (maskIndex != 0 && readPos < end) {
+                dest.put((byte) (inputBuffer[readPos++] ^ mask[maskIndex]));
+                maskIndex = (maskIndex + 1) & 3;
+            }
+            while (end - readPos >= 8) {
+                dest.putLong(inputBufferView.getLong(readPos) ^ maskLong);
+                readPos += 8;
+            }
+            while (readPos < end) {
+                dest.put((byte) (inputBuffer[readPos++] ^ mask[maskIndex]));
+                maskIndex = (maskIndex + 1) & 3;
+            }
+            payloadWritten += toWrite;
             return (payloadWritten == payloadLength);
         } else {
             long toWrite = Math.min(
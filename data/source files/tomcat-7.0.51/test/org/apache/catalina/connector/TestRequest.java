@@ -26,8 +26,11 @@ import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 import javax.servlet.ServletException;
@@ -53,6 +56,8 @@ import org.apache.catalina.startup.TestTomcat.MapRealm;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.MultipartParser;
 
 /**
  * Test case for {@link Request}.
@@ -465,6 +470,120 @@ public class TestRequest extends TomcatBaseTest {
         */
     }
 
+    @Test
+    public void testLazyParameterParsing() throws Exception {
+        Bug48692Client client = new Bug48692Client();
+        getTomcatInstance().getConnector().setLazyParameterParsing(true);
+
+        // Small body, indexed
+        client.doRequest("POST", "foo=bar&bar=foo",
+                "application/x-www-form-urlencoded", "bar=baz&foo=%62az", true);
+        assertTrue(client.isResponse200());
+        assertEquals("bar=baz,bar=foo,foo=bar,foo=baz",
+                client.getResponseBody());
+
+        client.reset();
+
+        // Large body, parsed as it is read, with a value that does not fit in
+        // the buffer
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            big.append((char) ('a' + i % 26));
+        }
+        StringBuilder body = new StringBuilder("a=1");
+        for (int i = 0; i < 1000; i++) {
+            body.append("&p").append(i % 10).append("=v");
+        }
+        body.append("&big=").append(big).append("&b=%41");
+        ByteChunk bc = new ByteChunk();
+        int rc = postUrl(body.toString().getBytes("ISO-8859-1"),
+                "http://localhost:" + getPort() + "/echo?a=q", bc, null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        StringBuilder expected = new StringBuilder("a=1,a=q,b=A,big=");
+        expected.append(big);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 100; j++) {
+                expected.append(",p").append(i).append("=v");
+            }
+        }
+        assertEquals(expected.toString(), bc.toString());
+    }
+
+    @Test
+    public void testReadParts() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context root = tomcat.addContext("",
+                System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(root, "ReadParts", new ReadPartsServlet());
+        root.addServletMapping("/", "ReadParts");
+        tomcat.start();
+
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            big.append((char) ('a' + i % 26));
+        }
+        String body = "--a b\r\n" +
+                "Content-Disposition: form-data; name=\"x\"\r\n\r\n" +
+                "1\r\n" +
+                "--a b\r\n" +
+                "Content-Disposition: form-data; name=\"y\"\r\n\r\n" +
+                big + "\r\n" +
+                "--a b--\r\n";
+        Map<String, List<String>> reqHead =
+                new HashMap<String, List<String>>();
+        reqHead.put("Content-Type", Arrays.asList(
+                "multipart/form-data; boundary=\"a b\""));
+        ByteChunk bc = new ByteChunk();
+        int rc = postUrl(body.getBytes("ISO-8859-1"),
+                "http://localhost:" + getPort() + "/", bc, reqHead, null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("x=1,y=20000,getParts-ISE", bc.toString());
+    }
+
+    private static class ReadPartsServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            final StringBuilder result = new StringBuilder();
+            ((RequestFacade) req).readParts(new MultipartParser.Handler() {
+
+                private int size;
+
+                @Override
+                public void startPart(MimeHeaders headers) {
+                    String cd = headers.getHeader("Content-Disposition");
+                    if (result.length() > 0) {
+                        result.append(',');
+                    }
+                    result.append(cd.substring(cd.indexOf('"') + 1,
+                            cd.lastIndexOf('"')));
+                    result.append('=');
+                    size = 0;
+                }
+
+                @Override
+                public void partData(byte[] b, int off, int len) {
+                    size += len;
+                }
+
+                @Override
+                public void endPart() {
+                    result.append(size);
+                }
+            });
+            try {
+                req.getParts();
+            } catch (IllegalStateException ise) {
+                result.append(",getParts-ISE");
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print(result);
+        }
+    }
+
     @Test
     public void testBug54984() throws Exception {
         Tomcat tomcat = getTomcatInstance();
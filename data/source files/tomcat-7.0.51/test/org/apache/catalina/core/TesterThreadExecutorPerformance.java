@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Load test of the executors: several threads, like the pollers of a
+ * connector, submit short tasks in bursts and the latency between the
+ * submission of a task and its start is measured.
+ */
+public class TesterThreadExecutorPerformance {
+
+    private static final int SUBMITTERS = 4;
+    private static final int BURSTS = 2000;
+    private static final int BURST_SIZE = 50;
+
+    /**
+     * Time spent by each task, in nanoseconds.
+     */
+    private static final long WORK = 20000;
+
+    @Test
+    public void testLatency() throws Exception {
+        doTest(new StandardThreadExecutor(), "standard", BURSTS / 10);
+        doTest(new WorkStealingThreadExecutor(), "workStealing", BURSTS / 10);
+        if (VirtualThreadExecutor.isSupported()) {
+            doTest(new VirtualThreadExecutor(), "virtual", BURSTS / 10);
+        }
+
+        doTest(new StandardThreadExecutor(), "standard", BURSTS);
+        doTest(new WorkStealingThreadExecutor(), "workStealing", BURSTS);
+        if (VirtualThreadExecutor.isSupported()) {
+            doTest(new VirtualThreadExecutor(), "virtual", BURSTS);
+        }
+    }
+
+    private void doTest(StandardThreadExecutor executor, String name,
+            final int bursts) throws Exception {
+        executor.setName(name);
+        executor.setMaxThreads(200);
+        executor.setMinSpareThreads(25);
+        executor.start();
+
+        final StandardThreadExecutor exec = executor;
+        final long[][] latencies = new long[SUBMITTERS][];
+        Thread[] submitters = new Thread[SUBMITTERS];
+        long start = System.nanoTime();
+        for (int i = 0; i < SUBMITTERS; i++) {
+            final long[] latency = new long[bursts * BURST_SIZE];
+            latencies[i] = latency;
+            submitters[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < bursts; j++) {
+                            CountDownLatch done =
+                                    new CountDownLatch(BURST_SIZE);
+                            for (int k = 0; k < BURST_SIZE; k++) {
+                                exec.execute(new Task(latency,
+                                        j * BURST_SIZE + k, done));
+                            }
+                            assertTrue(done.await(30, TimeUnit.SECONDS));
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            submitters[i].start();
+        }
+        for (Thread t : submitters) {
+            t.join();
+        }
+        long time = (System.nanoTime() - start) / 1000000;
+        int largest = executor.getLargestPoolSize();
+        executor.stop();
+        executor.destroy();
+
+        long[] all = new long[SUBMITTERS * bursts * BURST_SIZE];
+        for (int i = 0; i < SUBMITTERS; i++) {
+            System.arraycopy(latencies[i], 0, all, i * latencies[i].length,
+                    latencies[i].length);
+        }
+        Arrays.sort(all);
+        System.out.println(name + ": " + all.length + " tasks in " + time +
+                "ms, start latency p50 " + percentile(all, 50) + "us, p99 " +
+                percentile(all, 99) + "us, p99.9 " + percentile(all, 99.9) +
+                "us, largest pool " + largest);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1000;
+    }
+
+    private static class Task implements Runnable {
+
+        private final long submitted = System.nanoTime();
+        private final long[] latency;
+        private final int index;
+        private final CountDownLatch done;
+
+        Task(long[] latency, int index, CountDownLatch done) {
+            this.latency = latency;
+            this.index = index;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            latency[index] = now - submitted;
+            while (System.nanoTime() - now < WORK) {
+                // Busy, like the parsing of a request
+            }
+            done.countDown();
+        }
+    }
+}
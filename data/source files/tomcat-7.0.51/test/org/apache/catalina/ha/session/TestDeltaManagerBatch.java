@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestDeltaManagerBatch {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        doTestRoundTrip(-1, 10, 100);
+    }
+
+    @Test
+    public void testRoundTripCompressed() throws Exception {
+        doTestRoundTrip(0, 10, 1000);
+    }
+
+    @Test
+    public void testRoundTripEmpty() throws Exception {
+        doTestRoundTrip(0, 0, 0);
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception {
+        DeltaManager manager = new DeltaManager();
+        List<String> ids = new ArrayList<String>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        ids.add("ABCDEF");
+        deltas.add(new byte[4096]);
+
+        manager.setDeltaCompressionThreshold(-1);
+        byte[] data = manager.serializeDeltas(ids, deltas);
+        assertEquals(0, data[0]);
+
+        manager.setDeltaCompressionThreshold(8192);
+        data = manager.serializeDeltas(ids, deltas);
+        assertEquals(0, data[0]);
+
+        manager.setDeltaCompressionThreshold(1024);
+        data = manager.serializeDeltas(ids, deltas);
+        assertEquals(1, data[0]);
+        assertTrue(data.length < 4096);
+        assertTrue(manager.getDeltaBytesSent() <
+                manager.getDeltaBytesUncompressed());
+    }
+
+    @Test
+    public void testIncompressibleSentPlain() throws Exception {
+        DeltaManager manager = new DeltaManager();
+        manager.setDeltaCompressionThreshold(0);
+        List<String> ids = new ArrayList<String>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        ids.add("A");
+        deltas.add(new byte[] {1});
+        byte[] data = manager.serializeDeltas(ids, deltas);
+        // Deflating one byte makes it larger
+        assertEquals(0, data[0]);
+    }
+
+    private void doTestRoundTrip(int threshold, int count, int size)
+            throws Exception {
+        DeltaManager manager = new DeltaManager();
+        manager.setDeltaCompressionThreshold(threshold);
+        List<String> ids = new ArrayList<String>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            ids.add("SESSION" + i);
+            byte[] delta = new byte[size + i];
+            for (int j = 0; j < delta.length; j++) {
+                delta[j] = (byte) (j % 7);
+            }
+            deltas.add(delta);
+        }
+
+        byte[] data = manager.serializeDeltas(ids, deltas);
+
+        List<String> readIds = new ArrayList<String>();
+        List<byte[]> readDeltas = new ArrayList<byte[]>();
+        manager.deserializeDeltas(data, readIds, readDeltas);
+        assertEquals(ids, readIds);
+        assertEquals(count, readDeltas.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(deltas.get(i), readDeltas.get(i));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestDeltaManagerStateTransfer {
+
+    @Test
+    public void testSlicesCoverAllSessions() {
+        DeltaManager manager = new DeltaManager();
+        Session[] sessions = createSessions(manager, 1000);
+
+        for (int slices = 1; slices <= 5; slices++) {
+            Set<String> ids = new HashSet<String>();
+            int total = 0;
+            for (int slice = 0; slice < slices; slice++) {
+                Session[] selected =
+                    manager.selectSlice(sessions, slice, slices);
+                for (Session session : selected) {
+                    assertEquals(slice,
+                            DeltaManager.getSlice(session.getIdInternal(), slices));
+                    assertTrue(ids.add(session.getIdInternal()));
+                }
+                total += selected.length;
+                if (slices > 1) {
+                    assertTrue(selected.length < sessions.length);
+                }
+            }
+            assertEquals(sessions.length, total);
+        }
+    }
+
+    @Test
+    public void testSingleSlice() {
+        DeltaManager manager = new DeltaManager();
+        Session[] sessions = createSessions(manager, 10);
+        assertSame(sessions, manager.selectSlice(sessions, 0, 1));
+    }
+
+    @Test
+    public void testNoFetchOutsideStateTransfer() throws Exception {
+        DeltaManager manager = new DeltaManager();
+        manager.setStateTransferAsync(true);
+        assertFalse(manager.isStateTransferInProgress());
+        assertNull(manager.findSession("UNKNOWN"));
+        assertEquals(0, manager.getCounterSend_EVT_GET_SESSION());
+    }
+
+    @Test
+    public void testLocalSessionKeptDuringAsyncTransfer() throws Exception {
+        DeltaManager sender = new DeltaManager();
+        sender.setContainer(new StandardContext());
+        Session[] sessions = createSessions(sender, 2);
+        sessions[0].getSession().setAttribute("v", "old");
+        sessions[1].getSession().setAttribute("v", "old");
+        byte[] data = sender.serializeSessions(sessions);
+
+        // The first session has been fetched and modified meanwhile
+        TransferringDeltaManager manager = new TransferringDeltaManager();
+        manager.setContainer(new StandardContext());
+        manager.setStateTransferAsync(true);
+        DeltaSession local = new DeltaSession(manager);
+        local.setValid(true);
+        local.setId(sessions[0].getIdInternal(), false);
+        local.setAttribute("v", "new", false);
+
+        manager.deserializeSessions(data);
+        assertSame(local, manager.findSession(sessions[0].getIdInternal()));
+        assertEquals("new", local.getAttribute("v"));
+        assertEquals("old", manager.findSession(sessions[1].getIdInternal())
+                .getSession().getAttribute("v"));
+    }
+
+    @Test
+    public void testFetchOnlyPendingSlices() throws Exception {
+        FetchingDeltaManager manager = new FetchingDeltaManager();
+        manager.setContainer(new StandardContext());
+        manager.setStateTransferAsync(true);
+        manager.setStateTransferFetchTimeout(100);
+        Member[] members = new Member[] {
+                new MemberImpl("10.0.0.1", 4000, 1),
+                new MemberImpl("10.0.0.2", 4000, 1)};
+        manager.beginStateTransfer(members);
+
+        String[] ids = new String[2];
+        for (int i = 0; ids[0] == null || ids[1] == null; i++) {
+            String id = "SESSION" + i;
+            ids[DeltaManager.getSlice(id, 2)] = id;
+        }
+
+        // The first slice has been received
+        SessionMessage msg = new SessionMessageImpl(manager.getName(),
+                SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE, null,
+                "SESSION-STATE-TRANSFERED", "SESSION-STATE-TRANSFERED");
+        manager.handleALL_SESSION_TRANSFERCOMPLETE(msg, members[0]);
+        assertNull(manager.findSession(ids[0]));
+        assertEquals(0, manager.requested.size());
+
+        // The second one is asked for once
+        assertNull(manager.findSession(ids[1]));
+        assertEquals(1, manager.requested.size());
+        assertSame(members[1], manager.requested.get(ids[1]));
+        long start = System.currentTimeMillis();
+        assertNull(manager.findSession(ids[1]));
+        assertTrue(System.currentTimeMillis() - start < 100);
+        assertEquals(1, manager.requested.size());
+
+        manager.endStateTransfer();
+        assertNull(manager.findSession(ids[1]));
+        assertEquals(1, manager.requested.size());
+    }
+
+    @Test
+    public void testReassignSlice() throws Exception {
+        FetchingDeltaManager manager = new FetchingDeltaManager();
+        manager.setContainer(new StandardContext());
+        manager.setStateTransferAsync(true);
+        manager.setStateTransferFetchTimeout(10);
+        Member[] members = new Member[] {
+                new MemberImpl("10.0.0.1", 4000, 1),
+                new MemberImpl("10.0.0.2", 4000, 1)};
+        manager.beginStateTransfer(members);
+        assertTrue(manager.reassignSlice(members[0]));
+
+        String id = null;
+        for (int i = 0; id == null; i++) {
+            if (DeltaManager.getSlice("SESSION" + i, 2) == 0) {
+                id = "SESSION" + i;
+            }
+        }
+        assertNull(manager.findSession(id));
+        assertSame(members[1], manager.requested.get(id));
+    }
+
+    private Session[] createSessions(DeltaManager manager, int count) {
+        Session[] sessions = new Session[count];
+        for (int i = 0; i < count; i++) {
+            DeltaSession session = new DeltaSession(manager);
+            session.setValid(true);
+            session.setId("SESSION" + i + ".node" + (i % 3), false);
+            sessions[i] = session;
+        }
+        return sessions;
+    }
+
+    private static class FetchingDeltaManager extends DeltaManager {
+
+        private final Map<String,Member> requested =
+                new HashMap<String,Member>();
+
+        @Override
+        protected void sendGetSession(String id, Member mbr) {
+            requested.put(id, mbr);
+        }
+
+        @Override
+        protected void sendGetAllSessions(Member mbr, int slice, int slices,
+                long beforeSendTime) {
+            // NOOP
+        }
+    }
+
+    private static class TransferringDeltaManager extends DeltaManager {
+        @Override
+        public boolean isStateTransferInProgress() {
+            return true;
+        }
+    }
+}
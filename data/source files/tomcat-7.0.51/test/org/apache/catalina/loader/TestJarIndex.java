@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link JarIndex}.
+ */
+public class TestJarIndex {
+
+    private static final File[] JARS = new File[] {
+        new File("test/webapp-3.0-fragments/WEB-INF/lib/resources.jar"),
+        new File("test/webapp-3.0-fragments/WEB-INF/lib/resources2.jar"),
+        new File("test/webapp-3.0-virtual-webapp/src/main/webapp/WEB-INF/lib/rsrc.jar")
+    };
+
+
+    @Test
+    public void testGetPackage() {
+        assertEquals("", JarIndex.getPackage("a.txt"));
+        assertEquals("", JarIndex.getPackage("META-INF/"));
+        assertEquals("", JarIndex.getPackage("META-INF"));
+        assertEquals("META-INF", JarIndex.getPackage("META-INF/MANIFEST.MF"));
+        assertEquals("org/apache", JarIndex.getPackage("org/apache/A.class"));
+    }
+
+
+    @Test
+    public void testLookup() throws Exception {
+        JarIndex index = JarIndex.build(JARS, 2);
+        assertEquals(JARS.length, index.getJarCount());
+
+        // Every entry of every JAR must be found through the index
+        for (int i = 0; i < JARS.length; i++) {
+            JarFile jarFile = new JarFile(JARS[i]);
+            try {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    assertTrue(name, contains(index.getJars(name), i));
+                    if (name.endsWith("/")) {
+                        String dir = name.substring(0, name.length() - 1);
+                        assertTrue(dir, contains(index.getJars(dir), i));
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        assertEquals(0, index.getJars("no/such/package/A.class").length);
+    }
+
+
+    @Test
+    public void testPersistence() throws Exception {
+        File file = File.createTempFile("jarIndex", ".dat");
+        try {
+            JarIndex index = JarIndex.build(JARS, 1);
+            index.save(file);
+
+            JarIndex loaded = JarIndex.load(file, JARS);
+            assertNotNull(loaded);
+            assertEquals(index.getPackageCount(), loaded.getPackageCount());
+            assertTrue(Arrays.equals(index.getJars("META-INF/MANIFEST.MF"),
+                    loaded.getJars("META-INF/MANIFEST.MF")));
+
+            // A different list of JARs invalidates the index
+            List<File> others = new ArrayList<File>(Arrays.asList(JARS));
+            others.remove(0);
+            assertNull(JarIndex.load(file, others.toArray(new File[0])));
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    private static boolean contains(int[] jars, int jar) {
+        for (int i : jars) {
+            if (i == jar) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
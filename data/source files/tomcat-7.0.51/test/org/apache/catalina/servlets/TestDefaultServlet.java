@@ -16,20 +16,25 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -39,6 +44,7 @@ import org.junit.Test;
 
 import static org.apache.catalina.startup.SimpleHttpClient.CRLF;
 
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
@@ -156,6 +162,71 @@ public class TestDefaultServlet extends TomcatBaseTest {
 
     }
 
+    /**
+     * Verify serving of the precompressed version of a resource.
+     */
+    @Test
+    public void testGzippedFile() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "gzip");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] content = "It is index.html".getBytes("ISO-8859-1");
+        FileOutputStream fos = new FileOutputStream(
+                new File(appDir, "index.html"));
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(gzipped);
+        gos.write(content);
+        gos.close();
+        fos = new FileOutputStream(new File(appDir, "index.html.gz"));
+        try {
+            fos.write(gzipped.toByteArray());
+        } finally {
+            fos.close();
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        org.apache.catalina.Context ctx =
+            tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctx, "default",
+                new DefaultServlet());
+        defaultServlet.addInitParameter("gzip", "true");
+        ctx.addServletMapping("/", "default");
+        ctx.addMimeMapping("html", "text/html");
+        tomcat.start();
+
+        ByteChunk res = new ByteChunk();
+        Map<String,List<String>> resHead = new HashMap<String,List<String>>();
+        int rc = getUrl("http://localhost:" + getPort() + "/index.html", res,
+                null, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("It is index.html", res.toString());
+        assertFalse(resHead.containsKey("Content-Encoding"));
+        String eTag = resHead.get("ETag").get(0);
+
+        Map<String,List<String>> reqHead = new HashMap<String,List<String>>();
+        reqHead.put("Accept-Encoding", Arrays.asList("deflate, gzip"));
+        res.recycle();
+        resHead.clear();
+        rc = getUrl("http://localhost:" + getPort() + "/index.html", res,
+                reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("gzip", resHead.get("Content-Encoding").get(0));
+        assertEquals("Accept-Encoding", resHead.get("Vary").get(0));
+        assertTrue(resHead.get("Content-Type").get(0).startsWith("text/html"));
+        assertEquals(eTag, resHead.get("ETag").get(0));
+        assertEquals(Integer.toString(gzipped.size()),
+                resHead.get("Content-Length").get(0));
+        assertArrayEquals(gzipped.toByteArray(), Arrays.copyOfRange(
+                res.getBuffer(), res.getStart(), res.getEnd()));
+    }
+
     /**
      * Test https://issues.apache.org/bugzilla/show_bug.cgi?id=50413 Serving a
      * custom error page
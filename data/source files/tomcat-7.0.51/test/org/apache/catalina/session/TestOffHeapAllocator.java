@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link OffHeapAllocator}.
+ */
+public class TestOffHeapAllocator {
+
+    @Test
+    public void testStoreLoadFree() {
+        OffHeapAllocator allocator = new OffHeapAllocator(1024, 4096);
+        byte[] value = new byte[100];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) i;
+        }
+        OffHeapAllocator.Block block = allocator.store(value, value.length);
+        assertNotNull(block);
+        assertArrayEquals(value, allocator.load(block));
+        assertEquals(128, allocator.getUsedSize());
+        assertEquals(1024, allocator.getAllocatedSize());
+
+        allocator.free(block);
+        allocator.free(block);
+        assertEquals(0, allocator.getUsedSize());
+        assertEquals(0, allocator.getBlockCount());
+
+        // The block is reused
+        OffHeapAllocator.Block block2 = allocator.store(value, 70);
+        assertNotNull(block2);
+        assertEquals(1024, allocator.getAllocatedSize());
+        assertEquals(70, allocator.load(block2).length);
+    }
+
+
+    @Test
+    public void testLimits() {
+        OffHeapAllocator allocator = new OffHeapAllocator(1024, 2048);
+        assertNull(allocator.store(new byte[1025], 1025));
+        assertNotNull(allocator.store(new byte[1024], 1024));
+        assertNotNull(allocator.store(new byte[1024], 1024));
+        assertNull(allocator.store(new byte[10], 10));
+        assertEquals(2, allocator.getRejectedCount());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Test cases for the scheduling of the expiration of sessions by
+ * {@link OffHeapManager}.
+ */
+public class TestOffHeapManager extends TomcatBaseTest {
+
+    @Test
+    public void testChangeToExpiring() throws Exception {
+        OffHeapManager manager = startManager();
+
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(-1);
+        assertEquals(0, manager.getScheduledSessions());
+
+        session.setMaxInactiveInterval(60);
+        assertEquals(1, manager.getScheduledSessions());
+    }
+
+
+    @Test
+    public void testRestoredSessionsScheduled() throws Exception {
+        OffHeapManager manager = startManager();
+        Context ctx = (Context) manager.getContainer();
+
+        Session session = manager.createSession(null);
+        session.getSession().setAttribute("v", "1");
+        String id = session.getIdInternal();
+        assertEquals(1, manager.getScheduledSessions());
+
+        // The sessions are persisted on stop and loaded on start
+        ctx.stop();
+        ctx.start();
+        manager = (OffHeapManager) ctx.getManager();
+
+        Session restored = manager.findSession(id);
+        assertNotNull(restored);
+        assertEquals("1", restored.getSession().getAttribute("v"));
+        assertEquals(1, manager.getScheduledSessions());
+    }
+
+
+    private OffHeapManager startManager() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        ctx.setManager(new OffHeapManager());
+        tomcat.start();
+        return (OffHeapManager) ctx.getManager();
+    }
+}
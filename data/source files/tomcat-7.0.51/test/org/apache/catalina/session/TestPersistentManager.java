@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+
+/**
+ * Test cases for the swap in and the write-behind of
+ * {@link PersistentManagerBase}.
+ */
+public class TestPersistentManager {
+
+    private File dir;
+    private PersistentManager manager;
+    private FailingStore store;
+
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("persistent", "");
+        assertTrue(dir.delete());
+        manager = new PersistentManager();
+        manager.setContainer(new StandardContext());
+        store = new FailingStore();
+        store.setDirectory(dir.getAbsolutePath());
+        manager.setStore(store);
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void testSwapInFromStore() throws Exception {
+        store.save(createSession("a", "1"));
+
+        Session session = manager.findSession("a");
+        assertNotNull(session);
+        assertEquals("1", session.getSession().getAttribute("v"));
+        // The session must now be managed
+        assertEquals(1, manager.getActiveSessions());
+        assertSame(session, manager.findSession("a"));
+    }
+
+
+    @Test
+    public void testSwapInFromPendingWrite() throws Exception {
+        manager.queueWrite(SerializedSession.serialize(createSession("a", "1")));
+
+        Session session = manager.findSession("a");
+        assertNotNull(session);
+        assertEquals(1, manager.getActiveSessions());
+        assertSame(session, manager.findSession("a"));
+    }
+
+
+    @Test
+    public void testFailedFlushRequeued() throws Exception {
+        manager.queueWrite(SerializedSession.serialize(createSession("a", "1")));
+        manager.queueWrite(SerializedSession.serialize(createSession("b", "2")));
+
+        store.fail = true;
+        assertFalse(manager.flushWrites());
+        assertEquals(2, manager.getWriteBehindQueueSize());
+
+        // A newer write queued after the failure must not be replaced
+        manager.queueWrite(SerializedSession.serialize(createSession("b", "3")));
+        assertEquals(2, manager.getWriteBehindQueueSize());
+
+        store.fail = false;
+        assertTrue(manager.flushWrites());
+        assertEquals(0, manager.getWriteBehindQueueSize());
+        assertEquals("1", store.load("a").getSession().getAttribute("v"));
+        assertEquals("3", store.load("b").getSession().getAttribute("v"));
+    }
+
+
+    @Test
+    public void testFailedJDBCFlushRequeued() throws Exception {
+        manager.setStore(new UnavailableJDBCStore());
+        manager.queueWrite(SerializedSession.serialize(createSession("a", "1")));
+
+        assertFalse(manager.flushWrites());
+        assertEquals(1, manager.getWriteBehindQueueSize());
+    }
+
+
+    private StandardSession createSession(String id, String value) {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1800);
+        session.setId(id, false);
+        session.setAttribute("v", value, false);
+        return session;
+    }
+
+
+    private static class FailingStore extends SegmentedFileStore {
+
+        private volatile boolean fail = false;
+
+        @Override
+        public void saveAll(List<SerializedSession> sessions)
+                throws IOException {
+            if (fail) {
+                throw new IOException("Store unavailable");
+            }
+            super.saveAll(sessions);
+        }
+    }
+
+
+    private static class UnavailableJDBCStore extends JDBCStore {
+
+        @Override
+        protected Connection getConnection() {
+            return null;
+        }
+    }
+}
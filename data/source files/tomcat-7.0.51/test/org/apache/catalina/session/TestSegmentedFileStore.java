@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardContext;
+
+/**
+ * Test cases for {@link SegmentedFileStore}.
+ */
+public class TestSegmentedFileStore {
+
+    private File dir;
+    private PersistentManager manager;
+
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("segments", "");
+        assertTrue(dir.delete());
+        manager = new PersistentManager();
+        manager.setContainer(new StandardContext());
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        SegmentedFileStore store = createStore(1024 * 1024);
+        store.save(createSession("a", "1"));
+        store.save(createSession("b", "2"));
+        store.save(createSession("a", "3"));
+        store.remove("b");
+        store.remove("unknown");
+
+        assertEquals(1, store.getSize());
+        assertEquals("3", store.load("a").getSession().getAttribute("v"));
+        assertNull(store.load("b"));
+
+        // The index is rebuilt from the segments
+        SegmentedFileStore reopened = createStore(1024 * 1024);
+        assertEquals(Arrays.asList("a"), Arrays.asList(reopened.keys()));
+        assertEquals("3", reopened.load("a").getSession().getAttribute("v"));
+    }
+
+
+    @Test
+    public void testSaveAll() throws Exception {
+        SegmentedFileStore store = createStore(1024 * 1024);
+        List<SerializedSession> batch = new ArrayList<SerializedSession>();
+        batch.add(SerializedSession.serialize(createSession("a", "1")));
+        batch.add(SerializedSession.serialize(createSession("b", "2")));
+        batch.add(SerializedSession.removal("a"));
+        batch.add(SerializedSession.serialize(createSession("c", "3")));
+        store.saveAll(batch);
+
+        SegmentedFileStore reopened = createStore(1024 * 1024);
+        assertEquals(2, reopened.getSize());
+        assertNull(reopened.load("a"));
+        assertEquals("2", reopened.load("b").getSession().getAttribute("v"));
+        assertEquals("3", reopened.load("c").getSession().getAttribute("v"));
+    }
+
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentedFileStore store = createStore(2048);
+        for (int i = 0; i < 200; i++) {
+            store.save(createSession("s" + (i % 5), Integer.toString(i)));
+        }
+        store.save(createSession("removed", "x"));
+        store.remove("removed");
+        int segmentCount = store.getSegmentCount();
+        assertTrue(segmentCount > 5);
+
+        store.compact();
+        assertTrue(store.getSegmentCount() < segmentCount);
+        assertTrue(store.getLiveRatio() >= 0.5);
+        assertTrue(store.getCompactionCount() > 0);
+
+        SegmentedFileStore reopened = createStore(2048);
+        assertEquals(5, reopened.getSize());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.toString(195 + i),
+                    reopened.load("s" + i).getSession().getAttribute("v"));
+        }
+        assertNull(reopened.load("removed"));
+    }
+
+
+    @Test
+    public void testTornWrite() throws Exception {
+        SegmentedFileStore store = createStore(1024 * 1024);
+        store.save(createSession("a", "1"));
+        store.save(createSession("b", "2"));
+
+        // Simulate a crash in the middle of a write
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        long length = files[0].length();
+        FileOutputStream fos = new FileOutputStream(files[0], true);
+        fos.write(new byte[] {0, 0, 1, 0, 1, 2, 3});
+        fos.close();
+
+        SegmentedFileStore reopened = createStore(1024 * 1024);
+        assertEquals(2, reopened.getSize());
+        assertEquals(length, files[0].length());
+        reopened.save(createSession("c", "3"));
+
+        reopened = createStore(1024 * 1024);
+        assertEquals(3, reopened.getSize());
+        assertEquals("3", reopened.load("c").getSession().getAttribute("v"));
+    }
+
+
+    private SegmentedFileStore createStore(int segmentSize) {
+        SegmentedFileStore store = new SegmentedFileStore();
+        store.setManager(manager);
+        store.setDirectory(dir.getAbsolutePath());
+        store.setSegmentSize(segmentSize);
+        return store;
+    }
+
+
+    private StandardSession createSession(String id, String value) {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1800);
+        session.setId(id, false);
+        session.setAttribute("v", value, false);
+        return session;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link TimingWheel}.
+ */
+public class TestTimingWheel {
+
+    @Test
+    public void testDeadlines() {
+        long start = 1000000;
+        TimingWheel<Long> wheel = new TimingWheel<Long>(10, start);
+        Random random = new Random(42);
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            // Up to well beyond the range of the second level
+            long deadline = start + random.nextInt(20000000);
+            wheel.schedule(Long.valueOf(deadline), deadline);
+        }
+        assertEquals(count, wheel.getSize());
+
+        List<TimingWheel.Node<Long>> due =
+            new ArrayList<TimingWheel.Node<Long>>();
+        int returned = 0;
+        for (long time = start; time <= start + 20000000 + 10; time += 1000) {
+            due.clear();
+            wheel.advance(time, due);
+            for (TimingWheel.Node<Long> node : due) {
+                long deadline = node.getItem().longValue();
+                // Never early and at most one tick and one advance late
+                assertTrue(deadline <= time);
+                assertTrue(time - deadline < 1010);
+            }
+            returned += due.size();
+        }
+        assertEquals(count, returned);
+        assertEquals(0, wheel.getSize());
+    }
+
+
+    @Test
+    public void testCancel() {
+        TimingWheel<String> wheel = new TimingWheel<String>(1000, 0);
+        TimingWheel.Node<String> node1 = wheel.schedule("a", 5000);
+        wheel.schedule("b", 5000);
+        wheel.cancel(node1);
+        wheel.cancel(node1);
+        assertEquals(1, wheel.getSize());
+
+        List<TimingWheel.Node<String>> due =
+            new ArrayList<TimingWheel.Node<String>>();
+        wheel.advance(4999, due);
+        assertEquals(0, due.size());
+        wheel.advance(5000, due);
+        assertEquals(1, due.size());
+        assertEquals("b", due.get(0).getItem());
+    }
+
+
+    @Test
+    public void testOverdue() {
+        TimingWheel<String> wheel = new TimingWheel<String>(1000, 10000);
+        wheel.schedule("a", 2000);
+        List<TimingWheel.Node<String>> due =
+            new ArrayList<TimingWheel.Node<String>>();
+        wheel.advance(10000, due);
+        assertEquals(1, due.size());
+    }
+}
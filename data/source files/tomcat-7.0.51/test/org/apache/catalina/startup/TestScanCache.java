@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.tomcat.util.bcel.classfile.ClassParser;
+import org.apache.tomcat.util.bcel.classfile.JavaClass;
+
+/**
+ * Test cases for {@link ScanCache}.
+ */
+public class TestScanCache {
+
+    private static final File JAR =
+        new File("test/webapp-3.0-fragments/WEB-INF/lib/resources.jar");
+
+    private File dir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("scanCache", "");
+        assertTrue(dir.delete());
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void testGetJarFile() throws Exception {
+        String jarUrl = JAR.toURI().toURL().toString();
+        assertEquals(JAR.getAbsoluteFile(), ScanCache.getJarFile(
+                new URL("jar:" + jarUrl + "!/")).getAbsoluteFile());
+        assertNull(ScanCache.getJarFile(
+                new URL("jar:" + jarUrl + "!/META-INF/")));
+        assertNull(ScanCache.getJarFile(JAR.toURI().toURL()));
+    }
+
+
+    @Test
+    public void testDigest() throws Exception {
+        File copy = new File(dir.getParentFile(), dir.getName() + ".jar");
+        try {
+            ScanCache cache = new ScanCache(dir);
+            String digest = cache.getDigest(JAR);
+            assertEquals(32, digest.length());
+            assertEquals(digest, cache.getDigest(JAR));
+
+            // The digest depends on the content only
+            byte[] content = new byte[(int) JAR.length()];
+            InputStream is = new FileInputStream(JAR);
+            try {
+                int pos = 0;
+                while (pos < content.length) {
+                    pos += is.read(content, pos, content.length - pos);
+                }
+            } finally {
+                is.close();
+            }
+            write(copy, content);
+            assertEquals(digest, cache.getDigest(copy));
+
+            content[content.length / 2]++;
+            write(copy, content);
+            assertTrue(copy.setLastModified(copy.lastModified() - 2000));
+            assertFalse(digest.equals(cache.getDigest(copy)));
+        } finally {
+            copy.delete();
+        }
+    }
+
+
+    @Test
+    public void testClasses() throws Exception {
+        ScanCache cache = new ScanCache(dir);
+        assertNull(cache.getClasses("abc"));
+
+        JavaClass clazz;
+        InputStream is = TestScanCache.class.getResourceAsStream(
+                "TestScanCache$AnnotatedServlet.class");
+        try {
+            clazz = new ClassParser(is, null).parse();
+        } finally {
+            is.close();
+        }
+        List<ScanCache.ClassEntry> classes =
+            new ArrayList<ScanCache.ClassEntry>();
+        classes.add(new ScanCache.ClassEntry("a/B.class", clazz));
+        classes.add(new ScanCache.ClassEntry(null, "a.C", null, 1,
+                new String[0], new String[0]));
+        cache.putClasses("abc", classes);
+
+        List<ScanCache.ClassEntry> loaded = cache.getClasses("abc");
+        assertNotNull(loaded);
+        assertEquals(2, loaded.size());
+        ScanCache.ClassEntry entry = loaded.get(0);
+        assertEquals("a/B.class", entry.getEntryName());
+        assertEquals(AnnotatedServlet.class.getName(), entry.getClassName());
+        assertEquals(HttpServlet.class.getName(), entry.getSuperclassName());
+        assertEquals(clazz.getAccessFlags(), entry.getAccessFlags());
+        assertArrayEquals(new String[] {Serializable.class.getName()},
+                entry.getInterfaceNames());
+        assertTrue(entry.hasAnnotation(
+                "Ljavax/servlet/annotation/WebServlet;"));
+        assertFalse(entry.hasAnnotation(
+                "Ljavax/servlet/annotation/WebFilter;"));
+        entry = loaded.get(1);
+        assertNull(entry.getEntryName());
+        assertNull(entry.getSuperclassName());
+        assertEquals(1, entry.getAccessFlags());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testTlds() throws Exception {
+        ScanCache cache = new ScanCache(dir);
+        assertNull(cache.getTlds("abc"));
+
+        List<ScanCache.TldEntry> tlds = new ArrayList<ScanCache.TldEntry>();
+        tlds.add(new ScanCache.TldEntry("META-INF/a.tld", "urn:a",
+                Arrays.asList("a.L1", "a.L2")));
+        tlds.add(new ScanCache.TldEntry("META-INF/b.tld", null,
+                new ArrayList<String>()));
+        cache.putTlds("abc", tlds);
+
+        List<ScanCache.TldEntry> loaded = cache.getTlds("abc");
+        assertEquals(2, loaded.size());
+        assertEquals("META-INF/a.tld", loaded.get(0).getEntryName());
+        assertEquals("urn:a", loaded.get(0).getUri());
+        assertEquals(Arrays.asList("a.L1", "a.L2"),
+                loaded.get(0).getListeners());
+        assertNull(loaded.get(1).getUri());
+        assertTrue(loaded.get(1).getListeners().isEmpty());
+
+        // A corrupt entry is a miss
+        write(new File(dir, "abc.tlds"), new byte[] {1, 2, 3});
+        assertNull(cache.getTlds("abc"));
+    }
+
+
+    private static void write(File file, byte[] content) throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+    }
+
+
+    @WebServlet("/annotated")
+    public static class AnnotatedServlet extends HttpServlet
+            implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestPackageFrame {
+
+    private static ChannelData createMessage(int size, byte fill)
+            throws IOException {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, fill);
+        ChannelData data = new ChannelData(true);
+        data.setAddress(new MemberImpl("localhost", 4000, 1));
+        data.setTimestamp(System.currentTimeMillis());
+        data.setOptions(8);
+        data.setMessage(new XByteBuffer(payload, false));
+        return data;
+    }
+
+    private static void assertSameMessage(ChannelData expected,
+            ChannelData actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getOptions(), actual.getOptions());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getAddress(), actual.getAddress());
+        assertArrayEquals(expected.getMessage().getBytes(),
+                actual.getMessage().getBytes());
+    }
+
+    @Test
+    public void testSameAsXByteBuffer() throws Exception {
+        doTestSameAsXByteBuffer(false);
+        doTestSameAsXByteBuffer(true);
+    }
+
+    private void doTestSameAsXByteBuffer(boolean direct) throws Exception {
+        ChannelData data = createMessage(1000, (byte) 3);
+        byte[] expected = XByteBuffer.createDataPackage(data);
+        PackageFrame frame = PackageFrame.create(data, direct);
+        assertEquals(direct, frame.isDirect());
+        assertEquals(expected.length, frame.getLength());
+
+        TesterByteChannel channel = new TesterByteChannel(expected.length, 64);
+        assertEquals(expected.length, channel.write(frame.getBuffers()));
+        channel.flip();
+        ByteBuffer actual = ByteBuffer.allocate(channel.available());
+        while (channel.read(actual) > 0) {
+            // Read everything
+        }
+        frame.release();
+        assertArrayEquals(expected, actual.array());
+    }
+
+    @Test
+    public void testDecodeFragmented() throws Exception {
+        ChannelData[] messages = new ChannelData[] {
+                createMessage(0, (byte) 0),
+                createMessage(10, (byte) 1),
+                createMessage(50000, (byte) 2),
+                createMessage(3, (byte) 3)};
+        for (int chunkSize : new int[] {1, 7, 11, 1000, 100000}) {
+            TesterByteChannel channel = new TesterByteChannel(100000, chunkSize);
+            for (ChannelData message : messages) {
+                PackageFrame frame = PackageFrame.create(message, false);
+                channel.write(frame.getBuffers());
+            }
+            channel.flip();
+
+            ObjectReader reader = new ObjectReader(1024);
+            int decoded = 0;
+            int count;
+            while ((count = reader.read(channel)) >= 0) {
+                assertTrue(reader.count() <= 1);
+                if (reader.hasPackage()) {
+                    ChannelData[] result = (ChannelData[]) reader.execute();
+                    assertEquals(1, result.length);
+                    assertSameMessage(messages[decoded++], result[0]);
+                } else {
+                    assertTrue(count > 0 || channel.available() == 0);
+                }
+            }
+            assertEquals(messages.length, decoded);
+            assertEquals(0, reader.bufferSize());
+        }
+    }
+
+    @Test
+    public void testDecodeInvalidHeader() throws Exception {
+        TesterByteChannel channel = new TesterByteChannel(100, 100);
+        channel.write(ByteBuffer.wrap(new byte[20]));
+        channel.flip();
+        try {
+            new PackageDecoder().read(channel);
+            fail();
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testBufferPoolSizeClasses() {
+        BufferPool15Impl pool = new BufferPool15Impl();
+        pool.setMaxSize(1024 * 1024);
+        XByteBuffer small = pool.getBuffer(100, false);
+        assertEquals(1024, small.getCapacity());
+        XByteBuffer large = pool.getBuffer(5000, false);
+        assertEquals(8192, large.getCapacity());
+        pool.returnBuffer(small);
+        pool.returnBuffer(large);
+        // A large request is not served by a small buffer
+        assertSame(large, pool.getBuffer(4097, true));
+        assertSame(small, pool.getBuffer(1, true));
+    }
+
+    @Test
+    public void testDirectBufferPool() {
+        DirectBufferPool pool = new DirectBufferPool(4096);
+        ByteBuffer buffer = pool.getBuffer(1500);
+        assertTrue(buffer.isDirect());
+        assertEquals(2048, buffer.capacity());
+        buffer.put((byte) 1);
+        pool.returnBuffer(buffer);
+        assertEquals(2048, pool.getSize());
+        ByteBuffer reused = pool.getBuffer(2000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(0, pool.getSize());
+
+        // Beyond the maximum size of the pool
+        pool.returnBuffer(reused);
+        pool.returnBuffer(pool.getBuffer(4000));
+        assertEquals(2048, pool.getSize());
+
+        assertNull(pool.getBuffer(DirectBufferPool.getMaxBufferSize() + 1));
+        pool.returnBuffer(ByteBuffer.allocate(1024));
+        assertEquals(2048, pool.getSize());
+        assertFalse(pool.getAllocated() == 0);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * In memory channel. The bytes written to the channel are read back from it.
+ * Each read returns at most <code>chunkSize</code> bytes to simulate the
+ * fragmentation of a network stream.
+ */
+public class TesterByteChannel
+        implements GatheringByteChannel, ScatteringByteChannel {
+
+    private final ByteBuffer data;
+    private final int chunkSize;
+
+    public TesterByteChannel(int capacity, int chunkSize) {
+        this.data = ByteBuffer.allocate(capacity);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Discards the content of the channel.
+     */
+    public void clear() {
+        data.clear();
+    }
+
+    /**
+     * Makes the bytes written so far available for reading.
+     */
+    public void flip() {
+        data.flip();
+    }
+
+    public int available() {
+        return data.remaining();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        int n = src.remaining();
+        data.put(src);
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        long n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            n += write(srcs[i]);
+        }
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        return (int) read(new ByteBuffer[] {dst}, 0, 1);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) {
+        if (!data.hasRemaining()) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = offset; i < offset + length && n < chunkSize; i++) {
+            int count = Math.min(Math.min(dsts[i].remaining(),
+                    data.remaining()), chunkSize - n);
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + count);
+            dsts[i].put(slice);
+            data.position(data.position() + count);
+            n += count;
+        }
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // NOOP
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+/**
+ * Compares sending and receiving packages through XByteBuffer with
+ * {@link PackageFrame} and {@link PackageDecoder}.
+ */
+public class TesterPackageFramePerformance {
+
+    private static final int ITERATIONS = 20000;
+
+    private static final int RX_BUFFER_SIZE = 43800;
+
+    @Test
+    public void testFraming() throws Exception {
+        for (int size : new int[] {100, 10000, 1000000}) {
+            ChannelData data = new ChannelData(true);
+            data.setAddress(new MemberImpl("localhost", 4000, 1));
+            byte[] payload = new byte[size];
+            Arrays.fill(payload, (byte) 1);
+            data.setMessage(new XByteBuffer(payload, false));
+
+            int iterations = (int) Math.min(ITERATIONS, 2000000000L / size);
+            TesterByteChannel channel = new TesterByteChannel(
+                    XByteBuffer.createDataPackage(data).length, RX_BUFFER_SIZE);
+
+            // Warm up
+            doTestXByteBuffer(data, channel, iterations / 10);
+            doTestPackageFrame(data, channel, iterations / 10, false);
+            doTestPackageFrame(data, channel, iterations / 10, true);
+
+            System.out.println("Message size " + size + ": XByteBuffer " +
+                    doTestXByteBuffer(data, channel, iterations) +
+                    "ms, heap PackageFrame " +
+                    doTestPackageFrame(data, channel, iterations, false) +
+                    "ms, direct PackageFrame " +
+                    doTestPackageFrame(data, channel, iterations, true) +
+                    "ms for " + iterations + " messages");
+        }
+    }
+
+    /**
+     * The path used by NioSender and NioReplicationTask before PackageFrame.
+     */
+    private long doTestXByteBuffer(ChannelData data, TesterByteChannel channel,
+            int iterations) throws Exception {
+        ByteBuffer writebuf = ByteBuffer.allocateDirect(RX_BUFFER_SIZE);
+        ByteBuffer readbuf = ByteBuffer.allocateDirect(RX_BUFFER_SIZE);
+        XByteBuffer reader = new XByteBuffer(RX_BUFFER_SIZE, true);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            channel.clear();
+            byte[] pkg = XByteBuffer.createDataPackage(data);
+            if (writebuf.capacity() < pkg.length) {
+                writebuf = ByteBuffer.allocateDirect(pkg.length);
+            }
+            writebuf.clear();
+            writebuf.put(pkg).flip();
+            channel.write(writebuf);
+            channel.flip();
+
+            int count;
+            while ((count = channel.read(readbuf)) > 0) {
+                readbuf.flip();
+                reader.append(readbuf, count);
+                readbuf.clear();
+                if (reader.countPackages(true) > 0) break;
+            }
+            ChannelData received = reader.extractPackage(true);
+            assertEquals(data.getMessage().getLength(),
+                    received.getMessage().getLength());
+            BufferPool.getBufferPool().returnBuffer(received.getMessage());
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private long doTestPackageFrame(ChannelData data, TesterByteChannel channel,
+            int iterations, boolean direct) throws Exception {
+        PackageDecoder decoder = new PackageDecoder();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            channel.clear();
+            PackageFrame frame = PackageFrame.create(data, direct);
+            channel.write(frame.getBuffers());
+            frame.release();
+            channel.flip();
+
+            decoder.read(channel);
+            ChannelData received = decoder.execute()[0];
+            assertEquals(data.getMessage().getLength(),
+                    received.getMessage().getLength());
+            BufferPool.getBufferPool().returnBuffer(received.getMessage());
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestConsistentHashRing {
+
+    private static final int KEYS = 10000;
+
+    private Member[] members;
+
+    @Before
+    public void setUp() throws Exception {
+        members = new Member[5];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new MemberImpl("10.0.0." + (i + 1), 4000, 1);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        assertNull(ring.getMember("key"));
+        assertEquals(0, ring.getMembers("key", 2).length);
+    }
+
+    @Test
+    public void testBalance() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.update(members);
+        Map<Member, Integer> counts = new HashMap<Member, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            Member owner = ring.getMember("SESSION" + i);
+            Integer count = counts.get(owner);
+            counts.put(owner, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+        assertEquals(members.length, counts.size());
+        int expected = KEYS / members.length;
+        for (Integer count : counts.values()) {
+            assertTrue(count.toString(), Math.abs(count.intValue() - expected) < expected / 2);
+        }
+    }
+
+    @Test
+    public void testCandidates() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.update(members);
+        for (int i = 0; i < 100; i++) {
+            Member[] candidates = ring.getMembers("SESSION" + i, members.length);
+            assertEquals(members.length, candidates.length);
+            assertEquals(ring.getMember("SESSION" + i), candidates[0]);
+            Set<Member> distinct = new HashSet<Member>();
+            for (Member candidate : candidates) {
+                assertTrue(distinct.add(candidate));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveMovesOnlyOwnedKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.update(members);
+        Member[] before = owners(ring);
+        Member removed = members[2];
+        assertTrue(ring.remove(removed));
+        assertFalse(ring.contains(removed));
+        Member[] after = owners(ring);
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i].equals(removed)) {
+                assertFalse(after[i].equals(removed));
+            } else {
+                assertEquals(before[i], after[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testAddMovesOnlyKeysToNewMember() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        Member[] first = new Member[members.length - 1];
+        System.arraycopy(members, 0, first, 0, first.length);
+        ring.update(first);
+        Member[] before = owners(ring);
+        assertTrue(ring.update(members));
+        Member[] after = owners(ring);
+        Member added = members[members.length - 1];
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals(after[i])) {
+                assertEquals(added, after[i]);
+                moved++;
+            }
+        }
+        // About 1/n of the keys
+        assertTrue(moved > KEYS / members.length / 2);
+        assertTrue(moved < KEYS / members.length * 2);
+        assertFalse(ring.update(members));
+    }
+
+    @Test
+    public void testRestartKeepsPlace() throws Exception {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.update(members);
+        Member[] before = owners(ring);
+
+        // Same host and port, new unique id
+        MemberImpl restarted = new MemberImpl("10.0.0.3", 4000, 1);
+        restarted.setUniqueId(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        Member[] current = members.clone();
+        current[2] = restarted;
+        assertTrue(ring.update(current));
+        assertFalse(ring.contains(members[2]));
+        assertTrue(ring.contains(restarted));
+
+        Member[] after = owners(ring);
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i].equals(members[2])) {
+                assertEquals(restarted, after[i]);
+            } else {
+                assertEquals(before[i], after[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testRestartedMemberAddedFirst() throws Exception {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.update(members);
+        Member[] before = owners(ring);
+
+        MemberImpl restarted = new MemberImpl("10.0.0.3", 4000, 1);
+        restarted.setUniqueId(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        assertTrue(ring.add(restarted));
+        assertTrue(ring.remove(members[2]));
+
+        Member[] after = owners(ring);
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i].equals(members[2])) {
+                assertEquals(restarted, after[i]);
+            } else {
+                assertEquals(before[i], after[i]);
+            }
+        }
+    }
+
+    private Member[] owners(ConsistentHashRing ring) {
+        Member[] result = new Member[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            result[i] = ring.getMember("SESSION" + i);
+        }
+        return result;
+    }
+}
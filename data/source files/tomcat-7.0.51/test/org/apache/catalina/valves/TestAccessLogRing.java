@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link AccessLogRing}.
+ */
+public class TestAccessLogRing {
+
+    @Test
+    public void testFullRing() {
+        AccessLogRing ring = new AccessLogRing(3);
+        assertEquals(4, ring.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer("e" + i));
+        }
+        assertFalse(ring.offer("e4"));
+        assertEquals(4, ring.size());
+
+        List<String> out = new ArrayList<String>();
+        assertEquals(2, ring.drain(out, 2));
+        assertTrue(ring.offer("e4"));
+        assertTrue(ring.offer("e5"));
+        assertEquals(4, ring.drain(out, 10));
+        assertEquals(0, ring.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("e" + i, out.get(i));
+        }
+    }
+
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final AccessLogRing ring = new AccessLogRing(64);
+        final int producers = 4;
+        final int entries = 20000;
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < entries; j++) {
+                        while (!ring.offer(producer + ":" + j)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        int[] next = new int[producers];
+        List<String> out = new ArrayList<String>();
+        int total = 0;
+        while (total < producers * entries) {
+            out.clear();
+            total += ring.drain(out, 16);
+            for (String entry : out) {
+                int separator = entry.indexOf(':');
+                int producer = Integer.parseInt(entry.substring(0, separator));
+                // Entries of a given producer stay in order
+                assertEquals(next[producer]++,
+                        Integer.parseInt(entry.substring(separator + 1)));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+/**
+ * Test case for the writer thread of {@link AccessLogValve}.
+ */
+public class TestAccessLogValveAsyncWriter extends TomcatBaseTest {
+
+    private static final int REQUESTS = 100;
+
+    @Test
+    public void testAllEntriesWritten() throws Exception {
+        doTestAllEntriesWritten("block", 16384);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        doTestAllEntriesWritten("spill", 1);
+    }
+
+    private void doTestAllEntriesWritten(String policy, int queueSize)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        File dir = new File(getTemporaryDirectory(), "access-logs");
+        addDeleteOnTearDown(dir);
+
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setPrefix("access");
+        valve.setSuffix(".log");
+        valve.setRotatable(false);
+        valve.setPattern("%r");
+        valve.setAsyncWriter(true);
+        valve.setAsyncOverflowPolicy(policy);
+        valve.setAsyncQueueSize(queueSize);
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.start();
+
+        for (int i = 0; i < REQUESTS; i++) {
+            getUrl("http://localhost:" + getPort() + "/?i=" + i);
+        }
+        // The entries still queued are written when the valve stops
+        tomcat.stop();
+
+        Set<String> lines = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(dir, "access.log")),
+                B2CConverter.ISO_8859_1));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                assertTrue(line, lines.add(line));
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(REQUESTS, lines.size());
+        for (int i = 0; i < REQUESTS; i++) {
+            assertTrue(lines.contains("GET /?i=" + i + " HTTP/1.1"));
+        }
+        assertEquals(0, valve.getAsyncDroppedCount());
+    }
+}
@@ -23,6 +23,7 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.net.Socket;
 import java.nio.CharBuffer;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -595,6 +596,180 @@ public class TestAbstractHttp11Processor extends TomcatBaseTest {
         }
     }
 
+    @Test
+    public void testCompressionCache() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressionCacheSize", "1048576");
+
+        // Must have a real docBase - just use temp
+        Context ctxt = tomcat.addContext("",
+                System.getProperty("java.io.tmpdir"));
+
+        ETagServlet servlet = new ETagServlet();
+        Tomcat.addServlet(ctxt, "ETagServlet", servlet);
+        ctxt.addServletMapping("/test", "ETagServlet");
+
+        tomcat.start();
+
+        AbstractHttp11Protocol protocol = (AbstractHttp11Protocol)
+                tomcat.getConnector().getProtocolHandler();
+
+        Map<String,List<String>> resHead = new HashMap<String,List<String>>();
+        ByteChunk first = getCompressed(resHead);
+        assertEquals("gzip", resHead.get("Content-Encoding").get(0));
+        assertFalse(resHead.containsKey("Content-Length"));
+        assertEquals(0, protocol.getCompressionCacheHitCount());
+
+        // Served from the cache, with a content length
+        resHead.clear();
+        ByteChunk second = getCompressed(resHead);
+        assertEquals("gzip", resHead.get("Content-Encoding").get(0));
+        assertEquals(Integer.toString(second.getLength()),
+                resHead.get("Content-Length").get(0));
+        assertEquals(first.toString(), second.toString());
+        assertEquals(1, protocol.getCompressionCacheHitCount());
+
+        // A new version is compressed again
+        servlet.version = 2;
+        getCompressed(resHead);
+        assertEquals(1, protocol.getCompressionCacheHitCount());
+        assertEquals(2, protocol.getCompressionCacheMissCount());
+    }
+
+    @Test
+    public void testCompressionCacheWeakETag() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressionCacheSize", "1048576");
+
+        // Must have a real docBase - just use temp
+        Context ctxt = tomcat.addContext("",
+                System.getProperty("java.io.tmpdir"));
+
+        ETagServlet servlet = new ETagServlet();
+        servlet.weak = true;
+        Tomcat.addServlet(ctxt, "ETagServlet", servlet);
+        ctxt.addServletMapping("/test", "ETagServlet");
+
+        tomcat.start();
+
+        AbstractHttp11Protocol protocol = (AbstractHttp11Protocol)
+                tomcat.getConnector().getProtocolHandler();
+
+        // Not cached without a last modification date
+        Map<String,List<String>> resHead = new HashMap<String,List<String>>();
+        getCompressed(resHead);
+        getCompressed(resHead);
+        assertEquals(0, protocol.getCompressionCacheHitCount());
+        assertEquals(0, protocol.getCompressionCacheMissCount());
+
+        servlet.lastModified = 1000000000000L;
+        getCompressed(resHead);
+        getCompressed(resHead);
+        assertEquals(1, protocol.getCompressionCacheHitCount());
+
+        // A new version with the same weak entity tag is compressed again
+        servlet.version = 2;
+        servlet.lastModified += 1000;
+        getCompressed(resHead);
+        assertEquals(1, protocol.getCompressionCacheHitCount());
+        assertEquals(2, protocol.getCompressionCacheMissCount());
+    }
+
+    @Test
+    public void testCompressionCacheTruncatedBody() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressionCacheSize", "1048576");
+
+        // Must have a real docBase - just use temp
+        Context ctxt = tomcat.addContext("",
+                System.getProperty("java.io.tmpdir"));
+
+        ETagServlet servlet = new ETagServlet();
+        servlet.fail = true;
+        Tomcat.addServlet(ctxt, "ETagServlet", servlet);
+        ctxt.addServletMapping("/test", "ETagServlet");
+
+        tomcat.start();
+
+        AbstractHttp11Protocol protocol = (AbstractHttp11Protocol)
+                tomcat.getConnector().getProtocolHandler();
+
+        // The servlet fails after the response is committed
+        Map<String,List<String>> resHead = new HashMap<String,List<String>>();
+        try {
+            getCompressed(resHead);
+        } catch (IOException ioe) {
+            // The body is incomplete
+        }
+
+        // The truncated body was not cached
+        servlet.fail = false;
+        resHead.clear();
+        ByteChunk body = getCompressed(resHead);
+        assertFalse(resHead.containsKey("Content-Length"));
+        assertEquals(0, protocol.getCompressionCacheHitCount());
+        assertEquals(2, protocol.getCompressionCacheMissCount());
+
+        resHead.clear();
+        assertEquals(body.toString(), getCompressed(resHead).toString());
+        assertEquals(1, protocol.getCompressionCacheHitCount());
+    }
+
+    private ByteChunk getCompressed(Map<String,List<String>> resHead)
+            throws IOException {
+        Map<String,List<String>> reqHead = new HashMap<String,List<String>>();
+        reqHead.put("Accept-Encoding", Collections.singletonList("gzip"));
+        ByteChunk body = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/test", body,
+                reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        return body;
+    }
+
+
+    private static class ETagServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private volatile int version = 1;
+
+        // The same weak entity tag for all the versions
+        private volatile boolean weak = false;
+
+        private volatile long lastModified = -1;
+
+        // Fail after writing half of the body
+        private volatile boolean fail = false;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                body.append("Version ").append(version).append(' ').append(i);
+            }
+            resp.setContentType("text/plain");
+            if (weak) {
+                resp.setHeader("ETag", "W/\"1\"");
+            } else {
+                resp.setHeader("ETag", "\"" + version + "\"");
+            }
+            if (lastModified >= 0) {
+                resp.setDateHeader("Last-Modified", lastModified);
+            }
+            resp.setContentLength(body.length());
+            if (fail) {
+                resp.getWriter().print(body.substring(0, body.length() / 2));
+                resp.flushBuffer();
+                throw new ServletException("Failed after commit");
+            }
+            resp.getWriter().print(body);
+        }
+    }
+
     private static final class Client extends SimpleHttpClient {
 
         public Client(int port) {
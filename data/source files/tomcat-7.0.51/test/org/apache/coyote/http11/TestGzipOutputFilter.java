@@ -17,15 +17,20 @@
 
 package org.apache.coyote.http11;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
+import org.apache.coyote.http11.filters.IdentityOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 /**
@@ -88,4 +93,120 @@ public class TestGzipOutputFilter {
         // most of the data should have been flushed out
         assertTrue(dataFound.length >= (dataExpected.length - 20));
     }
+
+    @Test
+    public void testCache() throws Exception {
+        CompressionCache cache = new CompressionCache(1024 * 1024);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("Hello there tomcat developers ").append(i);
+        }
+        byte[] d = sb.toString().getBytes("ISO-8859-1");
+
+        byte[] first = doTestCache(cache, "a", d, -1);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(first.length, cache.getSize());
+
+        // Once cached, the body of the response is ignored
+        byte[] second = doTestCache(cache, "a", new byte[] {'x'},
+                first.length);
+        assertArrayEquals(first, second);
+        assertEquals(1, cache.getHitCount());
+
+        // Another key
+        byte[] third = doTestCache(cache, "b", new byte[] {'x'}, -1);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getEntryCount());
+        assertArrayEquals(new byte[] {'x'}, gunzip(third));
+
+        assertArrayEquals(d, gunzip(first));
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        CompressionCache cache = new CompressionCache(8 * 100);
+        byte[] d = new byte[50];
+        byte[] last = null;
+        for (int i = 0; i < 40; i++) {
+            last = doTestCache(cache, Integer.toString(i), d, -1);
+            assertTrue(cache.getSize() <= 800);
+        }
+        assertTrue(cache.getEntryCount() < 40);
+        // The most recent entry is kept, the first one is not
+        doTestCache(cache, "39", d, last.length);
+        assertEquals(1, cache.getHitCount());
+        doTestCache(cache, "0", d, -1);
+        assertEquals(1, cache.getHitCount());
+
+        // Too large to be cached
+        d = new byte[1000];
+        new java.util.Random(1).nextBytes(d);
+        doTestCache(cache, "large", d, -1);
+        doTestCache(cache, "large", d, -1);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCacheIncompleteBody() throws Exception {
+        CompressionCache cache = new CompressionCache(1024 * 1024);
+        byte[] d = "Hello there tomcat developers".getBytes("ISO-8859-1");
+
+        // Fewer bytes than the content length were written
+        doTestCache(cache, "a", d, d.length + 10, false, -1);
+        assertEquals(0, cache.getEntryCount());
+
+        // The response is in error
+        doTestCache(cache, "a", d, d.length, true, -1);
+        assertEquals(0, cache.getEntryCount());
+
+        doTestCache(cache, "a", d, d.length, false, -1);
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    private byte[] doTestCache(CompressionCache cache, String key, byte[] d,
+            long expectedLength) throws Exception {
+        return doTestCache(cache, key, d, d.length, false, expectedLength);
+    }
+
+    private byte[] doTestCache(CompressionCache cache, String key, byte[] d,
+            long contentLength, boolean error, long expectedLength)
+            throws Exception {
+        Response res = new Response();
+        InternalOutputBuffer iob = new InternalOutputBuffer(res, 8 * 1024);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        iob.outputStream = bos;
+        res.setOutputBuffer(iob);
+
+        IdentityOutputFilter identity = new IdentityOutputFilter();
+        GzipOutputFilter gf = new GzipOutputFilter();
+        gf.setCache(cache);
+        iob.addFilter(identity);
+        iob.addFilter(gf);
+        iob.addActiveFilter(identity);
+        iob.addActiveFilter(gf);
+        assertEquals(expectedLength, gf.setCacheKey(key, contentLength));
+
+        ByteChunk chunk = new ByteChunk(d.length);
+        chunk.append(d, 0, d.length);
+        iob.doWrite(chunk, res);
+        if (error) {
+            gf.cancelCache();
+        }
+        iob.endRequest();
+        iob.flush();
+        return bos.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws Exception {
+        GZIPInputStream in =
+            new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestInternalNioOutputBuffer extends TomcatBaseTest {
+
+    @Override
+    protected String getProtocol() {
+        return Http11NioProtocol.class.getName();
+    }
+
+    @Test
+    public void testSmallResponses() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("server", "Test\r\nServer");
+        addServlet(tomcat);
+        tomcat.start();
+
+        // The responses are sent on the same keep-alive connection and their
+        // length is set when the response is closed
+        for (int i = 0; i < 10; i++) {
+            ByteChunk bc = new ByteChunk();
+            Map<String,List<String>> headers =
+                    new HashMap<String,List<String>>();
+            int rc = getUrl("http://localhost:" + getPort() + "/?size=" + i,
+                    bc, headers);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertArrayEquals(body(i), copy(bc));
+            assertEquals(Integer.toString(i),
+                    headers.get("Content-Length").get(0));
+            assertEquals("text/plain", headers.get("Content-Type").get(0));
+            assertEquals("Test  Server", headers.get("Server").get(0));
+            assertNotNull(headers.get("Date"));
+        }
+    }
+
+    @Test
+    public void testLargeResponse() throws Exception {
+        doTestResponse(1024 * 1024, false);
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        doTestResponse(100 * 1024, true);
+    }
+
+    @Test
+    public void testEmptyResponse() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        addServlet(tomcat);
+        tomcat.start();
+
+        for (int i = 0; i < 2; i++) {
+            ByteChunk bc = new ByteChunk();
+            Map<String,List<String>> headers =
+                    new HashMap<String,List<String>>();
+            int rc = getUrl("http://localhost:" + getPort() +
+                    "/?status=204", bc, headers);
+            assertEquals(HttpServletResponse.SC_NO_CONTENT, rc);
+            assertEquals(0, bc.getLength());
+            assertNull(headers.get("Content-Length"));
+        }
+    }
+
+    private void doTestResponse(int size, boolean chunked) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        addServlet(tomcat);
+        tomcat.start();
+
+        for (int i = 0; i < 2; i++) {
+            ByteChunk bc = new ByteChunk();
+            Map<String,List<String>> headers =
+                    new HashMap<String,List<String>>();
+            int rc = getUrl("http://localhost:" + getPort() + "/?size=" +
+                    size + (chunked ? "&chunked=true" : "&length=true"), bc,
+                    headers);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertArrayEquals(body(size), copy(bc));
+            if (chunked) {
+                assertEquals("chunked",
+                        headers.get("Transfer-Encoding").get(0));
+            } else {
+                assertEquals(Integer.toString(size),
+                        headers.get("Content-Length").get(0));
+            }
+        }
+    }
+
+    private static void addServlet(Tomcat tomcat) {
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "body", new BodyServlet());
+        ctx.addServletMapping("/", "body");
+    }
+
+    private static byte[] copy(ByteChunk bc) {
+        byte[] result = new byte[bc.getLength()];
+        if (result.length == 0) {
+            return result;
+        }
+        System.arraycopy(bc.getBuffer(), bc.getStart(), result, 0,
+                result.length);
+        return result;
+    }
+
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    private static class BodyServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            String status = req.getParameter("status");
+            if (status != null) {
+                resp.setStatus(Integer.parseInt(status));
+                return;
+            }
+            byte[] body = body(Integer.parseInt(req.getParameter("size")));
+            resp.setContentType("text/plain");
+            OutputStream os = resp.getOutputStream();
+            if (req.getParameter("chunked") != null) {
+                int half = body.length / 2;
+                os.write(body, 0, half);
+                os.flush();
+                os.write(body, half, body.length - half);
+            } else {
+                if (req.getParameter("length") != null) {
+                    resp.setContentLength(body.length);
+                }
+                os.write(body);
+            }
+        }
+    }
+}
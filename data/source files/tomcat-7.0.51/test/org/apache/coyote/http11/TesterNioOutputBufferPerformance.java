@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+/**
+ * Sends small responses on a keep-alive connection and measures the
+ * throughput and, on Linux, the number of write system calls made by the
+ * process for each request (the client makes one of them).
+ */
+public class TesterNioOutputBufferPerformance extends TomcatBaseTest {
+
+    private static final int REQUESTS = 20000;
+
+    @Override
+    protected String getProtocol() {
+        return Http11NioProtocol.class.getName();
+    }
+
+    @Test
+    public void testSmallResponses() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "small", new SmallServlet());
+        ctx.addServletMapping("/", "small");
+        tomcat.getConnector().setAttribute("maxKeepAliveRequests", "-1");
+        tomcat.start();
+
+        Socket socket = new Socket("localhost", getPort());
+        try {
+            socket.setTcpNoDelay(true);
+            OutputStream os = socket.getOutputStream();
+            InputStream is = new BufferedInputStream(socket.getInputStream());
+            byte[] request = ("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(B2CConverter.ISO_8859_1);
+
+            doTest(os, is, request, REQUESTS / 10);
+            long writes = getWriteCount();
+            long start = System.nanoTime();
+            doTest(os, is, request, REQUESTS);
+            long time = (System.nanoTime() - start) / 1000000;
+            writes = getWriteCount() - writes;
+
+            System.out.println(REQUESTS + " requests in " + time + "ms, " +
+                    (REQUESTS * 1000L / Math.max(time, 1)) + " requests/s" +
+                    (writes < 0 ? "" : ", " + ((double) writes / REQUESTS) +
+                    " write calls/request"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void doTest(OutputStream os, InputStream is, byte[] request,
+            int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            os.write(request);
+            os.flush();
+            assertEquals(SmallServlet.BODY.length, readResponse(is));
+        }
+    }
+
+    /**
+     * Read a response with a Content-Length header and return the length of
+     * its body.
+     */
+    private static int readResponse(InputStream is) throws IOException {
+        int length = -1;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int c = is.read();
+            if (c == -1) {
+                throw new IOException("EOF");
+            } else if (c == '\n') {
+                if (line.length() == 0) {
+                    break;
+                }
+                String header = line.toString();
+                if (header.startsWith("Content-Length: ")) {
+                    length = Integer.parseInt(header.substring(16));
+                }
+                line.setLength(0);
+            } else if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (is.read() == -1) {
+                throw new IOException("EOF");
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of write system calls made by this process, or -1 if
+     *         it is not available
+     */
+    private static long getWriteCount() throws IOException {
+        File io = new File("/proc/self/io");
+        if (!io.canRead()) {
+            return -1;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(io), B2CConverter.ISO_8859_1));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("syscw:")) {
+                    return Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return -1;
+    }
+
+    private static class SmallServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte[] BODY = new byte[1024];
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getOutputStream().write(BODY);
+        }
+    }
+}
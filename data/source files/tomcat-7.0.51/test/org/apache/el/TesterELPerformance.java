@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el;
+
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+import javax.el.ValueExpression;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.jasper.el.ELContextImpl;
+
+/**
+ * Measures the evaluation of bean property expressions. Run it once as is to
+ * measure the tree interpreter and once with
+ * <code>-Dorg.apache.el.parser.COMPILE_THRESHOLD=100</code> to measure the
+ * compiled evaluation.
+ */
+public class TesterELPerformance {
+
+    private static final int ITERATIONS = 2000000;
+
+    @Test
+    public void testBeanProperties() {
+        ExpressionFactory factory = new ExpressionFactoryImpl();
+        ELContext context = new ELContextImpl();
+
+        TesterBeanA beanA = new TesterBeanA();
+        TesterBeanB beanB = new TesterBeanB();
+        beanB.setName("Tomcat");
+        beanA.setBean(beanB);
+        beanA.setName("Apache");
+        context.getVariableMapper().setVariable("beanA",
+                factory.createValueExpression(beanA, TesterBeanA.class));
+
+        String[] expressions = new String[] {
+                "${beanA.name}", "${beanA.bean.name}",
+                "${beanA.name == 'Apache' ? beanA.bean.name : 'none'}"};
+        String[] expected = new String[] {"Apache", "Tomcat", "Tomcat"};
+
+        for (int i = 0; i < expressions.length; i++) {
+            ValueExpression ve = factory.createValueExpression(context,
+                    expressions[i], String.class);
+            // Warm up
+            doTestExpression(ve, context, expected[i], ITERATIONS / 10);
+            System.out.println(expressions[i] + ": " +
+                    doTestExpression(ve, context, expected[i], ITERATIONS) +
+                    "ms for " + ITERATIONS + " evaluations, compile threshold " +
+                    System.getProperty("org.apache.el.parser.COMPILE_THRESHOLD",
+                            "0"));
+        }
+    }
+
+    private long doTestExpression(ValueExpression ve, ELContext context,
+            String expected, int iterations) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            assertEquals(expected, ve.getValue(context));
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.el.BeanELResolver;
+import javax.el.CompositeELResolver;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.ExpressionFactory;
+import javax.el.PropertyNotFoundException;
+import javax.el.ValueExpression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.el.ExpressionFactoryImpl;
+import org.apache.el.TesterBeanB;
+import org.apache.jasper.el.ELContextImpl;
+import org.apache.jasper.el.JasperELResolver;
+
+/**
+ * Tests the compiled evaluation of bean properties, which is enabled with a
+ * system property that must be set before {@link AstValue} is loaded. The
+ * test JVM is forked for each test class. The choice between the compiled
+ * and the resolver chain paths is tested on {@link PropertyAccessor}
+ * directly.
+ */
+public class TestAstValueCompiled {
+
+    static {
+        System.setProperty("org.apache.el.parser.COMPILE_THRESHOLD", "2");
+    }
+
+    private final ExpressionFactory factory = new ExpressionFactoryImpl();
+
+    @Test
+    public void testCompiled() {
+        assertEquals(2, AstValue.COMPILE_THRESHOLD);
+        TesterBeanB bean = new TesterBeanB();
+        for (int i = 0; i < 10; i++) {
+            bean.setName("value" + i);
+            assertEquals("value" + i, evaluate("${bean.name}", bean, null));
+        }
+    }
+
+    @Test
+    public void testNested() {
+        TesterBeanC bean = new TesterBeanC();
+        bean.getBean().setName("nested");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("nested", evaluate("${bean.bean.name}", bean, null));
+        }
+    }
+
+    @Test
+    public void testTypeChange() {
+        TesterBeanB bean = new TesterBeanB();
+        bean.setName("bean");
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("name", "map");
+        TesterBeanD other = new TesterBeanD();
+
+        // Once compiled for one type, the others still resolve
+        for (int i = 0; i < 5; i++) {
+            assertEquals("bean", evaluate("${bean.name}", bean, null));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("map", evaluate("${bean.name}", map, null));
+            assertEquals("other", evaluate("${bean.name}", other, null));
+            assertEquals("bean", evaluate("${bean.name}", bean, null));
+        }
+    }
+
+    @Test
+    public void testResolverChange() {
+        TesterBeanB bean = new TesterBeanB();
+        bean.setName("bean");
+        for (int i = 0; i < 5; i++) {
+            assertEquals("bean", evaluate("${bean.name}", bean, null));
+        }
+
+        CompositeELResolver custom = new CompositeELResolver();
+        custom.add(new BeanELResolver() {
+            @Override
+            public Object getValue(ELContext context, Object base,
+                    Object property) {
+                context.setPropertyResolved(true);
+                return "custom";
+            }
+        });
+        assertEquals("custom", evaluate("${bean.name}", bean, custom));
+        assertEquals("bean", evaluate("${bean.name}", bean, null));
+    }
+
+    @Test
+    public void testApplicationResolver() {
+        TesterBeanB bean = new TesterBeanB();
+        bean.setName("bean");
+
+        // A resolver added by the application comes before the bean resolver
+        List<ELResolver> appResolvers = new ArrayList<ELResolver>();
+        appResolvers.add(new BeanELResolver() {
+            @Override
+            public Object getValue(ELContext context, Object base,
+                    Object property) {
+                if (base instanceof TesterBeanB) {
+                    context.setPropertyResolved(true);
+                    return "custom";
+                }
+                return null;
+            }
+        });
+        ELResolver resolver = new JasperELResolver(appResolvers);
+        PropertyAccessor accessor =
+            PropertyAccessor.specialize(null, resolver, bean, "name");
+        assertFalse(accessor.isCompiled());
+        assertTrue(accessor.matches(resolver, bean));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("custom", evaluate("${bean.name}", bean, resolver));
+        }
+
+        // Without them, the getter is called directly
+        resolver = new JasperELResolver(new ArrayList<ELResolver>());
+        accessor = PropertyAccessor.specialize(accessor, resolver, bean, "name");
+        assertTrue(accessor.isCompiled());
+        assertEquals("bean", accessor.getValue(bean));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("bean", evaluate("${bean.name}", bean, resolver));
+        }
+    }
+
+    @Test
+    public void testStandardResolvers() {
+        TesterBeanB bean = new TesterBeanB();
+        bean.setName("bean");
+
+        ELResolver resolver = new BeanELResolver();
+        assertTrue(PropertyAccessor.specialize(
+                null, resolver, bean, "name").isCompiled());
+        resolver = new ELContextImpl().getELResolver();
+        assertTrue(PropertyAccessor.specialize(
+                null, resolver, bean, "name").isCompiled());
+        // The standard resolvers handle maps before the bean resolver
+        assertFalse(PropertyAccessor.specialize(null, resolver,
+                new HashMap<String, String>(), "name").isCompiled());
+
+        // Any other resolver is not known to reach the bean resolver first
+        CompositeELResolver custom = new CompositeELResolver();
+        custom.add(new BeanELResolver());
+        PropertyAccessor accessor =
+            PropertyAccessor.specialize(null, custom, bean, "name");
+        assertFalse(accessor.isCompiled());
+        assertFalse(accessor.matches(resolver, bean));
+    }
+
+    @Test
+    public void testPropertyNotFound() {
+        TesterBeanB bean = new TesterBeanB();
+        for (int i = 0; i < 5; i++) {
+            try {
+                evaluate("${bean.missing}", bean, null);
+                fail();
+            } catch (PropertyNotFoundException e) {
+                // Expected
+            }
+        }
+    }
+
+    private Object evaluate(String expression, Object bean,
+            ELResolver resolver) {
+        ELContext context = (resolver == null) ?
+                new ELContextImpl() : new ELContextImpl(resolver);
+        ValueExpression var = factory.createValueExpression(bean,
+                bean.getClass());
+        context.getVariableMapper().setVariable("bean", var);
+        ValueExpression ve = factory.createValueExpression(context,
+                expression, Object.class);
+        return ve.getValue(context);
+    }
+
+    public static class TesterBeanC {
+        private final TesterBeanB bean = new TesterBeanB();
+
+        public TesterBeanB getBean() {
+            return bean;
+        }
+    }
+
+    public static class TesterBeanD {
+        public String getName() {
+            return "other";
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestClassFileCache {
+
+    private static final String RESOURCE_NAME =
+        TestClassFileCache.class.getName().replace('.', '/') + ".class";
+
+    @Test
+    public void testCached() throws Exception {
+        CountingClassLoader loader = new CountingClassLoader();
+        ClassFileCache cache = new ClassFileCache();
+
+        byte[] first = cache.getClassFile(RESOURCE_NAME, loader);
+        assertNotNull(first);
+        // Class file magic number
+        assertEquals((byte) 0xCA, first[0]);
+        assertEquals((byte) 0xFE, first[1]);
+        assertSame(first, cache.getClassFile(RESOURCE_NAME, loader));
+        assertEquals(1, loader.count);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMissingCached() throws Exception {
+        CountingClassLoader loader = new CountingClassLoader();
+        ClassFileCache cache = new ClassFileCache();
+
+        assertNull(cache.getClassFile("org/apache/Missing.class", loader));
+        assertNull(cache.getClassFile("org/apache/Missing.class", loader));
+        assertEquals(1, loader.count);
+
+        cache.clear();
+        assertNull(cache.getClassFile("org/apache/Missing.class", loader));
+        assertEquals(2, loader.count);
+    }
+
+    @Test
+    public void testReadNotCached() throws Exception {
+        CountingClassLoader loader = new CountingClassLoader();
+        assertNotNull(ClassFileCache.readClassFile(RESOURCE_NAME, loader));
+        assertNotNull(ClassFileCache.readClassFile(RESOURCE_NAME, loader));
+        assertEquals(2, loader.count);
+    }
+
+    private static class CountingClassLoader extends ClassLoader {
+
+        private int count = 0;
+
+        public CountingClassLoader() {
+            super(TestClassFileCache.class.getClassLoader());
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            count++;
+            return super.getResourceAsStream(name);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import org.apache.tomcat.InstanceManager;
+
+public class TestConcurrentTagHandlerPool {
+
+    @Test
+    public void testReuse() throws Exception {
+        ConcurrentTagHandlerPool pool = createPool(5, 1);
+        Tag first = pool.get(TesterTag.class);
+        pool.reuse(first);
+        assertSame(first, pool.get(TesterTag.class));
+        assertNotSame(first, pool.get(TesterTag.class));
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        doTestCapacity(2, 1);
+    }
+
+    @Test
+    public void testCapacityPerPage() throws Exception {
+        doTestCapacity(3, 0);
+    }
+
+    private void doTestCapacity(int maxSize, int threadCacheSize)
+            throws Exception {
+        ConcurrentTagHandlerPool pool = createPool(maxSize, threadCacheSize);
+        TesterTag[] tags = new TesterTag[6];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = (TesterTag) pool.get(TesterTag.class);
+        }
+        for (TesterTag tag : tags) {
+            pool.reuse(tag);
+        }
+        int kept = maxSize + threadCacheSize;
+        assertEquals(tags.length - kept, released(tags));
+        assertEquals(tags.length - kept, destroyed.get());
+
+        pool.release();
+        assertEquals(tags.length, released(tags));
+        assertEquals(tags.length, destroyed.get());
+    }
+
+    @Test
+    public void testDeadThreadHandlersReused() throws Exception {
+        final ConcurrentTagHandlerPool pool = createPool(1, 1);
+        final Tag[] tag = new Tag[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    tag[0] = pool.get(TesterTag.class);
+                    pool.reuse(tag[0]);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        t.join();
+
+        // The handler cached by the dead thread is moved to the shared slots
+        assertSame(tag[0], pool.get(TesterTag.class));
+        assertEquals(0, destroyed.get());
+    }
+
+    @Test
+    public void testReleaseLiveThreadCaches() throws Exception {
+        final ConcurrentTagHandlerPool pool = createPool(5, 1);
+        final TesterTag[] tag = new TesterTag[1];
+        final Object lock = new Object();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    tag[0] = (TesterTag) pool.get(TesterTag.class);
+                    pool.reuse(tag[0]);
+                    synchronized (lock) {
+                        lock.notifyAll();
+                        lock.wait();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        synchronized (lock) {
+            t.start();
+            lock.wait();
+        }
+        pool.release();
+        assertEquals(1, released(tag[0]));
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        t.join();
+    }
+
+    private final AtomicInteger destroyed = new AtomicInteger();
+
+    private ConcurrentTagHandlerPool createPool(int maxSize,
+            int threadCacheSize) {
+        ConcurrentTagHandlerPool pool = new ConcurrentTagHandlerPool();
+        pool.init(maxSize, threadCacheSize);
+        pool.instanceManager = new InstanceManager() {
+            @Override
+            public Object newInstance(Class<?> clazz) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public Object newInstance(String className) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public Object newInstance(String fqcn, ClassLoader classLoader) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public void newInstance(Object o) {
+                // NO-OP
+            }
+            @Override
+            public void destroyInstance(Object o) {
+                destroyed.incrementAndGet();
+            }
+        };
+        return pool;
+    }
+
+    private static int released(TesterTag... tags) {
+        int result = 0;
+        for (TesterTag tag : tags) {
+            result += tag.released;
+        }
+        return result;
+    }
+
+    public static class TesterTag extends TagSupport {
+
+        private static final long serialVersionUID = 1L;
+
+        private int released = 0;
+
+        @Override
+        public void release() {
+            released++;
+            super.release();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import org.junit.Test;
+
+import org.apache.catalina.filters.TesterServletContext;
+import org.apache.tomcat.InstanceManager;
+
+/**
+ * Compares the tag handler pools with several threads running a page that
+ * nests a few tags of the same class.
+ */
+public class TesterTagHandlerPoolPerformance {
+
+    private static final int ITERATIONS = 2000000;
+
+    private static final int NESTED_TAGS = 3;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testPools() throws Exception {
+        for (int threadCount : new int[] {1, 4, 16, 64}) {
+            int iterations = ITERATIONS / threadCount;
+
+            // Warm up
+            doTestPool(createPool(TagHandlerPool.class, null), threadCount,
+                    iterations / 10);
+            doTestPool(createPool(PerThreadTagHandlerPool.class, null),
+                    threadCount, iterations / 10);
+            doTestPool(createPool(ConcurrentTagHandlerPool.class, "1"),
+                    threadCount, iterations / 10);
+            doTestPool(createPool(ConcurrentTagHandlerPool.class, "0"),
+                    threadCount, iterations / 10);
+
+            System.out.println(threadCount + " threads: TagHandlerPool " +
+                    doTestPool(createPool(TagHandlerPool.class, null),
+                            threadCount, iterations) +
+                    "ms, PerThreadTagHandlerPool " +
+                    doTestPool(createPool(PerThreadTagHandlerPool.class, null),
+                            threadCount, iterations) +
+                    "ms, ConcurrentTagHandlerPool per-thread " +
+                    doTestPool(createPool(ConcurrentTagHandlerPool.class, "1"),
+                            threadCount, iterations) +
+                    "ms, ConcurrentTagHandlerPool per-page " +
+                    doTestPool(createPool(ConcurrentTagHandlerPool.class, "0"),
+                            threadCount, iterations) +
+                    "ms for " + iterations + " pages per thread");
+        }
+    }
+
+    private long doTestPool(final TagHandlerPool pool, int threadCount,
+            final int iterations) throws Exception {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    Tag[] tags = new Tag[NESTED_TAGS];
+                    try {
+                        for (int j = 0; j < iterations; j++) {
+                            for (int k = 0; k < NESTED_TAGS; k++) {
+                                tags[k] = pool.get(TesterTag.class);
+                            }
+                            for (int k = NESTED_TAGS - 1; k >= 0; k--) {
+                                pool.reuse(tags[k]);
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long result = System.currentTimeMillis() - start;
+        pool.release();
+        return result;
+    }
+
+    private TagHandlerPool createPool(Class<? extends TagHandlerPool> clazz,
+            String threadCacheSize) {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put(TagHandlerPool.OPTION_TAGPOOL, clazz.getName());
+        params.put(ConcurrentTagHandlerPool.OPTION_THREAD_CACHE_SIZE,
+                threadCacheSize);
+        final ServletContext context = new TesterServletContext() {
+            @Override
+            public Object getAttribute(String name) {
+                if (InstanceManager.class.getName().equals(name)) {
+                    return new TesterInstanceManager();
+                }
+                return null;
+            }
+        };
+        return TagHandlerPool.getTagHandlerPool(new ServletConfig() {
+            @Override
+            public String getServletName() {
+                return "jsp";
+            }
+            @Override
+            public ServletContext getServletContext() {
+                return context;
+            }
+            @Override
+            public String getInitParameter(String name) {
+                return params.get(name);
+            }
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    private static class TesterInstanceManager implements InstanceManager {
+        @Override
+        public Object newInstance(Class<?> clazz) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public Object newInstance(String className) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public Object newInstance(String fqcn, ClassLoader classLoader) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public void newInstance(Object o) {
+            // NO-OP
+        }
+        @Override
+        public void destroyInstance(Object o) {
+            // NO-OP
+        }
+    }
+
+    public static class TesterTag extends TagSupport {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.naming.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ConcurrentResourceCache}.
+ */
+public class TestConcurrentResourceCache {
+
+    @Test
+    public void testLoadLookupUnload() {
+        ConcurrentResourceCache cache = new ConcurrentResourceCache(1);
+        cache.setCacheMaxSize(100);
+
+        CacheEntry entry = createEntry("/index.html", 5);
+        cache.load(entry);
+        assertSame(entry, cache.lookup("/index.html"));
+        assertNull(cache.lookup("/missing.html"));
+        assertEquals(5, cache.getCacheSize());
+        assertEquals(2, cache.getAccessCount());
+        assertEquals(1, cache.getHitsCount());
+
+        // Duplicates are ignored
+        cache.load(createEntry("/index.html", 5));
+        assertSame(entry, cache.lookup("/index.html"));
+        assertEquals(1, cache.getEntryCount());
+
+        assertTrue(cache.unload("/index.html"));
+        assertFalse(cache.unload("/index.html"));
+        assertNull(cache.lookup("/index.html"));
+        assertEquals(0, cache.getCacheSize());
+    }
+
+
+    @Test
+    public void testSizeLimit() {
+        ConcurrentResourceCache cache = new ConcurrentResourceCache(4);
+        cache.setCacheMaxSize(400);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.load(createEntry("/file" + i, 1 + (i % 7)));
+            assertTrue(cache.getCacheSize() <= 400);
+        }
+        assertTrue(cache.getEvictionCount() + cache.getRejectionCount() > 0);
+
+        // Larger than a segment
+        cache.load(createEntry("/large", 101));
+        assertNull(cache.lookup("/large"));
+
+        // Reducing the size evicts entries
+        cache.setCacheMaxSize(40);
+        assertTrue(cache.getCacheSize() <= 40);
+    }
+
+
+    @Test
+    public void testScanResistance() {
+        ConcurrentResourceCache cache = new ConcurrentResourceCache(1);
+        cache.setCacheMaxSize(100);
+
+        // Frequently used entries
+        for (int i = 0; i < 50; i++) {
+            cache.load(createEntry("/hot" + i, 1));
+        }
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 50; i++) {
+                assertNotNull(cache.lookup("/hot" + i));
+            }
+        }
+
+        // A scan over many resources that are each requested only once
+        for (int i = 0; i < 10000; i++) {
+            String name = "/cold" + i;
+            if (cache.lookup(name) == null) {
+                cache.load(createEntry(name, 1));
+            }
+        }
+
+        int hits = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.lookup("/hot" + i) != null) {
+                hits++;
+            }
+        }
+        assertEquals(50, hits);
+    }
+
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentResourceCache cache = new ConcurrentResourceCache();
+        cache.setCacheMaxSize(256);
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        String name = "/r" + ((i * 31 + seed) % 2000);
+                        if (cache.lookup(name) == null) {
+                            cache.load(createEntry(name, 1 + (i % 3)));
+                        }
+                        if (i % 100 == 0) {
+                            cache.unload(name);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(cache.getCacheSize() <= 256);
+        assertEquals(160000, cache.getAccessCount());
+    }
+
+
+    private static CacheEntry createEntry(String name, int size) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.size = size;
+        return entry;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.naming.resources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link MappedFileCache}.
+ */
+public class TestMappedFileCache {
+
+    @Test
+    public void testMapping() throws IOException {
+        File file = createFile(100);
+        try {
+            MappedFileCache cache = new MappedFileCache(1024, 512);
+            ByteBuffer buffer = cache.getBuffer(file.getCanonicalPath(),
+                    file.length(), file.lastModified());
+            assertNotNull(buffer);
+            assertEquals(100, buffer.remaining());
+            assertEquals(42, buffer.get(42));
+
+            // Callers may change the position without affecting others
+            buffer.position(50);
+            buffer = cache.getBuffer(file.getCanonicalPath(),
+                    file.length(), file.lastModified());
+            assertEquals(0, buffer.position());
+            assertEquals(1, cache.getHitsCount());
+            assertEquals(100, cache.getSize());
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    @Test
+    public void testLimits() throws IOException {
+        File file1 = createFile(400);
+        File file2 = createFile(400);
+        File file3 = createFile(600);
+        try {
+            MappedFileCache cache = new MappedFileCache(1000, 500);
+            assertNull(cache.getBuffer(file3.getCanonicalPath(),
+                    file3.length(), file3.lastModified()));
+            assertNotNull(cache.getBuffer(file1.getCanonicalPath(),
+                    file1.length(), file1.lastModified()));
+            assertNotNull(cache.getBuffer(file2.getCanonicalPath(),
+                    file2.length(), file2.lastModified()));
+            assertEquals(800, cache.getSize());
+
+            cache = new MappedFileCache(500, 500);
+            assertNotNull(cache.getBuffer(file1.getCanonicalPath(),
+                    file1.length(), file1.lastModified()));
+            assertNotNull(cache.getBuffer(file2.getCanonicalPath(),
+                    file2.length(), file2.lastModified()));
+            assertEquals(400, cache.getSize());
+            assertEquals(1, cache.getEvictionCount());
+        } finally {
+            file1.delete();
+            file2.delete();
+            file3.delete();
+        }
+    }
+
+
+    @Test
+    public void testFileChanged() throws IOException {
+        File file = createFile(100);
+        try {
+            MappedFileCache cache = new MappedFileCache(1024, 512);
+            String path = file.getCanonicalPath();
+            long lastModified = file.lastModified();
+            assertNotNull(cache.getBuffer(path, 100, lastModified));
+
+            // Truncate the file
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.close();
+            assertTrue(file.setLastModified(lastModified));
+
+            assertNull(cache.getBuffer(path, 100, lastModified));
+            assertEquals(1, cache.getInvalidationCount());
+            assertEquals(0, cache.getSize());
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    private static File createFile(int length) throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+}
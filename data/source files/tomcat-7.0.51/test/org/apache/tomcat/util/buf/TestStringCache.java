@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link StringCache}.
+ */
+public class TestStringCache {
+
+    private final StringCache cache = new StringCache();
+
+    @Before
+    public void setUp() {
+        cache.setByteEnabled(true);
+        cache.setCharEnabled(true);
+        cache.setTrainThreshold(20000);
+        cache.setCacheSize(200);
+    }
+
+
+    @After
+    public void tearDown() {
+        cache.setByteEnabled(false);
+        cache.setCharEnabled(false);
+        cache.reset();
+    }
+
+
+    @Test
+    public void testByteChunk() throws Exception {
+        ByteChunk bc = new ByteChunk();
+        byte[] bytes = "xxAcceptxx".getBytes("ISO-8859-1");
+        bc.setBytes(bytes, 2, 6);
+
+        String first = bc.toString();
+        String second = bc.toString();
+        // Not admitted until it has been seen more than once
+        assertNotSame(first, second);
+        assertEquals("Accept", second);
+        assertSame(second, bc.toString());
+        assertSame(second, bc.toString());
+
+        assertEquals(4, cache.getAccessCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(24, cache.getBytesSaved());
+        assertEquals(1, cache.getEntryCount());
+
+        // Same bytes, different charset
+        bc.setCharset(B2CConverter.getCharset("UTF-8"));
+        assertNotSame(second, bc.toString());
+    }
+
+
+    @Test
+    public void testCharChunk() {
+        CharChunk cc = new CharChunk();
+        char[] chars = "Content-Type".toCharArray();
+        cc.setChars(chars, 0, chars.length);
+
+        cc.toString();
+        String cached = cc.toString();
+        assertSame(cached, cc.toString());
+        assertEquals("Content-Type", cached);
+
+        // A different value in the same buffer is not confused with it
+        chars[0] = 'c';
+        assertEquals("content-Type", cc.toString());
+    }
+
+
+    @Test
+    public void testMaxStringSize() {
+        CharChunk cc = new CharChunk();
+        char[] chars = new char[cache.getMaxStringSize()];
+        cc.setChars(chars, 0, chars.length);
+        for (int i = 0; i < 5; i++) {
+            cc.toString();
+        }
+        assertEquals(0, cache.getAccessCount());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+
+    @Test
+    public void testAdaptive() {
+        cache.setTrainThreshold(1000);
+        CharChunk cc = new CharChunk();
+
+        // Fill the cache with a first set of Strings
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 100; j++) {
+                toString(cc, "old" + j);
+            }
+        }
+        int hits = cache.getHitCount();
+        assertTrue(hits > 500);
+
+        // The workload changes completely and the cache follows it
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 100; j++) {
+                toString(cc, "new" + j);
+            }
+        }
+        hits = cache.getHitCount();
+        for (int j = 0; j < 100; j++) {
+            toString(cc, "new" + j);
+        }
+        assertTrue(cache.getHitCount() - hits > 50);
+    }
+
+
+    private static String toString(CharChunk cc, String value) {
+        char[] chars = value.toCharArray();
+        cc.setChars(chars, 0, chars.length);
+        return cc.toString();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.lang.reflect.Field;
+import java.util.Enumeration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests the lookups by name through the index of the header names.
+ */
+public class TestMimeHeadersIndex {
+
+    @Test
+    public void testLookup() {
+        MimeHeaders mh = new MimeHeaders();
+        addBytes(mh, "host", "localhost");
+        mh.addValue("Accept").setString("*/*");
+        char[] name = "X-Forwarded-For".toCharArray();
+        mh.addValue(name, 0, name.length).setString("10.0.0.1");
+
+        assertEquals("localhost", mh.getHeader("Host"));
+        assertEquals("*/*", mh.getHeader("ACCEPT"));
+        assertEquals("10.0.0.1", mh.getHeader("x-forwarded-for"));
+        assertNull(mh.getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void testParsedHash() {
+        MimeHeaders mh = new MimeHeaders();
+        byte[] name = "content-type".getBytes();
+        int hash = 0;
+        for (byte b : name) {
+            hash = MimeHeaders.updateNameHash(hash, b);
+        }
+        mh.addValue(name, 0, name.length, hash).setString("text/plain");
+        assertEquals("text/plain", mh.getHeader("Content-Type"));
+    }
+
+    @Test
+    public void testDuplicates() {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < 40; i++) {
+            mh.addValue("X-Header-" + i).setString("v" + i);
+            mh.addValue("Via").setString("proxy" + i);
+        }
+        assertEquals(1, mh.findHeader("via", 0));
+        assertEquals(3, mh.findHeader("VIA", 2));
+        assertEquals(-1, mh.findHeader("Via", 80));
+        Enumeration<String> values = mh.values("via");
+        for (int i = 0; i < 40; i++) {
+            assertEquals("proxy" + i, values.nextElement());
+        }
+        assertFalse(values.hasMoreElements());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("v" + i, mh.getHeader("x-header-" + i));
+        }
+        try {
+            mh.getUniqueValue("Via");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals("v7", mh.getUniqueValue("X-HEADER-7").toString());
+    }
+
+    @Test
+    public void testRemove() {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < 20; i++) {
+            mh.addValue("X-Header-" + i).setString("v" + i);
+            mh.addValue("Via").setString("proxy" + i);
+        }
+        mh.removeHeader("x-header-3");
+        mh.removeHeader("Missing");
+        assertEquals(39, mh.size());
+        assertNull(mh.getHeader("X-Header-3"));
+        for (int i = 0; i < 20; i++) {
+            if (i != 3) {
+                assertEquals("v" + i, mh.getHeader("X-Header-" + i));
+            }
+        }
+
+        mh.setValue("via").setString("single");
+        assertEquals(20, mh.size());
+        assertEquals("single", mh.getUniqueValue("Via").toString());
+
+        mh.removeHeader("VIA");
+        assertEquals(19, mh.size());
+        assertNull(mh.getValue("Via"));
+        mh.addValue("Via").setString("again");
+        assertEquals("again", mh.getHeader("via"));
+    }
+
+    @Test
+    public void testNonAscii() {
+        MimeHeaders mh = new MimeHeaders();
+        mh.addValue("Accept").setString("*/*");
+        mh.addValue("\u00c4-Header").setString("a");
+        byte[] name = new byte[] {(byte) 0xc4, 'b'};
+        mh.addValue(name, 0, name.length).setString("b");
+        for (int i = 0; i < 10; i++) {
+            mh.addValue("X-Header-" + i).setString("v" + i);
+        }
+
+        assertEquals("*/*", mh.getHeader("accept"));
+        assertEquals("v9", mh.getHeader("x-header-9"));
+        assertEquals("a", mh.getHeader("\u00e4-header"));
+
+        mh.removeHeader("\u00c4-Header");
+        assertEquals("*/*", mh.getHeader("ACCEPT"));
+        assertEquals("v9", mh.getHeader("X-HEADER-9"));
+        assertEquals("b", mh.getValue(2).toString());
+    }
+
+    @Test
+    public void testRecycle() throws Exception {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < 100; i++) {
+            mh.addValue("X-Header-" + i).setString("v" + i);
+        }
+        Field indexField = MimeHeaders.class.getDeclaredField("index");
+        indexField.setAccessible(true);
+        Object index = indexField.get(mh);
+        assertEquals(256, ((int[]) index).length);
+
+        mh.recycle();
+        assertNull(mh.getHeader("X-Header-1"));
+        for (int i = 0; i < 100; i++) {
+            addBytes(mh, "x-header-" + i, "r" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("r" + i, mh.getHeader("X-Header-" + i));
+        }
+        assertSame(index, indexField.get(mh));
+    }
+
+    private static void addBytes(MimeHeaders mh, String name, String value) {
+        byte[] b = name.getBytes();
+        mh.addValue(b, 0, b.length).setString(value);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestMultipartParser {
+
+    private static final String BOUNDARY = "----xyz";
+
+    private static final String BODY =
+            "preamble\r\n" +
+            "------xyz\r\n" +
+            "Content-Disposition: form-data; name=\"a\"\r\n" +
+            "\r\n" +
+            "value\r\n" +
+            "------xyz  \r\n" +
+            "Content-Disposition: form-data; name=\"f\";\r\n" +
+            "\tfilename=\"f.txt\"\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n" +
+            "line1\r\n--\r\n------xy\r\nline3\r\n" +
+            "\r\n" +
+            "------xyz\r\n" +
+            "\r\n" +
+            "\r\n" +
+            "------xyz--\r\n" +
+            "epilogue\r\n------xyz\r\n";
+
+    @Test
+    public void testWhole() throws Exception {
+        doTestChunks(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testByteByByte() throws Exception {
+        doTestChunks(1);
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        for (int i = 2; i < 20; i++) {
+            doTestChunks(i);
+        }
+    }
+
+    private void doTestChunks(int chunkSize) throws Exception {
+        TesterHandler handler = new TesterHandler();
+        MultipartParser parser = parse(handler, BODY, chunkSize, -1, -1);
+        parser.finish();
+
+        assertEquals(3, handler.parts.size());
+        assertEquals("form-data; name=\"a\"", handler.headers.get(0));
+        assertEquals("value", handler.parts.get(0));
+        assertEquals("form-data; name=\"f\";\tfilename=\"f.txt\"",
+                handler.headers.get(1));
+        assertEquals("line1\r\n--\r\n------xy\r\nline3\r\n",
+                handler.parts.get(1));
+        assertNull(handler.headers.get(2));
+        assertEquals("", handler.parts.get(2));
+    }
+
+    @Test
+    public void testNoPreamble() throws Exception {
+        TesterHandler handler = new TesterHandler();
+        parse(handler, "------xyz\r\n\r\ndata\r\n------xyz--", 3, -1, -1)
+                .finish();
+        assertEquals(1, handler.parts.size());
+        assertEquals("data", handler.parts.get(0));
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        TesterHandler handler = new TesterHandler();
+        MultipartParser parser = parse(handler,
+                "------xyz\r\n\r\ndata\r\n------xy", 5, -1, -1);
+        assertFalse(parser.isComplete());
+        try {
+            parser.finish();
+            fail();
+        } catch (IOException ioe) {
+            // Expected
+        }
+        assertEquals(0, handler.parts.size());
+    }
+
+    @Test
+    public void testMalformedBoundary() throws Exception {
+        try {
+            parse(new TesterHandler(), "------xyzabc\r\n\r\ndata", 100, -1, -1);
+            fail();
+        } catch (IOException ioe) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMaxPartSize() throws Exception {
+        TesterHandler handler = new TesterHandler();
+        parse(handler, BODY, 7, 28, -1);
+        try {
+            parse(new TesterHandler(), BODY, 7, 27, -1);
+            fail();
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        parse(new TesterHandler(), BODY, 7, -1, BODY.length());
+        try {
+            parse(new TesterHandler(), BODY, 7, -1, BODY.length() - 1);
+            fail();
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testMaxHeaderSize() throws Exception {
+        MultipartParser parser = new MultipartParser(BOUNDARY,
+                new TesterHandler(), -1, -1);
+        parser.setMaxHeaderSize(20);
+        byte[] body = BODY.getBytes(B2CConverter.ISO_8859_1);
+        try {
+            parser.parse(body, 0, body.length);
+            fail();
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSpooling() throws Exception {
+        final List<Object> contents = new ArrayList<Object>();
+        SpoolingPartHandler handler = new SpoolingPartHandler(null, 10) {
+            @Override
+            protected void part(MimeHeaders headers, ByteChunk content,
+                    File file, long size) throws IOException {
+                if (content != null) {
+                    assertEquals(size, content.getLength());
+                    contents.add(content.toString());
+                } else {
+                    assertEquals(size, file.length());
+                    contents.add(file);
+                }
+            }
+        };
+        parse(handler, BODY, 4, -1, -1).finish();
+
+        assertEquals(3, contents.size());
+        assertEquals("value", contents.get(0));
+        File file = (File) contents.get(1);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] buf = new byte[64];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            assertArrayEquals("line1\r\n--\r\n------xy\r\nline3\r\n".getBytes(
+                    B2CConverter.ISO_8859_1), out.toByteArray());
+        } finally {
+            assertTrue(file.delete());
+        }
+        assertEquals("", contents.get(2));
+    }
+
+    @Test
+    public void testSpoolingFirstDataOverThreshold() throws Exception {
+        final List<File> files = new ArrayList<File>();
+        SpoolingPartHandler handler = new SpoolingPartHandler(null, 4) {
+            @Override
+            protected void part(MimeHeaders headers, ByteChunk content,
+                    File file, long size) throws IOException {
+                assertNull(content);
+                assertEquals(size, file.length());
+                files.add(file);
+            }
+        };
+        byte[] data = "0123456789".getBytes(B2CConverter.ISO_8859_1);
+        handler.startPart(new MimeHeaders());
+        handler.partData(data, 0, data.length);
+        handler.endPart();
+
+        assertEquals(1, files.size());
+        File file = files.get(0);
+        try {
+            assertEquals(10, file.length());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static MultipartParser parse(MultipartParser.Handler handler,
+            String body, int chunkSize, long maxPartSize, long maxSize)
+            throws IOException {
+        MultipartParser parser = new MultipartParser(BOUNDARY, handler,
+                maxPartSize, maxSize);
+        byte[] bytes = body.getBytes(B2CConverter.ISO_8859_1);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            // Copy to check that the parser does not keep the input
+            int len = Math.min(chunkSize, bytes.length - i);
+            byte[] chunk = new byte[len];
+            System.arraycopy(bytes, i, chunk, 0, len);
+            parser.parse(chunk, 0, len);
+        }
+        return parser;
+    }
+
+    private static class TesterHandler implements MultipartParser.Handler {
+
+        private final List<String> headers = new ArrayList<String>();
+        private final List<String> parts = new ArrayList<String>();
+        private ByteArrayOutputStream current;
+
+        @Override
+        public void startPart(MimeHeaders headers) {
+            this.headers.add(headers.getHeader("content-disposition"));
+            current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void partData(byte[] b, int off, int len) {
+            current.write(b, off, len);
+        }
+
+        @Override
+        public void endPart() throws IOException {
+            parts.add(new String(current.toByteArray(), "ISO-8859-1"));
+            current = null;
+        }
+    }
+}
@@ -75,6 +75,92 @@ public class TestParameters {
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
     }
 
+    @Test
+    public void testProcessParametersByteArrayIntIntLazy() {
+        doTestProcessParametersByteArrayIntInt(true, -1,
+                SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY, UTF8);
+        doTestProcessParametersByteArrayIntInt(true, -1,
+                UTF8, SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY);
+        doTestProcessParametersByteArrayIntInt(true, 2,
+                SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
+        doTestProcessParametersByteArrayIntInt(true, 4,
+                SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
+    }
+
+    @Test
+    public void testLazyLookups() {
+        Parameters p = createLazyParameters(
+                "a=1&b=%41&c&a=2&%62=3&d=%zz&\u00e9=%C3%A9");
+
+        assertEquals("1", p.getParameter("a"));
+        assertArrayEquals(new String[] {"1", "2"}, p.getParameterValues("a"));
+        assertArrayEquals(new String[] {"A", "3"}, p.getParameterValues("b"));
+        assertEquals("", p.getParameter("c"));
+        assertNull(p.getParameter("missing"));
+        assertEquals("\u00e9", p.getParameter("\u00e9"));
+        assertNull(p.getParameter("d"));
+
+        // Listing the names decodes everything
+        Enumeration<String> names = p.getParameterNames();
+        assertEquals("a", names.nextElement());
+        assertEquals("b", names.nextElement());
+        assertEquals("c", names.nextElement());
+        assertEquals("\u00e9", names.nextElement());
+        assertFalse(names.hasMoreElements());
+        assertArrayEquals(new String[] {"A", "3"}, p.getParameterValues("b"));
+        assertTrue(p.isParseFailed());
+    }
+
+    @Test
+    public void testLazyParseFailed() {
+        Parameters p = createLazyParameters("a=1&b=%zz");
+        assertEquals("1", p.getParameter("a"));
+        // Detecting the failure decodes the other parameters
+        assertTrue(p.isParseFailed());
+        assertNull(p.getParameter("b"));
+    }
+
+    @Test
+    public void testLazyManyLookups() {
+        Parameters p = createLazyParameters("a=1&b=2&a=3");
+        for (int i = 0; i < 20; i++) {
+            assertEquals("1", p.getParameter("a"));
+            assertArrayEquals(new String[] {"1", "3"},
+                    p.getParameterValues("a"));
+            assertEquals("2", p.getParameter("b"));
+        }
+    }
+
+    @Test
+    public void testLazyAddParameter() {
+        Parameters p = createLazyParameters("a=1&b=2");
+        p.addParameter("a", "3");
+        byte[] data = "a=4".getBytes();
+        p.processParameters(data, 0, data.length);
+        assertArrayEquals(new String[] {"1", "3", "4"},
+                p.getParameterValues("a"));
+
+        p.recycle();
+        assertNull(p.getParameter("a"));
+        data = "c=5".getBytes();
+        p.processParameters(data, 0, data.length);
+        assertEquals("5", p.getParameter("c"));
+    }
+
+    private Parameters createLazyParameters(String query) {
+        Parameters p = new Parameters();
+        p.setEncoding("UTF-8");
+        p.setLazy(true);
+        byte[] data;
+        try {
+            data = query.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        p.processParameters(data, 0, data.length);
+        return p;
+    }
+
     // Make sure the inner Parameter class behaves correctly
     @Test
     public void testInternal() {
@@ -89,6 +175,12 @@ public class TestParameters {
 
     private long doTestProcessParametersByteArrayIntInt(int limit,
             Parameter... parameters) {
+        return doTestProcessParametersByteArrayIntInt(false, limit,
+                parameters);
+    }
+
+    private long doTestProcessParametersByteArrayIntInt(boolean lazy,
+            int limit, Parameter... parameters) {
 
         // Build the byte array
         StringBuilder input = new StringBuilder();
@@ -107,6 +199,7 @@ public class TestParameters {
         Parameters p = new Parameters();
         p.setEncoding("UTF-8");
         p.setLimit(limit);
+        p.setLazy(lazy);
 
         long start = System.nanoTime();
         p.processParameters(data, 0, data.length);
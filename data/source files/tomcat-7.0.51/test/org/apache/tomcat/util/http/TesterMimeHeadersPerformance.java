@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+/**
+ * Compares the indexed lookups of {@link MimeHeaders} with a scan of the
+ * headers, for a browser request and for a request that went through an API
+ * gateway, using the lookups a request typically does.
+ */
+public class TesterMimeHeadersPerformance {
+
+    private static final int ITERATIONS = 200000;
+
+    /**
+     * The processor, the valves and the application each look up headers.
+     */
+    private static final int LOOKUP_ROUNDS = 4;
+
+    private static final String[] BROWSER_HEADERS = new String[] {
+        "host", "connection", "cache-control", "accept", "user-agent",
+        "accept-encoding", "accept-language", "cookie"};
+
+    private static final String[] LOOKUPS = new String[] {
+        "Host", "Content-Length", "Transfer-Encoding", "Connection",
+        "Expect", "User-Agent", "Content-Type", "Content-Encoding", "Cookie",
+        "Accept-Language", "Authorization", "If-Modified-Since",
+        "If-None-Match", "Range", "X-Forwarded-For", "X-Request-Id"};
+
+    @Test
+    public void testLookups() {
+        byte[][] gateway = createGatewayHeaders(64);
+        byte[][] browser = new byte[BROWSER_HEADERS.length][];
+        for (int i = 0; i < browser.length; i++) {
+            browser[i] = BROWSER_HEADERS[i].getBytes();
+        }
+        MimeHeaders mh = new MimeHeaders();
+
+        // Warm up
+        doTest(mh, browser, true, ITERATIONS / 10);
+        doTest(mh, browser, false, ITERATIONS / 10);
+        doTest(mh, gateway, true, ITERATIONS / 10);
+        doTest(mh, gateway, false, ITERATIONS / 10);
+
+        System.out.println(browser.length + " headers: index " +
+                doTest(mh, browser, true, ITERATIONS) + "ms, scan " +
+                doTest(mh, browser, false, ITERATIONS) + "ms for " +
+                ITERATIONS + " requests");
+        System.out.println(gateway.length + " headers: index " +
+                doTest(mh, gateway, true, ITERATIONS) + "ms, scan " +
+                doTest(mh, gateway, false, ITERATIONS) + "ms for " +
+                ITERATIONS + " requests");
+    }
+
+    private long doTest(MimeHeaders mh, byte[][] names, boolean indexed,
+            int iterations) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] name : names) {
+                // As parsed by InternalNioInputBuffer
+                int hash = 0;
+                for (byte b : name) {
+                    hash = MimeHeaders.updateNameHash(hash, b);
+                }
+                mh.addValue(name, 0, name.length, hash).setString("value");
+            }
+            int found = 0;
+            for (int j = 0; j < LOOKUP_ROUNDS; j++) {
+                for (String lookup : LOOKUPS) {
+                    if ((indexed ? mh.findHeader(lookup, 0) :
+                            scan(mh, lookup)) >= 0) {
+                        found++;
+                    }
+                }
+            }
+            assertNotNull(found > 0 ? mh : null);
+            mh.recycle();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static int scan(MimeHeaders mh, String name) {
+        for (int i = 0; i < mh.size(); i++) {
+            if (mh.getName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[][] createGatewayHeaders(int count) {
+        String[] common = new String[] {
+            "host", "user-agent", "accept", "accept-encoding",
+            "accept-language", "authorization", "content-type",
+            "content-length", "x-forwarded-for", "x-forwarded-proto",
+            "x-forwarded-port", "x-forwarded-host", "x-real-ip",
+            "x-request-id", "x-correlation-id", "x-amzn-trace-id",
+            "traceparent", "tracestate", "b3", "forwarded", "via",
+            "cookie", "cache-control", "pragma", "connection"};
+        byte[][] result = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            String name = i < common.length ? common[i] :
+                "x-gateway-attribute-" + (i - common.length);
+            result[i] = name.getBytes();
+        }
+        return result;
+    }
+}
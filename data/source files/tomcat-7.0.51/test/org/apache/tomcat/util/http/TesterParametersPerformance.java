@@ -72,6 +72,43 @@ public class TesterParametersPerformance {
         return result;
     }
 
+    @Test
+    public void testLazyParsing() {
+        // A form with 200 parameters of which the application reads two
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) {
+                form.append('&');
+            }
+            form.append("field").append(i).append("=value+").append(i);
+        }
+        byte[] input = form.toString().getBytes();
+        Parameters p = new Parameters();
+
+        // Warm up
+        doTestLazyParsing(p, input, false, 10000);
+        doTestLazyParsing(p, input, true, 10000);
+
+        System.out.println("Eager: " +
+                doTestLazyParsing(p, input, false, 100000) + "ms, lazy: " +
+                doTestLazyParsing(p, input, true, 100000) + "ms for 100000 " +
+                "forms");
+    }
+
+    private long doTestLazyParsing(Parameters p, byte[] input, boolean lazy,
+            int iterations) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < iterations; i++) {
+            p.setEncoding("ISO-8859-1");
+            p.setLazy(lazy);
+            p.processParameters(input, 0, input.length);
+            assertEquals("value 7", p.getParameter("field7"));
+            assertEquals("value 150", p.getParameter("field150"));
+            p.recycle();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
     @Test
     public void testCreateString() throws UnsupportedEncodingException {
         B2CConverter.getCharset("ISO-8859-1");
@@ -163,6 +163,49 @@ public class TestMapper extends LoggingBaseTest {
         assertTrue(mappingData.redirectPath.isNull());
     }
 
+    @Test
+    public void testWrapperTree() throws Exception {
+        Mapper mapper = new Mapper();
+        mapper.setContext("/ctx", new String[0], null);
+        String[] patterns = new String[] { "", "/", "/*", "/a", "/a/*",
+                "/a/b", "/a/b/", "/a/b/*", "/a/bc/*", "/b/*", "/b/c",
+                "*.jsp", "*.do", "/c/d/e/*", "/c/d" };
+        for (int i = 0; i < patterns.length; i++) {
+            mapper.addWrapper(patterns[i], "wrapper" + i, false, false);
+        }
+        mapper.removeWrapper("/b/*");
+
+        String[] uris = new String[] { "/ctx", "/ctx/", "/ctx/a", "/ctx/a/",
+                "/ctx/a/b", "/ctx/a/b/", "/ctx/a/b/c", "/ctx/a/bc",
+                "/ctx/a/bcd", "/ctx/a/bc/d.jsp", "/ctx/b", "/ctx/b/c",
+                "/ctx/b/c/d", "/ctx/x.jsp", "/ctx/x/y.do", "/ctx/c/d",
+                "/ctx/c/d/e", "/ctx/c/d/e/f", "/ctx/c/d/ef", "/ctx//a",
+                "/ctx/A/b" };
+        for (String uri : uris) {
+            MappingData expected = map(mapper, uri, false);
+            MappingData actual = map(mapper, uri, true);
+            assertEquals(uri, expected.wrapper, actual.wrapper);
+            assertEquals(uri, expected.wrapperPath.toString(),
+                    actual.wrapperPath.toString());
+            assertEquals(uri, expected.pathInfo.toString(),
+                    actual.pathInfo.toString());
+            assertEquals(uri, expected.requestPath.toString(),
+                    actual.requestPath.toString());
+            assertEquals(uri, expected.redirectPath.toString(),
+                    actual.redirectPath.toString());
+        }
+    }
+
+    private static MappingData map(Mapper mapper, String uri,
+            boolean useWrapperTree) throws Exception {
+        mapper.useWrapperTree = useWrapperTree;
+        MappingData mappingData = new MappingData();
+        MessageBytes mb = MessageBytes.newInstance();
+        mb.setString(uri);
+        mapper.map(mb, mappingData);
+        return mappingData;
+    }
+
     @Test
     public void testPerformance() throws Exception {
         // Takes ~1s on markt's laptop. If this takes more than 5s something
@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http.mapper;
+
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Compares wrapper mapping using the compiled {@link Mapper.WrapperTree} with
+ * the binary searches over the sorted wrapper arrays.
+ */
+public class TesterMapperPerformance {
+
+    private static final int ITERATIONS = 2000000;
+
+    @Test
+    public void testWrapperMapping() throws Exception {
+        Mapper mapper = new Mapper();
+        mapper.setContext("/ctx", new String[0], null);
+        mapper.addWrapper("/", "default", false, false);
+        mapper.addWrapper("*.jsp", "jsp", false, false);
+        for (int i = 0; i < 200; i++) {
+            mapper.addWrapper("/api/v" + (i % 5) + "/service" + i + "/*",
+                    "wildcard" + i, false, false);
+            mapper.addWrapper("/pages/section" + i + "/index", "exact" + i,
+                    false, false);
+        }
+
+        String[] uris = new String[] {
+                "/ctx/api/v3/service123/items/42",
+                "/ctx/pages/section77/index",
+                "/ctx/static/css/site.css",
+                "/ctx/pages/section12/view.jsp" };
+
+        // Warm up
+        doTest(mapper, uris, true);
+        doTest(mapper, uris, false);
+
+        for (int i = 0; i < 3; i++) {
+            System.out.println("Wrapper tree:   " +
+                    doTest(mapper, uris, true) + "ms");
+            System.out.println("Sorted arrays:  " +
+                    doTest(mapper, uris, false) + "ms");
+        }
+    }
+
+    private long doTest(Mapper mapper, String[] uris, boolean useWrapperTree)
+            throws Exception {
+        mapper.useWrapperTree = useWrapperTree;
+        MappingData mappingData = new MappingData();
+        MessageBytes[] mbs = new MessageBytes[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            mbs[i] = MessageBytes.newInstance();
+            mbs[i].setString(uris[i]);
+            mbs[i].toChars();
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mappingData.recycle();
+            mapper.map(mbs[i % mbs.length], mappingData);
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+/**
+ * Test case for the shards of the NIO endpoint.
+ */
+public class TestNioEndpointShards extends TomcatBaseTest {
+
+    @Override
+    protected String getProtocol() {
+        return Http11NioProtocol.class.getName();
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        doTestShards(true);
+    }
+
+    @Test
+    public void testSharedSocket() throws Exception {
+        doTestShards(false);
+    }
+
+    private void doTestShards(boolean reusePort) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("shardCount", "4");
+        tomcat.getConnector().setAttribute("reusePort",
+                Boolean.toString(reusePort));
+        addServlet(tomcat);
+        tomcat.start();
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(HelloWorldServlet.RESPONSE_TEXT,
+                    getUrl("http://localhost:" + getPort() + "/").toString());
+        }
+
+        NioEndpoint endpoint = ((Http11NioProtocol)
+                tomcat.getConnector().getProtocolHandler()).getEndpoint();
+        String[] statistics = endpoint.getShardStatistics();
+        assertEquals(4, statistics.length);
+        long accepted = 0;
+        for (int i = 0; i < statistics.length; i++) {
+            String count = statistics[i].substring(
+                    "accepted=".length(), statistics[i].indexOf(','));
+            accepted += Long.parseLong(count);
+        }
+        assertTrue(accepted > 0);
+
+        // The shards still accept connections after a restart
+        tomcat.getConnector().stop();
+        tomcat.getConnector().start();
+        assertEquals(HelloWorldServlet.RESPONSE_TEXT,
+                getUrl("http://localhost:" + getPort() + "/").toString());
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("shardCount", "2");
+        tomcat.getConnector().setAttribute("maxConnections", "1");
+        tomcat.getConnector().setAttribute("selectorTimeout", "100");
+        addServlet(tomcat);
+        tomcat.start();
+
+        Socket first = new Socket("localhost", getPort());
+        Socket second = null;
+        try {
+            assertEquals("HTTP/1.1 200 OK", request(first, 10000));
+
+            // The keep-alive connection holds the only permit
+            second = new Socket("localhost", getPort());
+            try {
+                request(second, 1000);
+                fail();
+            } catch (SocketTimeoutException ste) {
+                // Expected
+            }
+
+            first.close();
+            assertEquals("HTTP/1.1 200 OK", readStatus(second, 10000));
+        } finally {
+            first.close();
+            if (second != null) {
+                second.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxConnectionsClosedByWorker() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("shardCount", "1");
+        tomcat.getConnector().setAttribute("maxConnections", "1");
+        // Longer than the read timeouts, the shard must not wait for it
+        tomcat.getConnector().setAttribute("selectorTimeout", "30000");
+        addServlet(tomcat);
+        tomcat.start();
+
+        Socket first = new Socket("localhost", getPort());
+        Socket second = null;
+        try {
+            assertEquals("HTTP/1.1 200 OK", request(first, 10000));
+
+            second = new Socket("localhost", getPort());
+            OutputStream os = second.getOutputStream();
+            os.write(("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(B2CConverter.ISO_8859_1));
+            os.flush();
+            Thread.sleep(500);
+
+            // The connection is closed by the thread processing the request
+            os = first.getOutputStream();
+            os.write(("GET / HTTP/1.1\r\nHost: localhost\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(
+                            B2CConverter.ISO_8859_1));
+            os.flush();
+            assertEquals("HTTP/1.1 200 OK", readStatus(first, 10000));
+
+            assertEquals("HTTP/1.1 200 OK", readStatus(second, 10000));
+        } finally {
+            first.close();
+            if (second != null) {
+                second.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPause() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("shardCount", "2");
+        tomcat.getConnector().setAttribute("selectorTimeout", "100");
+        addServlet(tomcat);
+        tomcat.start();
+
+        tomcat.getConnector().pause();
+        Socket socket = new Socket("localhost", getPort());
+        try {
+            // The connection waits in the backlog rather than being closed
+            try {
+                request(socket, 1000);
+                fail();
+            } catch (SocketTimeoutException ste) {
+                // Expected
+            }
+
+            tomcat.getConnector().resume();
+            assertEquals("HTTP/1.1 200 OK", readStatus(socket, 10000));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void addServlet(Tomcat tomcat) {
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+    }
+
+    private static String request(Socket socket, int timeout)
+            throws Exception {
+        OutputStream os = socket.getOutputStream();
+        os.write(("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(
+                B2CConverter.ISO_8859_1));
+        os.flush();
+        return readStatus(socket, timeout);
+    }
+
+    private static String readStatus(Socket socket, int timeout)
+            throws Exception {
+        socket.setSoTimeout(timeout);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), B2CConverter.ISO_8859_1));
+        return reader.readLine();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+/**
+ * Test case for the return of the buffers of the NIO endpoint to the slab
+ * pool when connections are closed.
+ */
+public class TestNioEndpointSlabPool extends TomcatBaseTest {
+
+    @Override
+    protected String getProtocol() {
+        return Http11NioProtocol.class.getName();
+    }
+
+    @Test
+    public void testReleaseOnTimeout() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setAttribute("socket.slabPool", "true");
+        tomcat.getConnector().setAttribute("connectionTimeout", "500");
+        tomcat.getConnector().setAttribute("selectorTimeout", "100");
+        Context ctx = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.start();
+
+        NioEndpoint endpoint = ((Http11NioProtocol)
+                tomcat.getConnector().getProtocolHandler()).getEndpoint();
+        SlabBufferPool pool = endpoint.getSlabPool();
+
+        // An incomplete request keeps the read buffer until the timeout
+        Socket socket = new Socket("localhost", getPort());
+        try {
+            OutputStream os = socket.getOutputStream();
+            os.write("GET / HTTP/1.1\r\n".getBytes(B2CConverter.ISO_8859_1));
+            os.flush();
+
+            long end = System.currentTimeMillis() + 10000;
+            while (pool.getBorrowCount() == 0 &&
+                    System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertTrue(pool.getBorrowCount() > 0);
+
+            // The connection times out and is closed by the poller
+            assertEquals(-1, socket.getInputStream().read());
+            end = System.currentTimeMillis() + 10000;
+            while (pool.getBorrowedCount() > 0 &&
+                    System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, pool.getBorrowedCount());
+        } finally {
+            socket.close();
+        }
+    }
+}
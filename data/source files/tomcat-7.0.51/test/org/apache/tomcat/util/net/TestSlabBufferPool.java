@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.tomcat.util.net.NioEndpoint.PooledBufferHandler;
+
+/**
+ * Test cases for {@link SlabBufferPool}.
+ */
+public class TestSlabBufferPool {
+
+    @Test
+    public void testSizeClasses() {
+        SlabBufferPool pool = new SlabBufferPool(
+                SlabBufferPool.parseSizes("8192, 1024,8192"), 64 * 1024, -1);
+        assertArrayEquals(new int[] {1024, 8192}, pool.getSizeClasses());
+
+        ByteBuffer small = pool.allocate(100);
+        assertTrue(small.isDirect());
+        assertEquals(1024, small.capacity());
+        assertEquals(64 * 1024, pool.getAllocatedBytes());
+        assertEquals(63, pool.getFreeCount());
+
+        ByteBuffer large = pool.allocate(8000);
+        assertEquals(8192, large.capacity());
+        assertEquals(128 * 1024, pool.getAllocatedBytes());
+
+        // No size class fits
+        ByteBuffer huge = pool.allocate(10000);
+        assertFalse(huge.isDirect());
+        assertEquals(1, pool.getOverflowCount());
+
+        assertEquals(2, pool.getBorrowedCount());
+        pool.release(small);
+        pool.release(large);
+        pool.release(huge);
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(64 + 8, pool.getFreeCount());
+    }
+
+
+    @Test
+    public void testSlices() {
+        SlabBufferPool pool = new SlabBufferPool(new int[] {16}, 64, -1);
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 4; i++) {
+            ByteBuffer buffer = pool.allocate(16);
+            assertEquals(16, buffer.remaining());
+            for (int j = 0; j < 16; j++) {
+                buffer.put((byte) i);
+            }
+            buffers.add(buffer);
+        }
+        // The buffers of a slab do not overlap
+        for (int i = 0; i < 4; i++) {
+            ByteBuffer buffer = buffers.get(i);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                assertEquals(i, buffer.get());
+            }
+        }
+        assertEquals(64, pool.getAllocatedBytes());
+
+        // A released buffer is cleared and reused
+        pool.release(buffers.get(2));
+        ByteBuffer reused = pool.allocate(10);
+        assertSame(buffers.get(2), reused);
+        assertEquals(0, reused.position());
+        assertEquals(16, reused.limit());
+    }
+
+
+    @Test
+    public void testMaxSize() {
+        SlabBufferPool pool = new SlabBufferPool(new int[] {16}, 32, 32);
+        ByteBuffer a = pool.allocate(16);
+        ByteBuffer b = pool.allocate(16);
+        ByteBuffer c = pool.allocate(16);
+        assertTrue(a.isDirect());
+        assertTrue(b.isDirect());
+        assertFalse(c.isDirect());
+        assertEquals(32, pool.getAllocatedBytes());
+        assertEquals(1, pool.getOverflowCount());
+
+        pool.release(c);
+        pool.release(a);
+        assertSame(a, pool.allocate(16));
+    }
+
+
+    @Test
+    public void testPooledBufferHandler() {
+        SlabBufferPool pool = new SlabBufferPool(new int[] {16}, 64, -1);
+        PooledBufferHandler handler = new PooledBufferHandler(pool, 16, 16);
+        assertEquals(0, handler.getBorrowedSize());
+
+        ByteBuffer read = handler.getReadBuffer();
+        ByteBuffer write = handler.getWriteBuffer();
+        assertNotSame(read, write);
+        assertSame(read, handler.getReadBuffer());
+        assertEquals(32, handler.getBorrowedSize());
+        assertEquals(2, pool.getBorrowedCount());
+
+        // Unconsumed input and unwritten output are kept
+        read.put((byte) 1).flip();
+        write.put((byte) 1);
+        handler.release(false);
+        assertEquals(32, handler.getBorrowedSize());
+
+        read.get();
+        write.clear();
+        handler.release(false);
+        assertEquals(0, handler.getBorrowedSize());
+        assertEquals(0, pool.getBorrowedCount());
+
+        handler.getWriteBuffer().put((byte) 1);
+        handler.release(true);
+        assertEquals(0, pool.getBorrowedCount());
+        assertNull(handler.writebuf);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestWorkStealingExecutor {
+
+    @Test
+    public void testManySubmitters() throws Exception {
+        final WorkStealingExecutor executor = createExecutor(2, 8, 60000, 4,
+                Integer.MAX_VALUE);
+        final int submitters = 6;
+        final int tasks = 20000;
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(submitters * tasks);
+        Thread[] threads = new Thread[submitters];
+        for (int i = 0; i < submitters; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < tasks; j++) {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                count.incrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(submitters * tasks, count.get());
+        assertTrue(executor.getLargestPoolSize() <= 8);
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(submitters * tasks, executor.getCompletedTaskCount());
+        assertEquals(0, executor.getPoolSize());
+    }
+
+    @Test
+    public void testStealing() throws Exception {
+        // All the tasks are submitted to the same queue but blocked tasks
+        // must not prevent the others from running
+        WorkStealingExecutor executor = createExecutor(0, 4, 60000, 4,
+                Integer.MAX_VALUE);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new BlockingTask(release, done));
+        }
+        executor.execute(new BlockingTask(new CountDownLatch(0), done));
+        assertTrue(waitFor(done, 3));
+        assertEquals(3, executor.getActiveCount());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIdleThreadsExit() throws Exception {
+        WorkStealingExecutor executor = createExecutor(1, 4, 100, 2,
+                Integer.MAX_VALUE);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(new BlockingTask(release, done));
+        }
+        assertEquals(4, executor.getPoolSize());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getPoolSize() > 1 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, executor.getPoolSize());
+        assertEquals(4, executor.getLargestPoolSize());
+
+        // The remaining thread still runs tasks
+        CountDownLatch more = new CountDownLatch(1);
+        executor.execute(new BlockingTask(new CountDownLatch(0), more));
+        assertTrue(more.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMaxQueueSize() throws Exception {
+        WorkStealingExecutor executor = createExecutor(0, 1, 60000, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(new BlockingTask(release, done));
+        // Wait for the task to be taken from the queue
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getActiveCount() == 0 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        executor.execute(new BlockingTask(release, done));
+        try {
+            executor.execute(new BlockingTask(release, done));
+            fail();
+        } catch (RejectedExecutionException ree) {
+            // Expected
+        }
+        assertEquals(1, executor.getQueueSize());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        WorkStealingExecutor executor = createExecutor(0, 1, 60000, 1,
+                Integer.MAX_VALUE);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new BlockingTask(release, done));
+        }
+        List<Runnable> pending = executor.shutdownNow();
+        // The running task is interrupted
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(3, pending.size() + executor.getCompletedTaskCount());
+        try {
+            executor.execute(new BlockingTask(release, done));
+            fail();
+        } catch (RejectedExecutionException ree) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testThreadRenewal() throws Exception {
+        WorkStealingExecutor executor = createExecutor(2, 2, 60000, 1,
+                Integer.MAX_VALUE);
+        executor.setThreadRenewalDelay(0);
+        executor.prestartAllCoreThreads();
+        final Thread[] first = new Thread[1];
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new BlockingTask(new CountDownLatch(0), done) {
+            @Override
+            public void run() {
+                first[0] = Thread.currentThread();
+                super.run();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        Thread.sleep(10);
+        executor.contextStopping();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (first[0].isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(!first[0].isAlive());
+        assertEquals(2, executor.getPoolSize());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStaleIdleWorkersQueuedOnce() throws Exception {
+        WorkStealingExecutor executor = createExecutor(2, 2, 20, 1,
+                Integer.MAX_VALUE);
+        executor.setThreadRenewalDelay(500);
+        executor.prestartAllCoreThreads();
+        Thread.sleep(10);
+
+        // One thread is renewed, the other one waits for the renewal delay
+        executor.contextStopping();
+        Thread.sleep(200);
+        assertTrue(executor.getIdleWorkerEntries() <= 2);
+        executor.shutdownNow();
+    }
+
+    private static boolean waitFor(CountDownLatch latch, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (latch.getCount() > count &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return latch.getCount() == count;
+    }
+
+    private static WorkStealingExecutor createExecutor(int core, int max,
+            long keepAlive, int queues, int maxQueueSize) {
+        return new WorkStealingExecutor(core, max, keepAlive,
+                TimeUnit.MILLISECONDS, queues, maxQueueSize,
+                new TaskThreadFactory("test-", true, Thread.NORM_PRIORITY));
+    }
+
+    private static class BlockingTask implements Runnable {
+
+        private final CountDownLatch release;
+        private final CountDownLatch done;
+
+        BlockingTask(CountDownLatch release, CountDownLatch done) {
+            this.release = release;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+            done.countDown();
+        }
+    }
+}
@@ -17,10 +17,19 @@
 package org.apache.tomcat.websocket;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.websocket.MessageHandler;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.tomcat.util.buf.B2CConverter;
+
 public class TestWsFrame {
 
     @Test
@@ -46,4 +55,142 @@ public class TestWsFrame {
                 WsFrameBase.byteArrayToLong(new byte[] { 20, -1, -1, -1 }, 1, 3));
     }
 
+
+    private static final byte[] MASK =
+            new byte[] { 0x12, (byte) 0xA5, 0x7F, (byte) 0xC0 };
+
+    private static final int[] CHUNKS =
+            new int[] { 1, 2, 3, 5, 7, 8, 9, 13, 64, 8192 };
+
+
+    @Test
+    public void testTextMessages() throws Exception {
+        StringBuilder ascii = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            ascii.append((char) (' ' + i % 95));
+        }
+        String[] messages = new String[] { "", "a", "Hello World!",
+                ascii.substring(0, 40), ascii.toString(),
+                "abcdefgh\u00e9ijklmnopqrstuvwxyz",
+                "\u00e9t\u00e9 \u20ac \ud834\udd1e " + ascii.substring(0, 50),
+                ascii.substring(0, 13) + "\u00ff" + ascii.substring(0, 30) };
+
+        for (String message : messages) {
+            for (int chunk : CHUNKS) {
+                TextHandler handler = new TextHandler();
+                TesterWsFrame frame = new TesterWsFrame(handler);
+                byte[] data = TesterWsFrame.createFrame(
+                        Constants.OPCODE_TEXT, true,
+                        message.getBytes(B2CConverter.UTF_8), MASK);
+                // Twice to check the state is reset between messages
+                frame.process(data, chunk);
+                frame.process(data, chunk);
+                Assert.assertEquals(2, handler.messages.size());
+                Assert.assertEquals(message, handler.messages.get(0));
+                Assert.assertEquals(message, handler.messages.get(1));
+            }
+        }
+    }
+
+
+    @Test
+    public void testFragmentedText() throws Exception {
+        // The fragments split the euro sign
+        byte[] payload = "0123456789\u20ac0123456789".getBytes(
+                B2CConverter.UTF_8);
+        byte[] first = new byte[11];
+        byte[] second = new byte[payload.length - 11];
+        System.arraycopy(payload, 0, first, 0, first.length);
+        System.arraycopy(payload, first.length, second, 0, second.length);
+
+        for (int chunk : CHUNKS) {
+            TextHandler handler = new TextHandler();
+            TesterWsFrame frame = new TesterWsFrame(handler);
+            frame.process(TesterWsFrame.createFrame(Constants.OPCODE_TEXT,
+                    false, first, MASK), chunk);
+            frame.process(TesterWsFrame.createFrame(
+                    Constants.OPCODE_CONTINUATION, true, second, MASK), chunk);
+            Assert.assertEquals(1, handler.messages.size());
+            Assert.assertEquals("0123456789\u20ac0123456789",
+                    handler.messages.get(0));
+        }
+    }
+
+
+    @Test(expected=WsIOException.class)
+    public void testInvalidUtf8() throws Exception {
+        TesterWsFrame frame = new TesterWsFrame(new TextHandler());
+        frame.process(TesterWsFrame.createFrame(Constants.OPCODE_TEXT, true,
+                new byte[] { 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h',
+                        (byte) 0xC3, 0x28 }, MASK), 8192);
+    }
+
+
+    @Test
+    public void testBinaryMessages() throws Exception {
+        Random random = new Random(1);
+        int[] lengths = new int[] { 0, 1, 7, 8, 9, 17, 125, 126, 5000 };
+        for (int length : lengths) {
+            byte[] message = new byte[length];
+            random.nextBytes(message);
+            for (int chunk : CHUNKS) {
+                BinaryHandler handler = new BinaryHandler();
+                TesterWsFrame frame = new TesterWsFrame(handler);
+                byte[] data = TesterWsFrame.createFrame(
+                        Constants.OPCODE_BINARY, true, message, MASK);
+                frame.process(data, chunk);
+                frame.process(data, chunk);
+                Assert.assertEquals(2, handler.messages.size());
+                Assert.assertArrayEquals(message, handler.messages.get(0));
+                Assert.assertArrayEquals(message, handler.messages.get(1));
+            }
+        }
+    }
+
+
+    @Test
+    public void testMessageBufferPool() {
+        MessageBufferPool pool = new MessageBufferPool(1);
+        ByteBuffer b1 = pool.getByteBuffer(16);
+        ByteBuffer b2 = pool.getByteBuffer(16);
+        b1.put((byte) 1);
+        pool.release(b1);
+        pool.release(b2);
+        // Only one free buffer of each size is kept
+        Assert.assertEquals(1, pool.getIdleCount());
+        ByteBuffer b3 = pool.getByteBuffer(16);
+        Assert.assertSame(b1, b3);
+        Assert.assertEquals(0, b3.position());
+        Assert.assertEquals(32, pool.getByteBuffer(32).capacity());
+
+        CharBuffer c1 = pool.getCharBuffer(16);
+        pool.release(c1);
+        Assert.assertSame(c1, pool.getCharBuffer(16));
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+
+    private static class TextHandler implements MessageHandler.Whole<String> {
+
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public void onMessage(String message) {
+            messages.add(message);
+        }
+    }
+
+
+    private static class BinaryHandler
+            implements MessageHandler.Whole<ByteBuffer> {
+
+        private final List<byte[]> messages = new ArrayList<byte[]>();
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            messages.add(bytes);
+        }
+    }
 }
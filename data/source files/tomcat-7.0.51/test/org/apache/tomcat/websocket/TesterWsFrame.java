@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Frame processor fed directly with the bytes of masked frames, as received by
+ * a server, for the tests of the frame processing.
+ */
+public class TesterWsFrame extends WsFrameBase {
+
+    public TesterWsFrame(MessageHandler handler) throws DeploymentException {
+        super(createSession(handler));
+    }
+
+
+    /**
+     * Process the given data, at most <code>chunk</code> bytes at a time.
+     */
+    public void process(byte[] data, int chunk) throws IOException {
+        int pos = 0;
+        while (pos < data.length) {
+            int len = Math.min(Math.min(chunk, data.length - pos),
+                    inputBuffer.length - writePos);
+            System.arraycopy(data, pos, inputBuffer, writePos, len);
+            writePos += len;
+            pos += len;
+            processInputBuffer();
+        }
+    }
+
+
+    @Override
+    protected boolean isMasked() {
+        return true;
+    }
+
+
+    /**
+     * Build a masked frame.
+     */
+    public static byte[] createFrame(byte opCode, boolean fin, byte[] payload,
+            byte[] mask) {
+        int headerLength;
+        if (payload.length < 126) {
+            headerLength = 2;
+        } else if (payload.length < 65536) {
+            headerLength = 4;
+        } else {
+            headerLength = 10;
+        }
+        byte[] frame = new byte[headerLength + 4 + payload.length];
+        frame[0] = (byte) (opCode | (fin ? 0x80 : 0));
+        if (payload.length < 126) {
+            frame[1] = (byte) (0x80 | payload.length);
+        } else if (payload.length < 65536) {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = (byte) (0x80 | 127);
+            for (int i = 0; i < 8; i++) {
+                frame[9 - i] = (byte) ((long) payload.length >>> (8 * i));
+            }
+        }
+        System.arraycopy(mask, 0, frame, headerLength, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[headerLength + 4 + i] = (byte) (payload[i] ^ mask[i % 4]);
+        }
+        return frame;
+    }
+
+
+    private static WsSession createSession(MessageHandler handler)
+            throws DeploymentException {
+        WsSession session = new WsSession(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                // NO-OP
+            }
+        }, new TesterRemoteEndpoint(), new WsWebSocketContainer(), null, null,
+                null, null, null, null,
+                Collections.<String,String>emptyMap(), false,
+                ClientEndpointConfig.Builder.create().build());
+        session.addMessageHandler(handler);
+        return session;
+    }
+
+
+    private static class TesterRemoteEndpoint
+            extends WsRemoteEndpointImplBase {
+
+        @Override
+        protected void doWrite(SendHandler handler, ByteBuffer... data) {
+            handler.onResult(new SendResult());
+        }
+
+        @Override
+        protected boolean isMasked() {
+            return false;
+        }
+
+        @Override
+        protected void doClose() {
+            // NO-OP
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.nio.ByteBuffer;
+
+import javax.websocket.MessageHandler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+
+/**
+ * Measures the processing of small masked frames, as received by a server
+ * from many clients.
+ */
+public class TesterWsFramePerformance {
+
+    private static final int FRAMES = 1000000;
+    private static final int BATCH = 64;
+
+    private static final byte[] MASK =
+            new byte[] { 0x37, (byte) 0xFA, 0x21, 0x3D };
+
+    @Test
+    public void testAsciiText() throws Exception {
+        doTest("ascii", Constants.OPCODE_TEXT,
+                ("{\"id\":12345,\"type\":\"quote\",\"symbol\":\"ACME\"," +
+                "\"bid\":101.25,\"ask\":101.27,\"time\":1389715200000}")
+                .getBytes(B2CConverter.UTF_8));
+    }
+
+    @Test
+    public void testUtf8Text() throws Exception {
+        doTest("utf8", Constants.OPCODE_TEXT,
+                ("{\"id\":12345,\"type\":\"cotation\",\"libell\u00e9\":" +
+                "\"Soci\u00e9t\u00e9 g\u00e9n\u00e9rale\",\"prix\":\"101,25 " +
+                "\u20ac\"}").getBytes(B2CConverter.UTF_8));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        byte[] payload = new byte[100];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        doTest("binary", Constants.OPCODE_BINARY, payload);
+    }
+
+    private void doTest(String name, byte opCode, byte[] payload)
+            throws Exception {
+        byte[] frame = TesterWsFrame.createFrame(opCode, true, payload, MASK);
+        byte[] data = new byte[frame.length * BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            System.arraycopy(frame, 0, data, i * frame.length, frame.length);
+        }
+
+        CountingHandler handler;
+        TesterWsFrame wsFrame;
+        if (opCode == Constants.OPCODE_TEXT) {
+            handler = new TextHandler();
+        } else {
+            handler = new BinaryHandler();
+        }
+        wsFrame = new TesterWsFrame(handler);
+
+        // Warm up
+        for (int i = 0; i < FRAMES / BATCH / 10; i++) {
+            wsFrame.process(data, data.length);
+        }
+        handler.count = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES / BATCH; i++) {
+            wsFrame.process(data, data.length);
+        }
+        long time = (System.nanoTime() - start) / 1000000;
+        Assert.assertEquals(FRAMES / BATCH * BATCH, handler.count);
+
+        System.out.println(name + ": " + handler.count + " frames of " +
+                payload.length + " bytes in " + time + "ms, " +
+                (handler.count * 1000L / Math.max(time, 1)) + " frames/s");
+    }
+
+    private abstract static class CountingHandler implements MessageHandler {
+        protected int count = 0;
+    }
+
+    private static class TextHandler extends CountingHandler
+            implements MessageHandler.Whole<String> {
+
+        @Override
+        public void onMessage(String message) {
+            count++;
+        }
+    }
+
+    private static class BinaryHandler extends CountingHandler
+            implements MessageHandler.Whole<ByteBuffer> {
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            count++;
+        }
+    }
+}